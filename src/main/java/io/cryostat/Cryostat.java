@@ -48,6 +48,8 @@ import io.cryostat.messaging.MessagingServer;
 import io.cryostat.net.HttpServer;
 import io.cryostat.net.web.WebServer;
 import io.cryostat.platform.PlatformClient;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchiveRetention;
 import io.cryostat.rules.RuleProcessor;
 import io.cryostat.rules.RuleRegistry;
 
@@ -68,6 +70,8 @@ class Cryostat {
         Client client = DaggerCryostat_Client.builder().build();
 
         client.credentialsManager().load();
+        client.archiveIndex().start();
+        client.archiveRetention().start();
         client.ruleRegistry().loadRules();
         client.ruleProcessor().enable();
         client.httpServer().start();
@@ -83,6 +87,10 @@ class Cryostat {
     interface Client {
         CredentialsManager credentialsManager();
 
+        ArchiveIndex archiveIndex();
+
+        ArchiveRetention archiveRetention();
+
         RuleRegistry ruleRegistry();
 
         RuleProcessor ruleProcessor();
@@ -38,6 +38,8 @@
 package io.cryostat.messaging.notifications;
 
 import java.time.Instant;
+import java.util.Set;
+import java.util.function.Consumer;
 
 import io.cryostat.messaging.MessagingServer;
 import io.cryostat.messaging.WsMessage;
@@ -49,28 +51,41 @@ import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 public class Notification<T> extends WsMessage {
 
     private final transient MessagingServer server;
+    private final transient Set<Consumer<Notification<?>>> listeners;
 
     private final Notification.Meta meta;
     private final T message;
 
     Notification(Notification.Builder<T> builder) {
         this.server = builder.server;
+        this.listeners = builder.listeners;
         this.meta = new Meta(builder.category, builder.type);
         this.message = builder.message;
     }
 
+    public String getCategory() {
+        return meta.category;
+    }
+
+    public T getMessage() {
+        return message;
+    }
+
     public void send() {
         this.server.writeMessage(this);
+        this.listeners.forEach(listener -> listener.accept(this));
     }
 
     public static class Builder<T> {
         private final MessagingServer server;
+        private final Set<Consumer<Notification<?>>> listeners;
         private String category = "generic";
         private MetaType type = new MetaType(HttpMimeType.JSON);
         private T message;
 
-        Builder(MessagingServer server) {
+        Builder(MessagingServer server, Set<Consumer<Notification<?>>> listeners) {
             this.server = server;
+            this.listeners = listeners;
         }
 
         public Builder<T> meta(Meta meta) {
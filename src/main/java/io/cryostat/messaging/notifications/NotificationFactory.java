@@ -37,6 +37,10 @@
  */
 package io.cryostat.messaging.notifications;
 
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.function.Consumer;
+
 import io.cryostat.messaging.MessagingServer;
 
 import dagger.Lazy;
@@ -44,12 +48,23 @@ import dagger.Lazy;
 public class NotificationFactory {
 
     private final Lazy<MessagingServer> server;
+    private final Set<Consumer<Notification<?>>> listeners;
 
     NotificationFactory(Lazy<MessagingServer> server) {
         this.server = server;
+        this.listeners = new CopyOnWriteArraySet<>();
     }
 
     public <T> Notification.Builder<T> createBuilder() {
-        return new Notification.Builder<T>(server.get());
+        return new Notification.Builder<T>(server.get(), listeners);
+    }
+
+    /** Lets other components react to notifications sent to clients by this factory. */
+    public void addListener(Consumer<Notification<?>> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<Notification<?>> listener) {
+        listeners.remove(listener);
     }
 }
@@ -75,7 +75,8 @@ public class HttpServer {
                                 new HttpServerOptions()
                                         .setPort(netConf.getInternalWebServerPort())
                                         .addWebSocketSubProtocol("*")
-                                        .setCompressionSupported(true)
+                                        .setCompressionSupported(
+                                                !netConf.isHttpCompressionDisabled())
                                         .setLogActivity(true)));
 
         if (!sslConf.enabled()) {
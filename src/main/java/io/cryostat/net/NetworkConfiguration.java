@@ -74,6 +74,10 @@ public class NetworkConfiguration {
         return env.hasEnv("CRYOSTAT_SSL_PROXIED");
     }
 
+    public boolean isHttpCompressionDisabled() {
+        return env.hasEnv("CRYOSTAT_DISABLE_HTTP_COMPRESSION");
+    }
+
     public boolean isUntrustedSslAllowed() {
         return env.hasEnv("CRYOSTAT_ALLOW_UNTRUSTED_SSL");
     }
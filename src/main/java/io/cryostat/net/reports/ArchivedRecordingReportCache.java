@@ -47,16 +47,18 @@ import java.util.concurrent.locks.ReentrantLock;
 import javax.inject.Named;
 import javax.inject.Provider;
 
-import io.cryostat.MainModule;
 import io.cryostat.core.log.Logger;
 import io.cryostat.core.sys.FileSystem;
 import io.cryostat.net.reports.ReportService.RecordingNotFoundException;
 import io.cryostat.net.web.WebModule;
 import io.cryostat.net.web.http.generic.TimeoutHandler;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.storage.ArchiveStorage;
 
 class ArchivedRecordingReportCache {
 
-    protected final Path savedRecordingsPath;
+    protected final ArchiveIndex archiveIndex;
+    protected final ArchiveStorage storage;
     protected final Path archivedRecordingsReportPath;
     protected final FileSystem fs;
     protected final Provider<SubprocessReportGenerator> subprocessReportGeneratorProvider;
@@ -64,13 +66,15 @@ class ArchivedRecordingReportCache {
     protected final Logger logger;
 
     ArchivedRecordingReportCache(
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath,
+            ArchiveIndex archiveIndex,
+            ArchiveStorage storage,
             @Named(WebModule.WEBSERVER_TEMP_DIR_PATH) Path webServerTempPath,
             FileSystem fs,
             Provider<SubprocessReportGenerator> subprocessReportGeneratorProvider,
             @Named(ReportsModule.REPORT_GENERATION_LOCK) ReentrantLock generationLock,
             Logger logger) {
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.archiveIndex = archiveIndex;
+        this.storage = storage;
         this.archivedRecordingsReportPath = webServerTempPath;
         this.fs = fs;
         this.subprocessReportGeneratorProvider = subprocessReportGeneratorProvider;
@@ -93,19 +97,18 @@ class ArchivedRecordingReportCache {
                 return f;
             }
 
-            fs.listDirectoryChildren(savedRecordingsPath).stream()
-                    .filter(name -> name.equals(recordingName))
-                    .map(savedRecordingsPath::resolve)
-                    .findFirst()
+            archiveIndex
+                    .get(recordingName)
                     .ifPresentOrElse(
-                            recording -> {
+                            info -> {
                                 logger.trace("Archived report cache miss for {}", recordingName);
-                                try {
+                                try (ArchiveStorage.LocalFile recording =
+                                        storage.localFile(info.getName())) {
                                     Path saveFile =
                                             subprocessReportGeneratorProvider
                                                     .get()
                                                     .exec(
-                                                            recording,
+                                                            recording.getPath(),
                                                             dest,
                                                             Duration.ofMillis(
                                                                     TimeoutHandler.TIMEOUT_MS))
@@ -125,9 +128,6 @@ class ArchivedRecordingReportCache {
                                     f.completeExceptionally(
                                             new RecordingNotFoundException(
                                                     "archives", recordingName)));
-        } catch (IOException ioe) {
-            logger.warn(ioe);
-            f.completeExceptionally(ioe);
         } finally {
             generationLock.unlock();
         }
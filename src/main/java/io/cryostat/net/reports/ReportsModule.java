@@ -47,13 +47,14 @@ import javax.inject.Named;
 import javax.inject.Provider;
 import javax.inject.Singleton;
 
-import io.cryostat.MainModule;
 import io.cryostat.core.log.Logger;
 import io.cryostat.core.reports.ReportTransformer;
 import io.cryostat.core.sys.Environment;
 import io.cryostat.core.sys.FileSystem;
 import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.net.web.WebModule;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.storage.ArchiveStorage;
 import io.cryostat.util.JavaProcess;
 
 import dagger.Module;
@@ -126,14 +127,16 @@ public abstract class ReportsModule {
     @Provides
     @Singleton
     static ArchivedRecordingReportCache provideArchivedRecordingReportCache(
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath,
+            ArchiveIndex archiveIndex,
+            ArchiveStorage storage,
             @Named(WebModule.WEBSERVER_TEMP_DIR_PATH) Path webServerTempDir,
             FileSystem fs,
             Provider<SubprocessReportGenerator> subprocessReportGeneratorProvider,
             @Named(REPORT_GENERATION_LOCK) ReentrantLock generationLock,
             Logger logger) {
         return new ArchivedRecordingReportCache(
-                savedRecordingsPath,
+                archiveIndex,
+                storage,
                 webServerTempDir,
                 fs,
                 subprocessReportGeneratorProvider,
@@ -47,6 +47,9 @@ public enum HttpMimeType {
     JFC("application/jfc+xml"),
     MULTIPART_FORM("multipart/form-data"),
     URLENCODED_FORM("application/x-www-form-urlencoded"),
+    ZIP("application/zip"),
+    TAR("application/x-tar"),
+    NDJSON("application/x-ndjson"),
     UNKNOWN(null);
 
     private final String mime;
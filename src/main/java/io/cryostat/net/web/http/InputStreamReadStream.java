@@ -0,0 +1,232 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.streams.ReadStream;
+
+/**
+ * Adapts a blocking {@link InputStream} into a Vert.x {@link ReadStream}. Reads are performed one
+ * chunk at a time on a worker thread and only while there is outstanding demand, so a slow consumer
+ * (ex. a {@link io.vertx.core.streams.Pipe} into an HTTP request body) applies backpressure all the
+ * way back to the source stream. The source is closed once it is exhausted or a read fails, or when
+ * {@link #close()} is called.
+ */
+public class InputStreamReadStream implements ReadStream<Buffer> {
+
+    static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final Vertx vertx;
+    private final InputStream source;
+    private final int chunkSize;
+
+    private Handler<Buffer> handler;
+    private Handler<Void> endHandler;
+    private Handler<Throwable> exceptionHandler;
+    private long demand = Long.MAX_VALUE;
+    private boolean reading;
+    private boolean closed;
+
+    public InputStreamReadStream(Vertx vertx, InputStream source) {
+        this(vertx, source, DEFAULT_CHUNK_SIZE);
+    }
+
+    InputStreamReadStream(Vertx vertx, InputStream source, int chunkSize) {
+        this.vertx = vertx;
+        this.source = source;
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public synchronized InputStreamReadStream exceptionHandler(Handler<Throwable> handler) {
+        this.exceptionHandler = handler;
+        return this;
+    }
+
+    @Override
+    public InputStreamReadStream handler(Handler<Buffer> handler) {
+        synchronized (this) {
+            this.handler = handler;
+        }
+        if (handler == null) {
+            close();
+        } else {
+            readNext();
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized InputStreamReadStream endHandler(Handler<Void> endHandler) {
+        this.endHandler = endHandler;
+        return this;
+    }
+
+    @Override
+    public synchronized InputStreamReadStream pause() {
+        this.demand = 0L;
+        return this;
+    }
+
+    @Override
+    public InputStreamReadStream resume() {
+        return fetch(Long.MAX_VALUE);
+    }
+
+    @Override
+    public InputStreamReadStream fetch(long amount) {
+        if (amount < 0) {
+            throw new IllegalArgumentException(Long.toString(amount));
+        }
+        synchronized (this) {
+            demand += amount;
+            if (demand < 0L) {
+                demand = Long.MAX_VALUE;
+            }
+        }
+        readNext();
+        return this;
+    }
+
+    private void readNext() {
+        synchronized (this) {
+            if (reading || closed || demand == 0L || handler == null) {
+                return;
+            }
+            reading = true;
+        }
+        vertx.<Buffer>executeBlocking(
+                promise -> {
+                    try {
+                        byte[] buf = new byte[chunkSize];
+                        int n = source.read(buf);
+                        promise.complete(n < 0 ? null : Buffer.buffer().appendBytes(buf, 0, n));
+                    } catch (IOException e) {
+                        promise.fail(e);
+                    }
+                },
+                false,
+                this::onRead);
+    }
+
+    private void onRead(AsyncResult<Buffer> res) {
+        Handler<Buffer> dataHandler;
+        boolean closedWhileReading;
+        synchronized (this) {
+            reading = false;
+            dataHandler = this.handler;
+            closedWhileReading = closed;
+        }
+        if (closedWhileReading) {
+            // close() left the source to be closed once this read returned
+            closeSource();
+            return;
+        }
+        if (res.failed()) {
+            Handler<Throwable> onError;
+            synchronized (this) {
+                onError = this.exceptionHandler;
+            }
+            close();
+            if (onError != null) {
+                onError.handle(res.cause());
+            }
+            return;
+        }
+        Buffer chunk = res.result();
+        if (chunk == null) {
+            Handler<Void> onEnd;
+            synchronized (this) {
+                onEnd = this.endHandler;
+            }
+            close();
+            if (onEnd != null) {
+                onEnd.handle(null);
+            }
+            return;
+        }
+        if (chunk.length() > 0) {
+            synchronized (this) {
+                if (demand != Long.MAX_VALUE) {
+                    demand--;
+                }
+            }
+            if (dataHandler != null) {
+                dataHandler.handle(chunk);
+            }
+        }
+        readNext();
+    }
+
+    /**
+     * Stops reading and closes the source, ex. when the consumer failed before reading it to the
+     * end. A read already in flight on a worker thread completes first, and its chunk is dropped.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (reading) {
+                return;
+            }
+        }
+        closeSource();
+    }
+
+    private void closeSource() {
+        try {
+            source.close();
+        } catch (IOException e) {
+            Handler<Throwable> onError;
+            synchronized (this) {
+                onError = this.exceptionHandler;
+            }
+            if (onError != null) {
+                onError.handle(e);
+            }
+        }
+    }
+}
@@ -99,8 +99,9 @@ public abstract class HttpApiV1Module {
 
     @Provides
     static TargetRecordingPatchStop provideTargetRecordingPatchStop(
-            TargetConnectionManager targetConnectionManager) {
-        return new TargetRecordingPatchStop(targetConnectionManager);
+            TargetConnectionManager targetConnectionManager,
+            NotificationFactory notificationFactory) {
+        return new TargetRecordingPatchStop(targetConnectionManager, notificationFactory);
     }
 
     @Binds
@@ -127,10 +128,6 @@ public abstract class HttpApiV1Module {
     @IntoSet
     abstract RequestHandler bindRecordingsGetHandler(RecordingsGetHandler handler);
 
-    @Binds
-    @IntoSet
-    abstract RequestHandler bindRecordingsPostBodyHandler(RecordingsPostBodyHandler handler);
-
     @Binds
     @IntoSet
     abstract RequestHandler bindRecordingsPostHandler(RecordingsPostHandler handler);
@@ -38,20 +38,18 @@
 package io.cryostat.net.web.http.api.v1;
 
 import java.io.IOException;
-import java.nio.file.Path;
 import java.util.Map;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
-import io.cryostat.MainModule;
-import io.cryostat.core.sys.FileSystem;
 import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.AuthManager;
 import io.cryostat.net.reports.ReportService;
 import io.cryostat.net.web.http.AbstractAuthenticatedRequestHandler;
 import io.cryostat.net.web.http.HttpMimeType;
 import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.storage.ArchiveStorage;
 
 import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.RoutingContext;
@@ -60,8 +58,8 @@ import io.vertx.ext.web.handler.impl.HttpStatusException;
 public class RecordingDeleteHandler extends AbstractAuthenticatedRequestHandler {
 
     private final ReportService reportService;
-    private final FileSystem fs;
-    private final Path savedRecordingsPath;
+    private final ArchiveStorage storage;
+    private final ArchiveIndex archiveIndex;
     private final NotificationFactory notificationFactory;
     private static final String NOTIFICATION_CATEGORY = "RecordingDeleted";
 
@@ -69,13 +67,13 @@ public class RecordingDeleteHandler extends AbstractAuthenticatedRequestHandler
     RecordingDeleteHandler(
             AuthManager auth,
             ReportService reportService,
-            FileSystem fs,
+            ArchiveStorage storage,
             NotificationFactory notificationFactory,
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath) {
+            ArchiveIndex archiveIndex) {
         super(auth);
         this.reportService = reportService;
-        this.fs = fs;
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.storage = storage;
+        this.archiveIndex = archiveIndex;
         this.notificationFactory = notificationFactory;
     }
 
@@ -102,17 +100,15 @@ public class RecordingDeleteHandler extends AbstractAuthenticatedRequestHandler
     @Override
     public void handleAuthenticated(RoutingContext ctx) throws Exception {
         String recordingName = ctx.pathParam("recordingName");
-        fs.listDirectoryChildren(savedRecordingsPath).stream()
-                .filter(saved -> saved.equals(recordingName))
-                .map(savedRecordingsPath::resolve)
-                .findFirst()
+        archiveIndex
+                .get(recordingName)
                 .ifPresentOrElse(
-                        path -> {
+                        info -> {
                             try {
-                                if (!fs.exists(path)) {
+                                archiveIndex.remove(recordingName);
+                                if (!storage.delete(recordingName)) {
                                     throw new HttpStatusException(404, recordingName);
                                 }
-                                fs.deleteIfExists(path);
                                 notificationFactory
                                         .createBuilder()
                                         .metaCategory(NOTIFICATION_CATEGORY)
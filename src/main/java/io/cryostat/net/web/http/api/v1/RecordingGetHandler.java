@@ -37,28 +37,49 @@
  */
 package io.cryostat.net.web.http.api.v1;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+import java.util.Optional;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
-import io.cryostat.MainModule;
 import io.cryostat.net.AuthManager;
 import io.cryostat.net.web.http.AbstractAuthenticatedRequestHandler;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.net.web.http.InputStreamReadStream;
 import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.storage.ArchiveStorage;
 
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.RoutingContext;
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 
 class RecordingGetHandler extends AbstractAuthenticatedRequestHandler {
 
-    private final Path savedRecordingsPath;
+    static final String DIGEST_HEADER = "Digest";
+
+    private final ArchiveIndex archiveIndex;
+    private final ArchiveStorage storage;
 
     @Inject
-    RecordingGetHandler(
-            AuthManager auth, @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath) {
+    RecordingGetHandler(AuthManager auth, ArchiveIndex archiveIndex, ArchiveStorage storage) {
         super(auth);
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.archiveIndex = archiveIndex;
+        this.storage = storage;
     }
 
     @Override
@@ -84,24 +105,152 @@ class RecordingGetHandler extends AbstractAuthenticatedRequestHandler {
     @Override
     public void handleAuthenticated(RoutingContext ctx) throws Exception {
         String recordingName = ctx.pathParam("recordingName");
-        String filePath =
-                savedRecordingsPath.resolve(recordingName).normalize().toAbsolutePath().toString();
+        Optional<ArchivedRecordingInfo> info = archiveIndex.get(recordingName);
+        if (info.isEmpty()) {
+            notFound(ctx, recordingName);
+            return;
+        }
+        sendRecording(ctx, info.get());
+    }
+
+    private void sendRecording(RoutingContext ctx, ArchivedRecordingInfo info) throws IOException {
+        String recordingName = info.getName();
+        // the content digest is not used as the entity tag because it is filled in
+        // asynchronously, and the tag must not change for an unmodified file
+        String etag = String.format("\"%x-%x\"", info.getModifiedTime(), info.getSize());
+        HttpServerResponse response = ctx.response();
+        response.putHeader(HttpHeaders.ETAG, etag);
+        response.putHeader(
+                HttpHeaders.LAST_MODIFIED,
+                DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                        Instant.ofEpochMilli(info.getModifiedTime()).atOffset(ZoneOffset.UTC)));
+        if (info.getDigest() != null) {
+            // RFC 3230 instance digest, so that clients can check what they received
+            response.putHeader(DIGEST_HEADER, digestHeader(info.getDigest()));
+        }
+        if (isFresh(ctx.request(), etag, info.getModifiedTime())) {
+            response.setStatusCode(304);
+            response.end();
+            return;
+        }
+        // locating the file may touch the disk, so keep it off the event loop
         ctx.vertx()
-                .fileSystem()
-                .exists(
-                        filePath,
-                        ar -> {
-                            if (ar.result()) {
-                                ctx.response().sendFile(filePath);
+                .<Optional<Path>>executeBlocking(
+                        promise -> {
+                            try {
+                                promise.complete(storage.directPath(recordingName));
+                            } catch (Exception e) {
+                                promise.fail(e);
+                            }
+                        },
+                        false,
+                        res -> {
+                            if (res.failed()) {
+                                ctx.fail(res.cause());
+                            } else if (res.result().isEmpty()) {
+                                streamRecording(ctx, info);
                             } else {
-                                ctx.response().setStatusCode(404);
-                                ctx.response()
-                                        .setStatusMessage(
-                                                String.format(
-                                                        "Recording \"%s\" not found",
-                                                        recordingName));
-                                ctx.response().end();
+                                sendFile(ctx, info, res.result().get());
+                            }
+                        });
+    }
+
+    private void sendFile(RoutingContext ctx, ArchivedRecordingInfo info, Path path) {
+        String recordingName = info.getName();
+        HttpServerResponse response = ctx.response();
+        // sendFile uses a zero-copy file region transfer when the connection allows it, ie. when
+        // neither TLS nor HTTP compression are in use
+        response.sendFile(
+                path.toAbsolutePath().toString(),
+                0,
+                info.getSize(),
+                ar -> {
+                    if (ar.failed()) {
+                        if (!response.headWritten()) {
+                            notFound(ctx, recordingName);
+                        } else {
+                            ctx.fail(ar.cause());
+                        }
+                    }
+                });
+    }
+
+    private void streamRecording(RoutingContext ctx, ArchivedRecordingInfo info) {
+        String recordingName = info.getName();
+        HttpServerResponse response = ctx.response();
+        ctx.vertx()
+                .<InputStream>executeBlocking(
+                        promise -> {
+                            try {
+                                promise.complete(storage.get(recordingName, 0, -1));
+                            } catch (Exception e) {
+                                promise.fail(e);
+                            }
+                        },
+                        false,
+                        res -> {
+                            if (res.failed()) {
+                                if (res.cause() instanceof NoSuchFileException) {
+                                    notFound(ctx, recordingName);
+                                } else {
+                                    ctx.fail(res.cause());
+                                }
+                                return;
                             }
+                            response.putHeader(
+                                    HttpHeaders.CONTENT_TYPE, HttpMimeType.OCTET_STREAM.mime());
+                            response.putHeader(
+                                    HttpHeaders.CONTENT_LENGTH, String.valueOf(info.getSize()));
+                            new InputStreamReadStream(ctx.vertx(), res.result())
+                                    .pipeTo(
+                                            response,
+                                            ar -> {
+                                                if (ar.failed() && !response.headWritten()) {
+                                                    ctx.fail(ar.cause());
+                                                }
+                                            });
                         });
     }
+
+    static String digestHeader(String hexDigest) throws IOException {
+        try {
+            return "sha-256=" + Base64.getEncoder().encodeToString(Hex.decodeHex(hexDigest));
+        } catch (DecoderException de) {
+            throw new IOException(de);
+        }
+    }
+
+    private static boolean isFresh(HttpServerRequest req, String etag, long lastModified) {
+        String ifNoneMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                String t = tag.trim();
+                if (t.equals("*") || t.equals(etag) || t.equals("W/" + etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        String ifModifiedSince = req.getHeader(HttpHeaders.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            long since;
+            try {
+                since =
+                        ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME)
+                                .toInstant()
+                                .toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return false;
+            }
+            // HTTP dates only have second resolution
+            return lastModified / 1000 <= since / 1000;
+        }
+        return false;
+    }
+
+    private static void notFound(RoutingContext ctx, String recordingName) {
+        ctx.response().setStatusCode(404);
+        ctx.response().setStatusMessage(String.format("Recording \"%s\" not found", recordingName));
+        ctx.response().end();
+    }
 }
@@ -39,21 +39,16 @@ package io.cryostat.net.web.http.api.v1;
 
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.InvalidPathException;
-import java.nio.file.Path;
-import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
-import io.cryostat.MainModule;
 import io.cryostat.core.sys.Environment;
-import io.cryostat.core.sys.FileSystem;
 import io.cryostat.net.AuthManager;
 import io.cryostat.net.web.http.AbstractAuthenticatedRequestHandler;
 import io.cryostat.net.web.http.HttpMimeType;
 import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.recordings.storage.ArchiveStorage;
 import io.cryostat.util.HttpStatusCodeIdentifier;
 
 import io.vertx.core.buffer.Buffer;
@@ -69,22 +64,16 @@ class RecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
 
     private final Environment env;
     private final WebClient webClient;
-    private final FileSystem fs;
-    private final Path savedRecordingsPath;
+    private final ArchiveStorage storage;
     private static final String GRAFANA_DATASOURCE_ENV = "GRAFANA_DATASOURCE_URL";
 
     @Inject
     RecordingUploadPostHandler(
-            AuthManager auth,
-            Environment env,
-            WebClient webClient,
-            FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath) {
+            AuthManager auth, Environment env, WebClient webClient, ArchiveStorage storage) {
         super(auth);
         this.env = env;
         this.webClient = webClient;
-        this.fs = fs;
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.storage = storage;
     }
 
     @Override
@@ -140,16 +129,29 @@ class RecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
     }
 
     private ResponseMessage doPost(String recordingName, URL uploadUrl) throws Exception {
-        Path recordingPath =
-                getRecordingPath(recordingName)
-                        .orElseThrow(() -> new HttpStatusException(404, recordingName));
+        try {
+            if (storage.stat(recordingName).isEmpty()) {
+                throw new HttpStatusException(404, recordingName);
+            }
+        } catch (IllegalArgumentException e) {
+            throw new HttpStatusException(400, e.getMessage(), e);
+        }
+        // the multipart form can only be sent from a file, so recordings in remote storage are
+        // downloaded to a temporary one for the duration of the upload
+        try (ArchiveStorage.LocalFile recording = storage.localFile(recordingName)) {
+            return doPost(recordingName, recording, uploadUrl);
+        }
+    }
 
+    private ResponseMessage doPost(
+            String recordingName, ArchiveStorage.LocalFile recording, URL uploadUrl)
+            throws Exception {
         MultipartForm form =
                 MultipartForm.create()
                         .binaryFileUpload(
                                 "file",
                                 recordingName,
-                                recordingPath.toString(),
+                                recording.getPath().toString(),
                                 HttpMimeType.OCTET_STREAM.toString());
 
         CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
@@ -173,18 +175,6 @@ class RecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
         return future.get();
     }
 
-    Optional<Path> getRecordingPath(String recordingName) throws Exception {
-        try {
-            Path archivedRecording = savedRecordingsPath.resolve(recordingName);
-            if (fs.isRegularFile(archivedRecording) && fs.isReadable(archivedRecording)) {
-                return Optional.of(archivedRecording);
-            }
-            return Optional.empty();
-        } catch (InvalidPathException e) {
-            throw new HttpStatusException(400, e.getMessage(), e);
-        }
-    }
-
     private static class ResponseMessage {
         final int statusCode;
         final String statusMessage;
@@ -37,26 +37,26 @@
  */
 package io.cryostat.net.web.http.api.v1;
 
+import java.io.IOException;
 import java.net.SocketException;
 import java.net.URISyntaxException;
 import java.net.UnknownHostException;
-import java.nio.file.Path;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.stream.Collectors;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 import javax.inject.Provider;
 
-import io.cryostat.MainModule;
 import io.cryostat.core.log.Logger;
-import io.cryostat.core.sys.FileSystem;
 import io.cryostat.net.AuthManager;
 import io.cryostat.net.web.WebServer;
 import io.cryostat.net.web.http.AbstractAuthenticatedRequestHandler;
 import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.storage.ArchiveStorage;
 
 import com.google.gson.Gson;
 import io.vertx.core.http.HttpMethod;
@@ -65,8 +65,8 @@ import io.vertx.ext.web.handler.impl.HttpStatusException;
 
 class RecordingsGetHandler extends AbstractAuthenticatedRequestHandler {
 
-    private final Path savedRecordingsPath;
-    private final FileSystem fs;
+    private final ArchiveStorage storage;
+    private final ArchiveIndex archiveIndex;
     private final Provider<WebServer> webServerProvider;
     private final Gson gson;
     private final Logger logger;
@@ -74,14 +74,14 @@ class RecordingsGetHandler extends AbstractAuthenticatedRequestHandler {
     @Inject
     RecordingsGetHandler(
             AuthManager auth,
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath,
-            FileSystem fs,
+            ArchiveStorage storage,
+            ArchiveIndex archiveIndex,
             Provider<WebServer> webServerProvider,
             Gson gson,
             Logger logger) {
         super(auth);
-        this.savedRecordingsPath = savedRecordingsPath;
-        this.fs = fs;
+        this.storage = storage;
+        this.archiveIndex = archiveIndex;
         this.webServerProvider = webServerProvider;
         this.gson = gson;
         this.logger = logger;
@@ -109,28 +109,16 @@ class RecordingsGetHandler extends AbstractAuthenticatedRequestHandler {
 
     @Override
     public void handleAuthenticated(RoutingContext ctx) throws Exception {
-        if (!fs.exists(savedRecordingsPath)) {
-            throw new HttpStatusException(
-                    501,
-                    String.format(
-                            "Archive path %s does not exist", savedRecordingsPath.toString()));
-        }
-        if (!fs.isReadable(savedRecordingsPath)) {
-            throw new HttpStatusException(
-                    501,
-                    String.format(
-                            "Archive path %s is not readable", savedRecordingsPath.toString()));
-        }
-        if (!fs.isDirectory(savedRecordingsPath)) {
-            throw new HttpStatusException(
-                    501,
-                    String.format(
-                            "Archive path %s is not a directory", savedRecordingsPath.toString()));
+        try {
+            storage.checkAvailable();
+        } catch (IOException ioe) {
+            throw new HttpStatusException(501, ioe.getMessage(), ioe);
         }
+
         WebServer webServer = webServerProvider.get();
-        List<String> names = this.fs.listDirectoryChildren(savedRecordingsPath);
         List<Map<String, String>> result =
-                names.stream()
+                archiveIndex.list().stream()
+                        .map(ArchivedRecordingInfo::getName)
                         .map(
                                 name -> {
                                     try {
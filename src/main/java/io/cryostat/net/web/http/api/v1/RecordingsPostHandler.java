@@ -39,34 +39,42 @@ package io.cryostat.net.web.http.api.v1;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.Map;
+import java.util.UUID;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import javax.inject.Inject;
-import javax.inject.Named;
 
 import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
 import org.openjdk.jmc.flightrecorder.JfrLoaderToolkit;
 
-import io.cryostat.MainModule;
 import io.cryostat.core.log.Logger;
-import io.cryostat.core.sys.FileSystem;
+import io.cryostat.core.sys.Environment;
 import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.AuthManager;
 import io.cryostat.net.HttpServer;
 import io.cryostat.net.web.http.AbstractAuthenticatedRequestHandler;
 import io.cryostat.net.web.http.HttpMimeType;
 import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.JfrStreamValidator;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.storage.StoredObject;
 
 import com.google.gson.Gson;
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
 import io.vertx.core.Vertx;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
 import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
-import io.vertx.ext.web.FileUpload;
+import io.vertx.core.http.HttpServerFileUpload;
+import io.vertx.core.http.HttpServerRequest;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.impl.HttpStatusException;
 
@@ -76,10 +84,16 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
             Pattern.compile("([A-Za-z\\d-]*)_([A-Za-z\\d-_]*)_([\\d]*T[\\d]*Z)(\\.[\\d]+)?");
 
     static final String PATH = "recordings";
+    static final String FULL_VALIDATION_ENV = "CRYOSTAT_UPLOAD_FULL_VALIDATION";
+    // in-progress uploads are written into the storage's staging directory, which for local
+    // storage is the archive directory itself so that the final rename is atomic. The dot prefix
+    // keeps them out of archive listings.
+    static final String UPLOAD_FILE_PREFIX = ArchiveStorage.STAGED_FILE_PREFIX + "upload-";
 
     private final Vertx vertx;
-    private final FileSystem fs;
-    private final Path savedRecordingsPath;
+    private final ArchiveStorage storage;
+    private final Environment env;
+    private final ArchiveIndex archiveIndex;
     private final Gson gson;
     private final Logger logger;
     private final NotificationFactory notificationFactory;
@@ -89,15 +103,17 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
     RecordingsPostHandler(
             AuthManager auth,
             HttpServer httpServer,
-            FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path savedRecordingsPath,
+            ArchiveStorage storage,
+            Environment env,
+            ArchiveIndex archiveIndex,
             Gson gson,
             Logger logger,
             NotificationFactory notificationFactory) {
         super(auth);
         this.vertx = httpServer.getVertx();
-        this.fs = fs;
-        this.savedRecordingsPath = savedRecordingsPath;
+        this.storage = storage;
+        this.env = env;
+        this.archiveIndex = archiveIndex;
         this.gson = gson;
         this.logger = logger;
         this.notificationFactory = notificationFactory;
@@ -123,11 +139,6 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
         return basePath() + PATH;
     }
 
-    @Override
-    public boolean isAsync() {
-        return false;
-    }
-
     @Override
     public boolean isOrdered() {
         return true;
@@ -135,26 +146,52 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
 
     @Override
     public void handleAuthenticated(RoutingContext ctx) throws Exception {
-        if (!fs.isDirectory(savedRecordingsPath)) {
-            throw new HttpStatusException(503, "Recording saving not available");
+        Path stagingDirectory;
+        try {
+            storage.checkAvailable();
+            stagingDirectory = storage.stagingDirectory();
+        } catch (IOException ioe) {
+            throw new HttpStatusException(503, "Recording saving not available", ioe);
         }
 
-        FileUpload upload = null;
-        for (FileUpload fu : ctx.fileUploads()) {
-            // ignore unrecognized form fields
-            if ("recording".equals(fu.name())) {
-                upload = fu;
-                break;
-            }
-        }
+        // The multipart body is consumed directly from the request rather than via a
+        // BodyHandler, so the recording is streamed to its final location and validated on the
+        // fly instead of being buffered to a temp file and re-read.
+        HttpServerRequest req = ctx.request();
+        req.setExpectMultipart(true);
+        Upload state = new Upload();
+        req.uploadHandler(
+                upload -> {
+                    // ignore unrecognized form fields
+                    if (state.started || !"recording".equals(upload.name())) {
+                        upload.handler(b -> {});
+                        return;
+                    }
+                    state.started = true;
+                    receive(ctx, upload, stagingDirectory);
+                });
+        req.exceptionHandler(
+                t -> {
+                    if (!state.started) {
+                        ctx.fail(t);
+                    }
+                });
+        req.endHandler(
+                v -> {
+                    if (!state.started) {
+                        ctx.fail(new HttpStatusException(400, "No recording submission"));
+                    }
+                });
+    }
 
-        if (upload == null) {
-            throw new HttpStatusException(400, "No recording submission");
-        }
+    private void receive(RoutingContext ctx, HttpServerFileUpload upload, Path stagingDirectory) {
+        upload.pause();
 
-        String fileName = upload.fileName();
+        String fileName = upload.filename();
         if (fileName == null || fileName.isEmpty()) {
-            throw new HttpStatusException(400, "Recording name must not be empty");
+            discard(upload);
+            ctx.fail(new HttpStatusException(400, "Recording name must not be empty"));
+            return;
         }
 
         if (fileName.endsWith(".jfr")) {
@@ -163,7 +200,9 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
 
         Matcher m = RECORDING_FILENAME_PATTERN.matcher(fileName);
         if (!m.matches()) {
-            throw new HttpStatusException(400, "Incorrect recording file name pattern");
+            discard(upload);
+            ctx.fail(new HttpStatusException(400, "Incorrect recording file name pattern"));
+            return;
         }
 
         String targetName = m.group(1);
@@ -175,36 +214,140 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
                         : Integer.parseInt(m.group(4).substring(1));
 
         final String basename = String.format("%s_%s_%s", targetName, recordingName, timestamp);
-        final String uploadedFileName = upload.uploadedFileName();
-        validateRecording(
-                upload.uploadedFileName(),
-                (res) ->
-                        saveRecording(
-                                basename,
-                                uploadedFileName,
-                                count,
-                                (res2) -> {
-                                    if (res2.failed()) {
-                                        ctx.fail(res2.cause());
-                                        return;
-                                    }
-
-                                    ctx.response()
-                                            .putHeader(
-                                                    HttpHeaders.CONTENT_TYPE,
-                                                    HttpMimeType.JSON.mime())
-                                            .end(gson.toJson(Map.of("name", res2.result())));
-
-                                    logger.info("Recording saved as {}", res2.result());
-
-                                    notificationFactory
-                                            .createBuilder()
-                                            .metaCategory(NOTIFICATION_CATEGORY)
-                                            .metaType(HttpMimeType.JSON)
-                                            .message(Map.of("recording", res2.result()))
-                                            .build()
-                                            .send();
-                                }));
+        final String uploadedFileName =
+                stagingDirectory
+                        .resolve(UPLOAD_FILE_PREFIX + UUID.randomUUID().toString())
+                        .toString();
+
+        vertx.fileSystem()
+                .open(
+                        uploadedFileName,
+                        new OpenOptions().setCreateNew(true).setWrite(true),
+                        res -> {
+                            if (res.failed()) {
+                                discard(upload);
+                                ctx.fail(res.cause());
+                                return;
+                            }
+                            writeUpload(
+                                    upload,
+                                    res.result(),
+                                    uploadedFileName,
+                                    (res2) -> {
+                                        if (res2.failed()) {
+                                            ctx.fail(res2.cause());
+                                            return;
+                                        }
+                                        saveRecording(
+                                                basename,
+                                                uploadedFileName,
+                                                res2.result(),
+                                                count,
+                                                (res3) -> {
+                                                    if (res3.failed()) {
+                                                        deleteQuietly(uploadedFileName);
+                                                        ctx.fail(res3.cause());
+                                                        return;
+                                                    }
+                                                    respond(ctx, res3.result());
+                                                });
+                                    });
+                        });
+    }
+
+    private void respond(RoutingContext ctx, String savedName) {
+        ctx.response()
+                .putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.JSON.mime())
+                .end(gson.toJson(Map.of("name", savedName)));
+
+        logger.info("Recording saved as {}", savedName);
+
+        notificationFactory
+                .createBuilder()
+                .metaCategory(NOTIFICATION_CATEGORY)
+                .metaType(HttpMimeType.JSON)
+                .message(Map.of("recording", savedName))
+                .build()
+                .send();
+    }
+
+    private void writeUpload(
+            HttpServerFileUpload upload,
+            AsyncFile file,
+            String uploadedFileName,
+            Handler<AsyncResult<String>> handler) {
+        JfrStreamValidator validator = new JfrStreamValidator();
+        MessageDigest digest = ArchiveIndex.newDigest();
+        Upload state = new Upload();
+        Handler<Throwable> abort =
+                t -> {
+                    if (state.failed) {
+                        return;
+                    }
+                    state.failed = true;
+                    discard(upload);
+                    file.close(closed -> deleteQuietly(uploadedFileName));
+                    handler.handle(makeFailedAsyncResult(t));
+                };
+
+        file.exceptionHandler(abort);
+        upload.exceptionHandler(abort);
+        upload.handler(
+                buffer -> {
+                    if (state.failed) {
+                        return;
+                    }
+                    byte[] bytes = buffer.getBytes();
+                    try {
+                        validator.accept(bytes);
+                    } catch (IOException e) {
+                        abort.handle(invalidRecording(e));
+                        return;
+                    }
+                    digest.update(bytes);
+                    file.write(buffer);
+                    if (file.writeQueueFull()) {
+                        upload.pause();
+                        file.drainHandler(v -> upload.resume());
+                    }
+                });
+        upload.endHandler(
+                v -> {
+                    if (state.failed) {
+                        return;
+                    }
+                    try {
+                        validator.finish();
+                    } catch (IOException e) {
+                        abort.handle(invalidRecording(e));
+                        return;
+                    }
+                    file.close(
+                            closed -> {
+                                if (closed.failed()) {
+                                    deleteQuietly(uploadedFileName);
+                                    handler.handle(makeFailedAsyncResult(closed.cause()));
+                                    return;
+                                }
+                                String hex = ArchiveIndex.toHex(digest);
+                                if (!env.hasEnv(FULL_VALIDATION_ENV)) {
+                                    handler.handle(makeAsyncResult(hex));
+                                    return;
+                                }
+                                validateRecording(
+                                        uploadedFileName,
+                                        validated -> {
+                                            if (validated.failed()) {
+                                                deleteQuietly(uploadedFileName);
+                                                handler.handle(
+                                                        makeFailedAsyncResult(validated.cause()));
+                                                return;
+                                            }
+                                            handler.handle(makeAsyncResult(hex));
+                                        });
+                            });
+                });
+        upload.resume();
     }
 
     private void validateRecording(String recordingFile, Handler<AsyncResult<Void>> handler) {
@@ -223,9 +366,7 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
                     if (res.failed()) {
                         Throwable t;
                         if (res.cause() instanceof CouldNotLoadRecordingException) {
-                            t =
-                                    new HttpStatusException(
-                                            400, "Not a valid JFR recording file", res.cause());
+                            t = invalidRecording(res.cause());
                         } else {
                             t = res.cause();
                         }
@@ -238,8 +379,33 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
                 });
     }
 
+    private static HttpStatusException invalidRecording(Throwable cause) {
+        return new HttpStatusException(400, "Not a valid JFR recording file", cause);
+    }
+
+    private static void discard(HttpServerFileUpload upload) {
+        upload.handler(b -> {});
+        upload.endHandler(v -> {});
+        upload.resume();
+    }
+
+    private void deleteQuietly(String file) {
+        vertx.fileSystem()
+                .delete(
+                        file,
+                        res -> {
+                            if (res.failed()) {
+                                logger.warn(res.cause());
+                            }
+                        });
+    }
+
     private void saveRecording(
-            String basename, String tmpFile, int counter, Handler<AsyncResult<String>> handler) {
+            String basename,
+            String tmpFile,
+            String digest,
+            int counter,
+            Handler<AsyncResult<String>> handler) {
         // TODO byte-sized rename limit is arbitrary. Probably plenty since recordings
         // are also differentiated by second-resolution timestamp
         if (counter >= Byte.MAX_VALUE) {
@@ -252,35 +418,34 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
 
         String filename = counter > 1 ? basename + "." + counter + ".jfr" : basename + ".jfr";
 
-        vertx.fileSystem()
-                .exists(
-                        savedRecordingsPath.resolve(filename).toString(),
-                        (res) -> {
-                            if (res.failed()) {
-                                handler.handle(makeFailedAsyncResult(res.cause()));
-                                return;
-                            }
+        if (archiveIndex.contains(filename)) {
+            saveRecording(basename, tmpFile, digest, counter + 1, handler);
+            return;
+        }
 
-                            if (res.result()) {
-                                saveRecording(basename, tmpFile, counter + 1, handler);
-                                return;
-                            }
+        // storage refuses to replace an existing object, so a name clash with one that has not been
+        // indexed yet is detected here rather than by an up-front existence check
+        vertx.<StoredObject>executeBlocking(
+                event -> {
+                    try {
+                        event.complete(storage.putFile(filename, Path.of(tmpFile)));
+                    } catch (IOException e) {
+                        event.fail(e);
+                    }
+                },
+                (res) -> {
+                    if (res.failed()) {
+                        if (res.cause() instanceof FileAlreadyExistsException) {
+                            saveRecording(basename, tmpFile, digest, counter + 1, handler);
+                            return;
+                        }
+                        handler.handle(makeFailedAsyncResult(res.cause()));
+                        return;
+                    }
 
-                            // verified no name clash at this time
-                            vertx.fileSystem()
-                                    .move(
-                                            tmpFile,
-                                            savedRecordingsPath.resolve(filename).toString(),
-                                            (res2) -> {
-                                                if (res2.failed()) {
-                                                    handler.handle(
-                                                            makeFailedAsyncResult(res2.cause()));
-                                                    return;
-                                                }
-
-                                                handler.handle(makeAsyncResult(filename));
-                                            });
-                        });
+                    archiveIndex.put(res.result(), digest);
+                    handler.handle(makeAsyncResult(filename));
+                });
     }
 
     private <T> AsyncResult<T> makeAsyncResult(T result) {
@@ -330,4 +495,9 @@ class RecordingsPostHandler extends AbstractAuthenticatedRequestHandler {
             }
         };
     }
+
+    private static class Upload {
+        boolean started;
+        boolean failed;
+    }
 }
@@ -37,14 +37,17 @@
  */
 package io.cryostat.net.web.http.api.v1;
 
+import java.util.Map;
 import java.util.Optional;
 
 import javax.inject.Inject;
 
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
+import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.ConnectionDescriptor;
 import io.cryostat.net.TargetConnectionManager;
+import io.cryostat.net.web.http.HttpMimeType;
 
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.handler.impl.HttpStatusException;
@@ -52,10 +55,15 @@ import io.vertx.ext.web.handler.impl.HttpStatusException;
 class TargetRecordingPatchStop {
 
     private final TargetConnectionManager targetConnectionManager;
+    private final NotificationFactory notificationFactory;
+    private static final String NOTIFICATION_CATEGORY = "RecordingStopped";
 
     @Inject
-    TargetRecordingPatchStop(TargetConnectionManager targetConnectionManager) {
+    TargetRecordingPatchStop(
+            TargetConnectionManager targetConnectionManager,
+            NotificationFactory notificationFactory) {
         this.targetConnectionManager = targetConnectionManager;
+        this.notificationFactory = notificationFactory;
     }
 
     void handle(RoutingContext ctx, ConnectionDescriptor connectionDescriptor) throws Exception {
@@ -80,5 +88,17 @@ class TargetRecordingPatchStop {
                 });
         ctx.response().setStatusCode(200);
         ctx.response().end();
+        notificationFactory
+                .createBuilder()
+                .metaCategory(NOTIFICATION_CATEGORY)
+                .metaType(HttpMimeType.JSON)
+                .message(
+                        Map.of(
+                                "recording",
+                                recordingName,
+                                "target",
+                                connectionDescriptor.getTargetId()))
+                .build()
+                .send();
     }
 }
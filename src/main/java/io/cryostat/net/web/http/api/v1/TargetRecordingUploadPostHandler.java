@@ -37,36 +37,40 @@
  */
 package io.cryostat.net.web.http.api.v1;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
+import java.util.UUID;
 
 import javax.inject.Inject;
 
 import io.cryostat.core.net.JFRConnection;
 import io.cryostat.core.sys.Environment;
-import io.cryostat.core.sys.FileSystem;
 import io.cryostat.net.AuthManager;
+import io.cryostat.net.ConnectionDescriptor;
 import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.net.reports.ReportService;
 import io.cryostat.net.web.http.AbstractAuthenticatedRequestHandler;
 import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.net.web.http.InputStreamReadStream;
 import io.cryostat.net.web.http.api.ApiVersion;
 import io.cryostat.util.HttpStatusCodeIdentifier;
 
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.client.HttpResponse;
 import io.vertx.ext.web.client.WebClient;
 import io.vertx.ext.web.handler.impl.HttpStatusException;
-import io.vertx.ext.web.multipart.MultipartForm;
 import org.apache.commons.validator.routines.UrlValidator;
 
 class TargetRecordingUploadPostHandler extends AbstractAuthenticatedRequestHandler {
@@ -74,7 +78,6 @@ class TargetRecordingUploadPostHandler extends AbstractAuthenticatedRequestHandl
     private final Environment env;
     private final TargetConnectionManager targetConnectionManager;
     private final WebClient webClient;
-    private final FileSystem fs;
     private static final String GRAFANA_DATASOURCE_ENV = "GRAFANA_DATASOURCE_URL";
 
     @Inject
@@ -82,13 +85,11 @@ class TargetRecordingUploadPostHandler extends AbstractAuthenticatedRequestHandl
             AuthManager auth,
             Environment env,
             TargetConnectionManager targetConnectionManager,
-            WebClient webClient,
-            FileSystem fs) {
+            WebClient webClient) {
         super(auth);
         this.env = env;
         this.targetConnectionManager = targetConnectionManager;
         this.webClient = webClient;
-        this.fs = fs;
     }
 
     @Override
@@ -124,19 +125,7 @@ class TargetRecordingUploadPostHandler extends AbstractAuthenticatedRequestHandl
                                 "$%s=%s is an invalid datasource URL",
                                 GRAFANA_DATASOURCE_ENV, uploadUrl.toString()));
             }
-            ResponseMessage response = doPost(ctx, uploadUrl);
-            if (!HttpStatusCodeIdentifier.isSuccessCode(response.statusCode)
-                    || response.statusMessage == null
-                    || response.body == null) {
-                throw new HttpStatusException(
-                        512,
-                        String.format(
-                                "Invalid response from datasource server; datasource URL may be incorrect, or server may not be functioning properly: %d %s",
-                                response.statusCode, response.statusMessage));
-            }
-            ctx.response().setStatusCode(response.statusCode);
-            ctx.response().setStatusMessage(response.statusMessage);
-            ctx.response().end(response.body);
+            doPost(ctx, uploadUrl);
         } catch (MalformedURLException e) {
             throw new HttpStatusException(501, e);
         } catch (ReportService.RecordingNotFoundException e) {
@@ -144,85 +133,118 @@ class TargetRecordingUploadPostHandler extends AbstractAuthenticatedRequestHandl
         }
     }
 
-    // FindBugs thinks the recordingPath or its properties is null somehow
-    @SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
-    private ResponseMessage doPost(RoutingContext ctx, URL uploadUrl) throws Exception {
+    private void doPost(RoutingContext ctx, URL uploadUrl) throws Exception {
         String targetId = ctx.pathParam("targetId");
         String recordingName = ctx.pathParam("recordingName");
-        Path recordingPath =
+        String loadUrl = uploadUrl.toURI().resolve("/load").normalize().toString();
+        ConnectionDescriptor connectionDescriptor = getConnectionDescriptorFromContext(ctx);
+        InputStream recording =
                 targetConnectionManager.executeConnectedTask(
-                        getConnectionDescriptorFromContext(ctx),
+                        connectionDescriptor,
                         connection ->
-                                getRecordingCopyPath(connection, targetId, recordingName)
+                                openRecordingStream(connection, recordingName)
                                         .orElseThrow(
                                                 () ->
                                                         new ReportService
                                                                 .RecordingNotFoundException(
                                                                 targetId, recordingName)));
 
-        MultipartForm form =
-                MultipartForm.create()
-                        .binaryFileUpload(
-                                "file",
-                                recordingName,
-                                recordingPath.toString(),
-                                HttpMimeType.OCTET_STREAM.toString());
-
-        CompletableFuture<ResponseMessage> future = new CompletableFuture<>();
+        // The multipart body is framed by hand around the live JMX stream rather than with
+        // MultipartForm, which only accepts file uploads and would require a scratch copy of the
+        // whole recording. The request is sent chunked and the target is only read as fast as
+        // the datasource accepts the upload.
+        String boundary = "cryostat-" + UUID.randomUUID().toString();
+        InputStream body =
+                new SequenceInputStream(
+                        Collections.enumeration(
+                                List.of(
+                                        new ByteArrayInputStream(
+                                                partHeader(boundary, recordingName)),
+                                        new FilterInputStream(recording) {
+                                            @Override
+                                            public int read(byte[] b, int off, int len)
+                                                    throws IOException {
+                                                targetConnectionManager.markConnectionInUse(
+                                                        connectionDescriptor);
+                                                return super.read(b, off, len);
+                                            }
+                                        },
+                                        new ByteArrayInputStream(partTrailer(boundary)))));
+
+        InputStreamReadStream bodyStream = new InputStreamReadStream(ctx.vertx(), body);
         try {
-            webClient
-                    .postAbs(uploadUrl.toURI().resolve("/load").normalize().toString())
-                    .timeout(30_000L)
-                    .sendMultipartForm(
-                            form,
-                            uploadHandler -> {
-                                if (uploadHandler.failed()) {
-                                    future.completeExceptionally(uploadHandler.cause());
-                                    return;
-                                }
-                                HttpResponse<Buffer> response = uploadHandler.result();
-                                future.complete(
-                                        new ResponseMessage(
-                                                response.statusCode(),
-                                                response.statusMessage(),
-                                                response.bodyAsString()));
-                            });
-            return future.get();
-        } finally {
-            fs.deleteIfExists(recordingPath);
+            send(ctx, loadUrl, boundary, bodyStream);
+        } catch (RuntimeException e) {
+            bodyStream.close();
+            throw e;
         }
     }
 
-    Optional<Path> getRecordingCopyPath(
-            JFRConnection connection, String targetId, String recordingName) throws Exception {
+    private void send(
+            RoutingContext ctx, String loadUrl, String boundary, InputStreamReadStream bodyStream) {
+        webClient
+                .postAbs(loadUrl)
+                .timeout(30_000L)
+                .putHeader(
+                        HttpHeaders.CONTENT_TYPE.toString(),
+                        "multipart/form-data; boundary=" + boundary)
+                .sendStream(
+                        bodyStream,
+                        uploadHandler -> {
+                            // the upload may have ended before the recording was read to the
+                            // end, and the target stream must not be left open in that case
+                            bodyStream.close();
+                            if (uploadHandler.failed()) {
+                                ctx.fail(uploadHandler.cause());
+                                return;
+                            }
+                            HttpResponse<Buffer> response = uploadHandler.result();
+                            String statusMessage = response.statusMessage();
+                            String responseBody = response.bodyAsString();
+                            if (!HttpStatusCodeIdentifier.isSuccessCode(response.statusCode())
+                                    || statusMessage == null
+                                    || responseBody == null) {
+                                ctx.fail(
+                                        new HttpStatusException(
+                                                512,
+                                                String.format(
+                                                        "Invalid response from datasource server; datasource URL may be incorrect, or server may not be functioning properly: %d %s",
+                                                        response.statusCode(), statusMessage)));
+                                return;
+                            }
+                            ctx.response().setStatusCode(response.statusCode());
+                            ctx.response().setStatusMessage(statusMessage);
+                            ctx.response().end(responseBody);
+                        });
+    }
+
+    Optional<InputStream> openRecordingStream(JFRConnection connection, String recordingName)
+            throws Exception {
         return connection.getService().getAvailableRecordings().stream()
                 .filter(recording -> recording.getName().equals(recordingName))
                 .findFirst()
                 .map(
                         descriptor -> {
                             try {
-                                // FIXME extract createTempFile wrapper into FileSystem
-                                Path tempFile = Files.createTempFile(null, null);
-                                try (InputStream stream =
-                                        connection.getService().openStream(descriptor, false)) {
-                                    fs.copy(stream, tempFile, StandardCopyOption.REPLACE_EXISTING);
-                                }
-                                return tempFile;
+                                return connection.getService().openStream(descriptor, false);
                             } catch (Exception e) {
                                 throw new HttpStatusException(500, e);
                             }
                         });
     }
 
-    private static class ResponseMessage {
-        final int statusCode;
-        final String statusMessage;
-        final String body;
+    static byte[] partHeader(String boundary, String filename) {
+        String escaped = filename.replace("\"", "%22").replace("\r", "%0D").replace("\n", "%0A");
+        return String.format(
+                        "--%s\r\n"
+                                + "Content-Disposition: form-data; name=\"file\"; filename=\"%s\"\r\n"
+                                + "Content-Type: %s\r\n"
+                                + "\r\n",
+                        boundary, escaped, HttpMimeType.OCTET_STREAM.mime())
+                .getBytes(StandardCharsets.UTF_8);
+    }
 
-        ResponseMessage(int statusCode, String statusMessage, String body) {
-            this.statusCode = statusCode;
-            this.statusMessage = statusMessage;
-            this.body = body;
-        }
+    static byte[] partTrailer(String boundary) {
+        return String.format("\r\n--%s--\r\n", boundary).getBytes(StandardCharsets.UTF_8);
     }
 }
@@ -40,11 +40,15 @@ package io.cryostat.net.web.http.api.v2;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.function.Function;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Environment;
 import io.cryostat.net.security.CertificateValidator;
 import io.cryostat.net.web.http.RequestHandler;
 
@@ -56,6 +60,10 @@ import dagger.multibindings.IntoSet;
 @Module
 public abstract class HttpApiV2Module {
 
+    static final String BATCH_ARCHIVE_EXECUTOR = "BATCH_ARCHIVE_EXECUTOR";
+    static final String BATCH_ARCHIVE_PARALLELISM_ENV_VAR = "CRYOSTAT_BATCH_ARCHIVE_PARALLELISM";
+    static final int DEFAULT_BATCH_ARCHIVE_PARALLELISM = 8;
+
     @Binds
     @IntoSet
     abstract RequestHandler bindApiGetHandler(ApiGetHandler handler);
@@ -89,6 +97,39 @@ public abstract class HttpApiV2Module {
     @IntoSet
     abstract RequestHandler bindTargetEventsSearchGetHandler(TargetEventsSearchGetHandler handler);
 
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRecordingsArchivePostHandler(RecordingsArchivePostHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRecordingsArchivePostBodyHandler(
+            RecordingsArchivePostBodyHandler handler);
+
+    @Provides
+    @Singleton
+    @Named(BATCH_ARCHIVE_EXECUTOR)
+    static ExecutorService provideBatchArchiveExecutor(Environment env, Logger logger) {
+        int parallelism = DEFAULT_BATCH_ARCHIVE_PARALLELISM;
+        try {
+            parallelism =
+                    Integer.parseInt(
+                            env.getEnv(
+                                    BATCH_ARCHIVE_PARALLELISM_ENV_VAR,
+                                    String.valueOf(DEFAULT_BATCH_ARCHIVE_PARALLELISM)));
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+        }
+        if (parallelism < 1) {
+            logger.info(
+                    "Requested {} {} is too small.",
+                    BATCH_ARCHIVE_PARALLELISM_ENV_VAR,
+                    parallelism);
+            parallelism = 1;
+        }
+        return Executors.newFixedThreadPool(parallelism);
+    }
+
     @Provides
     @Singleton
     @Named("OutputStreamFunction")
@@ -133,6 +174,10 @@ public abstract class HttpApiV2Module {
     @IntoSet
     abstract RequestHandler bindRuleGetHandler(RuleGetHandler handler);
 
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRuleStatsGetHandler(RuleStatsGetHandler handler);
+
     @Binds
     @IntoSet
     abstract RequestHandler bindRuleDeleteHandler(RuleDeleteHandler handler);
@@ -144,4 +189,20 @@ public abstract class HttpApiV2Module {
     @Binds
     @IntoSet
     abstract RequestHandler bindRulesPostBodyHandler(RulesPostBodyHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRulesDryRunPostHandler(RulesDryRunPostHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRulesDryRunPostBodyHandler(RulesDryRunPostBodyHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRecordingsExportGetHandler(RecordingsExportGetHandler handler);
+
+    @Binds
+    @IntoSet
+    abstract RequestHandler bindRecordingsGetHandler(RecordingsGetHandler handler);
 }
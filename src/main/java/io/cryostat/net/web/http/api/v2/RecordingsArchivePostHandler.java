@@ -0,0 +1,334 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http.api.v2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import io.cryostat.configuration.CredentialsManager;
+import io.cryostat.core.log.Logger;
+import io.cryostat.messaging.notifications.NotificationFactory;
+import io.cryostat.net.AuthManager;
+import io.cryostat.net.ConnectionDescriptor;
+import io.cryostat.net.web.http.AbstractAuthenticatedRequestHandler;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.net.web.http.ResponseOutputStream;
+import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.platform.PlatformClient;
+import io.cryostat.platform.ServiceRef;
+import io.cryostat.recordings.RecordingArchiveHelper;
+import io.cryostat.recordings.RecordingNotFoundException;
+
+import com.google.gson.Gson;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.exception.ExceptionUtils;
+
+/**
+ * Archives a recording of the same name from every target matching a pattern at once. Saves run
+ * concurrently on a bounded pool, and each target's result is written out as a line of JSON as soon
+ * as it is known, so a slow or unreachable target holds up nothing but its own line.
+ */
+class RecordingsArchivePostHandler extends AbstractAuthenticatedRequestHandler {
+
+    static final String PATH = "recordings/archive";
+    static final String NOTIFICATION_CATEGORY = "RecordingArchived";
+    static final int DEFAULT_TIMEOUT_SECONDS = 30;
+
+    private final PlatformClient platformClient;
+    private final CredentialsManager credentialsManager;
+    private final RecordingArchiveHelper recordingArchiveHelper;
+    private final NotificationFactory notificationFactory;
+    private final ExecutorService executor;
+    private final Gson gson;
+    private final Logger logger;
+
+    @Inject
+    RecordingsArchivePostHandler(
+            AuthManager auth,
+            PlatformClient platformClient,
+            CredentialsManager credentialsManager,
+            RecordingArchiveHelper recordingArchiveHelper,
+            NotificationFactory notificationFactory,
+            @Named(HttpApiV2Module.BATCH_ARCHIVE_EXECUTOR) ExecutorService executor,
+            Gson gson,
+            Logger logger) {
+        super(auth);
+        this.platformClient = platformClient;
+        this.credentialsManager = credentialsManager;
+        this.recordingArchiveHelper = recordingArchiveHelper;
+        this.notificationFactory = notificationFactory;
+        this.executor = executor;
+        this.gson = gson;
+        this.logger = logger;
+    }
+
+    @Override
+    public ApiVersion apiVersion() {
+        return ApiVersion.V2;
+    }
+
+    @Override
+    public HttpMethod httpMethod() {
+        return HttpMethod.POST;
+    }
+
+    @Override
+    public String path() {
+        return basePath() + PATH;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public boolean isOrdered() {
+        return false;
+    }
+
+    @Override
+    public void handleAuthenticated(RoutingContext ctx) throws Exception {
+        MultiMap attrs = ctx.request().formAttributes();
+        String recordingName = attrs.get("recordingName");
+        if (StringUtils.isBlank(recordingName)) {
+            throw new ApiException(400, "\"recordingName\" form parameter must be provided");
+        }
+        String targets = attrs.get("targets");
+        if (StringUtils.isBlank(targets)) {
+            throw new ApiException(400, "\"targets\" form parameter must be provided");
+        }
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(targets);
+        } catch (PatternSyntaxException pse) {
+            throw new ApiException(400, "Invalid targets pattern", pse);
+        }
+        int timeoutSeconds = DEFAULT_TIMEOUT_SECONDS;
+        if (attrs.contains("timeoutSeconds")) {
+            try {
+                timeoutSeconds = Integer.parseInt(attrs.get("timeoutSeconds"));
+            } catch (NumberFormatException nfe) {
+                throw new ApiException(400, "Invalid timeoutSeconds", nfe);
+            }
+            if (timeoutSeconds <= 0) {
+                throw new ApiException(400, "timeoutSeconds must be positive");
+            }
+        }
+
+        List<ServiceRef> selected = new ArrayList<>();
+        for (ServiceRef serviceRef : platformClient.listDiscoverableServices()) {
+            if (matches(pattern, serviceRef)) {
+                selected.add(serviceRef);
+            }
+        }
+        if (selected.isEmpty()) {
+            throw new ApiException(404, "No targets matched the selection");
+        }
+
+        BlockingQueue<Result> results = new LinkedBlockingQueue<>();
+        for (ServiceRef serviceRef : selected) {
+            submit(serviceRef, recordingName, timeoutSeconds).thenAccept(results::add);
+        }
+
+        HttpServerResponse response = ctx.response();
+        response.setChunked(true);
+        response.putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.NDJSON.mime());
+        try (OutputStream out = new ResponseOutputStream(response)) {
+            for (int i = 0; i < selected.size(); i++) {
+                Result result = results.take();
+                out.write((gson.toJson(result) + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            // the client went away, but saves already under way are left to finish
+            logger.warn(e);
+        }
+    }
+
+    private CompletableFuture<Result> submit(
+            ServiceRef serviceRef, String recordingName, int timeoutSeconds) {
+        CompletableFuture<Result> result = new CompletableFuture<>();
+        // taken by whichever comes first of the save committing and the timeout firing, so that a
+        // target is never reported as timed out while its save may still be stored
+        AtomicBoolean settled = new AtomicBoolean();
+        FutureTask<Result> save =
+                new FutureTask<>(
+                        () ->
+                                save(
+                                        serviceRef,
+                                        recordingName,
+                                        () -> settled.compareAndSet(false, true)));
+        try {
+            executor.execute(
+                    () -> {
+                        // the timeout only starts once the save does, so targets queued behind
+                        // others are not penalized for waiting on the pool
+                        CompletableFuture.delayedExecutor(timeoutSeconds, TimeUnit.SECONDS)
+                                .execute(
+                                        () -> {
+                                            if (settled.compareAndSet(false, true)) {
+                                                // interrupts the save so that it gives up its
+                                                // worker rather than holding it until the target
+                                                // responds
+                                                save.cancel(true);
+                                                result.complete(
+                                                        Result.of(
+                                                                serviceRef,
+                                                                Status.TIMED_OUT,
+                                                                null,
+                                                                null));
+                                            }
+                                        });
+                        save.run();
+                        try {
+                            result.complete(save.get());
+                        } catch (CancellationException | InterruptedException e) {
+                            // the timeout fired and has already completed the result
+                        } catch (ExecutionException ee) {
+                            result.complete(
+                                    Result.of(
+                                            serviceRef,
+                                            Status.FAILED,
+                                            null,
+                                            ExceptionUtils.getRootCauseMessage(ee)));
+                        }
+                    });
+        } catch (RejectedExecutionException ree) {
+            result.complete(Result.of(serviceRef, Status.FAILED, null, ree.getMessage()));
+        }
+        return result;
+    }
+
+    private Result save(ServiceRef serviceRef, String recordingName, BooleanSupplier proceed) {
+        try {
+            ConnectionDescriptor connectionDescriptor =
+                    new ConnectionDescriptor(
+                            serviceRef, credentialsManager.getCredentials(serviceRef));
+            Optional<String> saved =
+                    recordingArchiveHelper.saveRecording(
+                            connectionDescriptor, recordingName, proceed);
+            if (saved.isEmpty()) {
+                // abandoned once the timeout fired, which has already been reported
+                return Result.of(serviceRef, Status.TIMED_OUT, null, null);
+            }
+            String saveName = saved.get();
+            notificationFactory
+                    .createBuilder()
+                    .metaCategory(NOTIFICATION_CATEGORY)
+                    .metaType(HttpMimeType.JSON)
+                    .message(
+                            Map.of(
+                                    "recording",
+                                    saveName,
+                                    "target",
+                                    connectionDescriptor.getTargetId()))
+                    .build()
+                    .send();
+            return Result.of(serviceRef, Status.ARCHIVED, saveName, null);
+        } catch (RecordingNotFoundException rnfe) {
+            return Result.of(serviceRef, Status.NOT_FOUND, null, rnfe.getMessage());
+        } catch (Exception e) {
+            logger.warn(e);
+            return Result.of(
+                    serviceRef, Status.FAILED, null, ExceptionUtils.getRootCauseMessage(e));
+        }
+    }
+
+    private static boolean matches(Pattern pattern, ServiceRef serviceRef) {
+        return pattern.matcher(serviceRef.getServiceUri().toString()).matches()
+                || serviceRef.getAlias().map(a -> pattern.matcher(a).matches()).orElse(false);
+    }
+
+    enum Status {
+        ARCHIVED,
+        NOT_FOUND,
+        TIMED_OUT,
+        FAILED,
+    }
+
+    static class Result {
+        final String target;
+        final String alias;
+        final Status status;
+        final String recording;
+        final String message;
+
+        Result(String target, String alias, Status status, String recording, String message) {
+            this.target = target;
+            this.alias = alias;
+            this.status = status;
+            this.recording = recording;
+            this.message = message;
+        }
+
+        static Result of(ServiceRef serviceRef, Status status, String recording, String message) {
+            return new Result(
+                    serviceRef.getServiceUri().toString(),
+                    serviceRef.getAlias().orElse(null),
+                    status,
+                    recording,
+                    message);
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http.api.v2;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import javax.inject.Inject;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.net.AuthManager;
+import io.cryostat.net.web.http.AbstractAuthenticatedRequestHandler;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.net.web.http.ResponseOutputStream;
+import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.util.TarOutputStream;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+
+class RecordingsExportGetHandler extends AbstractAuthenticatedRequestHandler {
+
+    static final String PATH = "recordings/export";
+
+    private final ArchiveStorage storage;
+    private final ArchiveIndex archiveIndex;
+    private final Clock clock;
+    private final Logger logger;
+
+    @Inject
+    RecordingsExportGetHandler(
+            AuthManager auth,
+            ArchiveStorage storage,
+            ArchiveIndex archiveIndex,
+            Clock clock,
+            Logger logger) {
+        super(auth);
+        this.storage = storage;
+        this.archiveIndex = archiveIndex;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    @Override
+    public ApiVersion apiVersion() {
+        return ApiVersion.V2;
+    }
+
+    @Override
+    public HttpMethod httpMethod() {
+        return HttpMethod.GET;
+    }
+
+    @Override
+    public String path() {
+        return basePath() + PATH;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public boolean isOrdered() {
+        return false;
+    }
+
+    @Override
+    public void handleAuthenticated(RoutingContext ctx) throws Exception {
+        try {
+            storage.checkAvailable();
+        } catch (IOException ioe) {
+            throw new ApiException(501, ioe.getMessage(), ioe);
+        }
+
+        MultiMap params = ctx.queryParams();
+        Format format = Format.from(params.get("format"));
+        Predicate<ArchivedFile> selection = selection(params);
+
+        List<ArchivedFile> selected = new ArrayList<>();
+        String target = params.get("target");
+        List<ArchivedRecordingInfo> candidates =
+                target == null
+                        ? archiveIndex.list()
+                        : archiveIndex.list(target.replaceAll("[\\._]+", "-"));
+        for (ArchivedRecordingInfo info : candidates) {
+            ArchivedFile archived =
+                    new ArchivedFile(
+                            info.getName(),
+                            info.getSize(),
+                            FileTime.fromMillis(info.getModifiedTime()));
+            if (selection.test(archived)) {
+                selected.add(archived);
+            }
+        }
+        if (selected.isEmpty()) {
+            throw new ApiException(404, "No archived recordings matched the selection");
+        }
+
+        String filename =
+                String.format(
+                        "cryostat-archives-%s.%s",
+                        clock.now()
+                                .truncatedTo(ChronoUnit.SECONDS)
+                                .toString()
+                                .replaceAll("[-:]+", ""),
+                        format.extension);
+        HttpServerResponse response = ctx.response();
+        response.setChunked(true);
+        response.putHeader(HttpHeaders.CONTENT_TYPE, format.mimeType.mime());
+        response.putHeader(
+                HttpHeaders.CONTENT_DISPOSITION,
+                String.format("attachment; filename=\"%s\"", filename));
+        // the payload is an archive already, so don't let the server try to compress it again
+        response.putHeader(HttpHeaders.CONTENT_ENCODING, HttpHeaders.IDENTITY);
+
+        try (OutputStream out =
+                new BufferedOutputStream(new ResponseOutputStream(response), 64 * 1024)) {
+            format.write(storage, selected, out);
+        } catch (IOException e) {
+            logger.warn(e);
+            if (!response.headWritten()) {
+                throw new ApiException(500, e.getMessage(), e);
+            }
+            // the status line has already gone out, so the only way left to signal the failure to
+            // the client is to cut the transfer short
+            if (!response.closed()) {
+                response.close();
+            }
+        }
+    }
+
+    private Predicate<ArchivedFile> selection(MultiMap params) {
+        Predicate<ArchivedFile> selection = f -> true;
+        String names = params.get("names");
+        if (names != null) {
+            try {
+                Pattern pattern = Pattern.compile(names);
+                selection = selection.and(f -> pattern.matcher(f.name).matches());
+            } catch (PatternSyntaxException pse) {
+                throw new ApiException(400, "Invalid names pattern", pse);
+            }
+        }
+        String target = params.get("target");
+        if (target != null) {
+            String prefix = target.replaceAll("[\\._]+", "-") + "_";
+            selection = selection.and(f -> f.name.startsWith(prefix));
+        }
+        Optional<Instant> from = parseInstant(params, "from");
+        if (from.isPresent()) {
+            selection = selection.and(f -> !f.modified.toInstant().isBefore(from.get()));
+        }
+        Optional<Instant> to = parseInstant(params, "to");
+        if (to.isPresent()) {
+            selection = selection.and(f -> f.modified.toInstant().isBefore(to.get()));
+        }
+        return selection;
+    }
+
+    private static Optional<Instant> parseInstant(MultiMap params, String key) {
+        String value = params.get(key);
+        if (value == null) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(Instant.parse(value));
+        } catch (DateTimeParseException dtpe) {
+            throw new ApiException(400, String.format("Invalid %s timestamp", key), dtpe);
+        }
+    }
+
+    static class ArchivedFile {
+        final String name;
+        final long size;
+        final FileTime modified;
+
+        ArchivedFile(String name, long size, FileTime modified) {
+            this.name = name;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    enum Format {
+        ZIP("zip", HttpMimeType.ZIP) {
+            @Override
+            void write(ArchiveStorage storage, List<ArchivedFile> files, OutputStream out)
+                    throws IOException {
+                ZipOutputStream zip = new ZipOutputStream(out);
+                for (ArchivedFile file : files) {
+                    ZipEntry entry = new ZipEntry(file.name);
+                    entry.setLastModifiedTime(file.modified);
+                    zip.putNextEntry(entry);
+                    try (InputStream in = storage.get(file.name, 0, -1)) {
+                        in.transferTo(zip);
+                    }
+                    zip.closeEntry();
+                }
+                zip.finish();
+            }
+        },
+        TAR("tar", HttpMimeType.TAR) {
+            @Override
+            void write(ArchiveStorage storage, List<ArchivedFile> files, OutputStream out)
+                    throws IOException {
+                TarOutputStream tar = new TarOutputStream(out);
+                for (ArchivedFile file : files) {
+                    tar.putNextEntry(
+                            file.name, file.size, file.modified.toInstant().getEpochSecond());
+                    // the entry header has already declared the size, so never write past it
+                    try (InputStream in = storage.get(file.name, 0, file.size)) {
+                        in.transferTo(tar);
+                    }
+                    tar.closeEntry();
+                }
+                tar.finish();
+            }
+        },
+        ;
+
+        final String extension;
+        final HttpMimeType mimeType;
+
+        Format(String extension, HttpMimeType mimeType) {
+            this.extension = extension;
+            this.mimeType = mimeType;
+        }
+
+        abstract void write(ArchiveStorage storage, List<ArchivedFile> files, OutputStream out)
+                throws IOException;
+
+        static Format from(String format) {
+            if (format == null) {
+                return ZIP;
+            }
+            for (Format f : values()) {
+                if (f.extension.equalsIgnoreCase(format)) {
+                    return f;
+                }
+            }
+            throw new ApiException(400, String.format("Unsupported format \"%s\"", format));
+        }
+    }
+}
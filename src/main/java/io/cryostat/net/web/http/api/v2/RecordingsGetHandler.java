@@ -0,0 +1,408 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http.api.v2;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.URISyntaxException;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.function.Predicate;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import io.cryostat.jmc.serialization.ArchivedRecordingDescriptor;
+import io.cryostat.net.AuthManager;
+import io.cryostat.net.web.WebServer;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.storage.ArchiveStorage;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+
+class RecordingsGetHandler extends AbstractV2RequestHandler<RecordingsGetHandler.RecordingsPage> {
+
+    static final String PATH = "recordings";
+    static final int DEFAULT_LIMIT = 100;
+    static final int MAX_LIMIT = 1000;
+
+    private final ArchiveStorage storage;
+    private final ArchiveIndex archiveIndex;
+    private final Provider<WebServer> webServerProvider;
+
+    @Inject
+    RecordingsGetHandler(
+            AuthManager auth,
+            ArchiveStorage storage,
+            ArchiveIndex archiveIndex,
+            Provider<WebServer> webServerProvider,
+            Gson gson) {
+        super(auth, gson);
+        this.storage = storage;
+        this.archiveIndex = archiveIndex;
+        this.webServerProvider = webServerProvider;
+    }
+
+    @Override
+    public boolean requiresAuthentication() {
+        return true;
+    }
+
+    @Override
+    public ApiVersion apiVersion() {
+        return ApiVersion.V2;
+    }
+
+    @Override
+    public HttpMethod httpMethod() {
+        return HttpMethod.GET;
+    }
+
+    @Override
+    public String path() {
+        return basePath() + PATH;
+    }
+
+    @Override
+    public HttpMimeType mimeType() {
+        return HttpMimeType.JSON;
+    }
+
+    @Override
+    public boolean isAsync() {
+        return false;
+    }
+
+    @Override
+    public IntermediateResponse<RecordingsPage> handle(RequestParameters params) throws Exception {
+        try {
+            storage.checkAvailable();
+        } catch (IOException ioe) {
+            throw new ApiException(501, ioe.getMessage(), ioe);
+        }
+        MultiMap query = params.getQueryParams();
+        Sort sort = Sort.from(query.get("sort"));
+        boolean descending = parseOrder(query.get("order"));
+        int limit = parseLimit(query.get("limit"));
+        Comparator<ArchivedRecordingInfo> order =
+                descending ? sort.comparator.reversed() : sort.comparator;
+        Predicate<ArchivedRecordingInfo> filter = filter(query);
+        // a target's recordings are indexed separately, so only those need to be visited
+        String targetName = targetName(query);
+
+        Cursor cursor = null;
+        if (query.get("cursor") != null) {
+            cursor = Cursor.decode(gson, query.get("cursor"));
+            if (cursor.sort != sort || cursor.descending != descending) {
+                throw new ApiException(400, "Cursor does not match the requested sort order");
+            }
+        }
+
+        List<ArchivedRecordingInfo> selected;
+        if (sort == Sort.NAME) {
+            // the index is already ordered by name, so the page can be read off directly
+            selected = new ArrayList<>(limit + 1);
+            String after = cursor == null ? null : cursor.name;
+            Iterator<ArchivedRecordingInfo> it =
+                    (targetName == null
+                                    ? archiveIndex.listAfter(after, descending)
+                                    : archiveIndex.listAfter(targetName, after, descending))
+                            .iterator();
+            while (it.hasNext() && selected.size() <= limit) {
+                ArchivedRecordingInfo info = it.next();
+                if (filter.test(info)) {
+                    selected.add(info);
+                }
+            }
+        } else {
+            if (cursor != null) {
+                ArchivedRecordingInfo last = cursor.toInfo();
+                filter = filter.and(info -> order.compare(info, last) > 0);
+            }
+            selected =
+                    first(
+                            targetName == null
+                                    ? archiveIndex.list()
+                                    : archiveIndex.list(targetName),
+                            filter,
+                            order,
+                            limit + 1);
+        }
+
+        String nextCursor = null;
+        if (selected.size() > limit) {
+            selected = selected.subList(0, limit);
+            nextCursor =
+                    Cursor.of(sort, descending, selected.get(selected.size() - 1)).encode(gson);
+        }
+
+        WebServer webServer = webServerProvider.get();
+        List<ArchivedRecordingDescriptor> recordings = new ArrayList<>(selected.size());
+        for (ArchivedRecordingInfo info : selected) {
+            recordings.add(describe(webServer, info));
+        }
+        return new IntermediateResponse<RecordingsPage>()
+                .body(new RecordingsPage(recordings, nextCursor));
+    }
+
+    private static ArchivedRecordingDescriptor describe(
+            WebServer webServer, ArchivedRecordingInfo info) throws ApiException {
+        try {
+            return new ArchivedRecordingDescriptor(
+                    info,
+                    webServer.getArchivedDownloadURL(info.getName()),
+                    webServer.getArchivedReportURL(info.getName()));
+        } catch (SocketException | UnknownHostException | URISyntaxException e) {
+            throw new ApiException(500, e.getMessage(), e);
+        }
+    }
+
+    // selects the first n matching entries in the given order without sorting everything
+    static List<ArchivedRecordingInfo> first(
+            Iterable<ArchivedRecordingInfo> infos,
+            Predicate<ArchivedRecordingInfo> filter,
+            Comparator<ArchivedRecordingInfo> order,
+            int n) {
+        PriorityQueue<ArchivedRecordingInfo> heap = new PriorityQueue<>(n, order.reversed());
+        for (ArchivedRecordingInfo info : infos) {
+            if (!filter.test(info)) {
+                continue;
+            }
+            if (heap.size() < n) {
+                heap.add(info);
+            } else if (order.compare(info, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(info);
+            }
+        }
+        List<ArchivedRecordingInfo> result = new ArrayList<>(heap);
+        result.sort(order);
+        return result;
+    }
+
+    private static String targetName(MultiMap query) {
+        String target = query.get("target");
+        return target == null ? null : target.replaceAll("[\\._]+", "-");
+    }
+
+    private static Predicate<ArchivedRecordingInfo> filter(MultiMap query) {
+        Predicate<ArchivedRecordingInfo> filter = info -> true;
+        String targetName = targetName(query);
+        if (targetName != null) {
+            filter = filter.and(info -> targetName.equals(info.getTargetName()));
+        }
+        String recording = query.get("recordingName");
+        if (recording != null) {
+            filter = filter.and(info -> recording.equals(info.getRecordingName()));
+        }
+        Long from = parseInstant(query, "from");
+        if (from != null) {
+            filter = filter.and(info -> info.getModifiedTime() >= from);
+        }
+        Long to = parseInstant(query, "to");
+        if (to != null) {
+            filter = filter.and(info -> info.getModifiedTime() < to);
+        }
+        Long minSize = parseSize(query, "minSize");
+        if (minSize != null) {
+            filter = filter.and(info -> info.getSize() >= minSize);
+        }
+        Long maxSize = parseSize(query, "maxSize");
+        if (maxSize != null) {
+            filter = filter.and(info -> info.getSize() <= maxSize);
+        }
+        return filter;
+    }
+
+    private static Long parseInstant(MultiMap query, String key) {
+        String value = query.get(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Instant.parse(value).toEpochMilli();
+        } catch (DateTimeParseException dtpe) {
+            throw new ApiException(400, String.format("Invalid %s timestamp", key), dtpe);
+        }
+    }
+
+    private static Long parseSize(MultiMap query, String key) {
+        String value = query.get(key);
+        if (value == null) {
+            return null;
+        }
+        try {
+            long size = Long.parseLong(value);
+            if (size < 0) {
+                throw new ApiException(400, String.format("Invalid %s", key));
+            }
+            return size;
+        } catch (NumberFormatException nfe) {
+            throw new ApiException(400, String.format("Invalid %s", key), nfe);
+        }
+    }
+
+    private static int parseLimit(String value) {
+        if (value == null) {
+            return DEFAULT_LIMIT;
+        }
+        try {
+            int limit = Integer.parseInt(value);
+            if (limit < 1 || limit > MAX_LIMIT) {
+                throw new ApiException(
+                        400, String.format("limit must be between 1 and %d", MAX_LIMIT));
+            }
+            return limit;
+        } catch (NumberFormatException nfe) {
+            throw new ApiException(400, "Invalid limit", nfe);
+        }
+    }
+
+    private static boolean parseOrder(String value) {
+        if (value == null || "asc".equalsIgnoreCase(value)) {
+            return false;
+        }
+        if ("desc".equalsIgnoreCase(value)) {
+            return true;
+        }
+        throw new ApiException(400, String.format("Unsupported order \"%s\"", value));
+    }
+
+    enum Sort {
+        NAME(Comparator.comparing(ArchivedRecordingInfo::getName)),
+        MODIFIED(
+                Comparator.comparingLong(ArchivedRecordingInfo::getModifiedTime)
+                        .thenComparing(ArchivedRecordingInfo::getName)),
+        SIZE(
+                Comparator.comparingLong(ArchivedRecordingInfo::getSize)
+                        .thenComparing(ArchivedRecordingInfo::getName)),
+        ;
+
+        final Comparator<ArchivedRecordingInfo> comparator;
+
+        Sort(Comparator<ArchivedRecordingInfo> comparator) {
+            this.comparator = comparator;
+        }
+
+        static Sort from(String sort) {
+            if (sort == null) {
+                return NAME;
+            }
+            for (Sort s : values()) {
+                if (s.name().equalsIgnoreCase(sort)) {
+                    return s;
+                }
+            }
+            throw new ApiException(400, String.format("Unsupported sort \"%s\"", sort));
+        }
+    }
+
+    // the sort key of the last entry on a page. Entries are ordered with the name as a tie
+    // breaker, so this identifies a unique position even if that entry has since been deleted.
+    static class Cursor {
+        final Sort sort;
+        final boolean descending;
+        final String name;
+        final long size;
+        final long modifiedTime;
+
+        Cursor(Sort sort, boolean descending, String name, long size, long modifiedTime) {
+            this.sort = sort;
+            this.descending = descending;
+            this.name = name;
+            this.size = size;
+            this.modifiedTime = modifiedTime;
+        }
+
+        static Cursor of(Sort sort, boolean descending, ArchivedRecordingInfo info) {
+            return new Cursor(
+                    sort, descending, info.getName(), info.getSize(), info.getModifiedTime());
+        }
+
+        ArchivedRecordingInfo toInfo() {
+            return new ArchivedRecordingInfo(name, size, modifiedTime, null);
+        }
+
+        String encode(Gson gson) {
+            return Base64.getUrlEncoder()
+                    .withoutPadding()
+                    .encodeToString(gson.toJson(this).getBytes(StandardCharsets.UTF_8));
+        }
+
+        static Cursor decode(Gson gson, String token) {
+            try {
+                Cursor cursor =
+                        gson.fromJson(
+                                new String(
+                                        Base64.getUrlDecoder().decode(token),
+                                        StandardCharsets.UTF_8),
+                                Cursor.class);
+                if (cursor == null || cursor.sort == null || cursor.name == null) {
+                    throw new ApiException(400, "Invalid cursor");
+                }
+                return cursor;
+            } catch (IllegalArgumentException | JsonParseException e) {
+                throw new ApiException(400, "Invalid cursor", e);
+            }
+        }
+    }
+
+    static class RecordingsPage {
+        final List<ArchivedRecordingDescriptor> recordings;
+        final String nextCursor;
+
+        RecordingsPage(List<ArchivedRecordingDescriptor> recordings, String nextCursor) {
+            this.recordings = recordings;
+            this.nextCursor = nextCursor;
+        }
+    }
+}
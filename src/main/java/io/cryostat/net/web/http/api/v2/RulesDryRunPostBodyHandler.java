@@ -35,7 +35,7 @@
  * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
  * SOFTWARE.
  */
-package io.cryostat.net.web.http.api.v1;
+package io.cryostat.net.web.http.api.v2;
 
 import javax.inject.Inject;
 
@@ -45,21 +45,22 @@ import io.cryostat.net.web.http.api.ApiVersion;
 
 import io.vertx.core.http.HttpMethod;
 import io.vertx.ext.web.RoutingContext;
-import io.vertx.ext.web.handler.BodyHandler;
 
-class RecordingsPostBodyHandler extends AbstractAuthenticatedRequestHandler {
-
-    private final BodyHandler bodyHandler;
+class RulesDryRunPostBodyHandler extends AbstractAuthenticatedRequestHandler {
 
     @Inject
-    RecordingsPostBodyHandler(AuthManager auth) {
+    RulesDryRunPostBodyHandler(AuthManager auth) {
         super(auth);
-        this.bodyHandler = BodyHandler.create(true);
+    }
+
+    @Override
+    public int getPriority() {
+        return DEFAULT_PRIORITY - 1;
     }
 
     @Override
     public ApiVersion apiVersion() {
-        return ApiVersion.V1;
+        return ApiVersion.V2;
     }
 
     @Override
@@ -69,11 +70,11 @@ class RecordingsPostBodyHandler extends AbstractAuthenticatedRequestHandler {
 
     @Override
     public String path() {
-        return basePath() + RecordingsPostHandler.PATH;
+        return basePath() + RulesDryRunPostHandler.PATH;
     }
 
     @Override
     public void handleAuthenticated(RoutingContext ctx) throws Exception {
-        this.bodyHandler.handle(ctx);
+        RulesPostBodyHandler.BODY_HANDLER.handle(ctx);
     }
 }
@@ -105,6 +105,26 @@ class RulesPostHandler extends AbstractV2RequestHandler<String> {
 
     @Override
     public IntermediateResponse<String> handle(RequestParameters params) throws ApiException {
+        Rule rule = parseRule(params, gson);
+
+        try {
+            rule = this.ruleRegistry.addRule(rule);
+        } catch (RuleException e) {
+            throw new ApiException(409, e);
+        } catch (IOException e) {
+            throw new ApiException(
+                    500,
+                    "IOException occurred while writing rule definition: " + e.getMessage(),
+                    e);
+        }
+
+        return new IntermediateResponse<String>()
+                .statusCode(201)
+                .addHeader(HttpHeaders.LOCATION, String.format("%s/%s", path(), rule.getName()))
+                .body(rule.getName());
+    }
+
+    static Rule parseRule(RequestParameters params, Gson gson) throws ApiException {
         Rule rule;
         String rawMime = params.getHeaders().get(HttpHeaders.CONTENT_TYPE);
         if (rawMime == null) {
@@ -135,21 +155,6 @@ class RulesPostHandler extends AbstractV2RequestHandler<String> {
             default:
                 throw new ApiException(415, "Bad content type: " + rawMime);
         }
-
-        try {
-            rule = this.ruleRegistry.addRule(rule);
-        } catch (RuleException e) {
-            throw new ApiException(409, e);
-        } catch (IOException e) {
-            throw new ApiException(
-                    500,
-                    "IOException occurred while writing rule definition: " + e.getMessage(),
-                    e);
-        }
-
-        return new IntermediateResponse<String>()
-                .statusCode(201)
-                .addHeader(HttpHeaders.LOCATION, String.format("%s/%s", path(), rule.getName()))
-                .body(rule.getName());
+        return rule;
     }
 }
@@ -0,0 +1,653 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.storage.StoredObject;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.output.NullOutputStream;
+
+/**
+ * In-memory view of the archived recordings, so that listings and lookups do not need to touch the
+ * storage. Cryostat's own saves are written through via {@link #put(StoredObject, String)}, while
+ * changes made by anything else are picked up by watching the directory and its shard
+ * subdirectories, or by periodic rescans when the storage is not local. Entries are additionally
+ * grouped by target so that per-target queries only visit that target's recordings. For local
+ * storage the index is persisted alongside the recordings so that digests do not need to be
+ * recomputed on startup.
+ */
+public class ArchiveIndex {
+
+    static final String INDEX_FILE = ".archive-index.json";
+    static final int INDEX_VERSION = 1;
+    static final long PERSIST_DELAY_MS = 5_000;
+    // files discovered by the watcher may still be in the middle of being written, so wait for
+    // them to settle before reading them back for a digest
+    static final long DIGEST_DELAY_MS = 2_000;
+    static final long RESCAN_PERIOD_MS = 30_000;
+    // sharded storage keeps recordings in <target>/<day>/ below the archive directory
+    static final int MAX_WATCH_DEPTH = 2;
+
+    private final ArchiveStorage storage;
+    private final ScheduledExecutorService executor;
+    private final Gson gson;
+    private final Logger logger;
+    private final ConcurrentNavigableMap<String, ArchivedRecordingInfo> entries;
+    private final Map<String, ConcurrentNavigableMap<String, ArchivedRecordingInfo>> byTarget;
+    private final NavigableSet<ArchivedRecordingInfo> byAge;
+    private final Map<String, Long> targetSizes;
+    private final List<Consumer<ArchivedRecordingInfo>> listeners;
+    // guards updates which must keep the views above and the totals consistent with the entries
+    private final Object lock;
+    private volatile long totalSize;
+    private final Map<WatchKey, Path> watchedDirs;
+    private final Map<String, ScheduledFuture<?>> pendingDigests;
+    private final AtomicBoolean persistScheduled;
+    private volatile WatchService watchService;
+    private volatile ScheduledFuture<?> rescanTask;
+
+    ArchiveIndex(
+            ArchiveStorage storage, ScheduledExecutorService executor, Gson gson, Logger logger) {
+        this.storage = storage;
+        this.executor = executor;
+        this.gson = gson;
+        this.logger = logger;
+        this.entries = new ConcurrentSkipListMap<>();
+        this.byTarget = new ConcurrentHashMap<>();
+        this.byAge =
+                new ConcurrentSkipListSet<>(
+                        Comparator.comparingLong(ArchivedRecordingInfo::getModifiedTime)
+                                .thenComparing(ArchivedRecordingInfo::getName));
+        this.targetSizes = new ConcurrentHashMap<>();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.lock = new Object();
+        this.watchedDirs = new ConcurrentHashMap<>();
+        this.pendingDigests = new ConcurrentHashMap<>();
+        this.persistScheduled = new AtomicBoolean();
+    }
+
+    public synchronized void start() throws IOException {
+        if (watchService != null || rescanTask != null) {
+            return;
+        }
+        try {
+            storage.checkAvailable();
+        } catch (IOException ioe) {
+            logger.warn("Archive storage is unavailable, recordings will not be indexed");
+            logger.warn(ioe);
+            return;
+        }
+        try {
+            storage.prepare();
+        } catch (IOException ioe) {
+            logger.warn("Failed to prepare archive storage");
+            logger.warn(ioe);
+        }
+        try {
+            int removed = storage.removeStaleStagedFiles(System.currentTimeMillis());
+            if (removed > 0) {
+                logger.info("Removed {} files left over from unfinished archive writes", removed);
+            }
+        } catch (IOException ioe) {
+            logger.warn("Failed to remove stale staged files");
+            logger.warn(ioe);
+        }
+        Optional<Path> dir = storage.localDirectory();
+        if (dir.isEmpty()) {
+            rescan();
+            rescanTask =
+                    executor.scheduleWithFixedDelay(
+                            () -> {
+                                try {
+                                    rescan();
+                                } catch (Exception e) {
+                                    logger.warn(e);
+                                }
+                            },
+                            RESCAN_PERIOD_MS,
+                            RESCAN_PERIOD_MS,
+                            TimeUnit.MILLISECONDS);
+            logger.info("Archive index started with {} recordings", entries.size());
+            return;
+        }
+        Path archivePath = dir.get();
+        // register for changes before the initial scan so nothing can slip in between the two
+        this.watchService = archivePath.getFileSystem().newWatchService();
+        register(archivePath, archivePath);
+        load(archivePath);
+        rescan();
+        Thread watcher = new Thread(() -> watch(archivePath), "archive-index-watcher");
+        watcher.setDaemon(true);
+        watcher.start();
+        logger.info("Archive index started with {} recordings", entries.size());
+    }
+
+    public synchronized void stop() throws IOException {
+        if (rescanTask != null) {
+            rescanTask.cancel(false);
+            rescanTask = null;
+        }
+        if (watchService == null) {
+            return;
+        }
+        watchService.close();
+        watchService = null;
+        watchedDirs.clear();
+        persist();
+    }
+
+    public List<ArchivedRecordingInfo> list() {
+        return new ArrayList<>(entries.values());
+    }
+
+    /** @param targetName the sanitized target alias, as in {@link ArchivedRecordingInfo} */
+    public List<ArchivedRecordingInfo> list(String targetName) {
+        NavigableMap<String, ArchivedRecordingInfo> target = byTarget.get(targetName);
+        return target == null ? List.of() : new ArrayList<>(target.values());
+    }
+
+    /**
+     * @param after the name to start after, exclusive, or null to start from the first entry
+     * @param descending whether to walk the entries in reverse name order
+     * @return a live, weakly consistent view of the entries ordered by name
+     */
+    public Collection<ArchivedRecordingInfo> listAfter(String after, boolean descending) {
+        return listAfter(entries, after, descending);
+    }
+
+    /**
+     * As {@link #listAfter(String, boolean)}, restricted to the recordings of one target.
+     *
+     * @param targetName the sanitized target alias, as in {@link ArchivedRecordingInfo}
+     */
+    public Collection<ArchivedRecordingInfo> listAfter(
+            String targetName, String after, boolean descending) {
+        ConcurrentNavigableMap<String, ArchivedRecordingInfo> target = byTarget.get(targetName);
+        if (target == null) {
+            return List.of();
+        }
+        return listAfter(target, after, descending);
+    }
+
+    private static Collection<ArchivedRecordingInfo> listAfter(
+            ConcurrentNavigableMap<String, ArchivedRecordingInfo> map,
+            String after,
+            boolean descending) {
+        NavigableMap<String, ArchivedRecordingInfo> view = descending ? map.descendingMap() : map;
+        if (after != null) {
+            view = view.tailMap(after, false);
+        }
+        return Collections.unmodifiableCollection(view.values());
+    }
+
+    /** @return a live, weakly consistent view of the entries, least recently modified first */
+    public Collection<ArchivedRecordingInfo> oldestFirst() {
+        return Collections.unmodifiableCollection(byAge);
+    }
+
+    /**
+     * @param targetName the sanitized target alias, as in {@link ArchivedRecordingInfo}
+     * @return the target's entries, least recently modified first
+     */
+    public List<ArchivedRecordingInfo> oldestFirst(String targetName) {
+        List<ArchivedRecordingInfo> infos = list(targetName);
+        infos.sort(byAge.comparator());
+        return infos;
+    }
+
+    /** @return the total size of all entries, in bytes */
+    public long getTotalSize() {
+        return totalSize;
+    }
+
+    /** @return the total size of each target's entries, in bytes, by sanitized target alias */
+    public Map<String, Long> getTargetSizes() {
+        return Collections.unmodifiableMap(targetSizes);
+    }
+
+    public long getTargetSize(String targetName) {
+        return targetSizes.getOrDefault(targetName, 0L);
+    }
+
+    /**
+     * Be notified of every entry which is added or changed, ex. to react to the archive growing.
+     */
+    public void addListener(Consumer<ArchivedRecordingInfo> listener) {
+        listeners.add(listener);
+    }
+
+    public Optional<ArchivedRecordingInfo> get(String name) {
+        return Optional.ofNullable(entries.get(name));
+    }
+
+    public boolean contains(String name) {
+        return entries.containsKey(name);
+    }
+
+    /**
+     * Record an object which Cryostat has just finished writing into the archive.
+     *
+     * @param digest the hex SHA-256 digest of the contents if it was computed while writing, or
+     *     null to have it computed in the background
+     */
+    public ArchivedRecordingInfo put(StoredObject object, String digest) {
+        String name = object.getName();
+        ArchivedRecordingInfo info =
+                new ArchivedRecordingInfo(name, object.getSize(), object.getLastModified(), digest);
+        store(info);
+        if (digest == null) {
+            scheduleDigest(name);
+        } else {
+            cancelDigest(name);
+        }
+        schedulePersist();
+        return info;
+    }
+
+    public void remove(String name) {
+        cancelDigest(name);
+        synchronized (lock) {
+            ArchivedRecordingInfo removed = entries.remove(name);
+            if (removed == null) {
+                return;
+            }
+            unaccount(removed);
+        }
+        schedulePersist();
+    }
+
+    public static MessageDigest newDigest() {
+        return DigestUtils.getSha256Digest();
+    }
+
+    public static String toHex(MessageDigest digest) {
+        return Hex.encodeHexString(digest.digest());
+    }
+
+    void rescan() throws IOException {
+        Set<String> present = new HashSet<>();
+        for (StoredObject object : storage.list()) {
+            present.add(object.getName());
+            update(object);
+        }
+        // an object put while the listing was in progress may be missing from it, so check again
+        // before evicting anything which was not listed
+        for (String name : entries.keySet()) {
+            if (!present.contains(name)) {
+                refresh(name);
+            }
+        }
+        schedulePersist();
+    }
+
+    void refresh(String name) throws IOException {
+        Optional<StoredObject> object = storage.stat(name);
+        if (object.isEmpty()) {
+            remove(name);
+            return;
+        }
+        update(object.get());
+    }
+
+    private void update(StoredObject object) {
+        String name = object.getName();
+        long size = object.getSize();
+        long modified = object.getLastModified();
+        ArchivedRecordingInfo current = entries.get(name);
+        if (current != null && current.sameFile(size, modified)) {
+            if (current.getDigest() == null) {
+                scheduleDigest(name);
+            }
+            return;
+        }
+        store(new ArchivedRecordingInfo(name, size, modified, null));
+        scheduleDigest(name);
+        schedulePersist();
+    }
+
+    void computeDigest(String name) {
+        pendingDigests.remove(name);
+        ArchivedRecordingInfo info = entries.get(name);
+        if (info == null || info.getDigest() != null) {
+            return;
+        }
+        try {
+            MessageDigest digest = newDigest();
+            try (InputStream in = new DigestInputStream(storage.get(name, 0, -1), digest)) {
+                in.transferTo(NullOutputStream.NULL_OUTPUT_STREAM);
+            }
+            Optional<StoredObject> object = storage.stat(name);
+            if (object.isEmpty()) {
+                remove(name);
+                return;
+            }
+            // if the object changed while it was being read then the watcher or the next rescan
+            // will see that change and schedule another attempt
+            if (!info.sameFile(object.get().getSize(), object.get().getLastModified())) {
+                return;
+            }
+            synchronized (lock) {
+                ArchivedRecordingInfo digested = info.withDigest(toHex(digest));
+                if (!entries.replace(name, info, digested)) {
+                    return;
+                }
+                unaccount(info);
+                account(digested);
+            }
+            schedulePersist();
+        } catch (NoSuchFileException nsfe) {
+            remove(name);
+        } catch (IOException ioe) {
+            logger.warn(ioe);
+        }
+    }
+
+    void persist() throws IOException {
+        Optional<Path> dir = storage.localDirectory();
+        if (dir.isEmpty()) {
+            return;
+        }
+        Path archivePath = dir.get();
+        Path tmp = archivePath.resolve(INDEX_FILE + ".tmp");
+        Files.writeString(
+                tmp,
+                gson.toJson(new PersistedIndex(list())),
+                StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        Files.move(
+                tmp,
+                archivePath.resolve(INDEX_FILE),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load(Path archivePath) {
+        Path indexFile = archivePath.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(indexFile)) {
+            return;
+        }
+        try {
+            PersistedIndex persisted =
+                    gson.fromJson(Files.readString(indexFile), PersistedIndex.class);
+            if (persisted == null
+                    || persisted.version != INDEX_VERSION
+                    || persisted.recordings == null) {
+                return;
+            }
+            // entries are verified against the directory contents by the rescan that follows
+            persisted.recordings.forEach(this::store);
+        } catch (IOException | JsonParseException e) {
+            logger.warn("Discarding unreadable archive index {}", indexFile);
+            logger.warn(e);
+        }
+    }
+
+    private void store(ArchivedRecordingInfo info) {
+        synchronized (lock) {
+            ArchivedRecordingInfo previous = entries.put(info.getName(), info);
+            if (previous != null) {
+                unaccount(previous);
+            }
+            account(info);
+        }
+        for (Consumer<ArchivedRecordingInfo> listener : listeners) {
+            try {
+                listener.accept(info);
+            } catch (Exception e) {
+                logger.warn(e);
+            }
+        }
+    }
+
+    private void account(ArchivedRecordingInfo info) {
+        byAge.add(info);
+        totalSize += info.getSize();
+        String targetName = info.getTargetName();
+        if (targetName != null) {
+            byTarget.computeIfAbsent(targetName, k -> new ConcurrentSkipListMap<>())
+                    .put(info.getName(), info);
+            targetSizes.merge(targetName, info.getSize(), Long::sum);
+        }
+    }
+
+    private void unaccount(ArchivedRecordingInfo info) {
+        byAge.remove(info);
+        totalSize -= info.getSize();
+        String targetName = info.getTargetName();
+        if (targetName != null) {
+            byTarget.computeIfPresent(
+                    targetName,
+                    (k, target) -> {
+                        target.remove(info.getName());
+                        return target.isEmpty() ? null : target;
+                    });
+            targetSizes.computeIfPresent(
+                    targetName, (k, size) -> size == info.getSize() ? null : size - info.getSize());
+        }
+    }
+
+    /** Watch the directory and any subdirectories down to {@link #MAX_WATCH_DEPTH}. */
+    private void register(Path archivePath, Path dir) throws IOException {
+        WatchService ws = this.watchService;
+        if (ws == null) {
+            return;
+        }
+        watchedDirs.put(dir.register(ws, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+        if (archivePath.relativize(dir).toString().isEmpty()
+                || archivePath.relativize(dir).getNameCount() < MAX_WATCH_DEPTH) {
+            try (DirectoryStream<Path> children =
+                    Files.newDirectoryStream(
+                            dir,
+                            child ->
+                                    !isHidden(child.getFileName().toString())
+                                            && Files.isDirectory(child))) {
+                for (Path child : children) {
+                    register(archivePath, child);
+                }
+            }
+        }
+    }
+
+    private void watch(Path archivePath) {
+        while (true) {
+            WatchService ws = this.watchService;
+            if (ws == null) {
+                return;
+            }
+            WatchKey key;
+            try {
+                key = ws.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path dir = watchedDirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                try {
+                    if (dir != null) {
+                        handleEvent(archivePath, dir, event);
+                    }
+                } catch (Exception e) {
+                    logger.warn(e);
+                }
+            }
+            if (!key.reset()) {
+                watchedDirs.remove(key);
+                if (archivePath.equals(dir)) {
+                    logger.warn(
+                            "Archive path {} is no longer watchable, index will go stale",
+                            archivePath);
+                    return;
+                }
+            }
+        }
+    }
+
+    void handleEvent(Path archivePath, Path dir, WatchEvent<?> event) throws IOException {
+        if (event.kind() == OVERFLOW) {
+            rescan();
+            return;
+        }
+        Path child = dir.resolve((Path) event.context());
+        String name = child.getFileName().toString();
+        if (isHidden(name)) {
+            return;
+        }
+        if (event.kind() == ENTRY_CREATE
+                && Files.isDirectory(child)
+                && archivePath.relativize(child).getNameCount() <= MAX_WATCH_DEPTH) {
+            register(archivePath, child);
+            // anything written into the new directory before it was registered produced no events
+            try (Stream<Path> files = Files.walk(child)) {
+                for (Path file : (Iterable<Path>) files.filter(Files::isRegularFile)::iterator) {
+                    String fileName = file.getFileName().toString();
+                    if (!isHidden(fileName)) {
+                        refresh(fileName);
+                    }
+                }
+            }
+            return;
+        }
+        // deletions are checked too, since a recording being moved between layouts shows up as a
+        // deletion from one directory and a creation in another, in no particular order
+        refresh(name);
+    }
+
+    private void scheduleDigest(String name) {
+        if (storage.localDirectory().isEmpty()) {
+            // without a persisted index this would download the entire archive on every start,
+            // so only objects written through this index carry digests
+            return;
+        }
+        pendingDigests.compute(
+                name,
+                (k, pending) -> {
+                    if (pending != null) {
+                        pending.cancel(false);
+                    }
+                    return executor.schedule(
+                            () -> computeDigest(name), DIGEST_DELAY_MS, TimeUnit.MILLISECONDS);
+                });
+    }
+
+    private void cancelDigest(String name) {
+        ScheduledFuture<?> pending = pendingDigests.remove(name);
+        if (pending != null) {
+            pending.cancel(false);
+        }
+    }
+
+    private void schedulePersist() {
+        if (watchService == null || !persistScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executor.schedule(
+                () -> {
+                    persistScheduled.set(false);
+                    try {
+                        persist();
+                    } catch (IOException ioe) {
+                        logger.warn(ioe);
+                    }
+                },
+                PERSIST_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean isHidden(String name) {
+        // in-progress uploads and the index file itself
+        return name.startsWith(".");
+    }
+
+    static class PersistedIndex {
+        final int version;
+        final List<ArchivedRecordingInfo> recordings;
+
+        PersistedIndex(List<ArchivedRecordingInfo> recordings) {
+            this.version = INDEX_VERSION;
+            this.recordings = recordings;
+        }
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.messaging.notifications.NotificationFactory;
+import io.cryostat.net.reports.ReportService;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.recordings.storage.ArchiveStorage;
+
+/**
+ * Keeps the archive within the configured budgets by deleting archived recordings, least recently
+ * modified first. This applies to all recordings regardless of how they were archived. Totals are
+ * maintained by the {@link ArchiveIndex}, so a check which finds nothing to do costs almost nothing
+ * and can run after every addition to the archive as well as periodically.
+ */
+public class ArchiveRetention {
+
+    static final String NOTIFICATION_CATEGORY = "RecordingDeleted";
+    static final long CHECK_PERIOD_MS = 60_000;
+
+    public enum Reason {
+        MAX_AGE,
+        TARGET_SIZE,
+        TOTAL_SIZE,
+    }
+
+    private final ArchiveIndex archiveIndex;
+    private final ArchiveStorage storage;
+    private final ReportService reportService;
+    private final NotificationFactory notificationFactory;
+    private final ScheduledExecutorService executor;
+    private final Clock clock;
+    private final Logger logger;
+    private final long maxTotalBytes;
+    private final long maxTargetBytes;
+    private final long maxAgeMs;
+    private final AtomicBoolean enforcementScheduled;
+
+    /**
+     * @param maxTotalBytes the size the whole archive may grow to, or 0 for no limit
+     * @param maxTargetBytes the size any one target's recordings may grow to, or 0 for no limit
+     * @param maxAgeMs how long recordings are kept after they were last modified, or 0 for ever
+     */
+    ArchiveRetention(
+            ArchiveIndex archiveIndex,
+            ArchiveStorage storage,
+            ReportService reportService,
+            NotificationFactory notificationFactory,
+            ScheduledExecutorService executor,
+            Clock clock,
+            Logger logger,
+            long maxTotalBytes,
+            long maxTargetBytes,
+            long maxAgeMs) {
+        this.archiveIndex = archiveIndex;
+        this.storage = storage;
+        this.reportService = reportService;
+        this.notificationFactory = notificationFactory;
+        this.executor = executor;
+        this.clock = clock;
+        this.logger = logger;
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxTargetBytes = maxTargetBytes;
+        this.maxAgeMs = maxAgeMs;
+        this.enforcementScheduled = new AtomicBoolean();
+    }
+
+    public boolean isEnabled() {
+        return maxTotalBytes > 0 || maxTargetBytes > 0 || maxAgeMs > 0;
+    }
+
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        logger.info(
+                "Archive retention enabled with total size limit {}B, per-target limit {}B, age"
+                        + " limit {}ms",
+                maxTotalBytes,
+                maxTargetBytes,
+                maxAgeMs);
+        archiveIndex.addListener(
+                info -> {
+                    if (isOverBudget(info.getTargetName())) {
+                        scheduleEnforcement();
+                    }
+                });
+        executor.scheduleWithFixedDelay(
+                this::scheduleEnforcement, 0, CHECK_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    void enforce() {
+        if (maxAgeMs > 0) {
+            long cutoff = clock.getWallTime() - maxAgeMs;
+            for (ArchivedRecordingInfo info : archiveIndex.oldestFirst()) {
+                if (info.getModifiedTime() >= cutoff) {
+                    break;
+                }
+                delete(info, Reason.MAX_AGE);
+            }
+        }
+        if (maxTargetBytes > 0) {
+            for (Map.Entry<String, Long> target : archiveIndex.getTargetSizes().entrySet()) {
+                if (target.getValue() <= maxTargetBytes) {
+                    continue;
+                }
+                for (ArchivedRecordingInfo info : archiveIndex.oldestFirst(target.getKey())) {
+                    if (archiveIndex.getTargetSize(target.getKey()) <= maxTargetBytes) {
+                        break;
+                    }
+                    delete(info, Reason.TARGET_SIZE);
+                }
+            }
+        }
+        if (maxTotalBytes > 0) {
+            for (ArchivedRecordingInfo info : archiveIndex.oldestFirst()) {
+                if (archiveIndex.getTotalSize() <= maxTotalBytes) {
+                    break;
+                }
+                delete(info, Reason.TOTAL_SIZE);
+            }
+        }
+    }
+
+    private boolean isOverBudget(String targetName) {
+        return (maxTotalBytes > 0 && archiveIndex.getTotalSize() > maxTotalBytes)
+                || (maxTargetBytes > 0
+                        && targetName != null
+                        && archiveIndex.getTargetSize(targetName) > maxTargetBytes);
+    }
+
+    private void scheduleEnforcement() {
+        if (!enforcementScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executor.execute(
+                () -> {
+                    enforcementScheduled.set(false);
+                    try {
+                        enforce();
+                    } catch (Exception e) {
+                        logger.warn(e);
+                    }
+                });
+    }
+
+    private void delete(ArchivedRecordingInfo info, Reason reason) {
+        String name = info.getName();
+        try {
+            if (!storage.delete(name)) {
+                // already gone, only the index was behind
+                archiveIndex.remove(name);
+                return;
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("Failed to delete archived recording {}", name);
+            logger.warn(e);
+            return;
+        }
+        archiveIndex.remove(name);
+        reportService.delete(name);
+        logger.info("Deleted archived recording {} ({})", name, reason);
+        notificationFactory
+                .createBuilder()
+                .metaCategory(NOTIFICATION_CATEGORY)
+                .metaType(HttpMimeType.JSON)
+                .message(Map.of("recording", name, "reason", reason.name()))
+                .build()
+                .send();
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+/**
+ * Remembers which JFR chunks of a recording have already been archived, so that an incremental
+ * archive only needs to fetch the chunks written since. Completed chunks are never rewritten, so
+ * their start times are enough to tell them apart. The cursor is reset if the recording it followed
+ * is replaced by another of the same name.
+ */
+public class ChunkCursor {
+
+    private long recordingId = -1;
+    private long lastStartNanos = Long.MIN_VALUE;
+    private long endNanos = Long.MIN_VALUE;
+
+    public synchronized boolean isEmpty() {
+        return recordingId < 0;
+    }
+
+    /** @return the start time of the last chunk already archived */
+    public synchronized long getLastStartNanos() {
+        return lastStartNanos;
+    }
+
+    /** @return the end time of the last chunk already archived */
+    public synchronized long getEndNanos() {
+        return endNanos;
+    }
+
+    synchronized boolean follows(long recordingId) {
+        return this.recordingId == recordingId;
+    }
+
+    synchronized void advance(long recordingId, long lastStartNanos, long endNanos) {
+        if (this.recordingId != recordingId) {
+            this.lastStartNanos = Long.MIN_VALUE;
+            this.endNanos = Long.MIN_VALUE;
+        }
+        this.recordingId = recordingId;
+        this.lastStartNanos = Math.max(this.lastStartNanos, lastStartNanos);
+        this.endNanos = Math.max(this.endNanos, endNanos);
+    }
+
+    public synchronized void reset() {
+        this.recordingId = -1;
+        this.lastStartNanos = Long.MIN_VALUE;
+        this.endNanos = Long.MIN_VALUE;
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
+import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.net.JFRConnection;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.core.sys.FileSystem;
+import io.cryostat.recordings.storage.ArchiveStorage;
+
+/**
+ * Opens streams of recording data from a target JVM. With a parallelism greater than one, the
+ * recording's data time range is split into that many slices which are fetched concurrently as
+ * separate JMX streams, each spooled to a file in the archive storage's staging directory. The
+ * slices are then replayed in order as a single stream. Each time-ranged stream contains whole JFR
+ * chunks, so chunks which straddle a slice boundary are delivered by both neighbouring slices and
+ * are de-duplicated by their start time during reassembly.
+ */
+public class ChunkedRecordingFetcher {
+
+    private final int parallelism;
+    private final ArchiveStorage storage;
+    private final FileSystem fs;
+    private final ExecutorService executor;
+    private final Clock clock;
+    private final Logger logger;
+
+    ChunkedRecordingFetcher(
+            int parallelism,
+            ArchiveStorage storage,
+            FileSystem fs,
+            ExecutorService executor,
+            Clock clock,
+            Logger logger) {
+        this.parallelism = parallelism;
+        this.storage = storage;
+        this.fs = fs;
+        this.executor = executor;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    public InputStream openStream(JFRConnection connection, IRecordingDescriptor descriptor)
+            throws Exception {
+        IFlightRecorderService service = connection.getService();
+        if (parallelism < 2) {
+            return service.openStream(descriptor, false);
+        }
+        IQuantity dataStart = descriptor.getDataStartTime();
+        if (dataStart == null) {
+            return service.openStream(descriptor, false);
+        }
+        long startNanos = dataStart.clampedLongValueIn(UnitLookup.EPOCH_NS);
+        long endNanos = clock.getWallTime() * 1_000_000L;
+        IQuantity dataEnd = descriptor.getDataEndTime();
+        if (dataEnd != null) {
+            endNanos = Math.max(endNanos, dataEnd.clampedLongValueIn(UnitLookup.EPOCH_NS));
+        }
+        long span = endNanos - startNanos;
+        if (span < parallelism) {
+            return service.openStream(descriptor, false);
+        }
+
+        long sliceNanos = span / parallelism;
+        List<Future<Path>> slices = new ArrayList<>(parallelism);
+        for (int i = 0; i < parallelism; i++) {
+            long from = startNanos + i * sliceNanos;
+            // the final slice is left open-ended so that data written while the fetch is in
+            // progress is not cut off
+            long to = i == parallelism - 1 ? Long.MAX_VALUE : from + sliceNanos;
+            slices.add(executor.submit(() -> fetchSlice(service, descriptor, from, to)));
+        }
+
+        List<Path> files = new ArrayList<>(parallelism);
+        Exception failure = null;
+        for (Future<Path> slice : slices) {
+            try {
+                files.add(slice.get());
+            } catch (ExecutionException ee) {
+                if (failure == null) {
+                    failure = ee.getCause() instanceof Exception ? (Exception) ee.getCause() : ee;
+                }
+            }
+        }
+        if (failure != null) {
+            for (Path file : files) {
+                fs.deleteIfExists(file);
+            }
+            throw failure;
+        }
+        logger.trace("Fetched {} in {} parallel slices", descriptor.getName(), files.size());
+        return new ChunkMergingInputStream(fs, files);
+    }
+
+    /**
+     * Opens a stream of only the chunks holding data from the given time onwards. Completed chunks
+     * which started before that time may still be included if they overlap it.
+     */
+    public InputStream openStream(
+            JFRConnection connection, IRecordingDescriptor descriptor, long fromNanos)
+            throws Exception {
+        return connection
+                .getService()
+                .openStream(
+                        descriptor,
+                        UnitLookup.EPOCH_NS.quantity(fromNanos),
+                        UnitLookup.EPOCH_NS.quantity(Long.MAX_VALUE),
+                        false);
+    }
+
+    private Path fetchSlice(
+            IFlightRecorderService service, IRecordingDescriptor descriptor, long from, long to)
+            throws Exception {
+        Path file = ArchiveStorage.newStagedFile(storage.stagingDirectory(), "fetch");
+        try (InputStream stream =
+                service.openStream(
+                        descriptor,
+                        UnitLookup.EPOCH_NS.quantity(from),
+                        UnitLookup.EPOCH_NS.quantity(to),
+                        false)) {
+            fs.copy(stream, file);
+            return file;
+        } catch (Exception e) {
+            fs.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    /**
+     * Replays a sequence of JFR files as one stream, skipping any chunk which does not start later
+     * than the last chunk already emitted. The backing files are deleted when the stream is closed.
+     */
+    static class ChunkMergingInputStream extends InputStream {
+
+        private final FileSystem fs;
+        private final List<Path> files;
+        private int fileIndex = -1;
+        private FileChannel channel;
+        private long position;
+        private long remaining;
+        private long lastStartNanos = Long.MIN_VALUE;
+        private boolean closed;
+
+        ChunkMergingInputStream(FileSystem fs, List<Path> files) {
+            this.fs = fs;
+            this.files = files;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Stream closed");
+            }
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, remaining)), position);
+            if (n < 0) {
+                throw new IOException("Unexpected end of JFR chunk");
+            }
+            position += n;
+            remaining -= n;
+            return n;
+        }
+
+        private boolean nextChunk() throws IOException {
+            while (remaining == 0) {
+                if (channel == null || position >= channel.size()) {
+                    if (channel != null) {
+                        channel.close();
+                        channel = null;
+                    }
+                    if (++fileIndex >= files.size()) {
+                        return false;
+                    }
+                    channel = FileChannel.open(files.get(fileIndex), StandardOpenOption.READ);
+                    position = 0;
+                    continue;
+                }
+                JfrChunkHeader header = JfrChunkHeader.read(channel, position);
+                if (position + header.getChunkSize() > channel.size()) {
+                    throw new IOException("Truncated JFR chunk");
+                }
+                if (header.getStartNanos() > lastStartNanos) {
+                    lastStartNanos = header.getStartNanos();
+                    remaining = header.getChunkSize();
+                } else {
+                    position += header.getChunkSize();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            IOException failure = null;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            for (Path file : files) {
+                try {
+                    fs.deleteIfExists(file);
+                } catch (IOException e) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Passes through only the chunks of a JFR stream which start later than a given time, and
+     * records the extent of the chunks passed through.
+     */
+    static class NewChunksInputStream extends InputStream {
+
+        private final InputStream in;
+        private final long afterStartNanos;
+        private byte[] header;
+        private int headerPosition;
+        private long remaining;
+        private int chunkCount;
+        private long lastStartNanos = Long.MIN_VALUE;
+        private long endNanos = Long.MIN_VALUE;
+
+        NewChunksInputStream(InputStream in, long afterStartNanos) {
+            this.in = in;
+            this.afterStartNanos = afterStartNanos;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!nextChunk()) {
+                return -1;
+            }
+            if (header != null && headerPosition < header.length) {
+                int n = Math.min(len, header.length - headerPosition);
+                System.arraycopy(header, headerPosition, b, off, n);
+                headerPosition += n;
+                return n;
+            }
+            int n = in.read(b, off, (int) Math.min(len, remaining));
+            if (n < 0) {
+                throw new IOException("Truncated JFR chunk");
+            }
+            remaining -= n;
+            return n;
+        }
+
+        private boolean nextChunk() throws IOException {
+            while ((header == null || headerPosition == header.length) && remaining == 0) {
+                byte[] bytes = in.readNBytes(JfrChunkHeader.SIZE);
+                if (bytes.length == 0) {
+                    return false;
+                }
+                JfrChunkHeader chunk = JfrChunkHeader.parse(bytes);
+                long body = chunk.getChunkSize() - JfrChunkHeader.SIZE;
+                if (chunk.getStartNanos() <= afterStartNanos) {
+                    skipFully(body);
+                    continue;
+                }
+                header = bytes;
+                headerPosition = 0;
+                remaining = body;
+                chunkCount++;
+                lastStartNanos = Math.max(lastStartNanos, chunk.getStartNanos());
+                endNanos = Math.max(endNanos, chunk.getStartNanos() + chunk.getDurationNanos());
+            }
+            return true;
+        }
+
+        private void skipFully(long n) throws IOException {
+            while (n > 0) {
+                long skipped = in.skip(n);
+                if (skipped <= 0) {
+                    if (in.read() < 0) {
+                        throw new IOException("Truncated JFR chunk");
+                    }
+                    skipped = 1;
+                }
+                n -= skipped;
+            }
+        }
+
+        int getChunkCount() {
+            return chunkCount;
+        }
+
+        long getLastStartNanos() {
+            return lastStartNanos;
+        }
+
+        long getEndNanos() {
+            return endNanos;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
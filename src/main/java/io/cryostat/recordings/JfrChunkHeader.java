@@ -0,0 +1,148 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The fixed-size header at the start of every chunk in a JFR recording file. A recording file is a
+ * concatenation of self-contained chunks, each of which begins with this header and declares its
+ * own total size, so chunk boundaries can be found without parsing any event data.
+ */
+public class JfrChunkHeader {
+
+    public static final int SIZE = 68;
+
+    private static final byte[] MAGIC = {'F', 'L', 'R', 0};
+
+    private final int majorVersion;
+    private final int minorVersion;
+    private final long chunkSize;
+    private final long constantPoolOffset;
+    private final long metadataOffset;
+    private final long startNanos;
+    private final long durationNanos;
+
+    JfrChunkHeader(
+            int majorVersion,
+            int minorVersion,
+            long chunkSize,
+            long constantPoolOffset,
+            long metadataOffset,
+            long startNanos,
+            long durationNanos) {
+        this.majorVersion = majorVersion;
+        this.minorVersion = minorVersion;
+        this.chunkSize = chunkSize;
+        this.constantPoolOffset = constantPoolOffset;
+        this.metadataOffset = metadataOffset;
+        this.startNanos = startNanos;
+        this.durationNanos = durationNanos;
+    }
+
+    public static JfrChunkHeader parse(byte[] bytes) throws IOException {
+        if (bytes.length < SIZE) {
+            throw new IOException("Truncated JFR chunk header");
+        }
+        ByteBuffer buf = ByteBuffer.wrap(bytes, 0, SIZE).order(ByteOrder.BIG_ENDIAN);
+        for (byte b : MAGIC) {
+            if (buf.get() != b) {
+                throw new IOException("Not a JFR chunk: bad magic");
+            }
+        }
+        int major = Short.toUnsignedInt(buf.getShort());
+        int minor = Short.toUnsignedInt(buf.getShort());
+        long chunkSize = buf.getLong();
+        long constantPoolOffset = buf.getLong();
+        long metadataOffset = buf.getLong();
+        long startNanos = buf.getLong();
+        long durationNanos = buf.getLong();
+        if (chunkSize < SIZE) {
+            throw new IOException(String.format("Invalid JFR chunk size %d", chunkSize));
+        }
+        return new JfrChunkHeader(
+                major,
+                minor,
+                chunkSize,
+                constantPoolOffset,
+                metadataOffset,
+                startNanos,
+                durationNanos);
+    }
+
+    public static JfrChunkHeader read(FileChannel channel, long position) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(SIZE);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new IOException("Truncated JFR chunk header");
+            }
+        }
+        return parse(buf.array());
+    }
+
+    public int getMajorVersion() {
+        return majorVersion;
+    }
+
+    public int getMinorVersion() {
+        return minorVersion;
+    }
+
+    public long getChunkSize() {
+        return chunkSize;
+    }
+
+    public long getConstantPoolOffset() {
+        return constantPoolOffset;
+    }
+
+    public long getMetadataOffset() {
+        return metadataOffset;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+}
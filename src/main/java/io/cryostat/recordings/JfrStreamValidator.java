@@ -0,0 +1,130 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import java.io.IOException;
+
+/**
+ * Incrementally checks that a byte stream is structurally a JFR recording, without parsing any
+ * events: the stream must be a sequence of one or more complete chunks, each with a valid header
+ * whose constant pool and metadata offsets point inside the chunk. Only chunk headers are buffered,
+ * so validation runs in constant memory as the data passes through.
+ */
+public class JfrStreamValidator {
+
+    static final int MIN_MAJOR_VERSION = 0;
+    static final int MAX_MAJOR_VERSION = 2;
+
+    private final byte[] header = new byte[JfrChunkHeader.SIZE];
+    private int headerFill;
+    private long remainingInChunk;
+    private int chunkCount;
+    private long byteCount;
+
+    public void accept(byte[] bytes, int offset, int length) throws IOException {
+        int pos = offset;
+        int end = offset + length;
+        while (pos < end) {
+            if (remainingInChunk > 0) {
+                int skip = (int) Math.min(remainingInChunk, end - pos);
+                remainingInChunk -= skip;
+                pos += skip;
+                continue;
+            }
+            int copy = Math.min(header.length - headerFill, end - pos);
+            System.arraycopy(bytes, pos, header, headerFill, copy);
+            headerFill += copy;
+            pos += copy;
+            if (headerFill == header.length) {
+                JfrChunkHeader chunk = JfrChunkHeader.parse(header);
+                validate(chunk);
+                headerFill = 0;
+                remainingInChunk = chunk.getChunkSize() - JfrChunkHeader.SIZE;
+                chunkCount++;
+            }
+        }
+        byteCount += length;
+    }
+
+    public void accept(byte[] bytes) throws IOException {
+        accept(bytes, 0, bytes.length);
+    }
+
+    public void finish() throws IOException {
+        if (headerFill > 0 || remainingInChunk > 0) {
+            throw new IOException(
+                    String.format("Truncated JFR recording after %d bytes", byteCount));
+        }
+        if (chunkCount == 0) {
+            throw new IOException("Empty JFR recording");
+        }
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    private void validate(JfrChunkHeader chunk) throws IOException {
+        if (chunk.getMajorVersion() < MIN_MAJOR_VERSION
+                || chunk.getMajorVersion() > MAX_MAJOR_VERSION) {
+            throw new IOException(
+                    String.format(
+                            "Unsupported JFR version %d.%d",
+                            chunk.getMajorVersion(), chunk.getMinorVersion()));
+        }
+        // JFR 0.9 recordings from JDK 7 and 8 share the magic, version and chunk size fields, but
+        // lay out the rest of the header differently
+        if (chunk.getMajorVersion() == 0) {
+            return;
+        }
+        if (!isInChunk(chunk, chunk.getConstantPoolOffset())) {
+            throw new IOException("JFR chunk constant pool offset out of bounds");
+        }
+        if (!isInChunk(chunk, chunk.getMetadataOffset())) {
+            throw new IOException("JFR chunk metadata offset out of bounds");
+        }
+    }
+
+    private static boolean isInChunk(JfrChunkHeader chunk, long offset) {
+        return offset >= JfrChunkHeader.SIZE && offset < chunk.getChunkSize();
+    }
+}
@@ -40,15 +40,16 @@ package io.cryostat.recordings;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.time.temporal.ChronoUnit;
 import java.util.Optional;
-
-import javax.inject.Named;
+import java.util.function.BooleanSupplier;
 
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
-import io.cryostat.MainModule;
 import io.cryostat.core.net.JFRConnection;
 import io.cryostat.core.sys.Clock;
 import io.cryostat.core.sys.FileSystem;
@@ -56,36 +57,57 @@ import io.cryostat.net.ConnectionDescriptor;
 import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.net.reports.ReportService;
 import io.cryostat.platform.PlatformClient;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.storage.StoredObject;
 import io.cryostat.util.URIUtil;
 
 public class RecordingArchiveHelper {
 
     private final TargetConnectionManager targetConnectionManager;
     private final FileSystem fs;
-    private final Path recordingsPath;
+    private final ArchiveStorage storage;
     private final Clock clock;
     private final PlatformClient platformClient;
     private final ReportService reportService;
+    private final ChunkedRecordingFetcher fetcher;
+    private final ArchiveIndex archiveIndex;
 
     RecordingArchiveHelper(
             FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path recordingsPath,
+            ArchiveStorage storage,
             TargetConnectionManager targetConnectionManager,
             Clock clock,
             PlatformClient platformClient,
-            ReportService reportService) {
+            ReportService reportService,
+            ChunkedRecordingFetcher fetcher,
+            ArchiveIndex archiveIndex) {
         this.fs = fs;
-        this.recordingsPath = recordingsPath;
+        this.storage = storage;
         this.targetConnectionManager = targetConnectionManager;
         this.clock = clock;
         this.platformClient = platformClient;
         this.reportService = reportService;
+        this.fetcher = fetcher;
+        this.archiveIndex = archiveIndex;
     }
 
     public String saveRecording(ConnectionDescriptor connectionDescriptor, String recordingName)
             throws Exception {
+        return saveRecording(connectionDescriptor, recordingName, () -> true).get();
+    }
 
-        String saveName =
+    /**
+     * @param proceed checked once the recording has been fetched, just before it is stored. The
+     *     save is abandoned if this returns false
+     * @return the name of the new archived recording, or empty if the save was abandoned
+     */
+    public Optional<String> saveRecording(
+            ConnectionDescriptor connectionDescriptor,
+            String recordingName,
+            BooleanSupplier proceed)
+            throws Exception {
+
+        Optional<String> saveName =
                 targetConnectionManager.executeConnectedTask(
                         connectionDescriptor,
                         connection -> {
@@ -93,7 +115,11 @@ public class RecordingArchiveHelper {
                                     this.getDescriptorByName(connection, recordingName);
 
                             if (descriptor.isPresent()) {
-                                return writeRecordingToDestination(connection, descriptor.get());
+                                try (InputStream stream =
+                                        fetcher.openStream(connection, descriptor.get())) {
+                                    return writeRecordingToDestination(
+                                            connection, descriptor.get(), stream, proceed);
+                                }
                             } else {
                                 throw new RecordingNotFoundException(recordingName);
                             }
@@ -102,6 +128,47 @@ public class RecordingArchiveHelper {
         return saveName;
     }
 
+    /**
+     * Archive only the chunks of the recording which the cursor has not yet seen, and advance the
+     * cursor past them. An empty cursor archives the whole recording.
+     *
+     * @return the name of the new archived recording, or empty if there were no new chunks
+     */
+    public Optional<String> saveRecording(
+            ConnectionDescriptor connectionDescriptor, String recordingName, ChunkCursor cursor)
+            throws Exception {
+        return targetConnectionManager.executeConnectedTask(
+                connectionDescriptor,
+                connection -> {
+                    IRecordingDescriptor descriptor =
+                            this.getDescriptorByName(connection, recordingName)
+                                    .orElseThrow(
+                                            () -> new RecordingNotFoundException(recordingName));
+                    long id = descriptor.getId();
+                    boolean incremental = !cursor.isEmpty() && cursor.follows(id);
+                    InputStream source =
+                            incremental
+                                    ? fetcher.openStream(
+                                            connection, descriptor, cursor.getEndNanos())
+                                    : fetcher.openStream(connection, descriptor);
+                    try (ChunkedRecordingFetcher.NewChunksInputStream stream =
+                            new ChunkedRecordingFetcher.NewChunksInputStream(
+                                    source,
+                                    incremental ? cursor.getLastStartNanos() : Long.MIN_VALUE)) {
+                        Optional<String> saveName =
+                                writeRecordingToDestination(
+                                        connection,
+                                        descriptor,
+                                        stream,
+                                        () -> stream.getChunkCount() > 0);
+                        if (saveName.isPresent()) {
+                            cursor.advance(id, stream.getLastStartNanos(), stream.getEndNanos());
+                        }
+                        return saveName;
+                    }
+                });
+    }
+
     public void deleteRecording(ConnectionDescriptor connectionDescriptor, String recordingName)
             throws Exception {
 
@@ -121,8 +188,25 @@ public class RecordingArchiveHelper {
                 });
     }
 
-    private String writeRecordingToDestination(
-            JFRConnection connection, IRecordingDescriptor descriptor) throws Exception {
+    /** @return true if the archived recording existed and was deleted */
+    public boolean deleteArchivedRecording(String recordingName) throws IOException {
+        try {
+            // if the delete fails the recording is still there, so it must stay listed
+            boolean deleted = storage.delete(recordingName);
+            archiveIndex.remove(recordingName);
+            return deleted;
+        } finally {
+            reportService.delete(recordingName);
+        }
+    }
+
+    /** @return the name the recording was saved as, or empty if proceed rejected it */
+    private Optional<String> writeRecordingToDestination(
+            JFRConnection connection,
+            IRecordingDescriptor descriptor,
+            InputStream stream,
+            BooleanSupplier proceed)
+            throws Exception {
         String recordingName = descriptor.getName();
         if (recordingName.endsWith(".jfr")) {
             recordingName = recordingName.substring(0, recordingName.length() - 4);
@@ -152,23 +236,43 @@ public class RecordingArchiveHelper {
 
         String timestamp =
                 clock.now().truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
-        String destination = String.format("%s_%s_%s", targetName, recordingName, timestamp);
-        // TODO byte-sized rename limit is arbitrary. Probably plenty since recordings are also
-        // differentiated by second-resolution timestamp
-        byte count = 1;
-        while (fs.exists(recordingsPath.resolve(destination + ".jfr"))) {
-            destination =
-                    String.format("%s_%s_%s.%d", targetName, recordingName, timestamp, count++);
-            if (count == Byte.MAX_VALUE) {
-                throw new IOException(
-                        "Recording could not be savedFile already exists and rename attempts were exhausted.");
+        String basename = String.format("%s_%s_%s", targetName, recordingName, timestamp);
+        // stage locally first so that the contents can be offered again under a different name
+        // if the storage reports a collision
+        Path staged = ArchiveStorage.newStagedFile(storage.stagingDirectory(), "archive");
+        try {
+            MessageDigest digest = ArchiveIndex.newDigest();
+            // the digest covers the recording itself, not however the storage encodes it at rest
+            fs.copy(storage.encode(new DigestInputStream(stream, digest)), staged);
+            if (!proceed.getAsBoolean()) {
+                return Optional.empty();
             }
+            // TODO byte-sized rename limit is arbitrary. Probably plenty since recordings are also
+            // differentiated by second-resolution timestamp
+            for (byte count = 0; count < Byte.MAX_VALUE; count++) {
+                String destination =
+                        count == 0
+                                ? basename + ".jfr"
+                                : String.format("%s.%d.jfr", basename, count);
+                if (archiveIndex.contains(destination)) {
+                    continue;
+                }
+                StoredObject stored;
+                try {
+                    // storage refuses to overwrite, which also catches objects not yet indexed
+                    stored = storage.putFile(destination, staged);
+                } catch (FileAlreadyExistsException faee) {
+                    continue;
+                }
+                archiveIndex.put(stored, ArchiveIndex.toHex(digest));
+                return Optional.of(destination);
+            }
+        } finally {
+            storage.abandon(staged);
+            fs.deleteIfExists(staged);
         }
-        destination += ".jfr";
-        try (InputStream stream = connection.getService().openStream(descriptor, false)) {
-            fs.copy(stream, recordingsPath.resolve(destination));
-        }
-        return destination;
+        throw new IOException(
+                "Recording could not be saved. File already exists and rename attempts were exhausted.");
     }
 
     public Optional<IRecordingDescriptor> getDescriptorByName(
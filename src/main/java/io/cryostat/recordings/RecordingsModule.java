@@ -37,26 +37,39 @@
  */
 package io.cryostat.recordings;
 
-import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import javax.inject.Named;
 import javax.inject.Singleton;
 
-import io.cryostat.MainModule;
 import io.cryostat.commands.internal.EventOptionsBuilder;
+import io.cryostat.core.log.Logger;
 import io.cryostat.core.sys.Clock;
+import io.cryostat.core.sys.Environment;
 import io.cryostat.core.sys.FileSystem;
 import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.net.reports.ReportService;
 import io.cryostat.platform.PlatformClient;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.storage.ArchiveStorageModule;
 
+import com.google.gson.Gson;
 import dagger.Module;
 import dagger.Provides;
 
-@Module
+@Module(includes = {ArchiveStorageModule.class})
 public abstract class RecordingsModule {
 
+    public static final String FETCH_PARALLELISM = "RECORDING_FETCH_PARALLELISM";
+    static final String FETCH_PARALLELISM_ENV_VAR = "CRYOSTAT_RECORDING_FETCH_PARALLELISM";
+    static final int DEFAULT_FETCH_PARALLELISM = 1;
+    static final int MAX_FETCH_PARALLELISM = 16;
+    static final String MAX_SIZE_ENV_VAR = "CRYOSTAT_ARCHIVE_MAX_SIZE_MB";
+    static final String MAX_TARGET_SIZE_ENV_VAR = "CRYOSTAT_ARCHIVE_MAX_TARGET_SIZE_MB";
+    static final String MAX_AGE_ENV_VAR = "CRYOSTAT_ARCHIVE_MAX_AGE_HOURS";
+
     @Provides
     @Singleton
     static RecordingTargetHelper provideRecordingTargetHelper(
@@ -71,12 +84,101 @@ public abstract class RecordingsModule {
     @Singleton
     static RecordingArchiveHelper provideRecordingArchiveHelper(
             FileSystem fs,
-            @Named(MainModule.RECORDINGS_PATH) Path recordingsPath,
+            ArchiveStorage storage,
             TargetConnectionManager targetConnectionManager,
             Clock clock,
             PlatformClient platformClient,
-            ReportService reportService) {
+            ReportService reportService,
+            ChunkedRecordingFetcher fetcher,
+            ArchiveIndex archiveIndex) {
         return new RecordingArchiveHelper(
-                fs, recordingsPath, targetConnectionManager, clock, platformClient, reportService);
+                fs,
+                storage,
+                targetConnectionManager,
+                clock,
+                platformClient,
+                reportService,
+                fetcher,
+                archiveIndex);
+    }
+
+    @Provides
+    @Singleton
+    static ArchiveIndex provideArchiveIndex(ArchiveStorage storage, Gson gson, Logger logger) {
+        return new ArchiveIndex(storage, Executors.newScheduledThreadPool(1), gson, logger);
+    }
+
+    @Provides
+    @Singleton
+    static ArchiveRetention provideArchiveRetention(
+            ArchiveIndex archiveIndex,
+            ArchiveStorage storage,
+            ReportService reportService,
+            NotificationFactory notificationFactory,
+            Clock clock,
+            Environment env,
+            Logger logger) {
+        return new ArchiveRetention(
+                archiveIndex,
+                storage,
+                reportService,
+                notificationFactory,
+                Executors.newSingleThreadScheduledExecutor(),
+                clock,
+                logger,
+                parseLimit(env, logger, MAX_SIZE_ENV_VAR) * 1024 * 1024,
+                parseLimit(env, logger, MAX_TARGET_SIZE_ENV_VAR) * 1024 * 1024,
+                TimeUnit.HOURS.toMillis(parseLimit(env, logger, MAX_AGE_ENV_VAR)));
+    }
+
+    @Provides
+    @Singleton
+    static ChunkedRecordingFetcher provideChunkedRecordingFetcher(
+            @Named(FETCH_PARALLELISM) int parallelism,
+            ArchiveStorage storage,
+            FileSystem fs,
+            Clock clock,
+            Logger logger) {
+        return new ChunkedRecordingFetcher(
+                parallelism, storage, fs, Executors.newCachedThreadPool(), clock, logger);
+    }
+
+    @Provides
+    @Named(FETCH_PARALLELISM)
+    static int provideFetchParallelism(Environment env, Logger logger) {
+        try {
+            int parallelism =
+                    Integer.parseInt(
+                            env.getEnv(
+                                    FETCH_PARALLELISM_ENV_VAR,
+                                    String.valueOf(DEFAULT_FETCH_PARALLELISM)));
+            if (parallelism > MAX_FETCH_PARALLELISM) {
+                logger.info("Requested recording fetch parallelism {} is too large.", parallelism);
+                return MAX_FETCH_PARALLELISM;
+            }
+            if (parallelism < 1) {
+                logger.info("Requested recording fetch parallelism {} is too small.", parallelism);
+                return DEFAULT_FETCH_PARALLELISM;
+            }
+            return parallelism;
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return DEFAULT_FETCH_PARALLELISM;
+        }
+    }
+
+    // 0, the default, means no limit
+    private static long parseLimit(Environment env, Logger logger, String key) {
+        try {
+            long limit = Long.parseLong(env.getEnv(key, "0"));
+            if (limit < 0) {
+                logger.info("Requested {} {} is negative.", key, limit);
+                return 0;
+            }
+            return limit;
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return 0;
+        }
     }
 }
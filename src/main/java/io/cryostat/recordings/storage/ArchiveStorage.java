@@ -0,0 +1,236 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where archived recordings are kept. Objects are identified by a flat name, which must not contain
+ * path separators or start with a dot. Implementations must be safe for concurrent use, and all
+ * methods may block.
+ */
+public interface ArchiveStorage {
+
+    /**
+     * Files in the {@link #stagingDirectory()} which are on their way into storage start with this.
+     */
+    String STAGED_FILE_PREFIX = ".staged-";
+
+    /** Staged files which have not been written to for this long were left by unfinished writes. */
+    long STALE_STAGED_FILE_AGE_MS = TimeUnit.HOURS.toMillis(1);
+
+    /** @throws IOException describing the problem if the storage cannot currently be used */
+    void checkAvailable() throws IOException;
+
+    /**
+     * Called once at startup, after {@link #checkAvailable()} succeeds and before the contents are
+     * indexed, to bring existing contents in line with the current configuration.
+     */
+    default void prepare() throws IOException {}
+
+    /**
+     * Store the stream's contents under the given name.
+     *
+     * @throws FileAlreadyExistsException if an object with the name already exists
+     */
+    StoredObject put(String name, InputStream in) throws IOException;
+
+    /**
+     * Store the contents of a local file under the given name. The file is consumed: once this
+     * returns successfully it no longer exists at its original path. This is cheapest when the file
+     * is in the {@link #stagingDirectory()}.
+     *
+     * @throws FileAlreadyExistsException if an object with the name already exists
+     */
+    StoredObject putFile(String name, Path file) throws IOException;
+
+    /**
+     * @param offset the first byte to read
+     * @param length the number of bytes to read, or a negative value to read to the end
+     * @throws NoSuchFileException if there is no object with the name
+     */
+    InputStream get(String name, long offset, long length) throws IOException;
+
+    List<StoredObject> list() throws IOException;
+
+    Optional<StoredObject> stat(String name) throws IOException;
+
+    /** @return true if the object existed and was deleted */
+    boolean delete(String name) throws IOException;
+
+    /**
+     * Renews the object's last modified time without changing its contents.
+     *
+     * @throws NoSuchFileException if there is no object with the name
+     */
+    void touch(String name) throws IOException;
+
+    /** A local directory in which to write files destined for {@link #putFile(String, Path)}. */
+    Path stagingDirectory() throws IOException;
+
+    /**
+     * Wraps contents on their way into a staged file, so that any encoding the storage applies at
+     * rest can be done while staging rather than in a second pass by {@link #putFile(String,
+     * Path)}. Files staged with or without this are both accepted by putFile.
+     */
+    default InputStream encode(InputStream in) throws IOException {
+        return in;
+    }
+
+    /**
+     * Called with a file staged through {@link #encode(InputStream)} which will not be passed to
+     * {@link #putFile(String, Path)} after all, so that anything held for it can be released. The
+     * caller remains responsible for deleting the file.
+     */
+    default void abandon(Path staged) throws IOException {}
+
+    /**
+     * @return the local directory containing the stored objects, either directly or within
+     *     subdirectories, if this storage is backed by one. The files are not necessarily the
+     *     objects' contents as-is, see {@link #directPath(String)}.
+     */
+    Optional<Path> localDirectory();
+
+    /**
+     * @return a local file holding exactly the object's contents, if there is one, such that it can
+     *     be served without going through {@link #get(String, long, long)}
+     */
+    default Optional<Path> directPath(String name) throws IOException {
+        return Optional.empty();
+    }
+
+    /**
+     * Provides the object's contents as a local file, for consumers which can only read from a
+     * filesystem path. If there is no {@link #directPath(String)} then the object is first read out
+     * to a temporary file, which is deleted when the returned handle is closed.
+     */
+    default LocalFile localFile(String name) throws IOException {
+        Optional<Path> path = directPath(name);
+        if (path.isPresent()) {
+            return new LocalFile(path.get(), false);
+        }
+        Path tmp =
+                Files.createTempFile(stagingDirectory(), STAGED_FILE_PREFIX + "download-", ".jfr");
+        try (InputStream in = get(name, 0, -1)) {
+            Files.copy(in, tmp, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException ioe) {
+            Files.deleteIfExists(tmp);
+            throw ioe;
+        }
+        return new LocalFile(tmp, true);
+    }
+
+    /**
+     * Deletes the files which writes interrupted by a crash or kill left in the {@link
+     * #stagingDirectory()}. These are hidden from listings, so would otherwise hold their space
+     * indefinitely.
+     *
+     * @return the number of files deleted
+     */
+    default int removeStaleStagedFiles(long nowMillis) throws IOException {
+        int removed = 0;
+        try (DirectoryStream<Path> staged =
+                Files.newDirectoryStream(stagingDirectory(), STAGED_FILE_PREFIX + "*")) {
+            for (Path file : staged) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(file, BasicFileAttributes.class);
+                } catch (NoSuchFileException nsfe) {
+                    continue;
+                }
+                if (attrs.isRegularFile()
+                        && nowMillis - attrs.lastModifiedTime().toMillis()
+                                > STALE_STAGED_FILE_AGE_MS
+                        && Files.deleteIfExists(file)) {
+                    removed++;
+                }
+            }
+        }
+        return removed;
+    }
+
+    /** @return a path, which does not yet exist, in the staging directory for a file to stage */
+    static Path newStagedFile(Path stagingDirectory, String purpose) {
+        return stagingDirectory.resolve(STAGED_FILE_PREFIX + purpose + "-" + UUID.randomUUID());
+    }
+
+    static String checkName(String name) {
+        if (name == null
+                || name.isEmpty()
+                || name.startsWith(".")
+                || name.contains("/")
+                || name.contains("\\")) {
+            throw new IllegalArgumentException(String.format("Invalid object name %s", name));
+        }
+        return name;
+    }
+
+    class LocalFile implements Closeable {
+        private final Path path;
+        private final boolean temporary;
+
+        public LocalFile(Path path, boolean temporary) {
+            this.path = path;
+            this.temporary = temporary;
+        }
+
+        public Path getPath() {
+            return path;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (temporary) {
+                Files.deleteIfExists(path);
+            }
+        }
+    }
+}
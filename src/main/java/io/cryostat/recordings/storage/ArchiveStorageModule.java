@@ -0,0 +1,233 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+
+import javax.inject.Named;
+import javax.inject.Singleton;
+
+import io.cryostat.MainModule;
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.core.sys.Environment;
+import io.cryostat.core.sys.FileSystem;
+
+import dagger.Module;
+import dagger.Provides;
+
+@Module
+public abstract class ArchiveStorageModule {
+
+    static final String STORAGE_ENV_VAR = "CRYOSTAT_ARCHIVE_STORAGE";
+    static final String LAYOUT_ENV_VAR = "CRYOSTAT_ARCHIVE_LAYOUT";
+    static final String COMPRESSION_ENV_VAR = "CRYOSTAT_ARCHIVE_COMPRESSION";
+    static final String DEDUP_ENV_VAR = "CRYOSTAT_ARCHIVE_DEDUP";
+    static final String DEDUP_DIRECTORY = ".chunks";
+    static final String COMPRESSION_LEVEL_ENV_VAR = "CRYOSTAT_ARCHIVE_COMPRESSION_LEVEL";
+    static final String S3_ENDPOINT_ENV_VAR = "CRYOSTAT_ARCHIVE_S3_ENDPOINT";
+    static final String S3_REGION_ENV_VAR = "CRYOSTAT_ARCHIVE_S3_REGION";
+    static final String S3_BUCKET_ENV_VAR = "CRYOSTAT_ARCHIVE_S3_BUCKET";
+    static final String S3_PREFIX_ENV_VAR = "CRYOSTAT_ARCHIVE_S3_PREFIX";
+    static final String S3_ACCESS_KEY_ENV_VAR = "CRYOSTAT_ARCHIVE_S3_ACCESS_KEY";
+    static final String S3_SECRET_KEY_ENV_VAR = "CRYOSTAT_ARCHIVE_S3_SECRET_KEY";
+    static final String S3_PART_SIZE_ENV_VAR = "CRYOSTAT_ARCHIVE_S3_PART_SIZE_MB";
+    static final String S3_UPLOAD_PARALLELISM_ENV_VAR = "CRYOSTAT_ARCHIVE_S3_UPLOAD_PARALLELISM";
+    static final String DEFAULT_S3_REGION = "us-east-1";
+    static final int DEFAULT_S3_PART_SIZE_MB = 8;
+    static final int MIN_S3_PART_SIZE_MB = 5;
+    static final int MAX_S3_PART_SIZE_MB = 256;
+    static final int DEFAULT_S3_UPLOAD_PARALLELISM = 4;
+    static final int MAX_S3_UPLOAD_PARALLELISM = 16;
+    static final int DEFAULT_COMPRESSION_LEVEL = 6;
+
+    @Provides
+    @Singleton
+    static ArchiveStorage provideArchiveStorage(
+            Environment env,
+            FileSystem fs,
+            @Named(MainModule.RECORDINGS_PATH) Path recordingsPath,
+            Clock clock,
+            Logger logger) {
+        String type = env.getEnv(STORAGE_ENV_VAR, "local");
+        boolean dedup = Boolean.parseBoolean(env.getEnv(DEDUP_ENV_VAR, "false"));
+        ArchiveStorage storage;
+        ArchiveStorage blocks = null;
+        switch (type) {
+            case "local":
+                storage = new LocalArchiveStorage(recordingsPath, fs, getLayout(env), logger);
+                if (dedup) {
+                    blocks = new LocalArchiveStorage(recordingsPath.resolve(DEDUP_DIRECTORY), fs);
+                }
+                break;
+            case "s3":
+                String prefix = env.getEnv(S3_PREFIX_ENV_VAR, "");
+                storage = createS3Storage(env, prefix, clock, logger);
+                if (dedup) {
+                    blocks =
+                            createS3Storage(
+                                    env,
+                                    S3ArchiveStorage.normalizePrefix(prefix) + DEDUP_DIRECTORY,
+                                    clock,
+                                    logger);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unknown %s \"%s\"", STORAGE_ENV_VAR, type));
+        }
+        if (!dedup) {
+            return maybeCompress(env, logger, storage);
+        }
+        logger.info("Deduplicating archived recordings by chunk");
+        // manifests are small and would not benefit, so only the chunks are compressed
+        return new DedupArchiveStorage(
+                storage,
+                maybeCompress(env, logger, blocks),
+                Executors.newSingleThreadScheduledExecutor(),
+                clock,
+                logger);
+    }
+
+    private static ArchiveStorage maybeCompress(
+            Environment env, Logger logger, ArchiveStorage storage) {
+        String compression = env.getEnv(COMPRESSION_ENV_VAR, "none");
+        switch (compression) {
+            case "none":
+                return storage;
+            case "gzip":
+                int level =
+                        clamp(
+                                env,
+                                logger,
+                                COMPRESSION_LEVEL_ENV_VAR,
+                                DEFAULT_COMPRESSION_LEVEL,
+                                Deflater.BEST_SPEED,
+                                Deflater.BEST_COMPRESSION);
+                logger.info("Compressing archived recordings at level {}", level);
+                return new CompressedArchiveStorage(storage, level);
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unknown %s \"%s\"", COMPRESSION_ENV_VAR, compression));
+        }
+    }
+
+    static LocalArchiveStorage.Layout getLayout(Environment env) {
+        String layout = env.getEnv(LAYOUT_ENV_VAR, "flat");
+        switch (layout) {
+            case "flat":
+                return LocalArchiveStorage.Layout.FLAT;
+            case "sharded":
+                return LocalArchiveStorage.Layout.SHARDED;
+            default:
+                throw new IllegalArgumentException(
+                        String.format("Unknown %s \"%s\"", LAYOUT_ENV_VAR, layout));
+        }
+    }
+
+    static S3ArchiveStorage createS3Storage(
+            Environment env, String prefix, Clock clock, Logger logger) {
+        String endpoint = requireEnv(env, S3_ENDPOINT_ENV_VAR);
+        String bucket = requireEnv(env, S3_BUCKET_ENV_VAR);
+        S3Signer signer =
+                new S3Signer(
+                        env.getEnv(S3_REGION_ENV_VAR, DEFAULT_S3_REGION),
+                        requireEnv(env, S3_ACCESS_KEY_ENV_VAR),
+                        requireEnv(env, S3_SECRET_KEY_ENV_VAR));
+        int partSizeMb =
+                clamp(
+                        env,
+                        logger,
+                        S3_PART_SIZE_ENV_VAR,
+                        DEFAULT_S3_PART_SIZE_MB,
+                        MIN_S3_PART_SIZE_MB,
+                        MAX_S3_PART_SIZE_MB);
+        int parallelism =
+                clamp(
+                        env,
+                        logger,
+                        S3_UPLOAD_PARALLELISM_ENV_VAR,
+                        DEFAULT_S3_UPLOAD_PARALLELISM,
+                        1,
+                        MAX_S3_UPLOAD_PARALLELISM);
+        logger.info("Archiving recordings to bucket {} at {}", bucket, endpoint);
+        return new S3ArchiveStorage(
+                HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build(),
+                signer,
+                URI.create(endpoint),
+                bucket,
+                prefix,
+                partSizeMb * 1024 * 1024,
+                parallelism,
+                clock,
+                logger);
+    }
+
+    private static String requireEnv(Environment env, String key) {
+        String value = env.getEnv(key);
+        if (value == null || value.isBlank()) {
+            throw new IllegalArgumentException(
+                    String.format("%s must be set to use S3 archive storage", key));
+        }
+        return value;
+    }
+
+    private static int clamp(
+            Environment env, Logger logger, String key, int def, int min, int max) {
+        try {
+            int value = Integer.parseInt(env.getEnv(key, String.valueOf(def)));
+            if (value > max) {
+                logger.info("Requested {} {} is too large.", key, value);
+                return max;
+            }
+            if (value < min) {
+                logger.info("Requested {} {} is too small.", key, value);
+                return min;
+            }
+            return value;
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return def;
+        }
+    }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps the objects of another storage compressed with {@link FramedGzip}, and decompresses them
+ * transparently when they are read. Objects stored before compression was enabled are recognized
+ * and served as they are. Sizes reported for compressed objects are their uncompressed sizes.
+ */
+class CompressedArchiveStorage implements ArchiveStorage {
+
+    private final ArchiveStorage delegate;
+    private final int level;
+    // uncompressed sizes, so that listings only need to read the tail of new or changed objects
+    private final Map<String, Summary> summaries;
+
+    CompressedArchiveStorage(ArchiveStorage delegate, int level) {
+        this.delegate = delegate;
+        this.level = level;
+        this.summaries = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public void checkAvailable() throws IOException {
+        delegate.checkAvailable();
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        delegate.prepare();
+    }
+
+    @Override
+    public int removeStaleStagedFiles(long nowMillis) throws IOException {
+        return delegate.removeStaleStagedFiles(nowMillis);
+    }
+
+    @Override
+    public InputStream encode(InputStream in) {
+        return FramedGzip.encode(in, level);
+    }
+
+    @Override
+    public StoredObject put(String name, InputStream in) throws IOException {
+        ArchiveStorage.checkName(name);
+        Path staged = ArchiveStorage.newStagedFile(delegate.stagingDirectory(), "compress");
+        try {
+            try (InputStream encoded = encode(in)) {
+                Files.copy(encoded, staged);
+            }
+            return putFile(name, staged);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    @Override
+    public StoredObject putFile(String name, Path file) throws IOException {
+        ArchiveStorage.checkName(name);
+        Optional<Long> encodedSize = encodedSize(file);
+        if (encodedSize.isPresent()) {
+            return remember(delegate.putFile(name, file), encodedSize.get());
+        }
+        long size = Files.size(file);
+        Path staged = ArchiveStorage.newStagedFile(delegate.stagingDirectory(), "compress");
+        try {
+            try (InputStream encoded = encode(Files.newInputStream(file))) {
+                Files.copy(encoded, staged);
+            }
+            StoredObject stored = remember(delegate.putFile(name, staged), size);
+            Files.deleteIfExists(file);
+            return stored;
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    @Override
+    public InputStream get(String name, long offset, long length) throws IOException {
+        StoredObject stored = delegate.stat(name).orElseThrow(() -> new NoSuchFileException(name));
+        Optional<FramedGzip.Index> index = readIndex(stored);
+        if (index.isEmpty()) {
+            return delegate.get(name, offset, length);
+        }
+        FramedGzip.Index idx = index.get();
+        if (offset >= idx.getSize() || length == 0) {
+            return new ByteArrayInputStream(new byte[0]);
+        }
+        int frame = idx.frameAt(offset);
+        long start = idx.compressedOffset(frame);
+        InputStream in = delegate.get(name, start, idx.compressedOffset(idx.frameCount()) - start);
+        return idx.decode(in, frame, offset, length);
+    }
+
+    @Override
+    public List<StoredObject> list() throws IOException {
+        List<StoredObject> objects = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (StoredObject stored : delegate.list()) {
+            try {
+                objects.add(decorate(stored));
+                names.add(stored.getName());
+            } catch (NoSuchFileException nsfe) {
+                // deleted since it was listed
+            }
+        }
+        summaries.keySet().retainAll(names);
+        return objects;
+    }
+
+    @Override
+    public Optional<StoredObject> stat(String name) throws IOException {
+        Optional<StoredObject> stored = delegate.stat(name);
+        if (stored.isEmpty()) {
+            summaries.remove(name);
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(decorate(stored.get()));
+        } catch (NoSuchFileException nsfe) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        summaries.remove(name);
+        return delegate.delete(name);
+    }
+
+    @Override
+    public void touch(String name) throws IOException {
+        delegate.touch(name);
+    }
+
+    @Override
+    public Path stagingDirectory() throws IOException {
+        return delegate.stagingDirectory();
+    }
+
+    @Override
+    public Optional<Path> localDirectory() {
+        return delegate.localDirectory();
+    }
+
+    private StoredObject remember(StoredObject stored, long size) {
+        summaries.put(stored.getName(), new Summary(stored, size));
+        return new StoredObject(stored.getName(), size, stored.getLastModified());
+    }
+
+    private StoredObject decorate(StoredObject stored) throws IOException {
+        Summary summary = summaries.get(stored.getName());
+        if (summary != null && summary.describes(stored)) {
+            return new StoredObject(stored.getName(), summary.size, stored.getLastModified());
+        }
+        long size = stored.getSize();
+        Optional<byte[]> tail = readTail(stored);
+        if (tail.isPresent()) {
+            size = FramedGzip.uncompressedSize(tail.get());
+        }
+        return remember(stored, size);
+    }
+
+    private Optional<byte[]> readTail(StoredObject stored) throws IOException {
+        if (stored.getSize() < FramedGzip.TAIL_LENGTH) {
+            return Optional.empty();
+        }
+        byte[] tail;
+        try (InputStream in =
+                delegate.get(
+                        stored.getName(),
+                        stored.getSize() - FramedGzip.TAIL_LENGTH,
+                        FramedGzip.TAIL_LENGTH)) {
+            tail = in.readAllBytes();
+        }
+        if (FramedGzip.trailerLength(tail).isEmpty()) {
+            return Optional.empty();
+        }
+        return Optional.of(tail);
+    }
+
+    private Optional<FramedGzip.Index> readIndex(StoredObject stored) throws IOException {
+        Optional<byte[]> tail = readTail(stored);
+        if (tail.isEmpty()) {
+            return Optional.empty();
+        }
+        int length = FramedGzip.trailerLength(tail.get()).get();
+        if (length > stored.getSize()) {
+            return Optional.empty();
+        }
+        byte[] trailer;
+        try (InputStream in = delegate.get(stored.getName(), stored.getSize() - length, length)) {
+            trailer = in.readAllBytes();
+        }
+        return FramedGzip.Index.parse(trailer, stored.getSize());
+    }
+
+    /** @return the uncompressed size of the file if it was already encoded while staging */
+    private static Optional<Long> encodedSize(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < FramedGzip.TAIL_LENGTH) {
+                return Optional.empty();
+            }
+            ByteBuffer tail = ByteBuffer.allocate(FramedGzip.TAIL_LENGTH);
+            while (tail.hasRemaining()) {
+                if (channel.read(tail, size - FramedGzip.TAIL_LENGTH + tail.position()) < 0) {
+                    return Optional.empty();
+                }
+            }
+            if (FramedGzip.trailerLength(tail.array()).isEmpty()) {
+                return Optional.empty();
+            }
+            return Optional.of(FramedGzip.uncompressedSize(tail.array()));
+        }
+    }
+
+    private static class Summary {
+        final long storedSize;
+        final long lastModified;
+        final long size;
+
+        Summary(StoredObject stored, long size) {
+            this.storedSize = stored.getSize();
+            this.lastModified = stored.getLastModified();
+            this.size = size;
+        }
+
+        boolean describes(StoredObject stored) {
+            return stored.getSize() == storedSize && stored.getLastModified() == lastModified;
+        }
+    }
+}
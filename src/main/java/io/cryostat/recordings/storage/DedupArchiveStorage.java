@@ -0,0 +1,733 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * Stores each object as a manifest listing content-addressed blocks kept in a second storage, so
+ * that blocks shared between objects are only stored once. Blocks are cut along JFR chunk
+ * boundaries, which makes successive archives of the same continuous recording share all of their
+ * completed chunks. Objects stored before deduplication was enabled are recognized and served as
+ * they are. Sizes reported for manifests are the sizes of the objects they describe.
+ *
+ * <p>Blocks which are no longer referenced by any manifest are removed by a periodic sweep, and by
+ * a sweep shortly after any deletion. Blocks modified recently are left alone even if unreferenced,
+ * since the manifest referring to them may not have been stored yet. A block which is reused has
+ * its modification time renewed, and so does every block of a slow save just before its manifest is
+ * stored, so that other instances sharing the storage see that it is in use. Within this instance,
+ * blocks used by a save are also kept until its manifest is stored or the save is abandoned.
+ */
+class DedupArchiveStorage implements ArchiveStorage {
+
+    static final byte[] MAGIC = "CRYOSTAT-CHUNKS 1\n".getBytes(StandardCharsets.US_ASCII);
+    static final int MAX_BLOCK_SIZE = 16 * 1024 * 1024;
+    static final int FIXED_BLOCK_SIZE = 8 * 1024 * 1024;
+    static final long GRACE_PERIOD_MS = TimeUnit.HOURS.toMillis(1);
+    static final long REFRESH_AGE_MS = GRACE_PERIOD_MS / 2;
+    static final long SWEEP_PERIOD_MS = TimeUnit.HOURS.toMillis(1);
+    static final long SWEEP_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static final byte[] JFR_MAGIC = {'F', 'L', 'R', 0};
+    static final int JFR_HEADER_PEEK = 16;
+    private static final int JFR_MIN_CHUNK_SIZE = 68;
+    private static final int MAX_MANIFEST_SIZE = 16 * 1024 * 1024;
+    private static final int LOCK_STRIPES = 64;
+
+    private final ArchiveStorage manifests;
+    private final ArchiveStorage blocks;
+    private final ScheduledExecutorService executor;
+    private final Clock clock;
+    private final Logger logger;
+    private final Object[] locks;
+    // the number of saves using each block whose manifests are not stored yet
+    private final Map<String, Integer> claims;
+    // the claims of encoded manifests waiting to be stored, by manifest contents
+    private final Map<String, Deque<Claim>> pending;
+    private final Map<String, Summary> summaries;
+    private final AtomicBoolean sweepScheduled;
+
+    DedupArchiveStorage(
+            ArchiveStorage manifests,
+            ArchiveStorage blocks,
+            ScheduledExecutorService executor,
+            Clock clock,
+            Logger logger) {
+        this.manifests = manifests;
+        this.blocks = blocks;
+        this.executor = executor;
+        this.clock = clock;
+        this.logger = logger;
+        this.locks = new Object[LOCK_STRIPES];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+        this.claims = new ConcurrentHashMap<>();
+        this.pending = new HashMap<>();
+        this.summaries = new ConcurrentHashMap<>();
+        this.sweepScheduled = new AtomicBoolean();
+    }
+
+    @Override
+    public void checkAvailable() throws IOException {
+        manifests.checkAvailable();
+        Optional<Path> dir = blocks.localDirectory();
+        if (dir.isPresent()) {
+            Files.createDirectories(dir.get());
+        }
+        blocks.checkAvailable();
+    }
+
+    @Override
+    public void prepare() throws IOException {
+        manifests.prepare();
+        blocks.prepare();
+        executor.scheduleWithFixedDelay(
+                this::sweepQuietly, SWEEP_PERIOD_MS, SWEEP_PERIOD_MS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int removeStaleStagedFiles(long nowMillis) throws IOException {
+        int removed = manifests.removeStaleStagedFiles(nowMillis);
+        if (!blocks.stagingDirectory().equals(manifests.stagingDirectory())) {
+            removed += blocks.removeStaleStagedFiles(nowMillis);
+        }
+        return removed;
+    }
+
+    @Override
+    public InputStream encode(InputStream in) {
+        return new Encoder(in);
+    }
+
+    @Override
+    public StoredObject put(String name, InputStream in) throws IOException {
+        ArchiveStorage.checkName(name);
+        Path staged = ArchiveStorage.newStagedFile(manifests.stagingDirectory(), "dedup");
+        try {
+            try (InputStream encoded = encode(in)) {
+                Files.copy(encoded, staged);
+            }
+            return putFile(name, staged);
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    @Override
+    public StoredObject putFile(String name, Path file) throws IOException {
+        ArchiveStorage.checkName(name);
+        Optional<Manifest> manifest = readManifest(file);
+        if (manifest.isPresent()) {
+            return commit(name, file, manifest.get());
+        }
+        Path staged = ArchiveStorage.newStagedFile(manifests.stagingDirectory(), "dedup");
+        try {
+            try (InputStream encoded = encode(Files.newInputStream(file))) {
+                Files.copy(encoded, staged);
+            }
+            StoredObject stored = commit(name, staged, readManifest(staged).get());
+            Files.deleteIfExists(file);
+            return stored;
+        } finally {
+            Files.deleteIfExists(staged);
+        }
+    }
+
+    @Override
+    public void abandon(Path staged) throws IOException {
+        if (!Files.exists(staged)) {
+            // already consumed by putFile
+            return;
+        }
+        readManifest(staged).flatMap(this::claimOf).ifPresent(this::release);
+    }
+
+    @Override
+    public InputStream get(String name, long offset, long length) throws IOException {
+        StoredObject stored = manifests.stat(name).orElseThrow(() -> new NoSuchFileException(name));
+        Optional<Manifest> manifest = summarize(stored).manifest;
+        if (manifest.isEmpty()) {
+            return manifests.get(name, offset, length);
+        }
+        Manifest m = manifest.get();
+        long end = length < 0 ? m.size : Math.min(m.size, offset + length);
+        List<Range> ranges = new ArrayList<>();
+        long position = 0;
+        for (int i = 0; i < m.digests.size() && position < end; i++) {
+            long blockEnd = position + m.sizes.get(i);
+            if (blockEnd > offset) {
+                long from = Math.max(offset, position) - position;
+                long to = Math.min(end, blockEnd) - position;
+                ranges.add(new Range(m.digests.get(i), from, to - from));
+            }
+            position = blockEnd;
+        }
+        Iterator<Range> it = ranges.iterator();
+        return new SequenceInputStream(
+                new Enumeration<InputStream>() {
+                    @Override
+                    public boolean hasMoreElements() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public InputStream nextElement() {
+                        if (!it.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Range range = it.next();
+                        return new LazyInputStream(range);
+                    }
+                });
+    }
+
+    @Override
+    public List<StoredObject> list() throws IOException {
+        List<StoredObject> objects = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (StoredObject stored : manifests.list()) {
+            try {
+                objects.add(decorate(stored, summarize(stored)));
+                names.add(stored.getName());
+            } catch (NoSuchFileException nsfe) {
+                // deleted since it was listed
+            }
+        }
+        summaries.keySet().retainAll(names);
+        return objects;
+    }
+
+    @Override
+    public Optional<StoredObject> stat(String name) throws IOException {
+        Optional<StoredObject> stored = manifests.stat(name);
+        if (stored.isEmpty()) {
+            summaries.remove(name);
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(decorate(stored.get(), summarize(stored.get())));
+        } catch (NoSuchFileException nsfe) {
+            return Optional.empty();
+        }
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        summaries.remove(name);
+        boolean deleted = manifests.delete(name);
+        if (deleted) {
+            scheduleSweep();
+        }
+        return deleted;
+    }
+
+    @Override
+    public void touch(String name) throws IOException {
+        manifests.touch(name);
+    }
+
+    @Override
+    public Path stagingDirectory() throws IOException {
+        return manifests.stagingDirectory();
+    }
+
+    @Override
+    public Optional<Path> localDirectory() {
+        return manifests.localDirectory();
+    }
+
+    /**
+     * Delete blocks which no manifest refers to and which have not been modified within the grace
+     * period.
+     *
+     * @return the number of blocks deleted
+     */
+    int sweep() throws IOException {
+        long cutoff = clock.getWallTime() - GRACE_PERIOD_MS;
+        // blocks are listed before manifests, so that a block stored and referenced in between
+        // is either missed by the listing or found in a manifest
+        List<StoredObject> candidates = blocks.list();
+        Set<String> referenced = new HashSet<>();
+        for (StoredObject stored : manifests.list()) {
+            try {
+                summarize(stored).manifest.ifPresent(m -> referenced.addAll(m.digests));
+            } catch (NoSuchFileException nsfe) {
+                // deleted since it was listed
+            }
+        }
+        int deleted = 0;
+        for (StoredObject block : candidates) {
+            String digest = block.getName();
+            if (referenced.contains(digest) || block.getLastModified() >= cutoff) {
+                continue;
+            }
+            synchronized (lockFor(digest)) {
+                if (claims.containsKey(digest)) {
+                    continue;
+                }
+                // another instance may have reused the block since it was listed
+                Optional<StoredObject> current = blocks.stat(digest);
+                if (current.isEmpty() || current.get().getLastModified() >= cutoff) {
+                    continue;
+                }
+                if (blocks.delete(digest)) {
+                    deleted++;
+                }
+            }
+        }
+        if (deleted > 0) {
+            logger.info("Removed {} unreferenced archive blocks", deleted);
+        }
+        return deleted;
+    }
+
+    private void scheduleSweep() {
+        if (!sweepScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        executor.schedule(
+                () -> {
+                    sweepScheduled.set(false);
+                    sweepQuietly();
+                },
+                SWEEP_DELAY_MS,
+                TimeUnit.MILLISECONDS);
+    }
+
+    private void sweepQuietly() {
+        try {
+            sweep();
+        } catch (Exception e) {
+            logger.warn(e);
+        }
+    }
+
+    private String store(byte[] block, int length, Claim claim) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException nsae) {
+            throw new IOException(nsae);
+        }
+        digest.update(block, 0, length);
+        String name = Hex.encodeHexString(digest.digest());
+        synchronized (lockFor(name)) {
+            claim.add(name);
+            Optional<StoredObject> existing = blocks.stat(name);
+            if (existing.isEmpty()) {
+                write(name, block, length);
+            } else if (isStale(existing.get())) {
+                try {
+                    blocks.touch(name);
+                } catch (NoSuchFileException nsfe) {
+                    // swept by another instance in the meantime
+                    write(name, block, length);
+                }
+            }
+        }
+        return name;
+    }
+
+    private void write(String name, byte[] block, int length) throws IOException {
+        try {
+            blocks.put(name, new ByteArrayInputStream(block, 0, length));
+        } catch (FileAlreadyExistsException faee) {
+            // stored concurrently by another instance sharing the storage
+        }
+    }
+
+    private boolean isStale(StoredObject block) {
+        return block.getLastModified() < clock.getWallTime() - REFRESH_AGE_MS;
+    }
+
+    /**
+     * Stores the manifest, first making sure that the blocks it refers to still exist and are
+     * recent enough not to be swept by any instance before the manifest can be seen. Blocks of a
+     * save begun within {@link #REFRESH_AGE_MS} were all written or renewed during the save, so
+     * only older or unknown saves need their blocks checked.
+     */
+    private StoredObject commit(String name, Path file, Manifest manifest) throws IOException {
+        Optional<Claim> claim = claimOf(manifest);
+        if (claim.isEmpty() || clock.getWallTime() - claim.get().started > REFRESH_AGE_MS) {
+            for (String digest : new HashSet<>(manifest.digests)) {
+                synchronized (lockFor(digest)) {
+                    StoredObject block =
+                            blocks.stat(digest)
+                                    .orElseThrow(
+                                            () ->
+                                                    new IOException(
+                                                            String.format(
+                                                                    "Archive block %s of %s is"
+                                                                            + " missing",
+                                                                    digest, name)));
+                    if (isStale(block)) {
+                        blocks.touch(digest);
+                    }
+                }
+            }
+        }
+        // a failure here leaves the claim pending, since the file may be offered again under
+        // another name
+        StoredObject stored = remember(manifests.putFile(name, file), manifest);
+        claim.ifPresent(this::release);
+        return stored;
+    }
+
+    private Optional<Claim> claimOf(Manifest manifest) {
+        synchronized (pending) {
+            Deque<Claim> queue = pending.get(manifest.key());
+            return queue == null ? Optional.empty() : Optional.of(queue.peek());
+        }
+    }
+
+    private void release(Claim claim) {
+        synchronized (pending) {
+            Deque<Claim> queue = pending.get(claim.key);
+            if (queue != null && queue.remove(claim) && queue.isEmpty()) {
+                pending.remove(claim.key);
+            }
+        }
+        claim.release();
+    }
+
+    private Object lockFor(String digest) {
+        return locks[Math.floorMod(digest.hashCode(), locks.length)];
+    }
+
+    private StoredObject remember(StoredObject stored, Manifest manifest) {
+        Summary summary = new Summary(stored, Optional.of(manifest));
+        summaries.put(stored.getName(), summary);
+        return decorate(stored, summary);
+    }
+
+    private StoredObject decorate(StoredObject stored, Summary summary) {
+        return summary.manifest
+                .map(m -> new StoredObject(stored.getName(), m.size, stored.getLastModified()))
+                .orElse(stored);
+    }
+
+    private Summary summarize(StoredObject stored) throws IOException {
+        Summary summary = summaries.get(stored.getName());
+        if (summary != null && summary.describes(stored)) {
+            return summary;
+        }
+        Optional<Manifest> manifest = Optional.empty();
+        if (stored.getSize() >= MAGIC.length && stored.getSize() <= MAX_MANIFEST_SIZE) {
+            // check the prefix first so that small objects stored as-is are not read in full
+            byte[] prefix;
+            try (InputStream in = manifests.get(stored.getName(), 0, MAGIC.length)) {
+                prefix = in.readAllBytes();
+            }
+            if (Arrays.equals(prefix, MAGIC)) {
+                try (InputStream in = manifests.get(stored.getName(), 0, -1)) {
+                    manifest = Manifest.read(in);
+                }
+            }
+        }
+        summary = new Summary(stored, manifest);
+        summaries.put(stored.getName(), summary);
+        return summary;
+    }
+
+    private static Optional<Manifest> readManifest(Path file) throws IOException {
+        if (Files.size(file) > MAX_MANIFEST_SIZE) {
+            return Optional.empty();
+        }
+        try (InputStream in = Files.newInputStream(file)) {
+            return Manifest.read(in);
+        }
+    }
+
+    static class Manifest {
+        final List<Long> sizes;
+        final List<String> digests;
+        final long size;
+
+        Manifest(List<Long> sizes, List<String> digests) {
+            this.sizes = Collections.unmodifiableList(sizes);
+            this.digests = Collections.unmodifiableList(digests);
+            this.size = sizes.stream().mapToLong(Long::longValue).sum();
+        }
+
+        String key() {
+            return new String(toBytes(), StandardCharsets.US_ASCII);
+        }
+
+        byte[] toBytes() {
+            StringBuilder sb = new StringBuilder(new String(MAGIC, StandardCharsets.US_ASCII));
+            for (int i = 0; i < digests.size(); i++) {
+                sb.append(sizes.get(i)).append(' ').append(digests.get(i)).append('\n');
+            }
+            return sb.toString().getBytes(StandardCharsets.US_ASCII);
+        }
+
+        /** @return the manifest, if the stream holds one rather than raw contents */
+        static Optional<Manifest> read(InputStream in) throws IOException {
+            if (!Arrays.equals(in.readNBytes(MAGIC.length), MAGIC)) {
+                return Optional.empty();
+            }
+            String body = new String(in.readAllBytes(), StandardCharsets.US_ASCII);
+            List<Long> sizes = new ArrayList<>();
+            List<String> digests = new ArrayList<>();
+            for (String line : body.split("\n")) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                String[] parts = line.split(" ");
+                if (parts.length != 2) {
+                    throw new IOException(String.format("Malformed manifest entry \"%s\"", line));
+                }
+                try {
+                    sizes.add(Long.parseLong(parts[0]));
+                } catch (NumberFormatException nfe) {
+                    throw new IOException(nfe);
+                }
+                digests.add(parts[1]);
+            }
+            return Optional.of(new Manifest(sizes, digests));
+        }
+    }
+
+    /**
+     * Reads through its source, storing each block as it is completed, and then yields the manifest
+     * of the stored blocks.
+     */
+    private class Encoder extends InputStream {
+        private final InputStream source;
+        private InputStream manifest;
+
+        Encoder(InputStream source) {
+            this.source = source;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return encoded().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return encoded().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            source.close();
+        }
+
+        private InputStream encoded() throws IOException {
+            if (manifest == null) {
+                manifest = new ByteArrayInputStream(split().toBytes());
+            }
+            return manifest;
+        }
+
+        private Manifest split() throws IOException {
+            Claim claim = new Claim();
+            try {
+                Manifest manifest = split(claim);
+                claim.key = manifest.key();
+                synchronized (pending) {
+                    pending.computeIfAbsent(claim.key, k -> new ArrayDeque<>()).add(claim);
+                }
+                return manifest;
+            } catch (IOException | RuntimeException e) {
+                claim.release();
+                throw e;
+            }
+        }
+
+        private Manifest split(Claim claim) throws IOException {
+            List<Long> sizes = new ArrayList<>();
+            List<String> digests = new ArrayList<>();
+            byte[] block = new byte[MAX_BLOCK_SIZE];
+            // bytes left in the current JFR chunk, or zero if not within one
+            long remaining = 0;
+            while (true) {
+                int length = 0;
+                if (remaining == 0) {
+                    length = source.readNBytes(block, 0, JFR_HEADER_PEEK);
+                    if (length == 0) {
+                        break;
+                    }
+                    remaining = chunkSize(block, length);
+                }
+                long target =
+                        remaining > 0 ? Math.min(remaining, MAX_BLOCK_SIZE) : FIXED_BLOCK_SIZE;
+                length += source.readNBytes(block, length, (int) target - length);
+                if (remaining > 0) {
+                    remaining = length < target ? 0 : remaining - length;
+                }
+                sizes.add((long) length);
+                digests.add(store(block, length, claim));
+                if (length < target) {
+                    break;
+                }
+            }
+            return new Manifest(sizes, digests);
+        }
+    }
+
+    /** @return the size of the JFR chunk starting the block, or zero if it does not start one */
+    static long chunkSize(byte[] block, int length) {
+        if (length < JFR_HEADER_PEEK
+                || !Arrays.equals(Arrays.copyOf(block, JFR_MAGIC.length), JFR_MAGIC)) {
+            return 0;
+        }
+        long size = ByteBuffer.wrap(block, 8, 8).getLong();
+        return size >= JFR_MIN_CHUNK_SIZE ? size : 0;
+    }
+
+    private class LazyInputStream extends InputStream {
+        private final Range range;
+        private InputStream in;
+
+        LazyInputStream(Range range) {
+            this.range = range;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return open().read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return open().read(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (in != null) {
+                in.close();
+            }
+        }
+
+        private InputStream open() throws IOException {
+            if (in == null) {
+                in = blocks.get(range.digest, range.offset, range.length);
+            }
+            return in;
+        }
+    }
+
+    /** The blocks used by one save, kept from sweeps until the save's manifest is stored. */
+    private class Claim {
+        final long started = clock.getWallTime();
+        final List<String> digests = new ArrayList<>();
+        String key;
+
+        // guarded by lockFor(digest)
+        void add(String digest) {
+            claims.merge(digest, 1, Integer::sum);
+            digests.add(digest);
+        }
+
+        void release() {
+            for (String digest : digests) {
+                synchronized (lockFor(digest)) {
+                    claims.computeIfPresent(digest, (k, n) -> n > 1 ? n - 1 : null);
+                }
+            }
+            digests.clear();
+        }
+    }
+
+    private static class Range {
+        final String digest;
+        final long offset;
+        final long length;
+
+        Range(String digest, long offset, long length) {
+            this.digest = digest;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static class Summary {
+        final long storedSize;
+        final long lastModified;
+        final Optional<Manifest> manifest;
+
+        Summary(StoredObject stored, Optional<Manifest> manifest) {
+            this.storedSize = stored.getSize();
+            this.lastModified = stored.getLastModified();
+            this.manifest = manifest;
+        }
+
+        boolean describes(StoredObject stored) {
+            return stored.getSize() == storedSize && stored.getLastModified() == lastModified;
+        }
+    }
+}
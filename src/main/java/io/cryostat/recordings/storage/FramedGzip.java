@@ -0,0 +1,402 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * A seekable gzip encoding. Contents are compressed as a series of independent gzip members, or
+ * frames, of {@link #FRAME_SIZE} uncompressed bytes each, followed by an empty member whose extra
+ * field holds a table of the frame sizes. The result is still an ordinary gzip stream which
+ * standard tools can decompress, but a range of it can be decompressed starting from the frame
+ * which contains the range rather than from the very beginning.
+ *
+ * <p>The trailing member is laid out as a gzip header with the FEXTRA flag, a single extra subfield
+ * "CS" holding one little-endian pair of 32-bit compressed and uncompressed sizes per frame, then
+ * the 64-bit total uncompressed size, the 32-bit number of pairs and a 32-bit magic number, and
+ * finally an empty deflate block and a zero CRC and size. The sizes of the last frame are implied
+ * by the totals and are not listed. Everything after {@link #MAX_FRAMES} listed frames goes into
+ * that last frame so that the table always fits within the extra field.
+ */
+final class FramedGzip {
+
+    static final int FRAME_SIZE = 1024 * 1024;
+    static final int TAIL_LENGTH = 26;
+    static final int MAX_FRAMES = (0xFFFF - 4 - 16) / 8;
+
+    private static final int MAGIC = 0x314b5343; // "CSK1"
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final byte[] TRAILER_HEADER = {
+        0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff,
+    };
+
+    private FramedGzip() {}
+
+    static InputStream encode(InputStream in, int level) {
+        return new Encoder(in, level);
+    }
+
+    /**
+     * @param tail the last {@link #TAIL_LENGTH} bytes of an object
+     * @return the length of the trailing member holding the frame table, if the object is encoded
+     */
+    static Optional<Integer> trailerLength(byte[] tail) {
+        if (tail.length != TAIL_LENGTH) {
+            return Optional.empty();
+        }
+        ByteBuffer buf = ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN);
+        long total = buf.getLong();
+        int count = buf.getInt();
+        int magic = buf.getInt();
+        if (magic != MAGIC
+                || total < 0
+                || count < 0
+                || count > MAX_FRAMES
+                || buf.get() != 3
+                || buf.get() != 0
+                || buf.getLong() != 0) {
+            return Optional.empty();
+        }
+        return Optional.of(TAIL_LENGTH + 16 + 8 * count);
+    }
+
+    /** @return the total uncompressed size recorded in the tail, which must be valid */
+    static long uncompressedSize(byte[] tail) {
+        return ByteBuffer.wrap(tail).order(ByteOrder.LITTLE_ENDIAN).getLong();
+    }
+
+    static class Index {
+        private final long size;
+        private final long[] compressedOffsets;
+        private final long[] uncompressedOffsets;
+
+        private Index(long size, long[] compressedOffsets, long[] uncompressedOffsets) {
+            this.size = size;
+            this.compressedOffsets = compressedOffsets;
+            this.uncompressedOffsets = uncompressedOffsets;
+        }
+
+        /**
+         * @param trailer the trailing member, as sized by {@link #trailerLength(byte[])}
+         * @param storedSize the size of the whole encoded object
+         */
+        static Optional<Index> parse(byte[] trailer, long storedSize) {
+            if (trailer.length < TAIL_LENGTH
+                    || !Arrays.equals(
+                            TRAILER_HEADER,
+                            Arrays.copyOfRange(trailer, 0, TRAILER_HEADER.length))) {
+                return Optional.empty();
+            }
+            ByteBuffer buf =
+                    ByteBuffer.wrap(trailer, TRAILER_HEADER.length, trailer.length - 10)
+                            .order(ByteOrder.LITTLE_ENDIAN);
+            int xlen = Short.toUnsignedInt(buf.getShort());
+            if (buf.get() != 'C' || buf.get() != 'S') {
+                return Optional.empty();
+            }
+            int len = Short.toUnsignedInt(buf.getShort());
+            int count = (len - 16) / 8;
+            if (xlen != len + 4 || trailer.length != TAIL_LENGTH + len) {
+                return Optional.empty();
+            }
+            long dataEnd = storedSize - trailer.length;
+            long[] compressed = new long[count + 2];
+            long[] uncompressed = new long[count + 2];
+            for (int i = 0; i < count; i++) {
+                compressed[i + 1] = compressed[i] + Integer.toUnsignedLong(buf.getInt());
+                uncompressed[i + 1] = uncompressed[i] + Integer.toUnsignedLong(buf.getInt());
+            }
+            long size = buf.getLong();
+            if (dataEnd < compressed[count] || size < uncompressed[count]) {
+                return Optional.empty();
+            }
+            compressed[count + 1] = dataEnd;
+            uncompressed[count + 1] = size;
+            return Optional.of(new Index(size, compressed, uncompressed));
+        }
+
+        long getSize() {
+            return size;
+        }
+
+        /** @return the index of the frame containing the uncompressed offset */
+        int frameAt(long offset) {
+            int i = Arrays.binarySearch(uncompressedOffsets, offset);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            // skip over empty frames, ie. an unlisted last frame with no contents
+            while (i < frameCount() - 1 && uncompressedOffsets[i + 1] == offset) {
+                i++;
+            }
+            return i;
+        }
+
+        int frameCount() {
+            return compressedOffsets.length - 1;
+        }
+
+        long compressedOffset(int frame) {
+            return compressedOffsets[frame];
+        }
+
+        long uncompressedOffset(int frame) {
+            return uncompressedOffsets[frame];
+        }
+
+        /**
+         * @param in the encoded object, positioned at the start of the given frame
+         * @param offset the uncompressed offset to start reading from, within the given frame
+         * @param length the number of bytes to read, or a negative value to read to the end
+         */
+        InputStream decode(InputStream in, int frame, long offset, long length) throws IOException {
+            InputStream decoded = new Decoder(in, this, frame);
+            try {
+                IOUtils.skipFully(decoded, offset - uncompressedOffsets[frame]);
+            } catch (IOException ioe) {
+                decoded.close();
+                throw ioe;
+            }
+            if (length < 0) {
+                return decoded;
+            }
+            return new BoundedInputStream(decoded, length);
+        }
+    }
+
+    private static class Decoder extends InputStream {
+        private final InputStream in;
+        private final Index index;
+        private int frame;
+        private InputStream current;
+
+        Decoder(InputStream in, Index index, int frame) {
+            this.in = in;
+            this.index = index;
+            this.frame = frame;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (true) {
+                if (current == null) {
+                    if (frame >= index.frameCount()) {
+                        return -1;
+                    }
+                    long compressedLength =
+                            index.compressedOffset(frame + 1) - index.compressedOffset(frame);
+                    frame++;
+                    if (compressedLength == 0) {
+                        continue;
+                    }
+                    BoundedInputStream member = new BoundedInputStream(in, compressedLength);
+                    member.setPropagateClose(false);
+                    current = new GZIPInputStream(member);
+                }
+                int n = current.read(b, off, len);
+                if (n >= 0) {
+                    return n;
+                }
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (current != null) {
+                    current.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    private static class Encoder extends InputStream {
+        private final InputStream in;
+        private final int level;
+        private final byte[] chunk;
+        private final ByteArrayOutputStream out;
+        private final ByteArrayOutputStream table;
+        private GZIPOutputStream member;
+        private long memberStart;
+        private long memberSize;
+        private long produced;
+        private long total;
+        private int listed;
+        private byte[] pending;
+        private int pendingPos;
+        private boolean finished;
+
+        Encoder(InputStream in, int level) {
+            this.in = in;
+            this.level = level;
+            this.chunk = new byte[CHUNK_SIZE];
+            this.out = new ByteArrayOutputStream();
+            this.table = new ByteArrayOutputStream();
+            this.pending = new byte[0];
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : Byte.toUnsignedInt(b[0]);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            while (pendingPos == pending.length) {
+                if (finished) {
+                    return -1;
+                }
+                fill();
+            }
+            int n = Math.min(len, pending.length - pendingPos);
+            System.arraycopy(pending, pendingPos, b, off, n);
+            pendingPos += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (member != null) {
+                    member.close();
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        private void fill() throws IOException {
+            int max = CHUNK_SIZE;
+            if (listed < MAX_FRAMES) {
+                max = (int) Math.min(max, FRAME_SIZE - memberSize);
+            }
+            int n = in.read(chunk, 0, max);
+            if (n < 0) {
+                if (member != null) {
+                    finishMember(false);
+                }
+                writeTrailer();
+                finished = true;
+            } else if (n > 0) {
+                if (member == null) {
+                    startMember();
+                }
+                member.write(chunk, 0, n);
+                memberSize += n;
+                total += n;
+                if (listed < MAX_FRAMES && memberSize == FRAME_SIZE) {
+                    finishMember(true);
+                }
+            }
+            pending = out.toByteArray();
+            pendingPos = 0;
+            produced += pending.length;
+            out.reset();
+        }
+
+        private void startMember() throws IOException {
+            memberStart = produced + out.size();
+            memberSize = 0;
+            member =
+                    new GZIPOutputStream(out, CHUNK_SIZE) {
+                        {
+                            def.setLevel(level);
+                        }
+                    };
+        }
+
+        private void finishMember(boolean list) throws IOException {
+            member.close();
+            member = null;
+            if (list) {
+                ByteBuffer entry = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+                entry.putInt((int) (produced + out.size() - memberStart));
+                entry.putInt((int) memberSize);
+                table.write(entry.array());
+                listed++;
+            }
+            memberSize = 0;
+        }
+
+        private void writeTrailer() throws IOException {
+            int len = table.size() + 16;
+            ByteBuffer buf = ByteBuffer.allocate(TAIL_LENGTH + len).order(ByteOrder.LITTLE_ENDIAN);
+            buf.put(TRAILER_HEADER);
+            buf.putShort((short) (len + 4));
+            buf.put((byte) 'C').put((byte) 'S');
+            buf.putShort((short) len);
+            buf.put(table.toByteArray());
+            buf.putLong(total);
+            buf.putInt(listed);
+            buf.putInt(MAGIC);
+            // an empty final deflate block, then the CRC and size of the empty contents
+            buf.put((byte) 3).put((byte) 0).putLong(0);
+            out.write(buf.array());
+        }
+    }
+}
@@ -0,0 +1,421 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystemException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.FileSystem;
+
+import org.apache.commons.io.input.BoundedInputStream;
+
+/**
+ * Stores archived recordings as plain files under a local directory. With the {@link Layout#FLAT}
+ * layout every file sits directly in that directory. With {@link Layout#SHARDED} recordings are
+ * kept under {@code <target>/<yyyyMMdd>/} subdirectories derived from their names, so that no
+ * single directory grows without bound; names which do not follow the usual {@code
+ * <target>_<recording>_<timestamp>} form stay in the top-level directory. Object names are the same
+ * for both layouts, and files found at the other layout's location are still served until {@link
+ * #prepare()} moves them.
+ */
+public class LocalArchiveStorage implements ArchiveStorage {
+
+    public enum Layout {
+        FLAT,
+        SHARDED,
+    }
+
+    static final Pattern SHARD_PATTERN =
+            Pattern.compile("([A-Za-z\\d-]+)_[A-Za-z\\d-_]*_(\\d{8})T[\\d]*Z(\\.[\\d]+)?(\\.jfr)?");
+
+    private final Path archivePath;
+    private final FileSystem fs;
+    private final Layout layout;
+    private final Logger logger;
+
+    public LocalArchiveStorage(Path archivePath, FileSystem fs) {
+        this(archivePath, fs, Layout.FLAT, Logger.INSTANCE);
+    }
+
+    public LocalArchiveStorage(Path archivePath, FileSystem fs, Layout layout, Logger logger) {
+        this.archivePath = archivePath;
+        this.fs = fs;
+        this.layout = layout;
+        this.logger = logger;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public void checkAvailable() throws IOException {
+        if (!fs.exists(archivePath)) {
+            throw new IOException(
+                    String.format("Archive path %s does not exist", archivePath.toString()));
+        }
+        if (!fs.isReadable(archivePath)) {
+            throw new IOException(
+                    String.format("Archive path %s is not readable", archivePath.toString()));
+        }
+        if (!fs.isDirectory(archivePath)) {
+            throw new IOException(
+                    String.format("Archive path %s is not a directory", archivePath.toString()));
+        }
+    }
+
+    /** Moves any files kept at the other layout's location to where this layout expects them. */
+    @Override
+    public void prepare() throws IOException {
+        int moved = 0;
+        for (Map.Entry<String, Path> entry : walk().entrySet()) {
+            Path current = entry.getValue();
+            Path dest = resolve(entry.getKey());
+            if (current.equals(dest)) {
+                continue;
+            }
+            try {
+                Files.createDirectories(dest.getParent());
+                commit(current, dest);
+                pruneEmpty(current.getParent());
+                moved++;
+            } catch (FileAlreadyExistsException faee) {
+                logger.warn(
+                        "Archived recording {} exists at both {} and {}, leaving both in place",
+                        entry.getKey(),
+                        current,
+                        dest);
+            }
+        }
+        if (moved > 0) {
+            logger.info("Moved {} archived recordings into the {} layout", moved, layout);
+        }
+    }
+
+    @Override
+    public StoredObject put(String name, InputStream in) throws IOException {
+        ArchiveStorage.checkName(name);
+        Path staged = ArchiveStorage.newStagedFile(stagingDirectory(), "archive");
+        try {
+            fs.copy(in, staged);
+            return putFile(name, staged);
+        } finally {
+            fs.deleteIfExists(staged);
+        }
+    }
+
+    @Override
+    public StoredObject putFile(String name, Path file) throws IOException {
+        Path dest = resolve(ArchiveStorage.checkName(name));
+        if (!dest.equals(legacyPath(name)) && Files.exists(legacyPath(name))) {
+            throw new FileAlreadyExistsException(legacyPath(name).toString());
+        }
+        // the contents must be durable before the name is, or a crash could leave a truncated file
+        // under the final name
+        sync(file);
+        while (true) {
+            Files.createDirectories(dest.getParent());
+            try {
+                commit(file, dest);
+                break;
+            } catch (NoSuchFileException nsfe) {
+                // a concurrent delete may have pruned the now-empty shard directory
+                if (!Files.exists(file) || Files.isDirectory(dest.getParent())) {
+                    throw nsfe;
+                }
+            }
+        }
+        syncDirectory(dest.getParent());
+        return toStoredObject(name, Files.readAttributes(dest, BasicFileAttributes.class));
+    }
+
+    /**
+     * Gives the file its final name, failing with FileAlreadyExistsException rather than clobbering
+     * a recording saved concurrently under the same name. Creating a hard link does this
+     * atomically, whereas a move without REPLACE_EXISTING checks for the destination and then
+     * renames over anything which appeared in between.
+     */
+    private static void commit(Path file, Path dest) throws IOException {
+        try {
+            Files.createLink(dest, file);
+        } catch (FileAlreadyExistsException | NoSuchFileException e) {
+            throw e;
+        } catch (UnsupportedOperationException | FileSystemException e) {
+            // no hard links here, eg. across filesystems or on some network mounts
+            Files.move(file, dest);
+            return;
+        }
+        Files.deleteIfExists(file);
+    }
+
+    private static void sync(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static void syncDirectory(Path dir) {
+        try {
+            sync(dir);
+        } catch (IOException ioe) {
+            // not every platform can open a directory to sync it, and the file itself is already
+            // durable, so this is best-effort
+        }
+    }
+
+    @Override
+    public InputStream get(String name, long offset, long length) throws IOException {
+        Path path =
+                locate(ArchiveStorage.checkName(name))
+                        .orElseThrow(() -> new NoSuchFileException(name));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            channel.position(offset);
+        } catch (IOException ioe) {
+            channel.close();
+            throw ioe;
+        }
+        InputStream in = Channels.newInputStream(channel);
+        if (length < 0) {
+            return in;
+        }
+        return new BoundedInputStream(in, length);
+    }
+
+    @Override
+    public List<StoredObject> list() throws IOException {
+        List<StoredObject> objects = new ArrayList<>();
+        for (Map.Entry<String, Path> entry : walk().entrySet()) {
+            readAttributes(entry.getValue())
+                    .ifPresent(attrs -> objects.add(toStoredObject(entry.getKey(), attrs)));
+        }
+        return objects;
+    }
+
+    @Override
+    public Optional<StoredObject> stat(String name) throws IOException {
+        ArchiveStorage.checkName(name);
+        for (Path candidate : candidates(name)) {
+            Optional<BasicFileAttributes> attrs = readAttributes(candidate);
+            if (attrs.isPresent()) {
+                return Optional.of(toStoredObject(name, attrs.get()));
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        ArchiveStorage.checkName(name);
+        boolean deleted = false;
+        for (Path candidate : candidates(name)) {
+            if (fs.deleteIfExists(candidate)) {
+                deleted = true;
+                pruneEmpty(candidate.getParent());
+            }
+        }
+        return deleted;
+    }
+
+    @Override
+    public void touch(String name) throws IOException {
+        Path path =
+                locate(ArchiveStorage.checkName(name))
+                        .orElseThrow(() -> new NoSuchFileException(name));
+        Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+    }
+
+    @Override
+    public Path stagingDirectory() {
+        // staging on the same filesystem lets putFile be a cheap rename
+        return archivePath;
+    }
+
+    @Override
+    public Optional<Path> localDirectory() {
+        return Optional.of(archivePath);
+    }
+
+    @Override
+    public Optional<Path> directPath(String name) throws IOException {
+        ArchiveStorage.checkName(name);
+        return Optional.of(locate(name).orElse(resolve(name)));
+    }
+
+    /** @return where this layout keeps the named object, whether or not it exists */
+    public Path resolve(String name) {
+        if (layout == Layout.SHARDED) {
+            Optional<Path> shard = shardOf(name);
+            if (shard.isPresent()) {
+                return archivePath.resolve(shard.get()).resolve(name);
+            }
+        }
+        return archivePath.resolve(name);
+    }
+
+    /** @return the subdirectory, relative to the archive path, for the named object, if any */
+    static Optional<Path> shardOf(String name) {
+        Matcher m = SHARD_PATTERN.matcher(name);
+        if (!m.matches()) {
+            return Optional.empty();
+        }
+        return Optional.of(Path.of(m.group(1), m.group(2)));
+    }
+
+    private Path legacyPath(String name) {
+        if (layout == Layout.SHARDED) {
+            return archivePath.resolve(name);
+        }
+        return shardOf(name).map(s -> archivePath.resolve(s).resolve(name)).orElse(resolve(name));
+    }
+
+    private List<Path> candidates(String name) {
+        Path primary = resolve(name);
+        Path legacy = legacyPath(name);
+        return primary.equals(legacy) ? List.of(primary) : List.of(primary, legacy);
+    }
+
+    private Optional<Path> locate(String name) throws IOException {
+        for (Path candidate : candidates(name)) {
+            if (readAttributes(candidate).isPresent()) {
+                return Optional.of(candidate);
+            }
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * @return every visible object in either layout, by name. Where a name is present at both
+     *     locations the one belonging to the current layout wins.
+     */
+    private Map<String, Path> walk() throws IOException {
+        Map<String, Path> found = new HashMap<>();
+        for (String name : fs.listDirectoryChildren(archivePath)) {
+            if (name.startsWith(".")) {
+                continue;
+            }
+            Path path = archivePath.resolve(name);
+            if (isDirectory(path)) {
+                for (String day : listChildren(path)) {
+                    Path dayPath = path.resolve(day);
+                    if (day.startsWith(".") || !isDirectory(dayPath)) {
+                        continue;
+                    }
+                    Path shard = Path.of(name, day);
+                    for (String child : listChildren(dayPath)) {
+                        // only files in the directory their name maps to count as objects
+                        if (!child.startsWith(".")
+                                && shardOf(child).filter(shard::equals).isPresent()) {
+                            add(found, child, dayPath.resolve(child));
+                        }
+                    }
+                }
+            } else {
+                add(found, name, path);
+            }
+        }
+        return found;
+    }
+
+    private void add(Map<String, Path> found, String name, Path path) {
+        Path existing = found.get(name);
+        if (existing == null || !existing.equals(resolve(name))) {
+            found.put(name, path);
+        }
+    }
+
+    private List<String> listChildren(Path dir) throws IOException {
+        try {
+            return fs.listDirectoryChildren(dir);
+        } catch (NoSuchFileException nsfe) {
+            return List.of();
+        }
+    }
+
+    private void pruneEmpty(Path dir) throws IOException {
+        // remove the day and then the target directory once they hold nothing else
+        while (!dir.equals(archivePath) && dir.startsWith(archivePath)) {
+            try {
+                Files.delete(dir);
+            } catch (DirectoryNotEmptyException | NoSuchFileException e) {
+                return;
+            }
+            dir = dir.getParent();
+        }
+    }
+
+    private static boolean isDirectory(Path path) throws IOException {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class).isDirectory();
+        } catch (NoSuchFileException nsfe) {
+            return false;
+        }
+    }
+
+    private static Optional<BasicFileAttributes> readAttributes(Path path) throws IOException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return attrs.isRegularFile() ? Optional.of(attrs) : Optional.empty();
+        } catch (NoSuchFileException nsfe) {
+            return Optional.empty();
+        }
+    }
+
+    private static StoredObject toStoredObject(String name, BasicFileAttributes attrs) {
+        return new StoredObject(name, attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+}
@@ -0,0 +1,536 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Stores archived recordings as objects in a bucket of an S3-compatible object store, addressed
+ * with path-style URLs so that self-hosted stores work without any DNS setup. Uploads larger than a
+ * single part are sent as multipart uploads with a bounded number of parts in flight at once.
+ * Conditional writes ({@code If-None-Match: *}) are used so that an existing object is never
+ * overwritten.
+ */
+class S3ArchiveStorage implements ArchiveStorage {
+
+    static final long AVAILABILITY_CACHE_MS = 30_000;
+
+    private final HttpClient http;
+    private final S3Signer signer;
+    private final String endpoint;
+    private final String bucket;
+    private final String prefix;
+    private final int partSize;
+    private final int uploadParallelism;
+    private final Clock clock;
+    private final Logger logger;
+    private volatile long availableUntil;
+    private volatile Path stagingDirectory;
+
+    S3ArchiveStorage(
+            HttpClient http,
+            S3Signer signer,
+            URI endpoint,
+            String bucket,
+            String prefix,
+            int partSize,
+            int uploadParallelism,
+            Clock clock,
+            Logger logger) {
+        this.http = http;
+        this.signer = signer;
+        String ep = endpoint.toString();
+        this.endpoint = ep.endsWith("/") ? ep.substring(0, ep.length() - 1) : ep;
+        this.bucket = bucket;
+        this.prefix = normalizePrefix(prefix);
+        this.partSize = partSize;
+        this.uploadParallelism = uploadParallelism;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    @Override
+    public void checkAvailable() throws IOException {
+        if (clock.getWallTime() < availableUntil) {
+            return;
+        }
+        HttpResponse<byte[]> res =
+                send("HEAD", null, null, Map.of(), null, BodyHandlers.ofByteArray());
+        if (res.statusCode() != 200) {
+            throw new IOException(
+                    String.format(
+                            "Archive bucket %s at %s is not available (HTTP %d)",
+                            bucket, endpoint, res.statusCode()));
+        }
+        availableUntil = clock.getWallTime() + AVAILABILITY_CACHE_MS;
+    }
+
+    @Override
+    public StoredObject put(String name, InputStream in) throws IOException {
+        String key = key(name);
+        byte[] part = in.readNBytes(partSize);
+        if (part.length < partSize) {
+            HttpResponse<byte[]> res =
+                    send(
+                            "PUT",
+                            key,
+                            null,
+                            Map.of("If-None-Match", "*"),
+                            part,
+                            BodyHandlers.ofByteArray());
+            checkWrite(name, res);
+        } else {
+            putMultipart(name, key, part, in);
+        }
+        return stat(name)
+                .orElseThrow(
+                        () -> new IOException(String.format("%s vanished after upload", name)));
+    }
+
+    @Override
+    public StoredObject putFile(String name, Path file) throws IOException {
+        StoredObject stored;
+        try (InputStream in = Files.newInputStream(file)) {
+            stored = put(name, in);
+        }
+        Files.deleteIfExists(file);
+        return stored;
+    }
+
+    @Override
+    public InputStream get(String name, long offset, long length) throws IOException {
+        String key = key(name);
+        if (length == 0) {
+            return InputStream.nullInputStream();
+        }
+        Map<String, String> headers = new HashMap<>();
+        if (offset > 0 || length > 0) {
+            headers.put(
+                    "Range",
+                    length < 0
+                            ? String.format("bytes=%d-", offset)
+                            : String.format("bytes=%d-%d", offset, offset + length - 1));
+        }
+        HttpResponse<InputStream> res =
+                send("GET", key, null, headers, null, BodyHandlers.ofInputStream());
+        switch (res.statusCode()) {
+            case 200:
+            case 206:
+                return res.body();
+            case 416:
+                // the requested range starts past the end of the object, which a file read
+                // treats as an empty read rather than an error
+                res.body().close();
+                return InputStream.nullInputStream();
+            case 404:
+                res.body().close();
+                throw new NoSuchFileException(name);
+            default:
+                String body;
+                try (InputStream err = res.body()) {
+                    body = new String(err.readAllBytes(), StandardCharsets.UTF_8);
+                }
+                throw new IOException(
+                        String.format(
+                                "Failed to get %s (HTTP %d): %s", name, res.statusCode(), body));
+        }
+    }
+
+    @Override
+    public List<StoredObject> list() throws IOException {
+        List<StoredObject> objects = new ArrayList<>();
+        String token = null;
+        do {
+            StringBuilder query = new StringBuilder("list-type=2&delimiter=%2F");
+            if (!prefix.isEmpty()) {
+                query.append("&prefix=").append(S3Signer.encode(prefix, false));
+            }
+            if (token != null) {
+                query.append("&continuation-token=").append(S3Signer.encode(token, false));
+            }
+            HttpResponse<byte[]> res =
+                    send("GET", null, query.toString(), Map.of(), null, BodyHandlers.ofByteArray());
+            if (res.statusCode() != 200) {
+                throw failure("list objects", res);
+            }
+            Element root = parseXml(res.body()).getDocumentElement();
+            NodeList contents = root.getElementsByTagName("Contents");
+            for (int i = 0; i < contents.getLength(); i++) {
+                Element e = (Element) contents.item(i);
+                String name = text(e, "Key").substring(prefix.length());
+                if (name.isEmpty() || name.startsWith(".") || name.contains("/")) {
+                    continue;
+                }
+                objects.add(
+                        new StoredObject(
+                                name,
+                                Long.parseLong(text(e, "Size")),
+                                Instant.parse(text(e, "LastModified")).toEpochMilli()));
+            }
+            token =
+                    "true".equals(text(root, "IsTruncated"))
+                            ? text(root, "NextContinuationToken")
+                            : null;
+        } while (token != null);
+        return objects;
+    }
+
+    @Override
+    public Optional<StoredObject> stat(String name) throws IOException {
+        HttpResponse<byte[]> res =
+                send("HEAD", key(name), null, Map.of(), null, BodyHandlers.ofByteArray());
+        if (res.statusCode() == 404) {
+            return Optional.empty();
+        }
+        if (res.statusCode() != 200) {
+            throw failure("stat " + name, res);
+        }
+        long size =
+                res.headers()
+                        .firstValueAsLong("Content-Length")
+                        .orElseThrow(() -> failure("stat " + name, res));
+        long modified =
+                res.headers()
+                        .firstValue("Last-Modified")
+                        .map(
+                                v ->
+                                        ZonedDateTime.parse(v, DateTimeFormatter.RFC_1123_DATE_TIME)
+                                                .toInstant()
+                                                .toEpochMilli())
+                        .orElse(0L);
+        return Optional.of(new StoredObject(name, size, modified));
+    }
+
+    @Override
+    public boolean delete(String name) throws IOException {
+        // DELETE succeeds whether or not the object existed, so look first to report which
+        if (stat(name).isEmpty()) {
+            return false;
+        }
+        HttpResponse<byte[]> res =
+                send("DELETE", key(name), null, Map.of(), null, BodyHandlers.ofByteArray());
+        if (res.statusCode() != 204 && res.statusCode() != 200) {
+            throw failure("delete " + name, res);
+        }
+        return true;
+    }
+
+    @Override
+    public void touch(String name) throws IOException {
+        String key = key(name);
+        // copying an object onto itself with replaced metadata is how S3 renews its last modified
+        // time
+        HttpResponse<byte[]> res =
+                send(
+                        "PUT",
+                        key,
+                        null,
+                        Map.of(
+                                "x-amz-copy-source",
+                                "/"
+                                        + S3Signer.encode(bucket, false)
+                                        + "/"
+                                        + S3Signer.encode(key, true),
+                                "x-amz-metadata-directive",
+                                "REPLACE"),
+                        null,
+                        BodyHandlers.ofByteArray());
+        if (res.statusCode() == 404) {
+            throw new NoSuchFileException(name);
+        }
+        // like completing an upload, copying can fail after the 200 status line has been sent
+        if (res.statusCode() != 200
+                || parseXml(res.body()).getDocumentElement().getTagName().equals("Error")) {
+            throw failure("touch " + name, res);
+        }
+    }
+
+    @Override
+    public Path stagingDirectory() throws IOException {
+        Path dir = stagingDirectory;
+        if (dir == null) {
+            synchronized (this) {
+                dir = stagingDirectory;
+                if (dir == null) {
+                    dir = Files.createTempDirectory("cryostat-archive-staging");
+                    stagingDirectory = dir;
+                }
+            }
+        }
+        return dir;
+    }
+
+    @Override
+    public Optional<Path> localDirectory() {
+        return Optional.empty();
+    }
+
+    private void putMultipart(String name, String key, byte[] firstPart, InputStream in)
+            throws IOException {
+        HttpResponse<byte[]> init =
+                send("POST", key, "uploads=", Map.of(), new byte[0], BodyHandlers.ofByteArray());
+        if (init.statusCode() != 200) {
+            throw failure("start upload of " + name, init);
+        }
+        String uploadId = text(parseXml(init.body()).getDocumentElement(), "UploadId");
+        List<CompletableFuture<String>> parts = new ArrayList<>();
+        try {
+            // bounds the number of part buffers held in memory as well as the requests in flight
+            Semaphore permits = new Semaphore(uploadParallelism);
+            byte[] part = firstPart;
+            while (part.length > 0) {
+                permits.acquire();
+                for (CompletableFuture<String> f : parts) {
+                    if (f.isCompletedExceptionally()) {
+                        f.join();
+                    }
+                }
+                parts.add(
+                        uploadPart(key, uploadId, parts.size() + 1, part)
+                                .whenComplete((etag, t) -> permits.release()));
+                if (part.length < partSize) {
+                    break;
+                }
+                part = in.readNBytes(partSize);
+            }
+            StringBuilder body = new StringBuilder("<CompleteMultipartUpload>");
+            for (int i = 0; i < parts.size(); i++) {
+                body.append(
+                        String.format(
+                                "<Part><PartNumber>%d</PartNumber><ETag>%s</ETag></Part>",
+                                i + 1, parts.get(i).join()));
+            }
+            body.append("</CompleteMultipartUpload>");
+            HttpResponse<byte[]> res =
+                    send(
+                            "POST",
+                            key,
+                            "uploadId=" + S3Signer.encode(uploadId, false),
+                            Map.of("If-None-Match", "*"),
+                            body.toString().getBytes(StandardCharsets.UTF_8),
+                            BodyHandlers.ofByteArray());
+            checkWrite(name, res);
+            // completion can fail after the 200 status line has been sent
+            if (parseXml(res.body()).getDocumentElement().getTagName().equals("Error")) {
+                throw failure("complete upload of " + name, res);
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            abort(key, uploadId, parts);
+            throw new InterruptedIOException();
+        } catch (CompletionException ce) {
+            abort(key, uploadId, parts);
+            if (ce.getCause() instanceof IOException) {
+                throw (IOException) ce.getCause();
+            }
+            throw new IOException(ce.getCause());
+        } catch (IOException | RuntimeException e) {
+            abort(key, uploadId, parts);
+            throw e;
+        }
+    }
+
+    private CompletableFuture<String> uploadPart(
+            String key, String uploadId, int partNumber, byte[] part) {
+        String query =
+                String.format(
+                        "partNumber=%d&uploadId=%s", partNumber, S3Signer.encode(uploadId, false));
+        return http.sendAsync(
+                        request("PUT", key, query, Map.of(), part), BodyHandlers.ofByteArray())
+                .thenApply(
+                        res -> {
+                            if (res.statusCode() != 200) {
+                                throw new CompletionException(
+                                        failure("upload part " + partNumber, res));
+                            }
+                            return res.headers()
+                                    .firstValue("ETag")
+                                    .orElseThrow(
+                                            () ->
+                                                    new CompletionException(
+                                                            failure(
+                                                                    "upload part " + partNumber,
+                                                                    res)));
+                        });
+    }
+
+    private void abort(String key, String uploadId, List<CompletableFuture<String>> parts) {
+        // a part which is still in flight when the upload is aborted may be stored afterwards and
+        // left orphaned, and cancelling the future does not stop the request, so let them settle
+        CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[0]))
+                .exceptionally(t -> null)
+                .join();
+        try {
+            send(
+                    "DELETE",
+                    key,
+                    "uploadId=" + S3Signer.encode(uploadId, false),
+                    Map.of(),
+                    null,
+                    BodyHandlers.ofByteArray());
+        } catch (IOException e) {
+            // the store's own lifecycle rules will eventually clean up the orphaned parts
+            logger.warn(e);
+        }
+    }
+
+    private void checkWrite(String name, HttpResponse<byte[]> res) throws IOException {
+        if (res.statusCode() == 412) {
+            throw new FileAlreadyExistsException(name);
+        }
+        if (res.statusCode() != 200) {
+            throw failure("store " + name, res);
+        }
+    }
+
+    private <T> HttpResponse<T> send(
+            String method,
+            String key,
+            String query,
+            Map<String, String> headers,
+            byte[] body,
+            BodyHandler<T> handler)
+            throws IOException {
+        try {
+            return http.send(request(method, key, query, headers, body), handler);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    private HttpRequest request(
+            String method, String key, String query, Map<String, String> headers, byte[] body) {
+        StringBuilder sb =
+                new StringBuilder(endpoint).append('/').append(S3Signer.encode(bucket, false));
+        if (key != null) {
+            sb.append('/').append(S3Signer.encode(key, true));
+        }
+        if (query != null) {
+            sb.append('?').append(query);
+        }
+        URI uri = URI.create(sb.toString());
+        String payloadHash =
+                body == null ? S3Signer.EMPTY_PAYLOAD_HASH : DigestUtils.sha256Hex(body);
+        HttpRequest.Builder builder =
+                HttpRequest.newBuilder(uri)
+                        .method(
+                                method,
+                                body == null
+                                        ? HttpRequest.BodyPublishers.noBody()
+                                        : HttpRequest.BodyPublishers.ofByteArray(body));
+        headers.forEach(builder::header);
+        signer.sign(method, uri, headers, payloadHash, clock.now()).forEach(builder::header);
+        return builder.build();
+    }
+
+    private String key(String name) {
+        return prefix + ArchiveStorage.checkName(name);
+    }
+
+    private static IOException failure(String action, HttpResponse<?> res) {
+        String detail = "";
+        if (res.body() instanceof byte[]) {
+            detail = ": " + new String((byte[]) res.body(), StandardCharsets.UTF_8);
+        }
+        return new IOException(
+                String.format("Failed to %s (HTTP %d)%s", action, res.statusCode(), detail));
+    }
+
+    private static Document parseXml(byte[] xml) throws IOException {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch (IOException ioe) {
+            throw ioe;
+        } catch (Exception e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static String text(Element parent, String tag) {
+        NodeList nodes = parent.getElementsByTagName(tag);
+        return nodes.getLength() == 0 ? null : nodes.item(0).getTextContent();
+    }
+
+    static String normalizePrefix(String prefix) {
+        if (prefix == null || prefix.isEmpty()) {
+            return "";
+        }
+        String p = prefix.startsWith("/") ? prefix.substring(1) : prefix;
+        return p.endsWith("/") ? p : p + "/";
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+/** Signs requests to an S3-compatible object store using AWS Signature Version 4. */
+class S3Signer {
+
+    static final String ALGORITHM = "AWS4-HMAC-SHA256";
+    static final String EMPTY_PAYLOAD_HASH = DigestUtils.sha256Hex(new byte[0]);
+
+    private static final String SERVICE = "s3";
+    private static final DateTimeFormatter DATE_TIME =
+            DateTimeFormatter.ofPattern("yyyyMMdd'T'HHmmss'Z'").withZone(ZoneOffset.UTC);
+    private static final DateTimeFormatter DATE =
+            DateTimeFormatter.ofPattern("yyyyMMdd").withZone(ZoneOffset.UTC);
+
+    private final String region;
+    private final String accessKey;
+    private final String secretKey;
+
+    S3Signer(String region, String accessKey, String secretKey) {
+        this.region = region;
+        this.accessKey = accessKey;
+        this.secretKey = secretKey;
+    }
+
+    /**
+     * @param uri the request URI, with its path and query already percent-encoded as by {@link
+     *     #encode(String, boolean)}
+     * @param headers any additional headers which will be sent and should be signed
+     * @param payloadHash the hex SHA-256 hash of the request body
+     * @return the headers which must be added to the request
+     */
+    Map<String, String> sign(
+            String method, URI uri, Map<String, String> headers, String payloadHash, Instant now) {
+        String dateTime = DATE_TIME.format(now);
+        String scope = String.format("%s/%s/%s/aws4_request", DATE.format(now), region, SERVICE);
+
+        SortedMap<String, String> signed = new TreeMap<>();
+        headers.forEach((k, v) -> signed.put(k.toLowerCase(Locale.ROOT), v.trim()));
+        signed.put(
+                "host", uri.getPort() == -1 ? uri.getHost() : uri.getHost() + ":" + uri.getPort());
+        signed.put("x-amz-content-sha256", payloadHash);
+        signed.put("x-amz-date", dateTime);
+        String signedHeaders = String.join(";", signed.keySet());
+
+        StringBuilder canonicalHeaders = new StringBuilder();
+        signed.forEach((k, v) -> canonicalHeaders.append(k).append(':').append(v).append('\n'));
+        String path = uri.getRawPath();
+        String canonicalRequest =
+                String.join(
+                        "\n",
+                        method,
+                        path == null || path.isEmpty() ? "/" : path,
+                        canonicalQuery(uri.getRawQuery()),
+                        canonicalHeaders.toString(),
+                        signedHeaders,
+                        payloadHash);
+
+        String stringToSign =
+                String.join(
+                        "\n", ALGORITHM, dateTime, scope, DigestUtils.sha256Hex(canonicalRequest));
+        byte[] key = hmac(("AWS4" + secretKey).getBytes(StandardCharsets.UTF_8), DATE.format(now));
+        key = hmac(key, region);
+        key = hmac(key, SERVICE);
+        key = hmac(key, "aws4_request");
+        String signature = Hex.encodeHexString(hmac(key, stringToSign));
+
+        return Map.of(
+                "x-amz-date",
+                dateTime,
+                "x-amz-content-sha256",
+                payloadHash,
+                "Authorization",
+                String.format(
+                        "%s Credential=%s/%s, SignedHeaders=%s, Signature=%s",
+                        ALGORITHM, accessKey, scope, signedHeaders, signature));
+    }
+
+    /** Percent-encodes all but the RFC 3986 unreserved characters, and optionally '/'. */
+    static String encode(String s, boolean keepSlash) {
+        StringBuilder sb = new StringBuilder();
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            char c = (char) (b & 0xff);
+            if ((c >= 'A' && c <= 'Z')
+                    || (c >= 'a' && c <= 'z')
+                    || (c >= '0' && c <= '9')
+                    || c == '-'
+                    || c == '_'
+                    || c == '.'
+                    || c == '~'
+                    || (keepSlash && c == '/')) {
+                sb.append(c);
+            } else {
+                sb.append(String.format("%%%02X", (int) c));
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String canonicalQuery(String rawQuery) {
+        if (rawQuery == null || rawQuery.isEmpty()) {
+            return "";
+        }
+        List<String[]> params = new ArrayList<>();
+        for (String param : rawQuery.split("&")) {
+            int idx = param.indexOf('=');
+            String k = idx < 0 ? param : param.substring(0, idx);
+            String v = idx < 0 ? "" : param.substring(idx + 1);
+            params.add(new String[] {reencode(k), reencode(v)});
+        }
+        return params.stream()
+                .sorted((a, b) -> a[0].equals(b[0]) ? a[1].compareTo(b[1]) : a[0].compareTo(b[0]))
+                .map(p -> p[0] + "=" + p[1])
+                .collect(Collectors.joining("&"));
+    }
+
+    private static String reencode(String s) {
+        // normalize whatever encoding the caller used; a literal '+' must already be escaped
+        return encode(URLDecoder.decode(s, StandardCharsets.UTF_8), false);
+    }
+
+    private static byte[] hmac(byte[] key, String data) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(key, "HmacSHA256"));
+            return mac.doFinal(data.getBytes(StandardCharsets.UTF_8));
+        } catch (Exception e) {
+            // HmacSHA256 is required to be present on every Java platform
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,371 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import io.cryostat.platform.ServiceRef;
+import io.cryostat.platform.ServiceRef.AnnotationKey;
+
+/**
+ * A rule's target selection, parsed and compiled once into a predicate over ServiceRefs so that
+ * evaluating it against a discovered target does no parsing or regex compilation.
+ *
+ * <p>An expression compares target fields against quoted strings, and comparisons may be combined
+ * with {@code &&}, {@code ||}, {@code !} and parentheses. The fields are {@code alias}, {@code
+ * connectUrl}, {@code labels.KEY}, {@code annotations.platform.KEY} and {@code
+ * annotations.cryostat.KEY}, where KEY may also be written as {@code ['some.key']} if it contains
+ * other characters. The operators are {@code ==}, {@code !=}, {@code =~} (the whole value matches a
+ * regular expression) and {@code !~}. A field on its own tests that it is present. For example:
+ *
+ * <pre>
+ * annotations.cryostat.NAMESPACE == 'prod' &amp;&amp; labels['app.kubernetes.io/name'] =~ 'orders-.*'
+ * </pre>
+ */
+class MatchExpression implements Predicate<ServiceRef> {
+
+    private final String source;
+    private final Predicate<ServiceRef> predicate;
+
+    private MatchExpression(String source, Predicate<ServiceRef> predicate) {
+        this.source = source;
+        this.predicate = predicate;
+    }
+
+    static MatchExpression compile(String source) throws IllegalArgumentException {
+        Parser parser = new Parser(source, tokenize(source));
+        Predicate<ServiceRef> predicate = parser.parseOr();
+        if (!parser.atEnd()) {
+            throw parser.error("unexpected " + parser.peek());
+        }
+        return new MatchExpression(source, predicate);
+    }
+
+    @Override
+    public boolean test(ServiceRef serviceRef) {
+        return predicate.test(serviceRef);
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+
+    private static List<Token> tokenize(String source) {
+        List<Token> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < source.length()) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '\'' || c == '"') {
+                StringBuilder sb = new StringBuilder();
+                int start = i++;
+                while (true) {
+                    if (i >= source.length()) {
+                        throw new IllegalArgumentException(
+                                String.format(
+                                        "Invalid match expression \"%s\": unterminated string at"
+                                                + " position %d",
+                                        source, start));
+                    }
+                    char s = source.charAt(i++);
+                    if (s == c) {
+                        break;
+                    }
+                    if (s == '\\' && i < source.length()) {
+                        s = source.charAt(i++);
+                    }
+                    sb.append(s);
+                }
+                tokens.add(new Token(TokenType.STRING, sb.toString(), start));
+            } else if (isIdentifierChar(c)) {
+                int start = i;
+                while (i < source.length() && isIdentifierChar(source.charAt(i))) {
+                    i++;
+                }
+                tokens.add(new Token(TokenType.IDENTIFIER, source.substring(start, i), start));
+            } else {
+                String two = i + 1 < source.length() ? source.substring(i, i + 2) : "";
+                switch (two) {
+                    case "==":
+                    case "!=":
+                    case "=~":
+                    case "!~":
+                    case "&&":
+                    case "||":
+                        tokens.add(new Token(TokenType.SYMBOL, two, i));
+                        i += 2;
+                        continue;
+                    default:
+                        break;
+                }
+                if ("!().[]".indexOf(c) < 0) {
+                    throw new IllegalArgumentException(
+                            String.format(
+                                    "Invalid match expression \"%s\": unexpected '%s' at position"
+                                            + " %d",
+                                    source, c, i));
+                }
+                tokens.add(new Token(TokenType.SYMBOL, String.valueOf(c), i));
+                i++;
+            }
+        }
+        return tokens;
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '-' || c == '/';
+    }
+
+    private enum TokenType {
+        IDENTIFIER,
+        STRING,
+        SYMBOL,
+    }
+
+    private static class Token {
+        final TokenType type;
+        final String text;
+        final int position;
+
+        Token(TokenType type, String text, int position) {
+            this.type = type;
+            this.text = text;
+            this.position = position;
+        }
+
+        boolean is(String symbol) {
+            return type == TokenType.SYMBOL && text.equals(symbol);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("\"%s\"", text);
+        }
+    }
+
+    private static class Parser {
+        private final String source;
+        private final List<Token> tokens;
+        private int pos;
+
+        Parser(String source, List<Token> tokens) {
+            this.source = source;
+            this.tokens = tokens;
+        }
+
+        Predicate<ServiceRef> parseOr() {
+            Predicate<ServiceRef> left = parseAnd();
+            while (accept("||")) {
+                left = left.or(parseAnd());
+            }
+            return left;
+        }
+
+        Predicate<ServiceRef> parseAnd() {
+            Predicate<ServiceRef> left = parseUnary();
+            while (accept("&&")) {
+                left = left.and(parseUnary());
+            }
+            return left;
+        }
+
+        Predicate<ServiceRef> parseUnary() {
+            if (accept("!")) {
+                return parseUnary().negate();
+            }
+            if (accept("(")) {
+                Predicate<ServiceRef> inner = parseOr();
+                expect(")");
+                return inner;
+            }
+            return parseComparison();
+        }
+
+        Predicate<ServiceRef> parseComparison() {
+            Function<ServiceRef, String> field = parseField();
+            if (accept("==")) {
+                String value = expectString();
+                return sr -> Objects.equals(field.apply(sr), value);
+            }
+            if (accept("!=")) {
+                String value = expectString();
+                return sr -> !Objects.equals(field.apply(sr), value);
+            }
+            if (accept("=~")) {
+                Pattern pattern = expectPattern();
+                return sr -> matches(pattern, field.apply(sr));
+            }
+            if (accept("!~")) {
+                Pattern pattern = expectPattern();
+                return sr -> !matches(pattern, field.apply(sr));
+            }
+            return sr -> field.apply(sr) != null;
+        }
+
+        Function<ServiceRef, String> parseField() {
+            String name = expectIdentifier("a field");
+            switch (name) {
+                case "alias":
+                    return sr -> sr.getAlias().orElse(null);
+                case "connectUrl":
+                    return sr -> sr.getServiceUri() == null ? null : sr.getServiceUri().toString();
+                case "labels":
+                    {
+                        String key = parseKey();
+                        return sr -> sr.getLabels().get(key);
+                    }
+                case "annotations":
+                    {
+                        expect(".");
+                        String kind = expectIdentifier("\"platform\" or \"cryostat\"");
+                        if ("platform".equals(kind)) {
+                            String key = parseKey();
+                            return sr -> sr.getPlatformAnnotations().get(key);
+                        }
+                        if ("cryostat".equals(kind)) {
+                            int keyPosition = pos;
+                            String key = parseKey();
+                            AnnotationKey annotationKey;
+                            try {
+                                annotationKey = AnnotationKey.valueOf(key);
+                            } catch (IllegalArgumentException iae) {
+                                pos = keyPosition;
+                                throw error("unknown Cryostat annotation \"" + key + "\"");
+                            }
+                            return sr -> sr.getCryostatAnnotations().get(annotationKey);
+                        }
+                        pos--;
+                        throw error("expected \"platform\" or \"cryostat\"");
+                    }
+                default:
+                    pos--;
+                    throw error("unknown field \"" + name + "\"");
+            }
+        }
+
+        String parseKey() {
+            if (accept(".")) {
+                return expectIdentifier("a key");
+            }
+            expect("[");
+            String key = expectString();
+            expect("]");
+            return key;
+        }
+
+        Pattern expectPattern() {
+            int patternPosition = pos;
+            String regex = expectString();
+            try {
+                return Pattern.compile(regex);
+            } catch (PatternSyntaxException pse) {
+                pos = patternPosition;
+                throw error("invalid regular expression " + pse.getDescription());
+            }
+        }
+
+        String expectIdentifier(String expected) {
+            Token token = next(expected);
+            if (token.type != TokenType.IDENTIFIER) {
+                pos--;
+                throw error("expected " + expected + " but found " + token);
+            }
+            return token.text;
+        }
+
+        String expectString() {
+            Token token = next("a quoted string");
+            if (token.type != TokenType.STRING) {
+                pos--;
+                throw error("expected a quoted string but found " + token);
+            }
+            return token.text;
+        }
+
+        void expect(String symbol) {
+            Token token = next("\"" + symbol + "\"");
+            if (!token.is(symbol)) {
+                pos--;
+                throw error("expected \"" + symbol + "\" but found " + token);
+            }
+        }
+
+        boolean accept(String symbol) {
+            if (!atEnd() && tokens.get(pos).is(symbol)) {
+                pos++;
+                return true;
+            }
+            return false;
+        }
+
+        Token next(String expected) {
+            if (atEnd()) {
+                throw error("expected " + expected + " but found end of expression");
+            }
+            return tokens.get(pos++);
+        }
+
+        Token peek() {
+            return tokens.get(pos);
+        }
+
+        boolean atEnd() {
+            return pos >= tokens.size();
+        }
+
+        IllegalArgumentException error(String message) {
+            int position = atEnd() ? source.length() : tokens.get(pos).position;
+            return new IllegalArgumentException(
+                    String.format(
+                            "Invalid match expression \"%s\": %s at position %d",
+                            source, message, position));
+        }
+
+        private static boolean matches(Pattern pattern, String value) {
+            return value != null && pattern.matcher(value).matches();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides from a series of metric samples when a triggered rule should archive. The trigger fires
+ * when a sample reaches the threshold, and then stays quiet until a sample falls below the reset
+ * threshold, so a metric hovering around the threshold does not fire on every sample. Once fired,
+ * it will not fire again until the cooldown has passed, though a crossing during the cooldown is
+ * remembered and fires as soon as the cooldown ends if the metric is still high.
+ */
+class MetricTrigger {
+
+    private final double threshold;
+    private final double resetThreshold;
+    private final long cooldownNanos;
+
+    private boolean armed = true;
+    private boolean fired;
+    private long lastFiredNanos;
+
+    MetricTrigger(double threshold, double resetThreshold, long cooldownSeconds) {
+        this.threshold = threshold;
+        this.resetThreshold = resetThreshold;
+        this.cooldownNanos = TimeUnit.SECONDS.toNanos(cooldownSeconds);
+    }
+
+    static MetricTrigger forRule(Rule rule) {
+        return new MetricTrigger(
+                rule.getTriggerThreshold(),
+                rule.getTriggerResetThreshold(),
+                rule.getTriggerCooldownSeconds());
+    }
+
+    /** @return true if this sample should trigger an archive */
+    boolean offer(double value, long nowNanos) {
+        if (Double.isNaN(value)) {
+            return false;
+        }
+        if (!armed) {
+            if (value >= resetThreshold) {
+                return false;
+            }
+            armed = true;
+        }
+        if (value < threshold) {
+            return false;
+        }
+        if (fired && nowNanos - lastFiredNanos < cooldownNanos) {
+            return false;
+        }
+        armed = false;
+        fired = true;
+        lastFiredNanos = nowNanos;
+        return true;
+    }
+}
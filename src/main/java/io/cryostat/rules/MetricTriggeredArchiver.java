@@ -0,0 +1,217 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.function.Function;
+
+import javax.management.MBeanServerConnection;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.security.sasl.SaslException;
+
+import org.openjdk.jmc.rjmx.ConnectionException;
+
+import io.cryostat.configuration.CredentialsManager;
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.net.ConnectionDescriptor;
+import io.cryostat.net.TargetConnectionManager;
+import io.cryostat.platform.ServiceRef;
+
+import org.apache.commons.lang3.exception.ExceptionUtils;
+import org.apache.commons.lang3.tuple.Pair;
+
+/**
+ * Samples a rule's trigger metric from the target's platform MBeans each time it runs, and hands
+ * off to the rule's archiver only when the {@link MetricTrigger} fires. Sampling reads a handful of
+ * attributes over the target's cached JMX connection, so it is much cheaper than an archive.
+ */
+class MetricTriggeredArchiver implements Runnable {
+
+    private static final ObjectName MEMORY = objectName(ManagementFactory.MEMORY_MXBEAN_NAME);
+    private static final ObjectName OPERATING_SYSTEM =
+            objectName(ManagementFactory.OPERATING_SYSTEM_MXBEAN_NAME);
+    private static final ObjectName RUNTIME = objectName(ManagementFactory.RUNTIME_MXBEAN_NAME);
+    private static final ObjectName THREADING = objectName(ManagementFactory.THREAD_MXBEAN_NAME);
+    private static final ObjectName GARBAGE_COLLECTORS =
+            objectName(ManagementFactory.GARBAGE_COLLECTOR_MXBEAN_DOMAIN_TYPE + ",*");
+
+    private final ServiceRef serviceRef;
+    private final CredentialsManager credentialsManager;
+    private final Rule rule;
+    private final TriggerMetric metric;
+    private final MetricTrigger trigger;
+    private final Runnable archiver;
+    private final TargetConnectionManager targetConnectionManager;
+    private final Function<Pair<ServiceRef, Rule>, Void> failureNotifier;
+    private final Clock clock;
+    private final Logger logger;
+
+    private long previousGcMillis = -1;
+    private long previousUptimeMillis = -1;
+
+    MetricTriggeredArchiver(
+            ServiceRef serviceRef,
+            CredentialsManager credentialsManager,
+            Rule rule,
+            Runnable archiver,
+            TargetConnectionManager targetConnectionManager,
+            Function<Pair<ServiceRef, Rule>, Void> failureNotifier,
+            Clock clock,
+            Logger logger) {
+        this.serviceRef = serviceRef;
+        this.credentialsManager = credentialsManager;
+        this.rule = rule;
+        this.metric =
+                TriggerMetric.fromSerialName(rule.getTriggerMetric())
+                        .orElseThrow(() -> new IllegalArgumentException(rule.getTriggerMetric()));
+        this.trigger = MetricTrigger.forRule(rule);
+        this.archiver = archiver;
+        this.targetConnectionManager = targetConnectionManager;
+        this.failureNotifier = failureNotifier;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    @Override
+    public void run() {
+        double value;
+        try {
+            ConnectionDescriptor connectionDescriptor =
+                    new ConnectionDescriptor(
+                            serviceRef, credentialsManager.getCredentials(serviceRef));
+            value =
+                    targetConnectionManager.executeConnectedTask(
+                            connectionDescriptor,
+                            connection ->
+                                    sample(
+                                            connection
+                                                    .getHandle()
+                                                    .getServiceOrThrow(
+                                                            MBeanServerConnection.class)));
+        } catch (Exception e) {
+            logger.warn(e);
+            if (ExceptionUtils.hasCause(e, ConnectionException.class)
+                    || ExceptionUtils.hasCause(e, IOException.class)
+                    || ExceptionUtils.hasCause(e, SecurityException.class)
+                    || ExceptionUtils.hasCause(e, SaslException.class)) {
+                failureNotifier.apply(Pair.of(serviceRef, rule));
+            }
+            return;
+        }
+        logger.trace(
+                "Rule {} sampled {}={} on {}",
+                rule.getName(),
+                metric.getSerialName(),
+                value,
+                serviceRef.getServiceUri());
+        if (trigger.offer(value, clock.getMonotonicTime())) {
+            logger.info(
+                    "Rule {} triggered by {}={} on {}",
+                    rule.getName(),
+                    metric.getSerialName(),
+                    value,
+                    serviceRef.getServiceUri());
+            archiver.run();
+        }
+    }
+
+    double sample(MBeanServerConnection mbsc) throws Exception {
+        switch (metric) {
+            case HEAP_USED_PERCENT:
+                CompositeData usage = (CompositeData) mbsc.getAttribute(MEMORY, "HeapMemoryUsage");
+                long used = ((Number) usage.get("used")).longValue();
+                long max = ((Number) usage.get("max")).longValue();
+                if (max <= 0) {
+                    // no explicit maximum heap size, so measure against what is committed
+                    max = ((Number) usage.get("committed")).longValue();
+                }
+                return max > 0 ? 100.0 * used / max : Double.NaN;
+            case GC_TIME_PERCENT:
+                return sampleGcTimePercent(mbsc);
+            case PROCESS_CPU_PERCENT:
+                return loadPercent(mbsc.getAttribute(OPERATING_SYSTEM, "ProcessCpuLoad"));
+            case SYSTEM_CPU_PERCENT:
+                return loadPercent(mbsc.getAttribute(OPERATING_SYSTEM, "SystemCpuLoad"));
+            case THREAD_COUNT:
+                return ((Number) mbsc.getAttribute(THREADING, "ThreadCount")).doubleValue();
+            default:
+                throw new IllegalStateException(metric.toString());
+        }
+    }
+
+    // the share of wall time spent in collection since the previous sample, so the first sample
+    // only establishes a baseline
+    private double sampleGcTimePercent(MBeanServerConnection mbsc) throws Exception {
+        long gcMillis = 0;
+        for (ObjectName collector : mbsc.queryNames(GARBAGE_COLLECTORS, null)) {
+            long collectionTime =
+                    ((Number) mbsc.getAttribute(collector, "CollectionTime")).longValue();
+            if (collectionTime > 0) {
+                gcMillis += collectionTime;
+            }
+        }
+        long uptimeMillis = ((Number) mbsc.getAttribute(RUNTIME, "Uptime")).longValue();
+        double percent = Double.NaN;
+        if (previousUptimeMillis >= 0
+                && uptimeMillis > previousUptimeMillis
+                && gcMillis >= previousGcMillis) {
+            percent = 100.0 * (gcMillis - previousGcMillis) / (uptimeMillis - previousUptimeMillis);
+        }
+        previousGcMillis = gcMillis;
+        previousUptimeMillis = uptimeMillis;
+        return percent;
+    }
+
+    // the OperatingSystem MXBean reports load as a fraction, or a negative value if unavailable
+    private static double loadPercent(Object load) {
+        double value = ((Number) load).doubleValue();
+        return value < 0 ? Double.NaN : 100.0 * value;
+    }
+
+    private static ObjectName objectName(String name) {
+        try {
+            return new ObjectName(name);
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -38,7 +38,8 @@
 package io.cryostat.rules;
 
 import java.util.ArrayDeque;
-import java.util.Queue;
+import java.util.Deque;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -48,11 +49,22 @@ import javax.security.sasl.SaslException;
 
 import io.cryostat.configuration.CredentialsManager;
 import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
 import io.cryostat.net.ConnectionDescriptor;
 import io.cryostat.platform.ServiceRef;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.ChunkCursor;
 import io.cryostat.recordings.RecordingArchiveHelper;
 import io.cryostat.recordings.RecordingNotFoundException;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
 import org.apache.commons.lang3.exception.ExceptionUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
@@ -62,43 +74,87 @@ class PeriodicArchiver implements Runnable {
     private final CredentialsManager credentialsManager;
     private final Rule rule;
     private final RecordingArchiveHelper recordingArchiveHelper;
+    private final RuleStateStore stateStore;
+    private final RuleTelemetry telemetry;
+    private final ArchiveIndex archiveIndex;
     private final Function<Pair<ServiceRef, Rule>, Void> failureNotifier;
+    private final Clock clock;
     private final Logger logger;
 
-    private final Queue<String> previousRecordings;
+    private final Deque<String> previousRecordings;
+    private final ChunkCursor cursor;
 
     PeriodicArchiver(
             ServiceRef serviceRef,
             CredentialsManager credentialsManager,
             Rule rule,
             RecordingArchiveHelper recordingArchiveHelper,
+            RuleStateStore stateStore,
+            RuleTelemetry telemetry,
+            ArchiveIndex archiveIndex,
             Function<Pair<ServiceRef, Rule>, Void> failureNotifier,
+            Clock clock,
             Logger logger) {
         this.serviceRef = serviceRef;
         this.credentialsManager = credentialsManager;
         this.recordingArchiveHelper = recordingArchiveHelper;
+        this.stateStore = stateStore;
+        this.telemetry = telemetry;
+        this.archiveIndex = archiveIndex;
         this.rule = rule;
         this.failureNotifier = failureNotifier;
+        this.clock = clock;
         this.logger = logger;
 
-        // FIXME this needs to be populated at startup by scanning the existing archived recordings,
-        // in case we have been restarted and already previously processed archival for this rule
-        this.previousRecordings = new ArrayDeque<>(this.rule.getPreservedArchives());
+        // pick up any archives made for this rule and target before a restart
+        this.previousRecordings =
+                new ArrayDeque<>(stateStore.getArchives(rule.getName(), getTargetId()));
+        this.cursor = new ChunkCursor();
     }
 
     @Override
     public void run() {
         logger.trace("PeriodicArchiver for {} running", rule.getRecordingName());
 
+        RuleExecution evt = new RuleExecution(getTargetId(), rule.getName());
+        evt.begin();
         try {
+            if (rule.isIncrementalArchives()) {
+                // an incremental archive may turn out to be empty, so only prune once there is a
+                // new archive to replace the oldest one
+                long start = clock.getMonotonicTime();
+                boolean archived = performArchival().get();
+                evt.transferDuration = clock.getMonotonicTime() - start;
+                if (archived) {
+                    start = clock.getMonotonicTime();
+                    while (this.previousRecordings.size() > this.rule.getPreservedArchives()) {
+                        pruneArchive(this.previousRecordings.remove()).get();
+                        evt.pruned++;
+                    }
+                    evt.pruneDuration = clock.getMonotonicTime() - start;
+                    archived(evt);
+                }
+                return;
+            }
+
+            long start = clock.getMonotonicTime();
             while (this.previousRecordings.size() > this.rule.getPreservedArchives() - 1) {
                 pruneArchive(this.previousRecordings.remove()).get();
+                evt.pruned++;
             }
+            evt.pruneDuration = clock.getMonotonicTime() - start;
 
+            start = clock.getMonotonicTime();
             performArchival().get();
+            evt.transferDuration = clock.getMonotonicTime() - start;
+            archived(evt);
         } catch (Exception e) {
             logger.error(e);
 
+            Throwable cause = ExceptionUtils.getRootCause(e);
+            evt.failureCause = (cause != null ? cause : e).getClass().getSimpleName();
+            telemetry.failed(rule.getName(), serviceRef, evt.failureCause);
+
             if (ExceptionUtils.hasCause(e, ExecutionException.class)
                     || ExceptionUtils.hasCause(e, InterruptedException.class)
                     || ExceptionUtils.hasCause(e, RecordingNotFoundException.class)
@@ -107,9 +163,29 @@ class PeriodicArchiver implements Runnable {
 
                 failureNotifier.apply(Pair.of(serviceRef, rule));
             }
+        } finally {
+            evt.lag = telemetry.getLastLagNanos(rule.getName(), serviceRef);
+            evt.end();
+            if (evt.shouldCommit()) {
+                evt.commit();
+            }
         }
     }
 
+    private void archived(RuleExecution evt) {
+        evt.archivedBytes =
+                archiveIndex
+                        .get(previousRecordings.getLast())
+                        .map(ArchivedRecordingInfo::getSize)
+                        .orElse(0L);
+        telemetry.archived(
+                rule.getName(),
+                serviceRef,
+                evt.archivedBytes,
+                evt.transferDuration,
+                evt.pruneDuration);
+    }
+
     public Future<Boolean> performArchival()
             throws InterruptedException, ExecutionException, Exception {
 
@@ -121,9 +197,24 @@ class PeriodicArchiver implements Runnable {
                     new ConnectionDescriptor(
                             serviceRef, credentialsManager.getCredentials(serviceRef));
 
+            if (rule.isIncrementalArchives()) {
+                Optional<String> saveName =
+                        recordingArchiveHelper.saveRecording(
+                                connectionDescriptor, recordingName, cursor);
+                if (saveName.isPresent()) {
+                    this.previousRecordings.add(saveName.get());
+                    stateStore.archived(rule.getName(), getTargetId(), saveName.get());
+                } else {
+                    logger.trace("No new chunks of {} to archive", recordingName);
+                }
+                future.complete(saveName.isPresent());
+                return future;
+            }
+
             String saveName =
                     recordingArchiveHelper.saveRecording(connectionDescriptor, recordingName);
             this.previousRecordings.add(saveName);
+            stateStore.archived(rule.getName(), getTargetId(), saveName);
             future.complete(true);
         } catch (RecordingNotFoundException e) {
             future.completeExceptionally(e);
@@ -133,17 +224,48 @@ class PeriodicArchiver implements Runnable {
     }
 
     public Future<Boolean> pruneArchive(String recordingName) throws Exception {
+        boolean deleted = recordingArchiveHelper.deleteArchivedRecording(recordingName);
+        if (!deleted) {
+            // already removed by some other means, so there is nothing left to prune
+            logger.trace("Archived recording {} was already deleted", recordingName);
+        }
+        previousRecordings.remove(recordingName);
+        stateStore.pruned(rule.getName(), getTargetId(), recordingName);
+        return CompletableFuture.completedFuture(deleted);
+    }
 
-        CompletableFuture<Boolean> future = new CompletableFuture<>();
+    private String getTargetId() {
+        return serviceRef.getServiceUri().toString();
+    }
 
-        try {
-            ConnectionDescriptor connectionDescriptor = new ConnectionDescriptor(serviceRef);
-            recordingArchiveHelper.deleteRecording(connectionDescriptor, recordingName);
-            previousRecordings.remove(recordingName);
-            future.complete(true);
-        } catch (RecordingNotFoundException e) {
-            future.completeExceptionally(e);
+    @Name("io.cryostat.rules.PeriodicArchiver.RuleExecution")
+    @Label("Rule Execution")
+    @Category("Cryostat")
+    @SuppressFBWarnings(
+            value = "URF_UNREAD_FIELD",
+            justification = "The event fields are recorded with JFR instead of accessed directly")
+    public static class RuleExecution extends Event {
+        String serviceUri;
+        String ruleName;
+
+        @DataAmount long archivedBytes;
+
+        @Timespan(Timespan.NANOSECONDS)
+        long transferDuration;
+
+        @Timespan(Timespan.NANOSECONDS)
+        long pruneDuration;
+
+        int pruned;
+
+        @Timespan(Timespan.NANOSECONDS)
+        long lag;
+
+        String failureCause;
+
+        RuleExecution(String serviceUri, String ruleName) {
+            this.serviceUri = serviceUri;
+            this.ruleName = ruleName;
         }
-        return future;
     }
 }
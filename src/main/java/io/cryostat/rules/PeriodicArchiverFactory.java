@@ -41,19 +41,45 @@ import java.util.function.Function;
 
 import io.cryostat.configuration.CredentialsManager;
 import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.platform.ServiceRef;
+import io.cryostat.recordings.ArchiveIndex;
 import io.cryostat.recordings.RecordingArchiveHelper;
 
 import org.apache.commons.lang3.tuple.Pair;
 
 class PeriodicArchiverFactory {
 
+    private final RuleStateStore stateStore;
+    private final RuleTelemetry telemetry;
+    private final ArchiveIndex archiveIndex;
+    private final TargetConnectionManager targetConnectionManager;
+    private final int triggerSamplePeriodSeconds;
+    private final Clock clock;
     private final Logger logger;
 
-    PeriodicArchiverFactory(Logger logger) {
+    PeriodicArchiverFactory(
+            RuleStateStore stateStore,
+            RuleTelemetry telemetry,
+            ArchiveIndex archiveIndex,
+            TargetConnectionManager targetConnectionManager,
+            int triggerSamplePeriodSeconds,
+            Clock clock,
+            Logger logger) {
+        this.stateStore = stateStore;
+        this.telemetry = telemetry;
+        this.archiveIndex = archiveIndex;
+        this.targetConnectionManager = targetConnectionManager;
+        this.triggerSamplePeriodSeconds = triggerSamplePeriodSeconds;
+        this.clock = clock;
         this.logger = logger;
     }
 
+    int getTriggerSamplePeriodSeconds() {
+        return triggerSamplePeriodSeconds;
+    }
+
     PeriodicArchiver create(
             ServiceRef serviceRef,
             CredentialsManager credentialsManager,
@@ -65,7 +91,28 @@ class PeriodicArchiverFactory {
                 credentialsManager,
                 rule,
                 recordingArchiveHelper,
+                stateStore,
+                telemetry,
+                archiveIndex,
+                failureNotifier,
+                clock,
+                logger);
+    }
+
+    MetricTriggeredArchiver createTriggered(
+            ServiceRef serviceRef,
+            CredentialsManager credentialsManager,
+            Rule rule,
+            Runnable archiver,
+            Function<Pair<ServiceRef, Rule>, Void> failureNotifier) {
+        return new MetricTriggeredArchiver(
+                serviceRef,
+                credentialsManager,
+                rule,
+                archiver,
+                targetConnectionManager,
                 failureNotifier,
+                clock,
                 logger);
     }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.platform.ServiceRef;
+
+/**
+ * Chooses which of a rule's targets archive in each period, for rules which only sample some of the
+ * replicas they match. The targets of a rule are kept in a stable order and each period selects the
+ * next {@link Rule#getSampledReplicas()} of them, wrapping around, so every replica is archived in
+ * turn. Periods are counted on the shared monotonic clock, so no coordination between the targets'
+ * archivers is needed: each one checks whether it is selected for the period its run was scheduled
+ * in. The scheduled deadline is used rather than the time the run actually starts, as each archiver
+ * has exactly one deadline per period whatever its phase, while a late start could count towards
+ * the following period.
+ */
+class ReplicaSampler {
+
+    private final Map<String, List<ServiceRef>> replicas = new HashMap<>();
+
+    synchronized void add(Rule rule, ServiceRef serviceRef) {
+        List<ServiceRef> targets = replicas.computeIfAbsent(rule.getName(), k -> new ArrayList<>());
+        if (!targets.contains(serviceRef)) {
+            targets.add(serviceRef);
+            targets.sort(Comparator.comparing(sr -> sr.getServiceUri().toString()));
+        }
+    }
+
+    synchronized void remove(Rule rule, ServiceRef serviceRef) {
+        List<ServiceRef> targets = replicas.get(rule.getName());
+        if (targets == null) {
+            return;
+        }
+        targets.remove(serviceRef);
+        if (targets.isEmpty()) {
+            replicas.remove(rule.getName());
+        }
+    }
+
+    synchronized void clear() {
+        replicas.clear();
+    }
+
+    synchronized boolean isSelected(Rule rule, ServiceRef serviceRef, long dueNanos) {
+        int sampled = rule.getSampledReplicas();
+        List<ServiceRef> targets = replicas.getOrDefault(rule.getName(), List.of());
+        int index = targets.indexOf(serviceRef);
+        if (sampled <= 0 || index < 0 || sampled >= targets.size()) {
+            return true;
+        }
+        long periodNanos = TimeUnit.SECONDS.toNanos(rule.getArchivalPeriodSeconds());
+        long period = periodNanos > 0 ? Math.floorDiv(dueNanos, periodNanos) : 0;
+        long first = Math.floorMod(period * sampled, targets.size());
+        return Math.floorMod(index - first, targets.size()) < sampled;
+    }
+
+    /** Runs the rule's archiver for the target only in the periods the target is selected. */
+    RuleScheduler.PeriodicTask sampled(Rule rule, ServiceRef serviceRef, Runnable archiver) {
+        add(rule, serviceRef);
+        return dueNanos -> {
+            if (isSelected(rule, serviceRef, dueNanos)) {
+                archiver.run();
+            }
+        };
+    }
+}
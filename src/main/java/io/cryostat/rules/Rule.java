@@ -39,6 +39,9 @@ package io.cryostat.rules;
 
 import java.util.function.Function;
 
+import io.cryostat.platform.ServiceRef;
+
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import io.vertx.core.MultiMap;
 import org.apache.commons.lang3.StringUtils;
@@ -49,26 +52,45 @@ public class Rule {
 
     private final String name;
     private final String description;
-    // TODO for now, simply allow matching based on target's alias. This should be expanded to allow
-    // for different match parameters such as port number, port name, container/pod label, etc.,
-    //  and allow wildcards
     private final String targetAlias;
+    private final String matchExpression;
+    private final transient MatchExpression compiledMatchExpression;
     private final String eventSpecifier;
     private final int archivalPeriodSeconds;
     private final int preservedArchives;
     private final int maxAgeSeconds;
     private final int maxSizeBytes;
+    private final boolean incrementalArchives;
+    private final String triggerMetric;
+    private final int triggerThreshold;
+    private final int triggerResetThreshold;
+    private final int triggerCooldownSeconds;
+    private final int sampledReplicas;
 
     Rule(Builder builder) {
         this.name = sanitizeRuleName(requireNonBlank(builder.name, Attribute.NAME));
         this.description = builder.description == null ? "" : builder.description;
         this.targetAlias = builder.targetAlias;
+        this.matchExpression =
+                StringUtils.isBlank(builder.matchExpression) ? null : builder.matchExpression;
+        this.compiledMatchExpression =
+                this.matchExpression == null ? null : MatchExpression.compile(this.matchExpression);
         this.eventSpecifier = builder.eventSpecifier;
         this.archivalPeriodSeconds = builder.archivalPeriodSeconds;
         this.preservedArchives = builder.preservedArchives;
         this.maxAgeSeconds =
                 builder.maxAgeSeconds > 0 ? builder.maxAgeSeconds : this.archivalPeriodSeconds;
         this.maxSizeBytes = builder.maxSizeBytes;
+        this.incrementalArchives = builder.incrementalArchives;
+        this.triggerMetric =
+                StringUtils.isBlank(builder.triggerMetric) ? null : builder.triggerMetric;
+        this.triggerThreshold = builder.triggerThreshold;
+        this.triggerResetThreshold =
+                builder.triggerResetThreshold >= 0
+                        ? builder.triggerResetThreshold
+                        : this.triggerThreshold;
+        this.triggerCooldownSeconds = builder.triggerCooldownSeconds;
+        this.sampledReplicas = builder.sampledReplicas;
         this.validate();
     }
 
@@ -89,6 +111,23 @@ public class Rule {
         return this.targetAlias;
     }
 
+    public String getMatchExpression() {
+        return this.matchExpression;
+    }
+
+    /**
+     * @return true if the target has this rule's alias, if it has one, and satisfies this rule's
+     *     match expression, if it has one
+     */
+    public boolean matches(ServiceRef serviceRef) {
+        if (StringUtils.isNotBlank(this.targetAlias)
+                && !serviceRef.getAlias().map(this.targetAlias::equals).orElse(false)) {
+            return false;
+        }
+        return this.compiledMatchExpression == null
+                || this.compiledMatchExpression.test(serviceRef);
+    }
+
     public String getEventSpecifier() {
         return this.eventSpecifier;
     }
@@ -109,6 +148,38 @@ public class Rule {
         return this.maxSizeBytes;
     }
 
+    public boolean isIncrementalArchives() {
+        return this.incrementalArchives;
+    }
+
+    /**
+     * @return the name of the metric which triggers this rule's archives, or null if this rule
+     *     archives periodically
+     */
+    public String getTriggerMetric() {
+        return this.triggerMetric;
+    }
+
+    public int getTriggerThreshold() {
+        return this.triggerThreshold;
+    }
+
+    public int getTriggerResetThreshold() {
+        return this.triggerResetThreshold;
+    }
+
+    public int getTriggerCooldownSeconds() {
+        return this.triggerCooldownSeconds;
+    }
+
+    /**
+     * @return how many of the targets matching this rule are archived in each period, taking turns,
+     *     or 0 if every target is archived in every period
+     */
+    public int getSampledReplicas() {
+        return this.sampledReplicas;
+    }
+
     public static String sanitizeRuleName(String name) {
         // FIXME this is not robust
         return name.replaceAll("\\s", "_");
@@ -133,10 +204,32 @@ public class Rule {
     public void validate() throws IllegalArgumentException {
 
         requireNonBlank(this.name, Attribute.NAME);
-        requireNonBlank(this.targetAlias, Attribute.TARGET_ALIAS);
+        if (this.matchExpression == null) {
+            requireNonBlank(this.targetAlias, Attribute.TARGET_ALIAS);
+        }
         requireNonBlank(this.eventSpecifier, Attribute.EVENT_SPECIFIER);
         requireNonNegative(this.archivalPeriodSeconds, Attribute.ARCHIVAL_PERIOD_SECONDS);
         requireNonNegative(this.preservedArchives, Attribute.PRESERVED_ARCHIVES);
+        requireNonNegative(this.sampledReplicas, Attribute.SAMPLED_REPLICAS);
+        if (this.triggerMetric != null) {
+            TriggerMetric.fromSerialName(this.triggerMetric)
+                    .orElseThrow(
+                            () ->
+                                    new IllegalArgumentException(
+                                            String.format(
+                                                    "\"%s\" must be one of %s, was \"%s\"",
+                                                    Attribute.TRIGGER_METRIC,
+                                                    TriggerMetric.serialNames(),
+                                                    this.triggerMetric)));
+            requireNonNegative(this.triggerThreshold, Attribute.TRIGGER_THRESHOLD);
+            requireNonNegative(this.triggerCooldownSeconds, Attribute.TRIGGER_COOLDOWN_SECONDS);
+            if (this.triggerResetThreshold > this.triggerThreshold) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "\"%s\" cannot be greater than \"%s\"",
+                                Attribute.TRIGGER_RESET_THRESHOLD, Attribute.TRIGGER_THRESHOLD));
+            }
+        }
     }
 
     @Override
@@ -153,11 +246,18 @@ public class Rule {
         private String name;
         private String description;
         private String targetAlias;
+        private String matchExpression;
         private String eventSpecifier;
         private int archivalPeriodSeconds = 30;
         private int preservedArchives = 1;
         private int maxAgeSeconds = -1;
         private int maxSizeBytes = -1;
+        private boolean incrementalArchives;
+        private String triggerMetric;
+        private int triggerThreshold;
+        private int triggerResetThreshold = -1;
+        private int triggerCooldownSeconds = 300;
+        private int sampledReplicas;
 
         public Builder name(String name) {
             this.name = name;
@@ -174,6 +274,11 @@ public class Rule {
             return this;
         }
 
+        public Builder matchExpression(String matchExpression) {
+            this.matchExpression = matchExpression;
+            return this;
+        }
+
         public Builder eventSpecifier(String eventSpecifier) {
             this.eventSpecifier = eventSpecifier;
             return this;
@@ -199,6 +304,36 @@ public class Rule {
             return this;
         }
 
+        public Builder incrementalArchives(boolean incrementalArchives) {
+            this.incrementalArchives = incrementalArchives;
+            return this;
+        }
+
+        public Builder triggerMetric(String triggerMetric) {
+            this.triggerMetric = triggerMetric;
+            return this;
+        }
+
+        public Builder triggerThreshold(int triggerThreshold) {
+            this.triggerThreshold = triggerThreshold;
+            return this;
+        }
+
+        public Builder triggerResetThreshold(int triggerResetThreshold) {
+            this.triggerResetThreshold = triggerResetThreshold;
+            return this;
+        }
+
+        public Builder triggerCooldownSeconds(int triggerCooldownSeconds) {
+            this.triggerCooldownSeconds = triggerCooldownSeconds;
+            return this;
+        }
+
+        public Builder sampledReplicas(int sampledReplicas) {
+            this.sampledReplicas = sampledReplicas;
+            return this;
+        }
+
         public Rule build() {
             return new Rule(this);
         }
@@ -209,16 +344,27 @@ public class Rule {
                             .name(formAttributes.get(Rule.Attribute.NAME.getSerialKey()))
                             .targetAlias(
                                     formAttributes.get(Rule.Attribute.TARGET_ALIAS.getSerialKey()))
+                            .matchExpression(
+                                    formAttributes.get(
+                                            Rule.Attribute.MATCH_EXPRESSION.getSerialKey()))
                             .description(
                                     formAttributes.get(Rule.Attribute.DESCRIPTION.getSerialKey()))
                             .eventSpecifier(
                                     formAttributes.get(
-                                            Rule.Attribute.EVENT_SPECIFIER.getSerialKey()));
+                                            Rule.Attribute.EVENT_SPECIFIER.getSerialKey()))
+                            .triggerMetric(
+                                    formAttributes.get(
+                                            Rule.Attribute.TRIGGER_METRIC.getSerialKey()));
 
             builder.setOptionalInt(Rule.Attribute.ARCHIVAL_PERIOD_SECONDS, formAttributes);
             builder.setOptionalInt(Rule.Attribute.PRESERVED_ARCHIVES, formAttributes);
             builder.setOptionalInt(Rule.Attribute.MAX_AGE_SECONDS, formAttributes);
             builder.setOptionalInt(Rule.Attribute.MAX_SIZE_BYTES, formAttributes);
+            builder.setOptionalBoolean(Rule.Attribute.INCREMENTAL_ARCHIVES, formAttributes);
+            builder.setOptionalInt(Rule.Attribute.TRIGGER_THRESHOLD, formAttributes);
+            builder.setOptionalInt(Rule.Attribute.TRIGGER_RESET_THRESHOLD, formAttributes);
+            builder.setOptionalInt(Rule.Attribute.TRIGGER_COOLDOWN_SECONDS, formAttributes);
+            builder.setOptionalInt(Rule.Attribute.SAMPLED_REPLICAS, formAttributes);
 
             return builder;
         }
@@ -228,23 +374,38 @@ public class Rule {
             Rule.Builder builder =
                     new Rule.Builder()
                             .name(jsonObj.get(Rule.Attribute.NAME.getSerialKey()).getAsString())
-                            .targetAlias(
-                                    jsonObj.get(Rule.Attribute.TARGET_ALIAS.getSerialKey())
-                                            .getAsString())
+                            .targetAlias(getOptionalString(Rule.Attribute.TARGET_ALIAS, jsonObj))
+                            .matchExpression(
+                                    getOptionalString(Rule.Attribute.MATCH_EXPRESSION, jsonObj))
                             .description(
                                     jsonObj.get(Rule.Attribute.DESCRIPTION.getSerialKey())
                                             .getAsString())
                             .eventSpecifier(
                                     jsonObj.get(Rule.Attribute.EVENT_SPECIFIER.getSerialKey())
-                                            .getAsString());
+                                            .getAsString())
+                            .triggerMetric(
+                                    getOptionalString(Rule.Attribute.TRIGGER_METRIC, jsonObj));
             builder.setOptionalInt(Rule.Attribute.ARCHIVAL_PERIOD_SECONDS, jsonObj);
             builder.setOptionalInt(Rule.Attribute.PRESERVED_ARCHIVES, jsonObj);
             builder.setOptionalInt(Rule.Attribute.MAX_AGE_SECONDS, jsonObj);
             builder.setOptionalInt(Rule.Attribute.MAX_SIZE_BYTES, jsonObj);
+            builder.setOptionalBoolean(Rule.Attribute.INCREMENTAL_ARCHIVES, jsonObj);
+            builder.setOptionalInt(Rule.Attribute.TRIGGER_THRESHOLD, jsonObj);
+            builder.setOptionalInt(Rule.Attribute.TRIGGER_RESET_THRESHOLD, jsonObj);
+            builder.setOptionalInt(Rule.Attribute.TRIGGER_COOLDOWN_SECONDS, jsonObj);
+            builder.setOptionalInt(Rule.Attribute.SAMPLED_REPLICAS, jsonObj);
 
             return builder;
         }
 
+        private static String getOptionalString(Rule.Attribute key, JsonObject jsonObj) {
+            JsonElement value = jsonObj.get(key.getSerialKey());
+            if (value == null || value.isJsonNull()) {
+                return null;
+            }
+            return value.getAsString();
+        }
+
         private Builder setOptionalInt(Rule.Attribute key, MultiMap formAttributes)
                 throws IllegalArgumentException {
 
@@ -291,6 +452,50 @@ public class Rule {
             return fn.apply(value);
         }
 
+        private Builder setOptionalBoolean(Rule.Attribute key, MultiMap formAttributes)
+                throws IllegalArgumentException {
+
+            if (!formAttributes.contains(key.getSerialKey())) {
+                return this;
+            }
+
+            String value = formAttributes.get(key.getSerialKey());
+            if (!"true".equalsIgnoreCase(value) && !"false".equalsIgnoreCase(value)) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "\"%s\" is an invalid (non-boolean) value for \"%s\"", value, key));
+            }
+            return this.selectBooleanAttribute(key).apply(Boolean.parseBoolean(value));
+        }
+
+        private Builder setOptionalBoolean(Rule.Attribute key, JsonObject jsonObj)
+                throws IllegalArgumentException {
+
+            if (jsonObj.get(key.getSerialKey()) == null) {
+                return this;
+            }
+
+            String attr = key.getSerialKey();
+            JsonElement value = jsonObj.get(attr);
+            if (!value.isJsonPrimitive() || !value.getAsJsonPrimitive().isBoolean()) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "\"%s\" is an invalid (non-boolean) value for \"%s\"",
+                                value, attr));
+            }
+            return this.selectBooleanAttribute(key).apply(value.getAsBoolean());
+        }
+
+        private Function<Boolean, Rule.Builder> selectBooleanAttribute(Rule.Attribute key)
+                throws IllegalArgumentException {
+            switch (key) {
+                case INCREMENTAL_ARCHIVES:
+                    return this::incrementalArchives;
+                default:
+                    throw new IllegalArgumentException("Unknown key \"" + key + "\"");
+            }
+        }
+
         private Function<Integer, Rule.Builder> selectAttribute(Rule.Attribute key)
                 throws IllegalArgumentException {
 
@@ -309,6 +514,18 @@ public class Rule {
                 case MAX_SIZE_BYTES:
                     fn = this::maxSizeBytes;
                     break;
+                case TRIGGER_THRESHOLD:
+                    fn = this::triggerThreshold;
+                    break;
+                case TRIGGER_RESET_THRESHOLD:
+                    fn = this::triggerResetThreshold;
+                    break;
+                case TRIGGER_COOLDOWN_SECONDS:
+                    fn = this::triggerCooldownSeconds;
+                    break;
+                case SAMPLED_REPLICAS:
+                    fn = this::sampledReplicas;
+                    break;
                 default:
                     throw new IllegalArgumentException("Unknown key \"" + key + "\"");
             }
@@ -321,11 +538,18 @@ public class Rule {
         NAME("name"),
         DESCRIPTION("description"),
         TARGET_ALIAS("targetAlias"),
+        MATCH_EXPRESSION("matchExpression"),
         EVENT_SPECIFIER("eventSpecifier"),
         ARCHIVAL_PERIOD_SECONDS("archivalPeriodSeconds"),
         PRESERVED_ARCHIVES("preservedArchives"),
         MAX_AGE_SECONDS("maxAgeSeconds"),
         MAX_SIZE_BYTES("maxSizeBytes"),
+        INCREMENTAL_ARCHIVES("incrementalArchives"),
+        TRIGGER_METRIC("triggerMetric"),
+        TRIGGER_THRESHOLD("triggerThreshold"),
+        TRIGGER_RESET_THRESHOLD("triggerResetThreshold"),
+        TRIGGER_COOLDOWN_SECONDS("triggerCooldownSeconds"),
+        SAMPLED_REPLICAS("sampledReplicas"),
         ;
 
         private final String serialKey;
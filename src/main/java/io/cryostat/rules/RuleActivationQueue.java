@@ -0,0 +1,304 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.platform.ServiceRef;
+
+/**
+ * Decouples rule activation from the threads which report target discovery. Activations are queued
+ * per target and handed to a bounded pool of workers no faster than a global rate, so a rollout
+ * which brings up hundreds of JVMs at once does not connect to all of them at once. Deactivations
+ * are held back for a short settling period, and a target which is lost and then found again within
+ * that period, as happens when a platform re-announces every endpoint of a modified deployment, is
+ * left as it is rather than being torn down and set up again.
+ */
+class RuleActivationQueue {
+
+    static final int DEFAULT_PARALLELISM = 4;
+    static final int DEFAULT_RATE_PER_SECOND = 10;
+    static final long DEFAULT_SETTLE_MILLIS = 2_000;
+
+    private final ScheduledExecutorService dispatcher;
+    private final ExecutorService workers;
+    private final int parallelism;
+    private final double ratePerSecond;
+    private final long settleNanos;
+    private final Clock clock;
+    private final Logger logger;
+
+    private final Object lock = new Object();
+    private final Map<ServiceRef, Pending> pending = new LinkedHashMap<>();
+    private int running;
+    private double tokens;
+    private long lastRefillNanos;
+    private ScheduledFuture<?> wakeup;
+    private long wakeupNanos;
+
+    RuleActivationQueue(
+            ScheduledExecutorService dispatcher,
+            ExecutorService workers,
+            int parallelism,
+            double ratePerSecond,
+            long settleMillis,
+            Clock clock,
+            Logger logger) {
+        this.dispatcher = dispatcher;
+        this.workers = workers;
+        this.parallelism = parallelism;
+        this.ratePerSecond = ratePerSecond;
+        this.settleNanos = TimeUnit.MILLISECONDS.toNanos(settleMillis);
+        this.clock = clock;
+        this.logger = logger;
+        this.tokens = burst();
+        this.lastRefillNanos = clock.getMonotonicTime();
+    }
+
+    /**
+     * Queues an activation of the rule for the target. Queueing the same rule for the same target
+     * again before it has run has no further effect, and a deactivation of the target still waiting
+     * out its settling period is called off.
+     */
+    void activate(ServiceRef serviceRef, Rule rule, Runnable activation) {
+        synchronized (lock) {
+            retain(serviceRef);
+            pending.computeIfAbsent(serviceRef, k -> new Pending())
+                    .activations
+                    .putIfAbsent(rule.getName(), activation);
+        }
+        dispatch();
+    }
+
+    /**
+     * Calls off a deactivation of the target which is still waiting out its settling period, if
+     * there is one.
+     */
+    void retain(ServiceRef serviceRef) {
+        synchronized (lock) {
+            Pending p = pending.get(serviceRef);
+            if (p == null || p.deactivation == null) {
+                return;
+            }
+            logger.trace("Target {} reappeared while settling", serviceRef.getServiceUri());
+            p.deactivation = null;
+            if (p.isEmpty()) {
+                pending.remove(serviceRef);
+            }
+        }
+    }
+
+    /**
+     * Queues a deactivation of the target, to run once the settling period has passed. Activations
+     * of the target which have not yet started are dropped.
+     */
+    void deactivate(ServiceRef serviceRef, Runnable deactivation) {
+        synchronized (lock) {
+            Pending p = pending.computeIfAbsent(serviceRef, k -> new Pending());
+            p.activations.clear();
+            p.deactivation = deactivation;
+            p.deactivateAtNanos = clock.getMonotonicTime() + settleNanos;
+        }
+        dispatch();
+    }
+
+    /** Drops any activations of the rule which have not yet started. */
+    void cancel(Rule rule) {
+        synchronized (lock) {
+            Iterator<Pending> it = pending.values().iterator();
+            while (it.hasNext()) {
+                Pending p = it.next();
+                p.activations.remove(rule.getName());
+                if (p.isEmpty()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    /** Drops everything queued. Work already handed to a worker is left to finish. */
+    void clear() {
+        synchronized (lock) {
+            pending.clear();
+            if (wakeup != null) {
+                wakeup.cancel(false);
+                wakeup = null;
+            }
+        }
+    }
+
+    int size() {
+        synchronized (lock) {
+            return pending.values().stream()
+                    .mapToInt(p -> p.activations.size() + (p.deactivation == null ? 0 : 1))
+                    .sum();
+        }
+    }
+
+    private void dispatch() {
+        try {
+            dispatcher.execute(this::drain);
+        } catch (RejectedExecutionException ree) {
+            logger.warn(ree);
+        }
+    }
+
+    private void drain() {
+        List<Runnable> deactivations = new ArrayList<>();
+        List<Runnable> activations = new ArrayList<>();
+        synchronized (lock) {
+            long now = clock.getMonotonicTime();
+            if (wakeup != null && wakeupNanos <= now) {
+                wakeup = null;
+            }
+            refill(now);
+            long nextNanos = Long.MAX_VALUE;
+            Iterator<Pending> it = pending.values().iterator();
+            while (it.hasNext()) {
+                Pending p = it.next();
+                if (p.deactivation != null) {
+                    if (p.deactivateAtNanos <= now) {
+                        deactivations.add(p.deactivation);
+                        p.deactivation = null;
+                    } else {
+                        nextNanos = Math.min(nextNanos, p.deactivateAtNanos);
+                    }
+                }
+                Iterator<Runnable> queued = p.activations.values().iterator();
+                while (queued.hasNext() && running < parallelism) {
+                    if (tokens < 1) {
+                        nextNanos = Math.min(nextNanos, now + nanosUntilToken());
+                        break;
+                    }
+                    tokens--;
+                    running++;
+                    activations.add(queued.next());
+                    queued.remove();
+                }
+                if (p.isEmpty()) {
+                    it.remove();
+                }
+            }
+            if (nextNanos != Long.MAX_VALUE) {
+                wakeAt(now, nextNanos);
+            }
+        }
+        deactivations.forEach(this::runSafely);
+        activations.forEach(this::submit);
+    }
+
+    private void submit(Runnable activation) {
+        try {
+            workers.execute(
+                    () -> {
+                        try {
+                            runSafely(activation);
+                        } finally {
+                            synchronized (lock) {
+                                running--;
+                            }
+                            dispatch();
+                        }
+                    });
+        } catch (RejectedExecutionException ree) {
+            logger.warn(ree);
+            synchronized (lock) {
+                running--;
+            }
+        }
+    }
+
+    private void runSafely(Runnable r) {
+        try {
+            r.run();
+        } catch (Exception e) {
+            logger.error(e);
+        }
+    }
+
+    private void wakeAt(long now, long nanos) {
+        if (wakeup != null && wakeupNanos <= nanos) {
+            return;
+        }
+        if (wakeup != null) {
+            wakeup.cancel(false);
+        }
+        wakeupNanos = nanos;
+        try {
+            wakeup = dispatcher.schedule(this::drain, nanos - now, TimeUnit.NANOSECONDS);
+        } catch (RejectedExecutionException ree) {
+            logger.warn(ree);
+        }
+    }
+
+    private void refill(long now) {
+        double elapsedSeconds = (now - lastRefillNanos) / 1e9;
+        tokens = Math.min(burst(), tokens + elapsedSeconds * ratePerSecond);
+        lastRefillNanos = now;
+    }
+
+    private long nanosUntilToken() {
+        return (long) Math.ceil((1 - tokens) / ratePerSecond * 1e9);
+    }
+
+    // allow up to one second's worth of activations to go out together
+    private double burst() {
+        return Math.max(1, ratePerSecond);
+    }
+
+    private static class Pending {
+        final Map<String, Runnable> activations = new LinkedHashMap<>();
+        Runnable deactivation;
+        long deactivateAtNanos;
+
+        boolean isEmpty() {
+            return activations.isEmpty() && deactivation == null;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.OptionalDouble;
+
+import io.cryostat.platform.PlatformClient;
+import io.cryostat.platform.ServiceRef;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+
+/**
+ * Estimates what a rule would cost if it were created now, without starting anything or connecting
+ * to any target. The size of each target's archives is estimated from the archives already held for
+ * it: those of a rule with the same recording name if there are any, otherwise any of the target's
+ * archives, otherwise any archive at all.
+ */
+public class RuleCostEstimator {
+
+    private final PlatformClient platformClient;
+    private final RuleRegistry registry;
+    private final ArchiveIndex archiveIndex;
+    private final int executionParallelism;
+    private final int triggerSamplePeriodSeconds;
+
+    RuleCostEstimator(
+            PlatformClient platformClient,
+            RuleRegistry registry,
+            ArchiveIndex archiveIndex,
+            int executionParallelism,
+            int triggerSamplePeriodSeconds) {
+        this.platformClient = platformClient;
+        this.registry = registry;
+        this.archiveIndex = archiveIndex;
+        this.executionParallelism = executionParallelism;
+        this.triggerSamplePeriodSeconds = triggerSamplePeriodSeconds;
+    }
+
+    public Estimate estimate(Rule rule) {
+        List<ServiceRef> matched = new ArrayList<>();
+        for (ServiceRef serviceRef : platformClient.listDiscoverableServices()) {
+            if (rule.matches(serviceRef)) {
+                matched.add(serviceRef);
+            }
+        }
+
+        boolean archiving = rule.getPreservedArchives() > 0;
+        boolean triggered = rule.getTriggerMetric() != null;
+        double runsPerTargetPerHour = 0;
+        double archivesPerTargetPerHour = 0;
+        if (archiving && triggered) {
+            runsPerTargetPerHour = 3600.0 / triggerSamplePeriodSeconds;
+            // at most one archive per cooldown, or per sample if there is no cooldown
+            archivesPerTargetPerHour =
+                    3600.0 / Math.max(rule.getTriggerCooldownSeconds(), triggerSamplePeriodSeconds);
+        } else if (archiving && rule.getArchivalPeriodSeconds() > 0) {
+            runsPerTargetPerHour = 3600.0 / rule.getArchivalPeriodSeconds();
+            archivesPerTargetPerHour = runsPerTargetPerHour;
+            int sampled = rule.getSampledReplicas();
+            if (sampled > 0 && sampled < matched.size()) {
+                // replicas take turns, so on average each archives in K of every N periods
+                archivesPerTargetPerHour *= (double) sampled / matched.size();
+            }
+        }
+
+        OptionalDouble globalMean =
+                archiveIndex.list().stream().mapToLong(ArchivedRecordingInfo::getSize).average();
+        Estimate estimate = new Estimate();
+        estimate.name = rule.getName();
+        estimate.nameAvailable = !registry.hasRuleByName(rule.getName());
+        estimate.matchedTargets = new ArrayList<>();
+        for (ServiceRef serviceRef : matched) {
+            TargetEstimate target = estimateTarget(rule, serviceRef, globalMean);
+            estimate.matchedTargets.add(target);
+            if (target.archiveBytes != null) {
+                estimate.archiveBytesPerPeriod += target.archiveBytes;
+            } else {
+                estimate.unestimatedTargets++;
+            }
+        }
+        estimate.targetCount = matched.size();
+        estimate.archivesPerHour = Math.round(matched.size() * archivesPerTargetPerHour);
+        estimate.transferBytesPerHour =
+                Math.round(estimate.archiveBytesPerPeriod * archivesPerTargetPerHour);
+        estimate.storageBytes = estimate.archiveBytesPerPeriod * rule.getPreservedArchives();
+        estimate.schedulerRunsPerSecond = matched.size() * runsPerTargetPerHour / 3600.0;
+        estimate.schedulerParallelism = executionParallelism;
+        return estimate;
+    }
+
+    private TargetEstimate estimateTarget(
+            Rule rule, ServiceRef serviceRef, OptionalDouble globalMean) {
+        TargetEstimate target = new TargetEstimate();
+        target.connectUrl = serviceRef.getServiceUri().toString();
+        target.alias = serviceRef.getAlias().orElse(null);
+
+        // archives are filed under the target's alias, sanitized as when they are saved
+        List<ArchivedRecordingInfo> archives =
+                serviceRef
+                        .getAlias()
+                        .map(alias -> archiveIndex.list(alias.replaceAll("[\\._]+", "-")))
+                        .orElse(List.of());
+        OptionalDouble sameRule =
+                archives.stream()
+                        .filter(a -> rule.getRecordingName().equals(a.getRecordingName()))
+                        .mapToLong(ArchivedRecordingInfo::getSize)
+                        .average();
+        OptionalDouble sameTarget =
+                archives.stream().mapToLong(ArchivedRecordingInfo::getSize).average();
+        if (sameRule.isPresent()) {
+            target.basis = Basis.RULE;
+            target.archiveBytes = Math.round(sameRule.getAsDouble());
+        } else if (sameTarget.isPresent()) {
+            target.basis = Basis.TARGET;
+            target.archiveBytes = Math.round(sameTarget.getAsDouble());
+        } else if (globalMean.isPresent()) {
+            target.basis = Basis.ALL;
+            target.archiveBytes = Math.round(globalMean.getAsDouble());
+        } else {
+            target.basis = Basis.NONE;
+        }
+        if (target.archiveBytes != null && rule.getMaxSizeBytes() > 0) {
+            target.archiveBytes = Math.min(target.archiveBytes, rule.getMaxSizeBytes());
+        }
+        return target;
+    }
+
+    /** Which archives a target's size estimate was drawn from. */
+    public enum Basis {
+        RULE,
+        TARGET,
+        ALL,
+        NONE,
+    }
+
+    public static class Estimate {
+        String name;
+        boolean nameAvailable;
+        int targetCount;
+        int unestimatedTargets;
+        long archiveBytesPerPeriod;
+        long archivesPerHour;
+        long transferBytesPerHour;
+        long storageBytes;
+        double schedulerRunsPerSecond;
+        int schedulerParallelism;
+        List<TargetEstimate> matchedTargets;
+
+        public int getTargetCount() {
+            return targetCount;
+        }
+
+        public long getArchiveBytesPerPeriod() {
+            return archiveBytesPerPeriod;
+        }
+
+        public long getTransferBytesPerHour() {
+            return transferBytesPerHour;
+        }
+
+        public long getStorageBytes() {
+            return storageBytes;
+        }
+
+        public double getSchedulerRunsPerSecond() {
+            return schedulerRunsPerSecond;
+        }
+
+        public List<TargetEstimate> getMatchedTargets() {
+            return matchedTargets;
+        }
+    }
+
+    public static class TargetEstimate {
+        String connectUrl;
+        String alias;
+        Long archiveBytes;
+        Basis basis;
+
+        public String getConnectUrl() {
+            return connectUrl;
+        }
+
+        public Long getArchiveBytes() {
+            return archiveBytes;
+        }
+
+        public Basis getBasis() {
+            return basis;
+        }
+    }
+}
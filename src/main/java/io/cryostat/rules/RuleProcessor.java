@@ -38,13 +38,16 @@
 package io.cryostat.rules;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.openjdk.jmc.flightrecorder.configuration.recording.RecordingOptionsBuilder;
 
@@ -53,6 +56,8 @@ import io.cryostat.configuration.CredentialsManager;
 import io.cryostat.core.log.Logger;
 import io.cryostat.core.net.Credentials;
 import io.cryostat.core.templates.TemplateType;
+import io.cryostat.messaging.notifications.Notification;
+import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.ConnectionDescriptor;
 import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.platform.PlatformClient;
@@ -64,14 +69,23 @@ import io.cryostat.rules.RuleRegistry.RuleEvent;
 import io.cryostat.util.events.Event;
 import io.cryostat.util.events.EventListener;
 
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.tuple.Pair;
 
 public class RuleProcessor
         implements Consumer<TargetDiscoveryEvent>, EventListener<RuleRegistry.RuleEvent, Rule> {
 
+    static final Set<String> RECORDING_REMOVED_CATEGORIES =
+            Set.of("RecordingStopped", "RecordingDeleted");
+
     private final PlatformClient platformClient;
     private final RuleRegistry registry;
-    private final ScheduledExecutorService scheduler;
+    private final RuleScheduler scheduler;
+    private final RuleActivationQueue activations;
+    private final ReplicaSampler sampler;
+    private final TargetBackoff backoff;
+    private final ScheduledExecutorService reconcileTimer;
+    private final long reconcilePeriodSeconds;
     private final CredentialsManager credentialsManager;
     private final RecordingOptionsBuilderFactory recordingOptionsBuilderFactory;
     private final TargetConnectionManager targetConnectionManager;
@@ -81,21 +95,36 @@ public class RuleProcessor
     private final Logger logger;
 
     private final Map<Pair<ServiceRef, Rule>, Future<?>> tasks;
+    private final Set<Pair<ServiceRef, Rule>> active;
+    private final Set<Pair<ServiceRef, Rule>> starting;
+    private final TargetInventory targets;
+    private Future<?> reconciliation;
 
     RuleProcessor(
             PlatformClient platformClient,
             RuleRegistry registry,
-            ScheduledExecutorService scheduler,
+            RuleScheduler scheduler,
+            RuleActivationQueue activations,
+            ReplicaSampler sampler,
+            TargetBackoff backoff,
+            ScheduledExecutorService reconcileTimer,
+            long reconcilePeriodSeconds,
             CredentialsManager credentialsManager,
             RecordingOptionsBuilderFactory recordingOptionsBuilderFactory,
             TargetConnectionManager targetConnectionManager,
             RecordingArchiveHelper recordingArchiveHelper,
             RecordingTargetHelper recordingTargetHelper,
             PeriodicArchiverFactory periodicArchiverFactory,
+            NotificationFactory notificationFactory,
             Logger logger) {
         this.platformClient = platformClient;
         this.registry = registry;
         this.scheduler = scheduler;
+        this.activations = activations;
+        this.sampler = sampler;
+        this.backoff = backoff;
+        this.reconcileTimer = reconcileTimer;
+        this.reconcilePeriodSeconds = reconcilePeriodSeconds;
         this.credentialsManager = credentialsManager;
         this.recordingOptionsBuilderFactory = recordingOptionsBuilderFactory;
         this.targetConnectionManager = targetConnectionManager;
@@ -104,29 +133,51 @@ public class RuleProcessor
         this.periodicArchiverFactory = periodicArchiverFactory;
         this.logger = logger;
         this.tasks = new HashMap<>();
+        this.active = new HashSet<>();
+        this.starting = new HashSet<>();
+        this.targets = new TargetInventory(platformClient);
 
         this.registry.addListener(this);
+        notificationFactory.addListener(this::onNotification);
     }
 
-    public void enable() {
+    public synchronized void enable() {
         this.platformClient.addTargetDiscoveryListener(this);
+        if (reconciliation == null) {
+            reconciliation =
+                    reconcileTimer.scheduleWithFixedDelay(
+                            this::reconcile,
+                            reconcilePeriodSeconds,
+                            reconcilePeriodSeconds,
+                            TimeUnit.SECONDS);
+        }
     }
 
     public synchronized void disable() {
         this.platformClient.removeTargetDiscoveryListener(this);
+        if (this.reconciliation != null) {
+            this.reconciliation.cancel(false);
+            this.reconciliation = null;
+        }
+        this.activations.clear();
         this.tasks.forEach((ruleExecution, future) -> future.cancel(true));
         this.tasks.clear();
+        this.sampler.clear();
+        this.active.clear();
+        this.backoff.clear();
+        this.targets.clear();
     }
 
     @Override
     public synchronized void onEvent(Event<RuleEvent, Rule> event) {
         switch (event.getEventType()) {
             case ADDED:
-                platformClient.listDiscoverableServices().stream()
+                targetsFor(event.getPayload()).stream()
                         .filter(serviceRef -> registry.applies(event.getPayload(), serviceRef))
-                        .forEach(serviceRef -> activate(event.getPayload(), serviceRef));
+                        .forEach(serviceRef -> enqueue(event.getPayload(), serviceRef));
                 break;
             case REMOVED:
+                activations.cancel(event.getPayload());
                 deactivate(event.getPayload(), null);
                 break;
             default:
@@ -136,47 +187,184 @@ public class RuleProcessor
 
     @Override
     public synchronized void accept(TargetDiscoveryEvent tde) {
+        targets.update(tde);
         switch (tde.getEventKind()) {
             case FOUND:
+                activations.retain(tde.getServiceRef());
                 registry.getRules(tde.getServiceRef())
-                        .forEach(rule -> activate(rule, tde.getServiceRef()));
+                        .forEach(rule -> enqueue(rule, tde.getServiceRef()));
                 break;
             case LOST:
-                deactivate(null, tde.getServiceRef());
+                activations.deactivate(
+                        tde.getServiceRef(), () -> deactivateTarget(tde.getServiceRef()));
                 break;
             default:
                 throw new UnsupportedOperationException(tde.getEventKind().toString());
         }
     }
 
+    /**
+     * Queues activation of every rule which applies to a known target but is not yet active on it,
+     * skipping targets which are backing off after a failed activation. This only consults local
+     * state, so it is cheap to run often, and the activation queue bounds the JMX traffic it
+     * causes.
+     */
+    synchronized void reconcile() {
+        try {
+            for (ServiceRef serviceRef : targets.getTargets()) {
+                if (!backoff.isReady(serviceRef)) {
+                    continue;
+                }
+                registry.getRules(serviceRef).forEach(rule -> enqueue(rule, serviceRef));
+            }
+        } catch (Exception e) {
+            // keep the periodic reconciliation alive through unexpected errors
+            logger.error(e);
+        }
+    }
+
+    /**
+     * Forgets activations whose rule recording was stopped or deleted through Cryostat, so that
+     * reconciliation starts the recording again. A target may be addressed as host:port rather than
+     * by its service URL, so without an exact target match every activation of the rule is dropped;
+     * re-activating a target which still has the recording only costs a JMX round-trip.
+     */
+    synchronized void onNotification(Notification<?> notification) {
+        if (!RECORDING_REMOVED_CATEGORIES.contains(notification.getCategory())
+                || !(notification.getMessage() instanceof Map)) {
+            return;
+        }
+        Map<?, ?> message = (Map<?, ?>) notification.getMessage();
+        Object recordingName = message.get("recording");
+        Set<Pair<ServiceRef, Rule>> affected =
+                active.stream()
+                        .filter(key -> key.getRight().getRecordingName().equals(recordingName))
+                        .collect(Collectors.toSet());
+        Set<Pair<ServiceRef, Rule>> sameTarget =
+                affected.stream()
+                        .filter(
+                                key ->
+                                        key.getLeft()
+                                                .getServiceUri()
+                                                .toString()
+                                                .equals(message.get("target")))
+                        .collect(Collectors.toSet());
+        if (!sameTarget.isEmpty()) {
+            affected = sameTarget;
+        }
+        for (Pair<ServiceRef, Rule> key : affected) {
+            logger.info(
+                    "Recording {} for rule {} on {} was removed, will start it again",
+                    recordingName,
+                    key.getRight().getName(),
+                    key.getLeft().getServiceUri());
+            release(key);
+        }
+    }
+
+    private Set<ServiceRef> targetsFor(Rule rule) {
+        if (StringUtils.isBlank(rule.getTargetAlias())) {
+            return targets.getTargets();
+        }
+        return targets.getTargets(rule.getTargetAlias());
+    }
+
+    private void enqueue(Rule rule, ServiceRef serviceRef) {
+        Pair<ServiceRef, Rule> key = Pair.of(serviceRef, rule);
+        if (active.contains(key) || starting.contains(key)) {
+            return;
+        }
+        activations.activate(serviceRef, rule, () -> activate(rule, serviceRef));
+    }
+
+    // runs on an activation worker, so the JMX round-trips happen without holding the monitor
     private void activate(Rule rule, ServiceRef serviceRef) {
+        Pair<ServiceRef, Rule> key = Pair.of(serviceRef, rule);
+        synchronized (this) {
+            if (active.contains(key) || !starting.add(key)) {
+                return;
+            }
+        }
         this.logger.trace(
                 "Activating rule {} for target {}", rule.getName(), serviceRef.getServiceUri());
 
-        Credentials credentials =
-                credentialsManager.getCredentials(serviceRef.getServiceUri().toString());
         try {
+            Credentials credentials =
+                    credentialsManager.getCredentials(serviceRef.getServiceUri().toString());
             startRuleRecording(new ConnectionDescriptor(serviceRef, credentials), rule);
         } catch (Exception e) {
             logger.error(e);
+            synchronized (this) {
+                starting.remove(key);
+                backoff.failed(serviceRef);
+                logger.info(
+                        "Activation of rule {} for {} failed {} time(s) in a row, will retry",
+                        rule.getName(),
+                        serviceRef.getServiceUri(),
+                        backoff.getFailures(serviceRef));
+            }
+            return;
         }
 
-        logger.trace("Rule activation successful");
-        if (rule.getPreservedArchives() <= 0 || rule.getArchivalPeriodSeconds() <= 0) {
-            return;
+        synchronized (this) {
+            starting.remove(key);
+            boolean stale =
+                    !targets.contains(serviceRef)
+                            || !registry.getRule(rule.getName()).map(rule::equals).orElse(false);
+            if (stale) {
+                // the target or the rule went away while the recording was being started
+                logger.trace("Rule {} no longer applies to {}", rule.getName(), serviceRef);
+                return;
+            }
+            logger.trace("Rule activation successful");
+            backoff.reset(serviceRef);
+            active.add(key);
+            boolean archives =
+                    rule.getTriggerMetric() != null || rule.getArchivalPeriodSeconds() > 0;
+            if (rule.getPreservedArchives() > 0 && archives) {
+                scheduleArchiver(rule, serviceRef);
+            }
         }
-        tasks.put(
-                Pair.of(serviceRef, rule),
-                scheduler.scheduleAtFixedRate(
-                        periodicArchiverFactory.create(
-                                serviceRef,
-                                credentialsManager,
-                                rule,
-                                recordingArchiveHelper,
-                                this::archivalFailureHandler),
-                        rule.getArchivalPeriodSeconds(),
-                        rule.getArchivalPeriodSeconds(),
-                        TimeUnit.SECONDS));
+    }
+
+    private void scheduleArchiver(Rule rule, ServiceRef serviceRef) {
+        Runnable task =
+                periodicArchiverFactory.create(
+                        serviceRef,
+                        credentialsManager,
+                        rule,
+                        recordingArchiveHelper,
+                        this::archivalFailureHandler);
+        long period = rule.getArchivalPeriodSeconds();
+        Future<?> scheduled;
+        if (rule.getTriggerMetric() != null) {
+            // sample the metric periodically, and only archive when it crosses the threshold
+            task =
+                    periodicArchiverFactory.createTriggered(
+                            serviceRef,
+                            credentialsManager,
+                            rule,
+                            task,
+                            this::archivalFailureHandler);
+            period = periodicArchiverFactory.getTriggerSamplePeriodSeconds();
+            scheduled = scheduler.schedule(serviceRef, rule, task, period, TimeUnit.SECONDS);
+        } else if (rule.getSampledReplicas() > 0) {
+            scheduled =
+                    scheduler.schedule(
+                            serviceRef,
+                            rule,
+                            sampler.sampled(rule, serviceRef, task),
+                            period,
+                            TimeUnit.SECONDS);
+        } else {
+            scheduled = scheduler.schedule(serviceRef, rule, task, period, TimeUnit.SECONDS);
+        }
+        tasks.put(Pair.of(serviceRef, rule), scheduled);
+    }
+
+    private synchronized void deactivateTarget(ServiceRef serviceRef) {
+        deactivate(null, serviceRef);
+        backoff.reset(serviceRef);
     }
 
     private void deactivate(Rule rule, ServiceRef serviceRef) {
@@ -185,6 +373,7 @@ public class RuleProcessor
         }
         if (rule != null) {
             logger.trace("Deactivating rule {}", rule.getName());
+            scheduler.removeTelemetry(rule.getName());
         }
         if (serviceRef != null) {
             logger.trace("Deactivating rules for {}", serviceRef.getServiceUri());
@@ -199,17 +388,31 @@ public class RuleProcessor
                 if (task != null) {
                     task.cancel(true);
                 }
+                sampler.remove(entry.getKey().getRight(), entry.getKey().getLeft());
                 it.remove();
             }
         }
+        active.removeIf(
+                pair ->
+                        Objects.equals(pair.getRight(), rule)
+                                || Objects.equals(pair.getLeft(), serviceRef));
+    }
+
+    private synchronized Void archivalFailureHandler(Pair<ServiceRef, Rule> id) {
+        // leave it to reconciliation to set the rule up again once the target recovers
+        if (release(id)) {
+            backoff.failed(id.getLeft());
+        }
+        return null;
     }
 
-    private Void archivalFailureHandler(Pair<ServiceRef, Rule> id) {
-        Future<?> task = tasks.get(id);
+    private boolean release(Pair<ServiceRef, Rule> id) {
+        Future<?> task = tasks.remove(id);
         if (task != null) {
             task.cancel(true);
         }
-        return null;
+        sampler.remove(id.getRight(), id.getLeft());
+        return active.remove(id);
     }
 
     private void startRuleRecording(ConnectionDescriptor connectionDescriptor, Rule rule)
@@ -218,6 +421,12 @@ public class RuleProcessor
         targetConnectionManager.executeConnectedTask(
                 connectionDescriptor,
                 connection -> {
+                    if (recordingTargetHelper
+                            .getDescriptorByName(connection, rule.getRecordingName())
+                            .isPresent()) {
+                        // already started, by an earlier activation or an earlier Cryostat
+                        return null;
+                    }
                     RecordingOptionsBuilder builder =
                             recordingOptionsBuilderFactory
                                     .create(connection.getService())
@@ -41,10 +41,11 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 import io.cryostat.core.log.Logger;
 import io.cryostat.core.sys.FileSystem;
@@ -54,12 +55,15 @@ import io.cryostat.util.events.AbstractEventEmitter;
 import io.cryostat.util.events.EventType;
 
 import com.google.gson.Gson;
+import org.apache.commons.lang3.StringUtils;
 
 public class RuleRegistry extends AbstractEventEmitter<RuleEvent, Rule> {
 
     private final Path rulesDir;
     private final FileSystem fs;
-    private final Set<Rule> rules;
+    private final Map<String, Rule> rulesByName;
+    private final Map<String, Set<Rule>> rulesByAlias;
+    private final Set<Rule> unaliasedRules;
     private final Gson gson;
     private final Logger logger;
 
@@ -68,7 +72,9 @@ public class RuleRegistry extends AbstractEventEmitter<RuleEvent, Rule> {
         this.fs = fs;
         this.gson = gson;
         this.logger = logger;
-        this.rules = new HashSet<>();
+        this.rulesByName = new ConcurrentHashMap<>();
+        this.rulesByAlias = new ConcurrentHashMap<>();
+        this.unaliasedRules = ConcurrentHashMap.newKeySet();
     }
 
     public void loadRules() throws IOException {
@@ -86,7 +92,7 @@ public class RuleRegistry extends AbstractEventEmitter<RuleEvent, Rule> {
                         })
                 .filter(Objects::nonNull)
                 .map(reader -> gson.fromJson(reader, Rule.class))
-                .forEach(rules::add);
+                .forEach(this::index);
     }
 
     public Rule addRule(Rule rule) throws IOException {
@@ -103,7 +109,7 @@ public class RuleRegistry extends AbstractEventEmitter<RuleEvent, Rule> {
                 StandardOpenOption.WRITE,
                 StandardOpenOption.CREATE,
                 StandardOpenOption.TRUNCATE_EXISTING);
-        loadRules();
+        index(rule);
         emit(RuleEvent.ADDED, rule);
         return rule;
     }
@@ -113,22 +119,25 @@ public class RuleRegistry extends AbstractEventEmitter<RuleEvent, Rule> {
     }
 
     public Optional<Rule> getRule(String name) {
-        return this.rules.stream().filter(r -> Objects.equals(r.getName(), name)).findFirst();
+        return Optional.ofNullable(this.rulesByName.get(name));
     }
 
     public boolean applies(Rule rule, ServiceRef serviceRef) {
-        return Objects.equals(rule.getTargetAlias(), serviceRef.getAlias().get());
+        return rule.matches(serviceRef);
     }
 
     public Set<Rule> getRules(ServiceRef serviceRef) {
-        if (!serviceRef.getAlias().isPresent()) {
-            return Set.of();
-        }
-        return rules.stream().filter(r -> applies(r, serviceRef)).collect(Collectors.toSet());
+        Set<Rule> matched = new HashSet<>();
+        serviceRef
+                .getAlias()
+                .map(rulesByAlias::get)
+                .ifPresent(candidates -> addMatching(candidates, serviceRef, matched));
+        addMatching(unaliasedRules, serviceRef, matched);
+        return matched;
     }
 
     public Set<Rule> getRules() {
-        return new HashSet<>(rules);
+        return new HashSet<>(rulesByName.values());
     }
 
     public void deleteRule(Rule rule) throws IOException {
@@ -142,14 +151,11 @@ public class RuleRegistry extends AbstractEventEmitter<RuleEvent, Rule> {
             }
             fs.deleteIfExists(rulesDir.resolve(child));
         }
-        this.rules.stream()
-                .filter(r -> Objects.equals(r.getName(), name))
-                .findFirst()
-                .ifPresent(
-                        rule -> {
-                            emit(RuleEvent.REMOVED, rule);
-                            this.rules.remove(rule);
-                        });
+        Rule rule = this.rulesByName.get(name);
+        if (rule != null) {
+            emit(RuleEvent.REMOVED, rule);
+            unindex(rule);
+        }
     }
 
     public void deleteRules(ServiceRef serviceRef) throws IOException {
@@ -158,6 +164,50 @@ public class RuleRegistry extends AbstractEventEmitter<RuleEvent, Rule> {
         }
     }
 
+    private void addMatching(Set<Rule> candidates, ServiceRef serviceRef, Set<Rule> matched) {
+        for (Rule rule : candidates) {
+            if (applies(rule, serviceRef)) {
+                matched.add(rule);
+            }
+        }
+    }
+
+    // rules are looked up on every discovery event, so keep them keyed by the alias they match
+    // rather than scanning every rule each time. Rules selecting targets by match expression alone
+    // cannot be keyed this way, but their expressions are precompiled and cheap to evaluate.
+    private void index(Rule rule) {
+        Rule previous = rulesByName.put(rule.getName(), rule);
+        if (previous != null) {
+            removeFromIndex(previous);
+        }
+        if (StringUtils.isBlank(rule.getTargetAlias())) {
+            unaliasedRules.add(rule);
+            return;
+        }
+        rulesByAlias
+                .computeIfAbsent(rule.getTargetAlias(), k -> ConcurrentHashMap.newKeySet())
+                .add(rule);
+    }
+
+    private void unindex(Rule rule) {
+        if (rulesByName.remove(rule.getName(), rule)) {
+            removeFromIndex(rule);
+        }
+    }
+
+    private void removeFromIndex(Rule rule) {
+        if (StringUtils.isBlank(rule.getTargetAlias())) {
+            unaliasedRules.remove(rule);
+            return;
+        }
+        rulesByAlias.computeIfPresent(
+                rule.getTargetAlias(),
+                (alias, rules) -> {
+                    rules.remove(rule);
+                    return rules.isEmpty() ? null : rules;
+                });
+    }
+
     enum RuleEvent implements EventType {
         ADDED,
         REMOVED,
@@ -0,0 +1,330 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.platform.ServiceRef;
+
+/**
+ * Runs periodic rule tasks on a pool of workers. A single timer thread only decides when each task
+ * is due, so a slow or hung target cannot delay the schedule of any other. Tasks for the same
+ * target never run concurrently, and when workers are scarce the most overdue task runs first. A
+ * task which is still queued or running when its next period comes due skips that period rather
+ * than queueing up behind itself.
+ */
+class RuleScheduler {
+
+    static final int DEFAULT_JITTER_PERCENT = 10;
+
+    private final ScheduledExecutorService timer;
+    private final ExecutorService workers;
+    private final int jitterPercent;
+    private final RuleTelemetry telemetry;
+    private final Clock clock;
+    private final Logger logger;
+
+    private final Object lock = new Object();
+    private final Map<ServiceRef, TargetQueue> queues = new HashMap<>();
+
+    RuleScheduler(
+            ScheduledExecutorService timer,
+            ExecutorService workers,
+            int jitterPercent,
+            RuleTelemetry telemetry,
+            Clock clock,
+            Logger logger) {
+        this.timer = timer;
+        this.workers = workers;
+        this.jitterPercent = jitterPercent;
+        this.telemetry = telemetry;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    /**
+     * Creates a worker pool suitable for a RuleScheduler, which hands queued work to free workers
+     * in deadline order.
+     */
+    static ExecutorService createWorkerPool(int parallelism) {
+        return new ThreadPoolExecutor(
+                parallelism,
+                parallelism,
+                0L,
+                TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(
+                        parallelism, Comparator.comparingLong(r -> ((Drain) r).dueNanos)));
+    }
+
+    /**
+     * Runs the task once per period for as long as the returned future is not cancelled. The first
+     * run happens one period, plus some jitter, from now. Cancelling the future with
+     * mayInterruptIfRunning interrupts a run in progress.
+     */
+    Future<?> schedule(
+            ServiceRef serviceRef, Rule rule, Runnable task, long period, TimeUnit unit) {
+        return schedule(serviceRef, rule, (PeriodicTask) dueNanos -> task.run(), period, unit);
+    }
+
+    /**
+     * As {@link #schedule(ServiceRef, Rule, Runnable, long, TimeUnit)}, but tells each run the
+     * deadline it was scheduled for.
+     */
+    Future<?> schedule(
+            ServiceRef serviceRef, Rule rule, PeriodicTask task, long period, TimeUnit unit) {
+        long periodNanos = unit.toNanos(period);
+        Execution execution =
+                new Execution(
+                        serviceRef,
+                        rule.getName(),
+                        task,
+                        periodNanos,
+                        clock.getMonotonicTime() + initialDelayNanos(periodNanos));
+        execution.arm();
+        return execution.handle;
+    }
+
+    void removeTelemetry(String ruleName) {
+        telemetry.remove(ruleName);
+    }
+
+    long initialDelayNanos(long periodNanos) {
+        long maxJitter = periodNanos / 100 * jitterPercent;
+        if (maxJitter <= 0) {
+            return periodNanos;
+        }
+        return periodNanos + ThreadLocalRandom.current().nextLong(maxJitter + 1);
+    }
+
+    // guarded by lock
+    private void dispatch(TargetQueue queue) {
+        if (queue.busy || queue.pending.isEmpty()) {
+            return;
+        }
+        queue.busy = true;
+        try {
+            workers.execute(new Drain(queue, queue.pending.peek().dueNanos));
+        } catch (RejectedExecutionException ree) {
+            queue.busy = false;
+            logger.warn(ree);
+        }
+    }
+
+    /**
+     * A task which needs to know which period it is running for. Runs may start late, but the
+     * deadlines of successive runs are always exactly one period apart, and a deadline which is
+     * skipped is not run late.
+     */
+    interface PeriodicTask {
+        /**
+         * @param dueNanos the deadline of this run, on the {@link Clock#getMonotonicTime()} scale
+         */
+        void run(long dueNanos);
+    }
+
+    private class Execution {
+        final ServiceRef serviceRef;
+        final String ruleName;
+        final PeriodicTask task;
+        final long periodNanos;
+        final CompletableFuture<Void> handle;
+
+        // all guarded by lock
+        long nextDeadlineNanos;
+        long dueNanos;
+        boolean queued;
+        Thread worker;
+        ScheduledFuture<?> timerFuture;
+
+        Execution(
+                ServiceRef serviceRef,
+                String ruleName,
+                PeriodicTask task,
+                long periodNanos,
+                long firstDeadlineNanos) {
+            this.serviceRef = serviceRef;
+            this.ruleName = ruleName;
+            this.task = task;
+            this.periodNanos = periodNanos;
+            this.nextDeadlineNanos = firstDeadlineNanos;
+            this.handle = new CompletableFuture<>();
+            this.handle.whenComplete((v, t) -> cancel());
+        }
+
+        void arm() {
+            synchronized (lock) {
+                if (handle.isDone()) {
+                    return;
+                }
+                long delay = Math.max(0, nextDeadlineNanos - clock.getMonotonicTime());
+                timerFuture = timer.schedule(this::fire, delay, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        void fire() {
+            synchronized (lock) {
+                if (handle.isDone()) {
+                    return;
+                }
+                if (queued || worker != null) {
+                    telemetry.skipped(ruleName, serviceRef);
+                    logger.trace(
+                            "Rule {} for target {} is still pending, skipping a period",
+                            ruleName,
+                            serviceRef.getServiceUri());
+                } else {
+                    queued = true;
+                    dueNanos = nextDeadlineNanos;
+                    TargetQueue queue = queues.computeIfAbsent(serviceRef, TargetQueue::new);
+                    queue.pending.add(this);
+                    dispatch(queue);
+                }
+                long now = clock.getMonotonicTime();
+                nextDeadlineNanos += periodNanos;
+                // keep to the original phase, dropping any periods the timer itself missed
+                while (nextDeadlineNanos <= now) {
+                    nextDeadlineNanos += periodNanos;
+                    telemetry.skipped(ruleName, serviceRef);
+                }
+            }
+            arm();
+        }
+
+        void cancel() {
+            telemetry.remove(ruleName, serviceRef);
+            synchronized (lock) {
+                if (timerFuture != null) {
+                    timerFuture.cancel(false);
+                }
+                if (queued) {
+                    queued = false;
+                    TargetQueue queue = queues.get(serviceRef);
+                    if (queue != null) {
+                        queue.pending.remove(this);
+                    }
+                }
+                if (worker != null && worker != Thread.currentThread()) {
+                    worker.interrupt();
+                }
+            }
+        }
+    }
+
+    private class TargetQueue {
+        final ServiceRef serviceRef;
+        final PriorityQueue<Execution> pending =
+                new PriorityQueue<>(Comparator.comparingLong(e -> e.dueNanos));
+        boolean busy;
+
+        TargetQueue(ServiceRef serviceRef) {
+            this.serviceRef = serviceRef;
+        }
+    }
+
+    private class Drain implements Runnable {
+        final TargetQueue queue;
+        final long dueNanos;
+
+        Drain(TargetQueue queue, long dueNanos) {
+            this.queue = queue;
+            this.dueNanos = dueNanos;
+        }
+
+        @Override
+        public void run() {
+            Execution execution;
+            long dueNanos;
+            synchronized (lock) {
+                execution = queue.pending.poll();
+                if (execution == null) {
+                    finish();
+                    return;
+                }
+                execution.queued = false;
+                execution.worker = Thread.currentThread();
+                dueNanos = execution.dueNanos;
+            }
+            long lagNanos = clock.getMonotonicTime() - dueNanos;
+            telemetry.started(execution.ruleName, execution.serviceRef, lagNanos);
+            if (lagNanos > execution.periodNanos) {
+                logger.warn(
+                        "Rule {} for target {} started {}ms behind schedule",
+                        execution.ruleName,
+                        execution.serviceRef.getServiceUri(),
+                        TimeUnit.NANOSECONDS.toMillis(lagNanos));
+            }
+            try {
+                execution.task.run(dueNanos);
+            } catch (RuntimeException e) {
+                logger.error(e);
+            } finally {
+                synchronized (lock) {
+                    execution.worker = null;
+                    // don't let a cancellation aimed at this run leak into the next one
+                    Thread.interrupted();
+                    finish();
+                }
+            }
+        }
+
+        // guarded by lock
+        private void finish() {
+            queue.busy = false;
+            if (queue.pending.isEmpty()) {
+                queues.remove(queue.serviceRef, queue);
+            } else {
+                dispatch(queue);
+            }
+        }
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.rules.RuleRegistry.RuleEvent;
+import io.cryostat.util.events.Event;
+import io.cryostat.util.events.EventListener;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+
+/**
+ * Remembers which archives each rule has made for each target, so that preserved-archive pruning
+ * picks up where it left off after a restart. Every change is appended to a journal and synced
+ * before it is acknowledged, and the journal is periodically folded into a snapshot, so that
+ * loading the state at startup costs time proportional to the state rather than to its history or
+ * to the contents of the archive.
+ */
+class RuleStateStore implements EventListener<RuleEvent, Rule> {
+
+    static final String SNAPSHOT_FILE = "snapshot.json";
+    static final String JOURNAL_FILE = "journal.jsonl";
+    static final int MIN_COMPACTION_ENTRIES = 1024;
+
+    private static final Type SNAPSHOT_TYPE =
+            new TypeToken<Map<String, Map<String, List<String>>>>() {}.getType();
+
+    private final Path stateDir;
+    private final Gson gson;
+    private final Logger logger;
+
+    // rule name -> target ID -> archived recording names, oldest first
+    private final Map<String, Map<String, List<String>>> state;
+    private FileChannel journal;
+    private Writer journalWriter;
+    private int journalEntries;
+    private int liveEntries;
+
+    RuleStateStore(Path stateDir, Gson gson, Logger logger) {
+        this.stateDir = stateDir;
+        this.gson = gson;
+        this.logger = logger;
+        this.state = new LinkedHashMap<>();
+    }
+
+    synchronized void load() throws IOException {
+        state.clear();
+        liveEntries = 0;
+        Path snapshot = stateDir.resolve(SNAPSHOT_FILE);
+        if (Files.isRegularFile(snapshot)) {
+            try (BufferedReader reader = Files.newBufferedReader(snapshot)) {
+                Map<String, Map<String, List<String>>> loaded =
+                        gson.fromJson(reader, SNAPSHOT_TYPE);
+                if (loaded != null) {
+                    loaded.forEach(
+                            (rule, targets) ->
+                                    targets.forEach(
+                                            (target, archives) ->
+                                                    archives.forEach(
+                                                            a -> apply(Op.ADD, rule, target, a))));
+                }
+            }
+        }
+        Path journalPath = stateDir.resolve(JOURNAL_FILE);
+        if (Files.isRegularFile(journalPath)) {
+            try (BufferedReader reader = Files.newBufferedReader(journalPath)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Entry entry;
+                    try {
+                        entry = gson.fromJson(line, Entry.class);
+                    } catch (JsonParseException jpe) {
+                        // a write cut short by a crash can only leave the last line incomplete,
+                        // and that entry was never acknowledged
+                        logger.warn("Ignoring incomplete rule state journal entry");
+                        continue;
+                    }
+                    if (entry != null && entry.op != null) {
+                        apply(entry.op, entry.rule, entry.target, entry.recording);
+                    }
+                }
+            }
+        }
+        // start from a fresh snapshot so that a torn journal entry is never appended after
+        compact();
+    }
+
+    synchronized List<String> getArchives(String ruleName, String targetId) {
+        return new ArrayList<>(
+                state.getOrDefault(ruleName, Map.of()).getOrDefault(targetId, List.of()));
+    }
+
+    synchronized void archived(String ruleName, String targetId, String recordingName)
+            throws IOException {
+        record(new Entry(Op.ADD, ruleName, targetId, recordingName));
+    }
+
+    synchronized void pruned(String ruleName, String targetId, String recordingName)
+            throws IOException {
+        record(new Entry(Op.REMOVE, ruleName, targetId, recordingName));
+    }
+
+    synchronized void forget(String ruleName) throws IOException {
+        if (state.containsKey(ruleName)) {
+            record(new Entry(Op.FORGET, ruleName, null, null));
+        }
+    }
+
+    @Override
+    public void onEvent(Event<RuleEvent, Rule> event) {
+        if (event.getEventType() != RuleEvent.REMOVED) {
+            return;
+        }
+        try {
+            forget(event.getPayload().getName());
+        } catch (IOException e) {
+            logger.warn(e);
+        }
+    }
+
+    // guarded by this
+    private void record(Entry entry) throws IOException {
+        if (journalWriter == null) {
+            compact();
+        }
+        try {
+            journalWriter.write(gson.toJson(entry));
+            journalWriter.write('\n');
+            journalWriter.flush();
+            journal.force(false);
+        } catch (IOException ioe) {
+            // the journal may now end with a partial entry, so the next record must start over
+            // from a fresh snapshot rather than append after it
+            try {
+                closeJournal();
+            } catch (IOException e) {
+                ioe.addSuppressed(e);
+            }
+            throw ioe;
+        }
+        journalEntries++;
+        apply(entry.op, entry.rule, entry.target, entry.recording);
+        if (journalEntries > Math.max(MIN_COMPACTION_ENTRIES, 2 * liveEntries)) {
+            compact();
+        }
+    }
+
+    // guarded by this
+    private void apply(Op op, String ruleName, String targetId, String recordingName) {
+        switch (op) {
+            case ADD:
+                {
+                    List<String> archives =
+                            state.computeIfAbsent(ruleName, k -> new LinkedHashMap<>())
+                                    .computeIfAbsent(targetId, k -> new ArrayList<>());
+                    if (!archives.contains(recordingName)) {
+                        archives.add(recordingName);
+                        liveEntries++;
+                    }
+                    break;
+                }
+            case REMOVE:
+                {
+                    Map<String, List<String>> targets = state.get(ruleName);
+                    if (targets == null) {
+                        break;
+                    }
+                    List<String> archives = targets.get(targetId);
+                    if (archives != null && archives.remove(recordingName)) {
+                        liveEntries--;
+                        if (archives.isEmpty()) {
+                            targets.remove(targetId);
+                        }
+                        if (targets.isEmpty()) {
+                            state.remove(ruleName);
+                        }
+                    }
+                    break;
+                }
+            case FORGET:
+                {
+                    Map<String, List<String>> targets = state.remove(ruleName);
+                    if (targets != null) {
+                        targets.values().forEach(archives -> liveEntries -= archives.size());
+                    }
+                    break;
+                }
+            default:
+                throw new IllegalArgumentException(op.toString());
+        }
+    }
+
+    // guarded by this
+    private void compact() throws IOException {
+        closeJournal();
+        Path snapshot = stateDir.resolve(SNAPSHOT_FILE);
+        Path tmp = stateDir.resolve(SNAPSHOT_FILE + ".tmp");
+        try (FileChannel channel =
+                        FileChannel.open(
+                                tmp,
+                                StandardOpenOption.WRITE,
+                                StandardOpenOption.CREATE,
+                                StandardOpenOption.TRUNCATE_EXISTING);
+                Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
+            gson.toJson(state, SNAPSHOT_TYPE, writer);
+            writer.flush();
+            channel.force(true);
+        }
+        Files.move(
+                tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        // if we crash before the journal is truncated, replaying it over the new snapshot is
+        // harmless because every entry is idempotent
+        journal =
+                FileChannel.open(
+                        stateDir.resolve(JOURNAL_FILE),
+                        StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+        journal.force(true);
+        journalWriter = Channels.newWriter(journal, StandardCharsets.UTF_8);
+        journalEntries = 0;
+    }
+
+    // guarded by this
+    private void closeJournal() throws IOException {
+        if (journalWriter != null) {
+            try {
+                journalWriter.close();
+            } finally {
+                journalWriter = null;
+                journal = null;
+            }
+        }
+    }
+
+    private enum Op {
+        ADD,
+        REMOVE,
+        FORGET,
+    }
+
+    private static class Entry {
+        final Op op;
+        final String rule;
+        final String target;
+        final String recording;
+
+        Entry(Op op, String rule, String target, String recording) {
+            this.op = op;
+            this.rule = rule;
+            this.target = target;
+            this.recording = recording;
+        }
+    }
+}
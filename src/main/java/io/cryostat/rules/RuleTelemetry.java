@@ -0,0 +1,266 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.platform.ServiceRef;
+
+/**
+ * Accumulates how each rule's periodic executions went on each of its targets: how late they
+ * started, how much they archived, how long the transfer from the target and the pruning of old
+ * archives took, and why any of them failed. The same figures are recorded per execution as JFR
+ * events by {@link PeriodicArchiver}.
+ */
+public class RuleTelemetry {
+
+    private final Map<String, Map<String, TargetStats>> stats = new ConcurrentHashMap<>();
+
+    RuleTelemetry() {}
+
+    void started(String ruleName, ServiceRef serviceRef, long lagNanos) {
+        TargetStats target = target(ruleName, serviceRef);
+        synchronized (target) {
+            lagNanos = Math.max(0, lagNanos);
+            target.executions++;
+            target.totalLagNanos += lagNanos;
+            target.lastLagNanos = lagNanos;
+            target.lastLagMillis = TimeUnit.NANOSECONDS.toMillis(lagNanos);
+            target.maxLagMillis = Math.max(target.maxLagMillis, target.lastLagMillis);
+            target.meanLagMillis =
+                    TimeUnit.NANOSECONDS.toMillis(target.totalLagNanos / target.executions);
+        }
+    }
+
+    void skipped(String ruleName, ServiceRef serviceRef) {
+        TargetStats target = target(ruleName, serviceRef);
+        synchronized (target) {
+            target.skipped++;
+        }
+    }
+
+    void archived(
+            String ruleName,
+            ServiceRef serviceRef,
+            long bytes,
+            long transferNanos,
+            long pruneNanos) {
+        TargetStats target = target(ruleName, serviceRef);
+        synchronized (target) {
+            target.archives++;
+            target.archivedBytes += bytes;
+            target.lastArchiveBytes = bytes;
+            target.totalTransferNanos += transferNanos;
+            target.lastTransferMillis = TimeUnit.NANOSECONDS.toMillis(transferNanos);
+            target.maxTransferMillis =
+                    Math.max(target.maxTransferMillis, target.lastTransferMillis);
+            target.meanTransferMillis =
+                    TimeUnit.NANOSECONDS.toMillis(target.totalTransferNanos / target.archives);
+            target.lastPruneMillis = TimeUnit.NANOSECONDS.toMillis(pruneNanos);
+            target.maxPruneMillis = Math.max(target.maxPruneMillis, target.lastPruneMillis);
+        }
+    }
+
+    void failed(String ruleName, ServiceRef serviceRef, String cause) {
+        TargetStats target = target(ruleName, serviceRef);
+        synchronized (target) {
+            target.failures.merge(cause, 1L, Long::sum);
+        }
+    }
+
+    /** @return how late the most recent execution of the rule on the target started */
+    long getLastLagNanos(String ruleName, ServiceRef serviceRef) {
+        Map<String, TargetStats> targets = stats.get(ruleName);
+        if (targets == null) {
+            return 0;
+        }
+        TargetStats target = targets.get(serviceRef.getServiceUri().toString());
+        if (target == null) {
+            return 0;
+        }
+        synchronized (target) {
+            return target.lastLagNanos;
+        }
+    }
+
+    void remove(String ruleName) {
+        stats.remove(ruleName);
+    }
+
+    void remove(String ruleName, ServiceRef serviceRef) {
+        stats.computeIfPresent(
+                ruleName,
+                (k, targets) -> {
+                    targets.remove(serviceRef.getServiceUri().toString());
+                    return targets.isEmpty() ? null : targets;
+                });
+    }
+
+    /** @return a copy of the statistics for each target of the rule, ordered by connect URL */
+    public List<TargetStats> getStats(String ruleName) {
+        List<TargetStats> copies = new ArrayList<>();
+        for (TargetStats target : stats.getOrDefault(ruleName, Map.of()).values()) {
+            synchronized (target) {
+                copies.add(new TargetStats(target));
+            }
+        }
+        copies.sort(Comparator.comparing(TargetStats::getConnectUrl));
+        return copies;
+    }
+
+    private TargetStats target(String ruleName, ServiceRef serviceRef) {
+        String connectUrl = serviceRef.getServiceUri().toString();
+        return stats.computeIfAbsent(ruleName, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(connectUrl, TargetStats::new);
+    }
+
+    public static class TargetStats {
+        private final String connectUrl;
+        private long executions;
+        private long skipped;
+        private long archives;
+        private long archivedBytes;
+        private long lastArchiveBytes;
+        private long lastLagMillis;
+        private long meanLagMillis;
+        private long maxLagMillis;
+        private long lastTransferMillis;
+        private long meanTransferMillis;
+        private long maxTransferMillis;
+        private long lastPruneMillis;
+        private long maxPruneMillis;
+        private final Map<String, Long> failures;
+
+        private transient long lastLagNanos;
+        private transient long totalLagNanos;
+        private transient long totalTransferNanos;
+
+        TargetStats(String connectUrl) {
+            this.connectUrl = connectUrl;
+            this.failures = new TreeMap<>();
+        }
+
+        TargetStats(TargetStats other) {
+            this.connectUrl = other.connectUrl;
+            this.executions = other.executions;
+            this.skipped = other.skipped;
+            this.archives = other.archives;
+            this.archivedBytes = other.archivedBytes;
+            this.lastArchiveBytes = other.lastArchiveBytes;
+            this.lastLagMillis = other.lastLagMillis;
+            this.meanLagMillis = other.meanLagMillis;
+            this.maxLagMillis = other.maxLagMillis;
+            this.lastTransferMillis = other.lastTransferMillis;
+            this.meanTransferMillis = other.meanTransferMillis;
+            this.maxTransferMillis = other.maxTransferMillis;
+            this.lastPruneMillis = other.lastPruneMillis;
+            this.maxPruneMillis = other.maxPruneMillis;
+            this.failures = new TreeMap<>(other.failures);
+            this.lastLagNanos = other.lastLagNanos;
+            this.totalLagNanos = other.totalLagNanos;
+            this.totalTransferNanos = other.totalTransferNanos;
+        }
+
+        public String getConnectUrl() {
+            return connectUrl;
+        }
+
+        public long getExecutions() {
+            return executions;
+        }
+
+        public long getSkipped() {
+            return skipped;
+        }
+
+        public long getArchives() {
+            return archives;
+        }
+
+        public long getArchivedBytes() {
+            return archivedBytes;
+        }
+
+        public long getLastArchiveBytes() {
+            return lastArchiveBytes;
+        }
+
+        public long getLastLagMillis() {
+            return lastLagMillis;
+        }
+
+        public long getMeanLagMillis() {
+            return meanLagMillis;
+        }
+
+        public long getMaxLagMillis() {
+            return maxLagMillis;
+        }
+
+        public long getLastTransferMillis() {
+            return lastTransferMillis;
+        }
+
+        public long getMeanTransferMillis() {
+            return meanTransferMillis;
+        }
+
+        public long getMaxTransferMillis() {
+            return maxTransferMillis;
+        }
+
+        public long getLastPruneMillis() {
+            return lastPruneMillis;
+        }
+
+        public long getMaxPruneMillis() {
+            return maxPruneMillis;
+        }
+
+        /** @return the number of failed executions, keyed by the simple name of their root cause */
+        public Map<String, Long> getFailures() {
+            return failures;
+        }
+    }
+}
@@ -52,12 +52,16 @@ import io.cryostat.configuration.ConfigurationModule;
 import io.cryostat.configuration.CredentialsManager;
 import io.cryostat.core.log.Logger;
 import io.cryostat.core.net.Credentials;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.core.sys.Environment;
 import io.cryostat.core.sys.FileSystem;
+import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.HttpServer;
 import io.cryostat.net.NetworkConfiguration;
 import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.net.web.http.AbstractAuthenticatedRequestHandler;
 import io.cryostat.platform.PlatformClient;
+import io.cryostat.recordings.ArchiveIndex;
 import io.cryostat.recordings.RecordingArchiveHelper;
 import io.cryostat.recordings.RecordingTargetHelper;
 
@@ -73,8 +77,20 @@ import org.apache.commons.codec.binary.Base64;
 @Module
 public abstract class RulesModule {
     public static final String RULES_SUBDIRECTORY = "rules";
+    static final String RULE_STATE_SUBDIRECTORY = "rule-state";
     public static final String RULES_WEB_CLIENT = "RULES_WEB_CLIENT";
     public static final String RULES_HEADERS_FACTORY = "RULES_HEADERS_FACTORY";
+    static final String RULE_EXECUTION_PARALLELISM_ENV_VAR = "CRYOSTAT_RULE_EXECUTION_PARALLELISM";
+    static final int DEFAULT_RULE_EXECUTION_PARALLELISM = 8;
+    static final String RULE_SCHEDULE_JITTER_ENV_VAR = "CRYOSTAT_RULE_SCHEDULE_JITTER_PERCENT";
+    static final String RULE_ACTIVATION_PARALLELISM_ENV_VAR =
+            "CRYOSTAT_RULE_ACTIVATION_PARALLELISM";
+    static final String RULE_ACTIVATION_RATE_ENV_VAR = "CRYOSTAT_RULE_ACTIVATION_RATE";
+    static final String RULE_RECONCILE_PERIOD_ENV_VAR = "CRYOSTAT_RULE_RECONCILE_PERIOD_SECONDS";
+    static final int DEFAULT_RULE_RECONCILE_PERIOD_SECONDS = 30;
+    static final String RULE_TRIGGER_SAMPLE_PERIOD_ENV_VAR =
+            "CRYOSTAT_RULE_TRIGGER_SAMPLE_PERIOD_SECONDS";
+    static final int DEFAULT_RULE_TRIGGER_SAMPLE_PERIOD_SECONDS = 10;
 
     @Provides
     @Singleton
@@ -105,26 +121,196 @@ public abstract class RulesModule {
             RecordingArchiveHelper recordingArchiveHelper,
             RecordingTargetHelper recordingTargetHelper,
             PeriodicArchiverFactory periodicArchiverFactory,
+            NotificationFactory notificationFactory,
+            RuleScheduler scheduler,
+            RuleActivationQueue activations,
+            Environment env,
+            Clock clock,
             Logger logger) {
+        int reconcilePeriodSeconds =
+                parseBounded(
+                        env,
+                        logger,
+                        RULE_RECONCILE_PERIOD_ENV_VAR,
+                        DEFAULT_RULE_RECONCILE_PERIOD_SECONDS,
+                        1,
+                        Integer.MAX_VALUE);
         return new RuleProcessor(
                 platformClient,
                 registry,
-                Executors.newScheduledThreadPool(1),
+                scheduler,
+                activations,
+                new ReplicaSampler(),
+                new TargetBackoff(
+                        clock,
+                        TargetBackoff.DEFAULT_INITIAL_MILLIS,
+                        TargetBackoff.DEFAULT_MAX_MILLIS),
+                Executors.newSingleThreadScheduledExecutor(),
+                reconcilePeriodSeconds,
                 credentialsManager,
                 recordingOptionsBuilderFactory,
                 targetConnectionManager,
                 recordingArchiveHelper,
                 recordingTargetHelper,
                 periodicArchiverFactory,
+                notificationFactory,
                 logger);
     }
 
+    @Provides
+    @Singleton
+    static RuleScheduler provideRuleScheduler(
+            RuleTelemetry telemetry, Environment env, Clock clock, Logger logger) {
+        int parallelism =
+                parseBounded(
+                        env,
+                        logger,
+                        RULE_EXECUTION_PARALLELISM_ENV_VAR,
+                        DEFAULT_RULE_EXECUTION_PARALLELISM,
+                        1,
+                        Integer.MAX_VALUE);
+        int jitterPercent =
+                parseBounded(
+                        env,
+                        logger,
+                        RULE_SCHEDULE_JITTER_ENV_VAR,
+                        RuleScheduler.DEFAULT_JITTER_PERCENT,
+                        0,
+                        100);
+        return new RuleScheduler(
+                Executors.newSingleThreadScheduledExecutor(),
+                RuleScheduler.createWorkerPool(parallelism),
+                jitterPercent,
+                telemetry,
+                clock,
+                logger);
+    }
+
+    @Provides
+    @Singleton
+    static RuleTelemetry provideRuleTelemetry() {
+        return new RuleTelemetry();
+    }
+
+    @Provides
+    @Singleton
+    static RuleActivationQueue provideRuleActivationQueue(
+            Environment env, Clock clock, Logger logger) {
+        int parallelism =
+                parseBounded(
+                        env,
+                        logger,
+                        RULE_ACTIVATION_PARALLELISM_ENV_VAR,
+                        RuleActivationQueue.DEFAULT_PARALLELISM,
+                        1,
+                        Integer.MAX_VALUE);
+        int rate =
+                parseBounded(
+                        env,
+                        logger,
+                        RULE_ACTIVATION_RATE_ENV_VAR,
+                        RuleActivationQueue.DEFAULT_RATE_PER_SECOND,
+                        1,
+                        Integer.MAX_VALUE);
+        return new RuleActivationQueue(
+                Executors.newSingleThreadScheduledExecutor(),
+                Executors.newFixedThreadPool(parallelism),
+                parallelism,
+                rate,
+                RuleActivationQueue.DEFAULT_SETTLE_MILLIS,
+                clock,
+                logger);
+    }
+
+    @Provides
+    @Singleton
+    static RuleCostEstimator provideRuleCostEstimator(
+            PlatformClient platformClient,
+            RuleRegistry registry,
+            ArchiveIndex archiveIndex,
+            PeriodicArchiverFactory periodicArchiverFactory,
+            Environment env,
+            Logger logger) {
+        int parallelism =
+                parseBounded(
+                        env,
+                        logger,
+                        RULE_EXECUTION_PARALLELISM_ENV_VAR,
+                        DEFAULT_RULE_EXECUTION_PARALLELISM,
+                        1,
+                        Integer.MAX_VALUE);
+        return new RuleCostEstimator(
+                platformClient,
+                registry,
+                archiveIndex,
+                parallelism,
+                periodicArchiverFactory.getTriggerSamplePeriodSeconds());
+    }
+
+    private static int parseBounded(
+            Environment env, Logger logger, String key, int defaultValue, int min, int max) {
+        try {
+            int value = Integer.parseInt(env.getEnv(key, String.valueOf(defaultValue)));
+            if (value < min || value > max) {
+                logger.info("Requested {} {} is out of range.", key, value);
+                return defaultValue;
+            }
+            return value;
+        } catch (NumberFormatException nfe) {
+            logger.warn(nfe);
+            return defaultValue;
+        }
+    }
+
     @Provides
     @Singleton
     static PeriodicArchiverFactory providePeriodicArchivedFactory(
             @Named(RULES_HEADERS_FACTORY) Function<Credentials, MultiMap> headersFactory,
+            RuleStateStore stateStore,
+            RuleTelemetry telemetry,
+            ArchiveIndex archiveIndex,
+            TargetConnectionManager targetConnectionManager,
+            Environment env,
+            Clock clock,
             Logger logger) {
-        return new PeriodicArchiverFactory(logger);
+        int triggerSamplePeriodSeconds =
+                parseBounded(
+                        env,
+                        logger,
+                        RULE_TRIGGER_SAMPLE_PERIOD_ENV_VAR,
+                        DEFAULT_RULE_TRIGGER_SAMPLE_PERIOD_SECONDS,
+                        1,
+                        Integer.MAX_VALUE);
+        return new PeriodicArchiverFactory(
+                stateStore,
+                telemetry,
+                archiveIndex,
+                targetConnectionManager,
+                triggerSamplePeriodSeconds,
+                clock,
+                logger);
+    }
+
+    @Provides
+    @Singleton
+    static RuleStateStore provideRuleStateStore(
+            @Named(ConfigurationModule.CONFIGURATION_PATH) Path confDir,
+            FileSystem fs,
+            RuleRegistry registry,
+            Gson gson,
+            Logger logger) {
+        try {
+            Path stateDir = confDir.resolve(RULE_STATE_SUBDIRECTORY);
+            if (!fs.isDirectory(stateDir)) {
+                Files.createDirectory(stateDir);
+            }
+            RuleStateStore stateStore = new RuleStateStore(stateDir, gson, logger);
+            stateStore.load();
+            registry.addListener(stateStore);
+            return stateStore;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Provides
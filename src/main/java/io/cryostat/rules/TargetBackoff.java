@@ -0,0 +1,100 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.core.sys.Clock;
+import io.cryostat.platform.ServiceRef;
+
+/**
+ * Tracks targets on which rule activation has failed, and holds each one back from further attempts
+ * for a period which doubles with each consecutive failure, up to a limit.
+ */
+class TargetBackoff {
+
+    static final long DEFAULT_INITIAL_MILLIS = 15_000;
+    static final long DEFAULT_MAX_MILLIS = 15 * 60_000;
+
+    private final Clock clock;
+    private final long initialNanos;
+    private final long maxNanos;
+    private final Map<ServiceRef, State> states = new HashMap<>();
+
+    TargetBackoff(Clock clock, long initialMillis, long maxMillis) {
+        this.clock = clock;
+        this.initialNanos = TimeUnit.MILLISECONDS.toNanos(initialMillis);
+        this.maxNanos = TimeUnit.MILLISECONDS.toNanos(maxMillis);
+    }
+
+    synchronized boolean isReady(ServiceRef serviceRef) {
+        State state = states.get(serviceRef);
+        return state == null || clock.getMonotonicTime() >= state.retryAtNanos;
+    }
+
+    synchronized int getFailures(ServiceRef serviceRef) {
+        State state = states.get(serviceRef);
+        return state == null ? 0 : state.failures;
+    }
+
+    synchronized void failed(ServiceRef serviceRef) {
+        State state = states.computeIfAbsent(serviceRef, k -> new State());
+        state.failures++;
+        // stop doubling well before the shift could overflow
+        long delay = initialNanos << Math.min(state.failures - 1, 30);
+        if (delay <= 0 || delay > maxNanos) {
+            delay = maxNanos;
+        }
+        state.retryAtNanos = clock.getMonotonicTime() + delay;
+    }
+
+    synchronized void reset(ServiceRef serviceRef) {
+        states.remove(serviceRef);
+    }
+
+    synchronized void clear() {
+        states.clear();
+    }
+
+    private static class State {
+        int failures;
+        long retryAtNanos;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import io.cryostat.platform.PlatformClient;
+import io.cryostat.platform.ServiceRef;
+import io.cryostat.platform.TargetDiscoveryEvent;
+
+/**
+ * The set of currently known targets, kept up to date from discovery events so that applying a new
+ * rule does not need to list every target from the platform again. The platform is only listed
+ * once, the first time the inventory is queried.
+ */
+class TargetInventory {
+
+    private final PlatformClient platformClient;
+    private final Set<ServiceRef> targets;
+    private final Map<String, Set<ServiceRef>> targetsByAlias;
+    private boolean listed;
+
+    TargetInventory(PlatformClient platformClient) {
+        this.platformClient = platformClient;
+        this.targets = new HashSet<>();
+        this.targetsByAlias = new HashMap<>();
+    }
+
+    synchronized void update(TargetDiscoveryEvent tde) {
+        switch (tde.getEventKind()) {
+            case FOUND:
+                add(tde.getServiceRef());
+                break;
+            case LOST:
+                remove(tde.getServiceRef());
+                break;
+            default:
+                throw new UnsupportedOperationException(tde.getEventKind().toString());
+        }
+    }
+
+    synchronized Set<ServiceRef> getTargets() {
+        ensureListed();
+        return new HashSet<>(targets);
+    }
+
+    synchronized Set<ServiceRef> getTargets(String alias) {
+        ensureListed();
+        return new HashSet<>(targetsByAlias.getOrDefault(alias, Set.of()));
+    }
+
+    synchronized boolean contains(ServiceRef serviceRef) {
+        ensureListed();
+        return targets.contains(serviceRef);
+    }
+
+    synchronized void clear() {
+        targets.clear();
+        targetsByAlias.clear();
+        listed = false;
+    }
+
+    private void ensureListed() {
+        if (!listed) {
+            platformClient.listDiscoverableServices().forEach(this::add);
+            listed = true;
+        }
+    }
+
+    private void add(ServiceRef serviceRef) {
+        targets.add(serviceRef);
+        if (!serviceRef.getAlias().isPresent()) {
+            return;
+        }
+        targetsByAlias
+                .computeIfAbsent(serviceRef.getAlias().get(), k -> new HashSet<>())
+                .add(serviceRef);
+    }
+
+    private void remove(ServiceRef serviceRef) {
+        targets.remove(serviceRef);
+        if (!serviceRef.getAlias().isPresent()) {
+            return;
+        }
+        targetsByAlias.computeIfPresent(
+                serviceRef.getAlias().get(),
+                (alias, targets) -> {
+                    targets.remove(serviceRef);
+                    return targets.isEmpty() ? null : targets;
+                });
+    }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal streaming writer for POSIX (ustar) tar archives containing regular files. Entry sizes
+ * must be known up front. Names longer than the ustar header allows, and sizes of 8GiB or more, are
+ * recorded in a preceding pax extended header.
+ */
+public class TarOutputStream extends FilterOutputStream {
+
+    static final int BLOCK_SIZE = 512;
+    static final int NAME_LENGTH = 100;
+    static final long MAX_OCTAL_SIZE = 077777777777L;
+
+    private long remaining;
+    private long written;
+    private boolean entryOpen;
+    private boolean finished;
+
+    public TarOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    public void putNextEntry(String name, long size, long modifiedEpochSeconds) throws IOException {
+        if (finished) {
+            throw new IOException("Archive already finished");
+        }
+        closeEntry();
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        StringBuilder pax = new StringBuilder();
+        if (nameBytes.length > NAME_LENGTH) {
+            pax.append(paxRecord("path", name));
+        }
+        if (size > MAX_OCTAL_SIZE) {
+            pax.append(paxRecord("size", Long.toString(size)));
+        }
+        if (pax.length() > 0) {
+            byte[] records = pax.toString().getBytes(StandardCharsets.UTF_8);
+            writeHeader(truncate(nameBytes), records.length, modifiedEpochSeconds, 'x');
+            out.write(records);
+            pad(records.length);
+        }
+        writeHeader(truncate(nameBytes), Math.min(size, MAX_OCTAL_SIZE), modifiedEpochSeconds, '0');
+        this.remaining = size;
+        this.written = size;
+        this.entryOpen = true;
+    }
+
+    public void closeEntry() throws IOException {
+        if (!entryOpen) {
+            return;
+        }
+        if (remaining != 0) {
+            throw new IOException(
+                    String.format("Tar entry truncated, %d bytes not written", remaining));
+        }
+        pad(written);
+        entryOpen = false;
+    }
+
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        closeEntry();
+        out.write(new byte[2 * BLOCK_SIZE]);
+        finished = true;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (!entryOpen) {
+            throw new IOException("No current tar entry");
+        }
+        if (len > remaining) {
+            throw new IOException("Tar entry size exceeded");
+        }
+        out.write(b, off, len);
+        remaining -= len;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            super.close();
+        }
+    }
+
+    private void writeHeader(byte[] name, long size, long mtime, char type) throws IOException {
+        byte[] header = new byte[BLOCK_SIZE];
+        System.arraycopy(name, 0, header, 0, name.length);
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, Math.max(0, mtime));
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        header[156] = (byte) type;
+        ascii(header, 257, "ustar\0");
+        ascii(header, 263, "00");
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += Byte.toUnsignedInt(b);
+        }
+        octal(header, 148, 7, checksum);
+        out.write(header);
+    }
+
+    private void pad(long length) throws IOException {
+        int rem = (int) (length % BLOCK_SIZE);
+        if (rem != 0) {
+            out.write(new byte[BLOCK_SIZE - rem]);
+        }
+    }
+
+    private static byte[] truncate(byte[] name) {
+        if (name.length <= NAME_LENGTH) {
+            return name;
+        }
+        byte[] truncated = new byte[NAME_LENGTH];
+        System.arraycopy(name, 0, truncated, 0, NAME_LENGTH);
+        return truncated;
+    }
+
+    private static void octal(byte[] header, int offset, int length, long value) {
+        // zero-padded octal digits followed by a NUL terminator
+        String digits = Long.toOctalString(value);
+        int width = length - 1;
+        StringBuilder sb = new StringBuilder(width);
+        for (int i = digits.length(); i < width; i++) {
+            sb.append('0');
+        }
+        sb.append(digits);
+        ascii(header, offset, sb.toString());
+        header[offset + width] = 0;
+    }
+
+    private static void ascii(byte[] header, int offset, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+    }
+
+    static String paxRecord(String key, String value) {
+        // each record is "<length> <key>=<value>\n", where length counts its own digits
+        int base =
+                key.getBytes(StandardCharsets.UTF_8).length
+                        + value.getBytes(StandardCharsets.UTF_8).length
+                        + 3;
+        int length = base + Integer.toString(base).length();
+        if (Integer.toString(length).length() != Integer.toString(base).length()) {
+            length = base + Integer.toString(length).length();
+        }
+        return String.format("%d %s=%s\n", length, key, value);
+    }
+}
@@ -111,4 +111,18 @@ class NetworkConfigurationTest {
         Assertions.assertTrue(conf.isSslProxied());
         Mockito.verify(env).hasEnv("CRYOSTAT_SSL_PROXIED");
     }
+
+    @Test
+    void shouldReportHttpCompressionEnabledWhenVarUnset() {
+        Mockito.when(env.hasEnv("CRYOSTAT_DISABLE_HTTP_COMPRESSION")).thenReturn(false);
+        Assertions.assertFalse(conf.isHttpCompressionDisabled());
+        Mockito.verify(env).hasEnv("CRYOSTAT_DISABLE_HTTP_COMPRESSION");
+    }
+
+    @Test
+    void shouldReportHttpCompressionDisabledWhenVarSet() {
+        Mockito.when(env.hasEnv("CRYOSTAT_DISABLE_HTTP_COMPRESSION")).thenReturn(true);
+        Assertions.assertTrue(conf.isHttpCompressionDisabled());
+        Mockito.verify(env).hasEnv("CRYOSTAT_DISABLE_HTTP_COMPRESSION");
+    }
 }
@@ -40,7 +40,7 @@ package io.cryostat.net.reports;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.time.Duration;
-import java.util.List;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
@@ -49,6 +49,9 @@ import java.util.concurrent.locks.ReentrantLock;
 
 import io.cryostat.core.log.Logger;
 import io.cryostat.core.sys.FileSystem;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.ArchivedRecordingInfo;
 
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
@@ -67,7 +70,8 @@ import org.mockito.junit.jupiter.MockitoExtension;
 class ArchivedRecordingReportCacheTest {
 
     ArchivedRecordingReportCache cache;
-    @Mock Path savedRecordingsPath;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ArchiveStorage storage;
     @Mock Path webServerTempPath;
     @Mock CompletableFuture<Path> pathFuture;
     @Mock Path destinationFile;
@@ -80,7 +84,8 @@ class ArchivedRecordingReportCacheTest {
     void setup() {
         this.cache =
                 new ArchivedRecordingReportCache(
-                        savedRecordingsPath,
+                        archiveIndex,
+                        storage,
                         webServerTempPath,
                         fs,
                         () -> subprocessReportGenerator,
@@ -119,7 +124,7 @@ class ArchivedRecordingReportCacheTest {
         Mockito.when(destinationFile.toAbsolutePath()).thenReturn(destinationFile);
         Mockito.when(fs.isReadable(Mockito.any())).thenReturn(false);
 
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of());
+        Mockito.when(archiveIndex.get(Mockito.any())).thenReturn(Optional.empty());
 
         Assertions.assertThrows(ExecutionException.class, () -> cache.get("foo").get());
 
@@ -133,12 +138,14 @@ class ArchivedRecordingReportCacheTest {
     @Test
     void getShouldGenerateAndCacheReport() throws Exception {
         Path recording = Mockito.mock(Path.class);
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString())).thenReturn(recording);
+        Mockito.when(storage.localFile(Mockito.anyString()))
+                .thenReturn(new ArchiveStorage.LocalFile(recording, false));
         Mockito.when(webServerTempPath.resolve(Mockito.anyString())).thenReturn(destinationFile);
         Mockito.when(destinationFile.toAbsolutePath()).thenReturn(destinationFile);
         Mockito.when(fs.isReadable(Mockito.any())).thenReturn(false);
 
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of("foo"));
+        Mockito.when(archiveIndex.get("foo"))
+                .thenReturn(Optional.of(new ArchivedRecordingInfo("foo", 1, 1, null)));
 
         Mockito.when(pathFuture.get()).thenReturn(destinationFile);
         Mockito.when(
@@ -178,12 +185,14 @@ class ArchivedRecordingReportCacheTest {
     @Test
     void shouldThrowErrorIfReportGenerationFails() throws Exception {
         Path recording = Mockito.mock(Path.class);
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString())).thenReturn(recording);
+        Mockito.when(storage.localFile(Mockito.anyString()))
+                .thenReturn(new ArchiveStorage.LocalFile(recording, false));
         Mockito.when(webServerTempPath.resolve(Mockito.anyString())).thenReturn(destinationFile);
         Mockito.when(destinationFile.toAbsolutePath()).thenReturn(destinationFile);
         Mockito.when(fs.isReadable(Mockito.any())).thenReturn(false);
 
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of("foo"));
+        Mockito.when(archiveIndex.get("foo"))
+                .thenReturn(Optional.of(new ArchivedRecordingInfo("foo", 1, 1, null)));
 
         Mockito.when(
                         subprocessReportGenerator.exec(
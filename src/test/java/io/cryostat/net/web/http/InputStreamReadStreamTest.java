@@ -0,0 +1,195 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class InputStreamReadStreamTest {
+
+    @Mock Vertx vertx;
+
+    @BeforeEach
+    void setup() {
+        Mockito.lenient()
+                .doAnswer(
+                        invocation -> {
+                            Promise<Object> promise = Promise.promise();
+                            ((Handler<Promise<Object>>) invocation.getArgument(0)).handle(promise);
+                            ((Handler<AsyncResult<Object>>) invocation.getArgument(2))
+                                    .handle(promise.future());
+                            return null;
+                        })
+                .when(vertx)
+                .executeBlocking(Mockito.any(), Mockito.anyBoolean(), Mockito.any());
+    }
+
+    @Test
+    void shouldEmitAllChunksThenEnd() throws Exception {
+        InputStream source = Mockito.spy(stream("abcdefghij"));
+        InputStreamReadStream rs = new InputStreamReadStream(vertx, source, 4);
+        List<String> chunks = new ArrayList<>();
+        boolean[] ended = new boolean[1];
+
+        rs.endHandler(v -> ended[0] = true);
+        rs.handler(b -> chunks.add(b.toString()));
+
+        MatcherAssert.assertThat(chunks, Matchers.contains("abcd", "efgh", "ij"));
+        MatcherAssert.assertThat(ended[0], Matchers.is(true));
+        Mockito.verify(source).close();
+    }
+
+    @Test
+    void shouldNotReadWhilePaused() {
+        InputStreamReadStream rs = new InputStreamReadStream(vertx, stream("abcdefghij"), 4);
+        List<String> chunks = new ArrayList<>();
+        boolean[] ended = new boolean[1];
+
+        rs.pause();
+        rs.endHandler(v -> ended[0] = true);
+        rs.handler(b -> chunks.add(b.toString()));
+        MatcherAssert.assertThat(chunks, Matchers.empty());
+        Mockito.verifyNoInteractions(vertx);
+
+        rs.fetch(1);
+        MatcherAssert.assertThat(chunks, Matchers.contains("abcd"));
+
+        rs.fetch(1);
+        MatcherAssert.assertThat(chunks, Matchers.contains("abcd", "efgh"));
+        MatcherAssert.assertThat(ended[0], Matchers.is(false));
+
+        rs.resume();
+        MatcherAssert.assertThat(chunks, Matchers.contains("abcd", "efgh", "ij"));
+        MatcherAssert.assertThat(ended[0], Matchers.is(true));
+    }
+
+    @Test
+    void shouldReportReadFailures() throws Exception {
+        InputStream source = Mockito.mock(InputStream.class);
+        IOException failure = new IOException("stream closed");
+        Mockito.when(source.read(Mockito.any(byte[].class))).thenThrow(failure);
+        InputStreamReadStream rs = new InputStreamReadStream(vertx, source, 4);
+        List<Throwable> errors = new ArrayList<>();
+        boolean[] ended = new boolean[1];
+
+        rs.exceptionHandler(errors::add);
+        rs.endHandler(v -> ended[0] = true);
+        rs.handler(b -> {});
+
+        MatcherAssert.assertThat(errors, Matchers.contains(failure));
+        MatcherAssert.assertThat(ended[0], Matchers.is(false));
+        Mockito.verify(source).close();
+    }
+
+    @Test
+    void shouldCloseSourceWhenHandlerCleared() throws Exception {
+        InputStream source = Mockito.spy(stream("abcdefghij"));
+        InputStreamReadStream rs = new InputStreamReadStream(vertx, source, 4);
+
+        rs.pause();
+        rs.handler(b -> {});
+        rs.handler(null);
+
+        Mockito.verify(source).close();
+        rs.resume();
+        Mockito.verifyNoInteractions(vertx);
+    }
+
+    @Test
+    void shouldCloseSourceAfterReadInFlight() throws Exception {
+        List<Handler<AsyncResult<Object>>> pending = new ArrayList<>();
+        Mockito.doAnswer(
+                        invocation -> {
+                            pending.add(invocation.getArgument(2));
+                            return null;
+                        })
+                .when(vertx)
+                .executeBlocking(Mockito.any(), Mockito.anyBoolean(), Mockito.any());
+        InputStream source = Mockito.mock(InputStream.class);
+        InputStreamReadStream rs = new InputStreamReadStream(vertx, source, 4);
+        List<String> chunks = new ArrayList<>();
+
+        rs.handler(b -> chunks.add(b.toString()));
+        rs.close();
+        Mockito.verify(source, Mockito.never()).close();
+
+        MatcherAssert.assertThat(pending, Matchers.hasSize(1));
+        pending.get(0).handle(Future.succeededFuture(Buffer.buffer("abcd")));
+
+        Mockito.verify(source).close();
+        MatcherAssert.assertThat(chunks, Matchers.empty());
+        rs.close();
+        Mockito.verify(source).close();
+    }
+
+    @Test
+    void shouldCloseSourceBeforeReading() throws Exception {
+        InputStream source = Mockito.mock(InputStream.class);
+        InputStreamReadStream rs = new InputStreamReadStream(vertx, source, 4);
+
+        rs.close();
+        rs.handler(b -> {});
+
+        Mockito.verify(source).close();
+        Mockito.verifyNoInteractions(vertx);
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
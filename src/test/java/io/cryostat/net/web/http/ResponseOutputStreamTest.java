@@ -0,0 +1,118 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import io.vertx.core.Handler;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ResponseOutputStreamTest {
+
+    @Mock HttpServerResponse response;
+
+    @Test
+    void shouldWriteBuffersToResponse() throws IOException {
+        ResponseOutputStream out = new ResponseOutputStream(response);
+
+        out.write(new byte[] {1, 2, 3, 4}, 1, 2);
+
+        ArgumentCaptor<Buffer> captor = ArgumentCaptor.forClass(Buffer.class);
+        Mockito.verify(response).write(captor.capture());
+        MatcherAssert.assertThat(captor.getValue().getBytes(), Matchers.equalTo(new byte[] {2, 3}));
+    }
+
+    @Test
+    void shouldBlockUntilDrainedWhenQueueFull() throws Exception {
+        Mockito.when(response.writeQueueFull()).thenReturn(true, false);
+        CompletableFuture<Handler<Void>> drainHandler = new CompletableFuture<>();
+        Mockito.when(response.drainHandler(Mockito.any()))
+                .thenAnswer(
+                        invocation -> {
+                            drainHandler.complete(invocation.getArgument(0));
+                            return response;
+                        });
+        ResponseOutputStream out = new ResponseOutputStream(response);
+
+        CompletableFuture<Void> write =
+                CompletableFuture.runAsync(
+                        () -> {
+                            try {
+                                out.write(new byte[] {1});
+                            } catch (IOException e) {
+                                throw new RuntimeException(e);
+                            }
+                        });
+
+        Handler<Void> handler = drainHandler.get(5, TimeUnit.SECONDS);
+        handler.handle(null);
+        write.get(5, TimeUnit.SECONDS);
+        Mockito.verify(response, Mockito.times(2)).writeQueueFull();
+    }
+
+    @Test
+    void shouldThrowIfClientDisconnects() {
+        Mockito.when(response.closed()).thenReturn(true);
+        ResponseOutputStream out = new ResponseOutputStream(response);
+
+        Assertions.assertThrows(IOException.class, () -> out.write(new byte[] {1}));
+        Mockito.verify(response, Mockito.never()).write(Mockito.any(Buffer.class));
+    }
+
+    @Test
+    void shouldEndResponseOnClose() throws IOException {
+        ResponseOutputStream out = new ResponseOutputStream(response);
+        out.close();
+        out.close();
+        Mockito.verify(response, Mockito.times(1)).end();
+        Assertions.assertThrows(IOException.class, () -> out.write(1));
+    }
+}
@@ -40,17 +40,18 @@ package io.cryostat.net.web.http.api.v1;
 import static org.mockito.Mockito.lenient;
 
 import java.io.IOException;
-import java.nio.file.Path;
-import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
-import io.cryostat.core.sys.FileSystem;
 import io.cryostat.messaging.notifications.Notification;
 import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.AuthManager;
 import io.cryostat.net.reports.ReportService;
 import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.storage.ArchiveStorage;
 
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerResponse;
@@ -72,8 +73,8 @@ class RecordingDeleteHandlerTest {
     RecordingDeleteHandler handler;
     @Mock AuthManager auth;
     @Mock ReportService reportService;
-    @Mock FileSystem fs;
-    @Mock Path savedRecordingsPath;
+    @Mock ArchiveStorage storage;
+    @Mock ArchiveIndex archiveIndex;
     @Mock NotificationFactory notificationFactory;
     @Mock Notification notification;
     @Mock Notification.Builder notificationBuilder;
@@ -97,7 +98,7 @@ class RecordingDeleteHandlerTest {
         lenient().when(notificationBuilder.build()).thenReturn(notification);
         this.handler =
                 new RecordingDeleteHandler(
-                        auth, reportService, fs, notificationFactory, savedRecordingsPath);
+                        auth, reportService, storage, notificationFactory, archiveIndex);
     }
 
     @Test
@@ -116,7 +117,7 @@ class RecordingDeleteHandlerTest {
         Mockito.when(auth.validateHttpHeader(Mockito.any()))
                 .thenReturn(CompletableFuture.completedFuture(true));
 
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of());
+        Mockito.when(archiveIndex.get(Mockito.any())).thenReturn(Optional.empty());
 
         HttpStatusException ex =
                 Assertions.assertThrows(HttpStatusException.class, () -> handler.handle(ctx));
@@ -129,18 +130,18 @@ class RecordingDeleteHandlerTest {
                 .thenReturn(CompletableFuture.completedFuture(true));
 
         String recordingName = "someRecording";
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of(recordingName));
+        Mockito.when(archiveIndex.get(recordingName))
+                .thenReturn(Optional.of(new ArchivedRecordingInfo(recordingName, 1, 1, null)));
 
-        Path path = Mockito.mock(Path.class);
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString())).thenReturn(path);
-        Mockito.when(fs.exists(path)).thenReturn(true);
+        Mockito.when(storage.delete(recordingName)).thenReturn(true);
 
         Mockito.when(ctx.response()).thenReturn(resp);
         Mockito.when(ctx.pathParam("recordingName")).thenReturn(recordingName);
 
         handler.handle(ctx);
 
-        Mockito.verify(fs).deleteIfExists(path);
+        Mockito.verify(storage).delete(recordingName);
+        Mockito.verify(archiveIndex).remove(recordingName);
         Mockito.verify(reportService).delete(recordingName);
         Mockito.verify(resp).setStatusCode(200);
         Mockito.verify(resp).end();
@@ -159,12 +160,10 @@ class RecordingDeleteHandlerTest {
                 .thenReturn(CompletableFuture.completedFuture(true));
 
         String recordingName = "someRecording";
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(List.of(recordingName));
+        Mockito.when(archiveIndex.get(recordingName))
+                .thenReturn(Optional.of(new ArchivedRecordingInfo(recordingName, 1, 1, null)));
 
-        Path path = Mockito.mock(Path.class);
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString())).thenReturn(path);
-        Mockito.when(fs.exists(path)).thenReturn(true);
-        Mockito.when(fs.deleteIfExists(path)).thenThrow(IOException.class);
+        Mockito.when(storage.delete(recordingName)).thenThrow(IOException.class);
 
         Mockito.when(ctx.pathParam("recordingName")).thenReturn(recordingName);
 
@@ -37,17 +37,35 @@
  */
 package io.cryostat.net.web.http.api.v1;
 
+import static org.mockito.Mockito.*;
+
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
+import java.util.Optional;
 
 import io.cryostat.net.AuthManager;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.storage.ArchiveStorage;
 
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpHeaders;
 import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 @ExtendWith(MockitoExtension.class)
@@ -55,11 +73,12 @@ class RecordingGetHandlerTest {
 
     RecordingGetHandler handler;
     @Mock AuthManager authManager;
-    @Mock Path savedRecordingsPath;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock ArchiveStorage storage;
 
     @BeforeEach
     void setup() {
-        this.handler = new RecordingGetHandler(authManager, savedRecordingsPath);
+        this.handler = new RecordingGetHandler(authManager, archiveIndex, storage);
     }
 
     @Test
@@ -72,4 +91,192 @@ class RecordingGetHandlerTest {
         MatcherAssert.assertThat(
                 handler.path(), Matchers.equalTo("/api/v1/recordings/:recordingName"));
     }
+
+    @Test
+    void shouldBeAsync() {
+        Assertions.assertTrue(handler.isAsync());
+    }
+
+    @Test
+    void shouldRespond404IfRecordingDoesNotExist() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        when(archiveIndex.get("foo.jfr")).thenReturn(Optional.empty());
+
+        handler.handleAuthenticated(ctx);
+
+        verify(ctx.response()).setStatusCode(404);
+        verify(ctx.response()).end();
+        verify(ctx.response(), never())
+                .sendFile(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong(), Mockito.any());
+    }
+
+    @Test
+    void shouldSendFileWithCachingHeaders() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        mockIndexed("foo.jfr", "/recordings/foo.jfr", 0x1234L, 0xabcdL);
+
+        handler.handleAuthenticated(ctx);
+
+        verify(ctx.response()).putHeader(HttpHeaders.ETAG, "\"abcd-1234\"");
+        verify(ctx.response()).putHeader(HttpHeaders.LAST_MODIFIED, "Thu, 1 Jan 1970 00:00:43 GMT");
+        verify(ctx.response())
+                .sendFile(
+                        Mockito.eq("/recordings/foo.jfr"),
+                        Mockito.eq(0L),
+                        Mockito.eq(0x1234L),
+                        Mockito.any());
+    }
+
+    @Test
+    void shouldNotLocateFileOnEventLoop() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        mockIndexed("foo.jfr", "/recordings/foo.jfr", 10L, 20L);
+        Vertx vertx = mock(Vertx.class);
+        when(ctx.vertx()).thenReturn(vertx);
+
+        handler.handleAuthenticated(ctx);
+
+        verify(vertx).executeBlocking(Mockito.any(Handler.class), Mockito.eq(false), Mockito.any());
+        verify(storage, never()).directPath(Mockito.anyString());
+    }
+
+    @Test
+    void shouldRespond304IfNotModifiedSince() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        mockIndexed("foo.jfr", "/recordings/foo.jfr", 10L, 43_500L);
+        when(ctx.request().getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(null);
+        when(ctx.request().getHeader(HttpHeaders.IF_MODIFIED_SINCE))
+                .thenReturn("Thu, 1 Jan 1970 00:00:43 GMT");
+
+        handler.handleAuthenticated(ctx);
+
+        verify(ctx.response()).setStatusCode(304);
+        verify(ctx.response()).end();
+    }
+
+    @Test
+    void shouldIgnoreMalformedIfModifiedSince() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        mockIndexed("foo.jfr", "/recordings/foo.jfr", 10L, 20L);
+        when(ctx.request().getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn(null);
+        when(ctx.request().getHeader(HttpHeaders.IF_MODIFIED_SINCE)).thenReturn("yesterday");
+
+        handler.handleAuthenticated(ctx);
+
+        verify(ctx.response(), never()).setStatusCode(304);
+        verify(ctx.response())
+                .sendFile(
+                        Mockito.eq("/recordings/foo.jfr"),
+                        Mockito.eq(0L),
+                        Mockito.eq(10L),
+                        Mockito.any());
+    }
+
+    @Test
+    void shouldSendDigestHeaderIfDigestKnown() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        String digest = "e3b0c44298fc1c149afbf4c8996fb92427ae41e4649b934ca495991b7852b855";
+        when(archiveIndex.get("foo.jfr"))
+                .thenReturn(Optional.of(new ArchivedRecordingInfo("foo.jfr", 0L, 20L, digest)));
+        when(storage.directPath("foo.jfr")).thenReturn(Optional.of(Path.of("/recordings/foo.jfr")));
+
+        handler.handleAuthenticated(ctx);
+
+        verify(ctx.response())
+                .putHeader("Digest", "sha-256=47DEQpj8HBSa+/TImW+5JCeuQeRkm5NMpJWZG3hSuFU=");
+    }
+
+    @Test
+    void shouldNotSendDigestHeaderIfDigestUnknown() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        mockIndexed("foo.jfr", "/recordings/foo.jfr", 10L, 20L);
+
+        handler.handleAuthenticated(ctx);
+
+        verify(ctx.response(), never()).putHeader(Mockito.eq("Digest"), Mockito.anyString());
+    }
+
+    @Test
+    void shouldRespond404IfFileVanishedBeforeSending() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        mockIndexed("foo.jfr", "/recordings/foo.jfr", 10L, 20L);
+        HttpServerResponse resp = ctx.response();
+        doAnswer(
+                        invocation -> {
+                            Handler<AsyncResult<Void>> h = invocation.getArgument(3);
+                            h.handle(Future.failedFuture("no such file"));
+                            return resp;
+                        })
+                .when(resp)
+                .sendFile(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong(), Mockito.any());
+
+        handler.handleAuthenticated(ctx);
+
+        verify(resp).setStatusCode(404);
+        verify(resp).end();
+    }
+
+    @Test
+    void shouldRespond404IfRemoteObjectVanishedBeforeSending() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        when(archiveIndex.get("foo.jfr"))
+                .thenReturn(Optional.of(new ArchivedRecordingInfo("foo.jfr", 10L, 20L, null)));
+        when(storage.directPath("foo.jfr")).thenReturn(Optional.empty());
+        when(storage.get("foo.jfr", 0, -1)).thenThrow(new NoSuchFileException("foo.jfr"));
+
+        handler.handleAuthenticated(ctx);
+
+        verify(ctx.response()).setStatusCode(404);
+        verify(ctx.response()).end();
+        verify(ctx.response(), never())
+                .sendFile(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong(), Mockito.any());
+    }
+
+    @Test
+    void shouldRespond304IfETagMatches() throws Exception {
+        RoutingContext ctx = mockContext("foo.jfr");
+        mockIndexed("foo.jfr", "/recordings/foo.jfr", 10L, 20L);
+        when(ctx.request().getHeader(HttpHeaders.IF_NONE_MATCH)).thenReturn("\"14-a\"");
+
+        handler.handleAuthenticated(ctx);
+
+        verify(ctx.response()).setStatusCode(304);
+        verify(ctx.response()).end();
+        verify(ctx.response(), never())
+                .sendFile(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong(), Mockito.any());
+    }
+
+    private RoutingContext mockContext(String recordingName) {
+        RoutingContext ctx = mock(RoutingContext.class);
+        when(ctx.pathParam("recordingName")).thenReturn(recordingName);
+
+        HttpServerRequest req = mock(HttpServerRequest.class);
+        lenient().when(ctx.request()).thenReturn(req);
+        HttpServerResponse resp = mock(HttpServerResponse.class);
+        lenient().when(ctx.response()).thenReturn(resp);
+        lenient()
+                .when(resp.putHeader(Mockito.any(CharSequence.class), Mockito.anyString()))
+                .thenReturn(resp);
+        Vertx vertx = mock(Vertx.class);
+        lenient().when(ctx.vertx()).thenReturn(vertx);
+        lenient()
+                .doAnswer(
+                        invocation -> {
+                            Promise<Object> promise = Promise.promise();
+                            ((Handler<Promise<Object>>) invocation.getArgument(0)).handle(promise);
+                            ((Handler<AsyncResult<Object>>) invocation.getArgument(2))
+                                    .handle(promise.future());
+                            return null;
+                        })
+                .when(vertx)
+                .executeBlocking(Mockito.any(Handler.class), Mockito.eq(false), Mockito.any());
+        return ctx;
+    }
+
+    private void mockIndexed(String name, String resolvedPath, long size, long lastModified)
+            throws Exception {
+        when(archiveIndex.get(name))
+                .thenReturn(Optional.of(new ArchivedRecordingInfo(name, size, lastModified, null)));
+        lenient().when(storage.directPath(name)).thenReturn(Optional.of(Path.of(resolvedPath)));
+    }
 }
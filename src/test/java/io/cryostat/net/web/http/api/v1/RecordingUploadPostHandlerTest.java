@@ -38,11 +38,13 @@
 package io.cryostat.net.web.http.api.v1;
 
 import java.nio.file.Path;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 import io.cryostat.core.sys.Environment;
-import io.cryostat.core.sys.FileSystem;
 import io.cryostat.net.AuthManager;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.storage.StoredObject;
 
 import io.vertx.core.AsyncResult;
 import io.vertx.core.Handler;
@@ -77,8 +79,7 @@ class RecordingUploadPostHandlerTest {
     @Mock AuthManager auth;
     @Mock Environment env;
     @Mock WebClient webClient;
-    @Mock FileSystem fs;
-    @Mock Path savedRecordingsPath;
+    @Mock ArchiveStorage storage;
 
     @Mock RoutingContext ctx;
 
@@ -86,8 +87,7 @@ class RecordingUploadPostHandlerTest {
 
     @BeforeEach
     void setup() {
-        this.handler =
-                new RecordingUploadPostHandler(auth, env, webClient, fs, savedRecordingsPath);
+        this.handler = new RecordingUploadPostHandler(auth, env, webClient, storage);
     }
 
     @Test
@@ -129,7 +129,7 @@ class RecordingUploadPostHandlerTest {
         Mockito.when(auth.validateHttpHeader(Mockito.any()))
                 .thenReturn(CompletableFuture.completedFuture(true));
         Mockito.when(env.getEnv("GRAFANA_DATASOURCE_URL")).thenReturn(DATASOURCE_URL);
-        Mockito.when(fs.isRegularFile(Mockito.any())).thenReturn(false);
+        Mockito.when(storage.stat(Mockito.any())).thenReturn(Optional.empty());
 
         HttpStatusException ex =
                 Assertions.assertThrows(HttpStatusException.class, () -> handler.handle(ctx));
@@ -144,10 +144,9 @@ class RecordingUploadPostHandlerTest {
 
         Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo");
 
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString()))
-                .thenReturn(Mockito.mock(Path.class));
-        Mockito.when(fs.isRegularFile(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
+        Mockito.when(storage.stat("foo")).thenReturn(Optional.of(new StoredObject("foo", 1, 1)));
+        Mockito.when(storage.localFile("foo"))
+                .thenReturn(new ArchiveStorage.LocalFile(Path.of("/flightrecordings/foo"), false));
 
         HttpRequest<Buffer> httpReq = Mockito.mock(HttpRequest.class);
         HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
@@ -194,10 +193,9 @@ class RecordingUploadPostHandlerTest {
 
         Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo");
 
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString()))
-                .thenReturn(Mockito.mock(Path.class));
-        Mockito.when(fs.isRegularFile(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
+        Mockito.when(storage.stat("foo")).thenReturn(Optional.of(new StoredObject("foo", 1, 1)));
+        Mockito.when(storage.localFile("foo"))
+                .thenReturn(new ArchiveStorage.LocalFile(Path.of("/flightrecordings/foo"), false));
 
         HttpRequest<Buffer> httpReq = Mockito.mock(HttpRequest.class);
         HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
@@ -244,10 +242,9 @@ class RecordingUploadPostHandlerTest {
 
         Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo");
 
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString()))
-                .thenReturn(Mockito.mock(Path.class));
-        Mockito.when(fs.isRegularFile(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
+        Mockito.when(storage.stat("foo")).thenReturn(Optional.of(new StoredObject("foo", 1, 1)));
+        Mockito.when(storage.localFile("foo"))
+                .thenReturn(new ArchiveStorage.LocalFile(Path.of("/flightrecordings/foo"), false));
 
         HttpRequest<Buffer> httpReq = Mockito.mock(HttpRequest.class);
         HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
@@ -294,10 +291,9 @@ class RecordingUploadPostHandlerTest {
 
         Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo");
 
-        Mockito.when(savedRecordingsPath.resolve(Mockito.anyString()))
-                .thenReturn(Mockito.mock(Path.class));
-        Mockito.when(fs.isRegularFile(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
+        Mockito.when(storage.stat("foo")).thenReturn(Optional.of(new StoredObject("foo", 1, 1)));
+        Mockito.when(storage.localFile("foo"))
+                .thenReturn(new ArchiveStorage.LocalFile(Path.of("/flightrecordings/foo"), false));
 
         HttpRequest<Buffer> httpReq = Mockito.mock(HttpRequest.class);
         HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
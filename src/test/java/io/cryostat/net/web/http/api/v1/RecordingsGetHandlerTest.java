@@ -47,6 +47,9 @@ import io.cryostat.core.log.Logger;
 import io.cryostat.core.sys.FileSystem;
 import io.cryostat.net.AuthManager;
 import io.cryostat.net.web.WebServer;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.storage.LocalArchiveStorage;
 
 import com.google.gson.Gson;
 import io.vertx.core.http.HttpMethod;
@@ -73,6 +76,7 @@ class RecordingsGetHandlerTest {
     @Mock AuthManager auth;
     @Mock Path savedRecordingsPath;
     @Mock FileSystem fs;
+    @Mock ArchiveIndex archiveIndex;
     @Mock WebServer webServer;
     @Mock Logger logger;
     Gson gson = MainModule.provideGson(logger);
@@ -81,7 +85,12 @@ class RecordingsGetHandlerTest {
     void setup() {
         this.handler =
                 new RecordingsGetHandler(
-                        auth, savedRecordingsPath, fs, () -> webServer, gson, logger);
+                        auth,
+                        new LocalArchiveStorage(savedRecordingsPath, fs),
+                        archiveIndex,
+                        () -> webServer,
+                        gson,
+                        logger);
     }
 
     @Test
@@ -133,18 +142,6 @@ class RecordingsGetHandlerTest {
         MatcherAssert.assertThat(httpEx.getStatusCode(), Matchers.equalTo(501));
     }
 
-    @Test
-    void shouldRespondWithInternalErrorIfExceptionThrown() throws IOException {
-        RoutingContext ctx = Mockito.mock(RoutingContext.class);
-
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.isDirectory(Mockito.any())).thenReturn(true);
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenThrow(IOException.class);
-
-        Assertions.assertThrows(IOException.class, () -> handler.handleAuthenticated(ctx));
-    }
-
     @Test
     void shouldRespondWithListOfRecordings() throws Exception {
         RoutingContext ctx = Mockito.mock(RoutingContext.class);
@@ -154,8 +151,11 @@ class RecordingsGetHandlerTest {
         Mockito.when(fs.exists(Mockito.any())).thenReturn(true);
         Mockito.when(fs.isReadable(Mockito.any())).thenReturn(true);
         Mockito.when(fs.isDirectory(Mockito.any())).thenReturn(true);
-        List<String> names = List.of("recordingA", "123recording");
-        Mockito.when(fs.listDirectoryChildren(Mockito.any())).thenReturn(names);
+        Mockito.when(archiveIndex.list())
+                .thenReturn(
+                        List.of(
+                                new ArchivedRecordingInfo("recordingA", 10, 1000, null),
+                                new ArchivedRecordingInfo("123recording", 20, 2000, null)));
 
         Mockito.when(webServer.getArchivedReportURL(Mockito.anyString()))
                 .thenAnswer(
@@ -41,35 +41,49 @@ import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.*;
 import static org.mockito.Mockito.lenient;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
 
+import org.openjdk.jmc.flightrecorder.CouldNotLoadRecordingException;
+
 import io.cryostat.MainModule;
 import io.cryostat.core.log.Logger;
-import io.cryostat.core.sys.FileSystem;
+import io.cryostat.core.sys.Environment;
 import io.cryostat.messaging.notifications.Notification;
 import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.AuthManager;
 import io.cryostat.net.HttpServer;
 import io.cryostat.net.web.http.HttpMimeType;
 import io.cryostat.net.web.http.RequestHandler;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.storage.StoredObject;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
+import io.vertx.core.Promise;
 import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.file.AsyncFile;
+import io.vertx.core.file.OpenOptions;
 import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpServerFileUpload;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
-import io.vertx.ext.web.FileUpload;
 import io.vertx.ext.web.RoutingContext;
+import io.vertx.ext.web.handler.impl.HttpStatusException;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.Mockito;
@@ -78,17 +92,27 @@ import org.mockito.junit.jupiter.MockitoExtension;
 @ExtendWith(MockitoExtension.class)
 class RecordingsPostHandlerTest {
 
+    static final String SAVE_PATH = "/some/path/";
+
     RecordingsPostHandler handler;
     @Mock AuthManager authManager;
     @Mock HttpServer httpServer;
     @Mock Vertx vertx;
-    @Mock FileSystem cryoFs;
-    @Mock Path recordingsPath;
+    @Mock io.vertx.core.file.FileSystem vertxFs;
+    @Mock ArchiveStorage storage;
+    @Mock Environment env;
+    @Mock ArchiveIndex archiveIndex;
     @Mock Logger logger;
     @Mock NotificationFactory notificationFactory;
     @Mock Notification notification;
     @Mock Notification.Builder notificationBuilder;
 
+    @Mock RoutingContext ctx;
+    @Mock HttpServerRequest req;
+    @Mock HttpServerResponse rep;
+    @Mock HttpServerFileUpload upload;
+    @Mock AsyncFile file;
+
     @BeforeEach
     void setup() {
         lenient().when(notificationFactory.createBuilder()).thenReturn(notificationBuilder);
@@ -108,8 +132,9 @@ class RecordingsPostHandlerTest {
                 new RecordingsPostHandler(
                         authManager,
                         httpServer,
-                        cryoFs,
-                        recordingsPath,
+                        storage,
+                        env,
+                        archiveIndex,
                         MainModule.provideGson(logger),
                         logger,
                         notificationFactory);
@@ -122,141 +147,278 @@ class RecordingsPostHandlerTest {
     }
 
     @Test
-    void shouldHandleRecordingUploadRequest() throws Exception {
-        String basename = "localhost_test_20191219T213834Z";
-        String filename = basename + ".jfr";
-        String savePath = "/some/path/";
-
-        RoutingContext ctx = mock(RoutingContext.class);
+    void shouldConsumeRequestBodyAsynchronously() {
+        MatcherAssert.assertThat(handler.isAsync(), Matchers.is(true));
+    }
 
+    @Test
+    void shouldRespond503IfArchiveUnavailable() throws Exception {
         when(authManager.validateHttpHeader(any()))
                 .thenReturn(CompletableFuture.completedFuture(true));
-        HttpServerRequest req = mock(HttpServerRequest.class);
         when(ctx.request()).thenReturn(req);
+        doThrow(new IOException("unavailable")).when(storage).checkAvailable();
+
+        HttpStatusException ex =
+                org.junit.jupiter.api.Assertions.assertThrows(
+                        HttpStatusException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(503));
+        verify(req, never()).setExpectMultipart(true);
+    }
+
+    @Test
+    void shouldFailIfNoRecordingSubmitted() throws Exception {
+        Handlers handlers = mockRequest();
+
+        handler.handle(ctx);
+        handlers.requestEnd.getValue().handle(null);
 
-        when(cryoFs.isDirectory(recordingsPath)).thenReturn(true);
+        assertFailedWith(400);
+    }
 
-        Set<FileUpload> uploads = new HashSet<>();
-        FileUpload upload = mock(FileUpload.class);
-        uploads.add(upload);
-        when(ctx.fileUploads()).thenReturn(uploads);
+    @Test
+    void shouldRejectIncorrectFileNamePattern() throws Exception {
+        Handlers handlers = mockRequest();
         when(upload.name()).thenReturn("recording");
-        when(upload.fileName()).thenReturn(filename);
-        when(upload.uploadedFileName()).thenReturn("foo");
+        when(upload.filename()).thenReturn("not a recording name.jfr");
+
+        handler.handle(ctx);
+        handlers.upload.getValue().handle(upload);
+
+        assertFailedWith(400);
+        verify(vertx, never()).fileSystem();
+    }
+
+    @Test
+    void shouldStreamRecordingToArchive() throws Exception {
+        String filename = "localhost_test_20191219T213834Z.jfr";
+        Handlers handlers = mockRequest();
+        mockUpload(filename);
+        ArgumentCaptor<String> tmpCaptor = mockOpen();
+        mockClose();
+        mockExecuteBlocking();
+        StoredObject stored = new StoredObject(filename, 1_000L, 1234L);
+        when(storage.putFile(Mockito.eq(filename), any(Path.class))).thenReturn(stored);
+        when(ctx.response()).thenReturn(rep);
+        when(rep.putHeader(Mockito.any(CharSequence.class), Mockito.anyString())).thenReturn(rep);
+
+        handler.handle(ctx);
+        handlers.upload.getValue().handle(upload);
+        Handler<Buffer> data = captureDataHandler();
+        byte[] recording = chunk(1_000L, "payload-data");
+        // deliver the chunk split across buffers to exercise incremental header parsing
+        data.handle(Buffer.buffer().appendBytes(recording, 0, 10));
+        data.handle(Buffer.buffer().appendBytes(recording, 10, recording.length - 10));
+        captureEndHandler().handle(null);
+
+        MatcherAssert.assertThat(
+                tmpCaptor.getValue(),
+                Matchers.startsWith(SAVE_PATH + RecordingsPostHandler.UPLOAD_FILE_PREFIX));
+        verify(file, times(2)).write(any(Buffer.class));
+        verify(storage).putFile(filename, Path.of(tmpCaptor.getValue()));
+        // only the commit to storage runs off the event loop, since full validation is disabled
+        verify(vertx, times(1)).executeBlocking(any(Handler.class), any(Handler.class));
+        verify(archiveIndex).put(stored, DigestUtils.sha256Hex(recording));
+
+        InOrder inOrder = Mockito.inOrder(rep);
+        inOrder.verify(rep).putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.JSON.mime());
+        inOrder.verify(rep).end("{\"name\":\"" + filename + "\"}");
+
+        Mockito.verify(notificationFactory).createBuilder();
+        Mockito.verify(notificationBuilder).metaCategory("RecordingSaved");
+        Mockito.verify(notificationBuilder).metaType(HttpMimeType.JSON);
+        Mockito.verify(notificationBuilder).message(Map.of("recording", filename));
+        Mockito.verify(notificationBuilder).build();
+        Mockito.verify(notification).send();
+    }
+
+    @Test
+    void shouldRenameIfNameAlreadyTaken() throws Exception {
+        String basename = "localhost_test_20191219T213834Z";
+        Handlers handlers = mockRequest();
+        mockUpload(basename + ".jfr");
+        mockOpen();
+        mockClose();
+        mockExecuteBlocking();
+        when(archiveIndex.contains(Mockito.anyString())).thenReturn(false);
+        when(archiveIndex.contains(basename + ".2.jfr")).thenReturn(true);
+        // an object which has not been indexed yet still causes the commit to fail
+        when(storage.putFile(Mockito.eq(basename + ".jfr"), any(Path.class)))
+                .thenThrow(new FileAlreadyExistsException(basename + ".jfr"));
+        StoredObject stored = new StoredObject(basename + ".3.jfr", 1_000L, 1234L);
+        when(storage.putFile(Mockito.eq(basename + ".3.jfr"), any(Path.class))).thenReturn(stored);
+        when(ctx.response()).thenReturn(rep);
+        when(rep.putHeader(Mockito.any(CharSequence.class), Mockito.anyString())).thenReturn(rep);
+
+        handler.handle(ctx);
+        handlers.upload.getValue().handle(upload);
+        captureDataHandler().handle(Buffer.buffer(chunk(1_000L, "payload-data")));
+        captureEndHandler().handle(null);
+
+        verify(storage, never()).putFile(Mockito.eq(basename + ".2.jfr"), any(Path.class));
+        verify(archiveIndex).put(Mockito.eq(stored), Mockito.anyString());
+        verify(rep).end("{\"name\":\"" + basename + ".3.jfr\"}");
+    }
+
+    @Test
+    void shouldRejectNonJfrDataAsItArrives() throws Exception {
+        Handlers handlers = mockRequest();
+        mockUpload("localhost_test_20191219T213834Z.jfr");
+        ArgumentCaptor<String> tmpCaptor = mockOpen();
+        mockClose();
+
+        handler.handle(ctx);
+        handlers.upload.getValue().handle(upload);
+        captureDataHandler().handle(Buffer.buffer(new byte[128]));
 
-        Path filePath = mock(Path.class);
-        when(filePath.toString()).thenReturn(savePath + filename);
-        when(recordingsPath.resolve(filename)).thenReturn(filePath);
+        assertFailedWith(400);
+        verify(file, never()).write(any(Buffer.class));
+        verify(vertxFs).delete(Mockito.eq(tmpCaptor.getValue()), any(Handler.class));
+    }
 
-        io.vertx.core.file.FileSystem vertxFs = mock(io.vertx.core.file.FileSystem.class);
-        when(vertx.fileSystem()).thenReturn(vertxFs);
+    @Test
+    void shouldRejectTruncatedRecording() throws Exception {
+        Handlers handlers = mockRequest();
+        mockUpload("localhost_test_20191219T213834Z.jfr");
+        ArgumentCaptor<String> tmpCaptor = mockOpen();
+        mockClose();
 
+        handler.handle(ctx);
+        handlers.upload.getValue().handle(upload);
+        byte[] recording = chunk(1_000L, "payload-data");
+        captureDataHandler()
+                .handle(Buffer.buffer().appendBytes(recording, 0, recording.length - 1));
+        captureEndHandler().handle(null);
+
+        assertFailedWith(400);
+        verify(vertxFs).delete(Mockito.eq(tmpCaptor.getValue()), any(Handler.class));
+        verify(storage, never()).putFile(Mockito.anyString(), any(Path.class));
+    }
+
+    @Test
+    void shouldFullyParseRecordingIfConfigured() throws Exception {
+        Handlers handlers = mockRequest();
+        mockUpload("localhost_test_20191219T213834Z.jfr");
+        ArgumentCaptor<String> tmpCaptor = mockOpen();
+        mockClose();
+        when(env.hasEnv(RecordingsPostHandler.FULL_VALIDATION_ENV)).thenReturn(true);
         doAnswer(
                         invocation -> {
-                            Handler<AsyncResult<Boolean>> handler = invocation.getArgument(1);
-                            handler.handle(
-                                    new AsyncResult<>() {
-                                        @Override
-                                        public Boolean result() {
-                                            return false;
-                                        }
-
-                                        @Override
-                                        public Throwable cause() {
-                                            return null;
-                                        }
-
-                                        @Override
-                                        public boolean succeeded() {
-                                            return true;
-                                        }
-
-                                        @Override
-                                        public boolean failed() {
-                                            return false;
-                                        }
-                                    });
-
+                            ((Handler<AsyncResult<Void>>) invocation.getArgument(1))
+                                    .handle(
+                                            Future.failedFuture(
+                                                    new CouldNotLoadRecordingException("bad")));
                             return null;
                         })
                 .when(vertx)
                 .executeBlocking(any(Handler.class), any(Handler.class));
 
-        when(vertxFs.exists(Mockito.eq(savePath + filename), any(Handler.class)))
-                .thenAnswer(
-                        invocation -> {
-                            Handler<AsyncResult<Boolean>> handler = invocation.getArgument(1);
-                            handler.handle(
-                                    new AsyncResult<>() {
-                                        @Override
-                                        public Boolean result() {
-                                            return false;
-                                        }
-
-                                        @Override
-                                        public Throwable cause() {
-                                            return null;
-                                        }
-
-                                        @Override
-                                        public boolean succeeded() {
-                                            return true;
-                                        }
-
-                                        @Override
-                                        public boolean failed() {
-                                            return false;
-                                        }
-                                    });
+        handler.handle(ctx);
+        handlers.upload.getValue().handle(upload);
+        captureDataHandler().handle(Buffer.buffer(chunk(1_000L, "payload-data")));
+        captureEndHandler().handle(null);
+
+        assertFailedWith(400);
+        verify(vertxFs).delete(Mockito.eq(tmpCaptor.getValue()), any(Handler.class));
+        verify(storage, never()).putFile(Mockito.anyString(), any(Path.class));
+    }
+
+    private Handlers mockRequest() throws IOException {
+        when(authManager.validateHttpHeader(any()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        when(ctx.request()).thenReturn(req);
+        when(storage.stagingDirectory()).thenReturn(Path.of(SAVE_PATH));
+        Handlers handlers = new Handlers();
+        when(req.uploadHandler(handlers.upload.capture())).thenReturn(req);
+        when(req.endHandler(handlers.requestEnd.capture())).thenReturn(req);
+        return handlers;
+    }
+
+    private void mockUpload(String filename) {
+        when(upload.name()).thenReturn("recording");
+        when(upload.filename()).thenReturn(filename);
+        lenient().when(vertx.fileSystem()).thenReturn(vertxFs);
+    }
 
+    private void mockExecuteBlocking() {
+        doAnswer(
+                        invocation -> {
+                            Promise<Object> promise = Promise.promise();
+                            ((Handler<Promise<Object>>) invocation.getArgument(0)).handle(promise);
+                            ((Handler<AsyncResult<Object>>) invocation.getArgument(1))
+                                    .handle(promise.future());
                             return null;
-                        });
+                        })
+                .when(vertx)
+                .executeBlocking(any(Handler.class), any(Handler.class));
+    }
 
-        when(vertxFs.move(Mockito.eq("foo"), Mockito.eq(savePath + filename), any(Handler.class)))
+    private ArgumentCaptor<String> mockOpen() {
+        ArgumentCaptor<String> tmpCaptor = ArgumentCaptor.forClass(String.class);
+        when(vertxFs.open(tmpCaptor.capture(), any(OpenOptions.class), any(Handler.class)))
                 .thenAnswer(
                         invocation -> {
-                            Handler<AsyncResult<Boolean>> handler = invocation.getArgument(2);
-                            handler.handle(
-                                    new AsyncResult<>() {
-                                        @Override
-                                        public Boolean result() {
-                                            return true;
-                                        }
-
-                                        @Override
-                                        public Throwable cause() {
-                                            return null;
-                                        }
-
-                                        @Override
-                                        public boolean succeeded() {
-                                            return true;
-                                        }
-
-                                        @Override
-                                        public boolean failed() {
-                                            return false;
-                                        }
-                                    });
+                            ((Handler<AsyncResult<AsyncFile>>) invocation.getArgument(2))
+                                    .handle(Future.succeededFuture(file));
+                            return vertxFs;
+                        });
+        return tmpCaptor;
+    }
 
+    private void mockClose() {
+        lenient()
+                .doAnswer(
+                        invocation -> {
+                            ((Handler<AsyncResult<Void>>) invocation.getArgument(0))
+                                    .handle(Future.succeededFuture());
                             return null;
-                        });
+                        })
+                .when(file)
+                .close(any(Handler.class));
+    }
 
-        HttpServerResponse rep = mock(HttpServerResponse.class);
-        when(ctx.response()).thenReturn(rep);
-        when(rep.putHeader(Mockito.any(CharSequence.class), Mockito.anyString())).thenReturn(rep);
+    private Handler<Buffer> captureDataHandler() {
+        ArgumentCaptor<Handler<Buffer>> captor = ArgumentCaptor.forClass(Handler.class);
+        verify(upload, atLeastOnce()).handler(captor.capture());
+        return captor.getAllValues().get(0);
+    }
 
-        handler.handle(ctx);
+    private Handler<Void> captureEndHandler() {
+        ArgumentCaptor<Handler<Void>> captor = ArgumentCaptor.forClass(Handler.class);
+        verify(upload, atLeastOnce()).endHandler(captor.capture());
+        return captor.getAllValues().get(0);
+    }
 
-        InOrder inOrder = Mockito.inOrder(rep);
-        inOrder.verify(rep).putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.JSON.mime());
-        inOrder.verify(rep).end("{\"name\":\"" + filename + "\"}");
+    private void assertFailedWith(int statusCode) {
+        ArgumentCaptor<Throwable> captor = ArgumentCaptor.forClass(Throwable.class);
+        verify(ctx).fail(captor.capture());
+        MatcherAssert.assertThat(captor.getValue(), Matchers.instanceOf(HttpStatusException.class));
+        MatcherAssert.assertThat(
+                ((HttpStatusException) captor.getValue()).getStatusCode(),
+                Matchers.equalTo(statusCode));
+    }
 
-        Mockito.verify(notificationFactory).createBuilder();
-        Mockito.verify(notificationBuilder).metaCategory("RecordingSaved");
-        Mockito.verify(notificationBuilder).metaType(HttpMimeType.JSON);
-        Mockito.verify(notificationBuilder).message(Map.of("recording", filename));
-        Mockito.verify(notificationBuilder).build();
-        Mockito.verify(notification).send();
+    static byte[] chunk(long startNanos, String payload) {
+        byte[] body = payload.getBytes();
+        int size = 68 + body.length;
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        buf.put(new byte[] {'F', 'L', 'R', 0});
+        buf.putShort((short) 2);
+        buf.putShort((short) 0);
+        buf.putLong(size);
+        buf.putLong(68L);
+        buf.putLong(68L);
+        buf.putLong(startNanos);
+        buf.putLong(1_000L);
+        buf.putLong(0L);
+        buf.putLong(1_000_000_000L);
+        buf.putInt(0);
+        buf.put(body);
+        return buf.array();
+    }
+
+    static class Handlers {
+        ArgumentCaptor<Handler<HttpServerFileUpload>> upload =
+                ArgumentCaptor.forClass(Handler.class);
+        ArgumentCaptor<Handler<Void>> requestEnd = ArgumentCaptor.forClass(Handler.class);
     }
 }
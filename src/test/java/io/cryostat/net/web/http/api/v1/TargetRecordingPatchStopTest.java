@@ -38,13 +38,17 @@
 package io.cryostat.net.web.http.api.v1;
 
 import java.util.List;
+import java.util.Map;
 
 import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
 import io.cryostat.core.net.JFRConnection;
+import io.cryostat.messaging.notifications.Notification;
+import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.ConnectionDescriptor;
 import io.cryostat.net.TargetConnectionManager;
+import io.cryostat.net.web.http.HttpMimeType;
 
 import io.vertx.core.http.HttpServerResponse;
 import io.vertx.ext.web.RoutingContext;
@@ -71,10 +75,24 @@ class TargetRecordingPatchStopTest {
     @Mock HttpServerResponse resp;
     @Mock JFRConnection connection;
     @Mock IFlightRecorderService service;
+    @Mock NotificationFactory notificationFactory;
+    @Mock Notification notification;
+    @Mock Notification.Builder notificationBuilder;
 
     @BeforeEach
     void setup() {
-        this.patchStop = new TargetRecordingPatchStop(targetConnectionManager);
+        Mockito.lenient().when(notificationFactory.createBuilder()).thenReturn(notificationBuilder);
+        Mockito.lenient()
+                .when(notificationBuilder.metaCategory(Mockito.any()))
+                .thenReturn(notificationBuilder);
+        Mockito.lenient()
+                .when(notificationBuilder.metaType(Mockito.any(HttpMimeType.class)))
+                .thenReturn(notificationBuilder);
+        Mockito.lenient()
+                .when(notificationBuilder.message(Mockito.any()))
+                .thenReturn(notificationBuilder);
+        Mockito.lenient().when(notificationBuilder.build()).thenReturn(notification);
+        this.patchStop = new TargetRecordingPatchStop(targetConnectionManager, notificationFactory);
     }
 
     @Test
@@ -99,6 +117,7 @@ class TargetRecordingPatchStopTest {
                         HttpStatusException.class,
                         () -> patchStop.handle(ctx, new ConnectionDescriptor("fooTarget")));
         MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(404));
+        Mockito.verifyNoInteractions(notificationFactory);
     }
 
     @Test
@@ -127,5 +146,11 @@ class TargetRecordingPatchStopTest {
         InOrder inOrder = Mockito.inOrder(resp);
         inOrder.verify(resp).setStatusCode(200);
         inOrder.verify(resp).end();
+
+        Mockito.verify(notificationBuilder).metaCategory("RecordingStopped");
+        Mockito.verify(notificationBuilder).metaType(HttpMimeType.JSON);
+        Mockito.verify(notificationBuilder)
+                .message(Map.of("recording", "someRecording", "target", "fooTarget"));
+        Mockito.verify(notification).send();
     }
 }
@@ -37,7 +37,10 @@
  */
 package io.cryostat.net.web.http.api.v1;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -47,19 +50,22 @@ import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
 import io.cryostat.core.net.JFRConnection;
 import io.cryostat.core.sys.Environment;
-import io.cryostat.core.sys.FileSystem;
 import io.cryostat.net.AuthManager;
 import io.cryostat.net.ConnectionDescriptor;
 import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.net.reports.ReportService;
 
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Future;
 import io.vertx.core.Handler;
 import io.vertx.core.MultiMap;
+import io.vertx.core.Promise;
+import io.vertx.core.Vertx;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.http.HttpMethod;
 import io.vertx.core.http.HttpServerRequest;
 import io.vertx.core.http.HttpServerResponse;
+import io.vertx.core.streams.ReadStream;
 import io.vertx.ext.web.RoutingContext;
 import io.vertx.ext.web.client.HttpRequest;
 import io.vertx.ext.web.client.HttpResponse;
@@ -89,7 +95,6 @@ class TargetRecordingUploadPostHandlerTest {
     @Mock Environment env;
     @Mock TargetConnectionManager targetConnectionManager;
     @Mock WebClient webClient;
-    @Mock FileSystem fs;
 
     @Mock RoutingContext ctx;
     @Mock HttpServerRequest req;
@@ -101,8 +106,7 @@ class TargetRecordingUploadPostHandlerTest {
     @BeforeEach
     void setup() {
         this.handler =
-                new TargetRecordingUploadPostHandler(
-                        auth, env, targetConnectionManager, webClient, fs);
+                new TargetRecordingUploadPostHandler(auth, env, targetConnectionManager, webClient);
     }
 
     @Test
@@ -199,6 +203,8 @@ class TargetRecordingUploadPostHandlerTest {
         HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
         Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(httpReq);
         Mockito.when(httpReq.timeout(Mockito.anyLong())).thenReturn(httpReq);
+        Mockito.when(httpReq.putHeader(Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(httpReq);
         Mockito.doAnswer(
                         new Answer<Void>() {
                             @Override
@@ -215,7 +221,7 @@ class TargetRecordingUploadPostHandlerTest {
                             }
                         })
                 .when(httpReq)
-                .sendMultipartForm(Mockito.any(), Mockito.any());
+                .sendStream(Mockito.any(), Mockito.any());
 
         Mockito.when(ctx.request()).thenReturn(req);
         Mockito.when(req.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
@@ -233,6 +239,184 @@ class TargetRecordingUploadPostHandlerTest {
                 urlCaptor.getValue(), Matchers.equalTo(DATASOURCE_URL.concat("/load")));
     }
 
+    @Test
+    void shouldStreamRecordingAsMultipartBody() throws Exception {
+        Mockito.when(auth.validateHttpHeader(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        Mockito.when(
+                        targetConnectionManager.executeConnectedTask(
+                                Mockito.any(ConnectionDescriptor.class), Mockito.any()))
+                .thenAnswer(
+                        arg0 ->
+                                ((TargetConnectionManager.ConnectedTask<Object>)
+                                                arg0.getArgument(1))
+                                        .execute(conn));
+        IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
+        IRecordingDescriptor rec = Mockito.mock(IRecordingDescriptor.class);
+        InputStream stream =
+                new ByteArrayInputStream("recording-content".getBytes(StandardCharsets.UTF_8));
+        Mockito.when(conn.getService()).thenReturn(svc);
+        Mockito.when(svc.getAvailableRecordings()).thenReturn(List.of(rec));
+        Mockito.when(rec.getName()).thenReturn("foo");
+        Mockito.when(svc.openStream(Mockito.any(), Mockito.anyBoolean())).thenReturn(stream);
+        Mockito.when(env.getEnv("GRAFANA_DATASOURCE_URL")).thenReturn(DATASOURCE_URL);
+
+        Mockito.when(ctx.pathParam("targetId")).thenReturn("fooTarget");
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo");
+
+        Vertx vertx = Mockito.mock(Vertx.class);
+        Mockito.doAnswer(
+                        invocation -> {
+                            Promise<Object> promise = Promise.promise();
+                            ((Handler<Promise<Object>>) invocation.getArgument(0)).handle(promise);
+                            ((Handler<AsyncResult<Object>>) invocation.getArgument(2))
+                                    .handle(promise.future());
+                            return null;
+                        })
+                .when(vertx)
+                .executeBlocking(Mockito.any(), Mockito.anyBoolean(), Mockito.any());
+        Mockito.when(ctx.vertx()).thenReturn(vertx);
+
+        HttpRequest<Buffer> httpReq = Mockito.mock(HttpRequest.class);
+        HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
+        Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(httpReq);
+        Mockito.when(httpReq.timeout(Mockito.anyLong())).thenReturn(httpReq);
+        Mockito.when(httpReq.putHeader(Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(httpReq);
+        Buffer sent = Buffer.buffer();
+        Mockito.doAnswer(
+                        invocation -> {
+                            ReadStream<Buffer> body = invocation.getArgument(0);
+                            body.handler(sent::appendBuffer);
+                            Mockito.when(httpResp.statusCode()).thenReturn(200);
+                            Mockito.when(httpResp.statusMessage()).thenReturn("OK");
+                            Mockito.when(httpResp.bodyAsString()).thenReturn("HELLO");
+                            ((Handler<AsyncResult<HttpResponse<Buffer>>>) invocation.getArgument(1))
+                                    .handle(Future.succeededFuture(httpResp));
+                            return null;
+                        })
+                .when(httpReq)
+                .sendStream(Mockito.any(), Mockito.any());
+
+        Mockito.when(ctx.request()).thenReturn(req);
+        Mockito.when(req.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
+        Mockito.when(ctx.response()).thenReturn(resp);
+
+        handler.handle(ctx);
+
+        ArgumentCaptor<String> contentTypeCaptor = ArgumentCaptor.forClass(String.class);
+        Mockito.verify(httpReq).putHeader(Mockito.eq("content-type"), contentTypeCaptor.capture());
+        MatcherAssert.assertThat(
+                contentTypeCaptor.getValue(),
+                Matchers.startsWith("multipart/form-data; boundary="));
+        String boundary = contentTypeCaptor.getValue().split("boundary=")[1];
+
+        MatcherAssert.assertThat(
+                sent.toString(),
+                Matchers.equalTo(
+                        "--"
+                                + boundary
+                                + "\r\n"
+                                + "Content-Disposition: form-data; name=\"file\"; filename=\"foo\"\r\n"
+                                + "Content-Type: application/octet-stream\r\n"
+                                + "\r\n"
+                                + "recording-content"
+                                + "\r\n--"
+                                + boundary
+                                + "--\r\n"));
+        Mockito.verify(targetConnectionManager, Mockito.atLeastOnce())
+                .markConnectionInUse(Mockito.any(ConnectionDescriptor.class));
+        Mockito.verify(resp).setStatusCode(200);
+        Mockito.verify(resp).end("HELLO");
+    }
+
+    @Test
+    void shouldFailContextIfUploadFails() throws Exception {
+        Mockito.when(auth.validateHttpHeader(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        Mockito.when(
+                        targetConnectionManager.executeConnectedTask(
+                                Mockito.any(ConnectionDescriptor.class), Mockito.any()))
+                .thenAnswer(
+                        arg0 ->
+                                ((TargetConnectionManager.ConnectedTask<Object>)
+                                                arg0.getArgument(1))
+                                        .execute(conn));
+        IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
+        IRecordingDescriptor rec = Mockito.mock(IRecordingDescriptor.class);
+        InputStream stream = Mockito.mock(InputStream.class);
+        Mockito.when(conn.getService()).thenReturn(svc);
+        Mockito.when(svc.getAvailableRecordings()).thenReturn(List.of(rec));
+        Mockito.when(rec.getName()).thenReturn("foo");
+        Mockito.when(svc.openStream(Mockito.any(), Mockito.anyBoolean())).thenReturn(stream);
+        Mockito.when(env.getEnv("GRAFANA_DATASOURCE_URL")).thenReturn(DATASOURCE_URL);
+
+        Mockito.when(ctx.pathParam("targetId")).thenReturn("fooTarget");
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo");
+
+        HttpRequest<Buffer> httpReq = Mockito.mock(HttpRequest.class);
+        Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(httpReq);
+        Mockito.when(httpReq.timeout(Mockito.anyLong())).thenReturn(httpReq);
+        Mockito.when(httpReq.putHeader(Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(httpReq);
+        IOException cause = new IOException("connection reset");
+        Mockito.doAnswer(
+                        invocation -> {
+                            ((Handler<AsyncResult<HttpResponse<Buffer>>>) invocation.getArgument(1))
+                                    .handle(Future.failedFuture(cause));
+                            return null;
+                        })
+                .when(httpReq)
+                .sendStream(Mockito.any(), Mockito.any());
+
+        Mockito.when(ctx.request()).thenReturn(req);
+        Mockito.when(req.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
+
+        handler.handle(ctx);
+
+        Mockito.verify(ctx).fail(cause);
+        Mockito.verify(ctx, Mockito.never()).response();
+        Mockito.verify(stream).close();
+    }
+
+    @Test
+    void shouldCloseRecordingStreamIfUploadCannotBeSent() throws Exception {
+        Mockito.when(auth.validateHttpHeader(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        Mockito.when(
+                        targetConnectionManager.executeConnectedTask(
+                                Mockito.any(ConnectionDescriptor.class), Mockito.any()))
+                .thenAnswer(
+                        arg0 ->
+                                ((TargetConnectionManager.ConnectedTask<Object>)
+                                                arg0.getArgument(1))
+                                        .execute(conn));
+        IFlightRecorderService svc = Mockito.mock(IFlightRecorderService.class);
+        IRecordingDescriptor rec = Mockito.mock(IRecordingDescriptor.class);
+        InputStream stream = Mockito.mock(InputStream.class);
+        Mockito.when(conn.getService()).thenReturn(svc);
+        Mockito.when(svc.getAvailableRecordings()).thenReturn(List.of(rec));
+        Mockito.when(rec.getName()).thenReturn("foo");
+        Mockito.when(svc.openStream(Mockito.any(), Mockito.anyBoolean())).thenReturn(stream);
+        Mockito.when(env.getEnv("GRAFANA_DATASOURCE_URL")).thenReturn(DATASOURCE_URL);
+
+        Mockito.when(ctx.pathParam("targetId")).thenReturn("fooTarget");
+        Mockito.when(ctx.pathParam("recordingName")).thenReturn("foo");
+
+        IllegalArgumentException cause = new IllegalArgumentException("bad URL");
+        Mockito.when(webClient.postAbs(Mockito.anyString())).thenThrow(cause);
+
+        Mockito.when(ctx.request()).thenReturn(req);
+        Mockito.when(req.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
+
+        HttpStatusException ex =
+                Assertions.assertThrows(HttpStatusException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getCause(), Matchers.sameInstance(cause));
+        Mockito.verify(stream).close();
+        Mockito.verify(stream, Mockito.never())
+                .read(Mockito.any(), Mockito.anyInt(), Mockito.anyInt());
+    }
+
     @Test
     void shouldHandleInvalidResponseStatusCode() throws Exception {
         Mockito.when(auth.validateHttpHeader(Mockito.any()))
@@ -261,6 +445,8 @@ class TargetRecordingUploadPostHandlerTest {
         HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
         Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(httpReq);
         Mockito.when(httpReq.timeout(Mockito.anyLong())).thenReturn(httpReq);
+        Mockito.when(httpReq.putHeader(Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(httpReq);
         Mockito.doAnswer(
                         new Answer<Void>() {
                             @Override
@@ -277,14 +463,18 @@ class TargetRecordingUploadPostHandlerTest {
                             }
                         })
                 .when(httpReq)
-                .sendMultipartForm(Mockito.any(), Mockito.any());
+                .sendStream(Mockito.any(), Mockito.any());
 
         Mockito.when(ctx.request()).thenReturn(req);
         Mockito.when(req.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
 
-        HttpStatusException e =
-                Assertions.assertThrows(HttpStatusException.class, () -> handler.handle(ctx));
+        handler.handle(ctx);
 
+        ArgumentCaptor<Throwable> failureCaptor = ArgumentCaptor.forClass(Throwable.class);
+        Mockito.verify(ctx).fail(failureCaptor.capture());
+        MatcherAssert.assertThat(
+                failureCaptor.getValue(), Matchers.instanceOf(HttpStatusException.class));
+        HttpStatusException e = (HttpStatusException) failureCaptor.getValue();
         MatcherAssert.assertThat(e.getStatusCode(), Matchers.equalTo(512));
         MatcherAssert.assertThat(
                 e.getPayload(),
@@ -325,6 +515,8 @@ class TargetRecordingUploadPostHandlerTest {
         HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
         Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(httpReq);
         Mockito.when(httpReq.timeout(Mockito.anyLong())).thenReturn(httpReq);
+        Mockito.when(httpReq.putHeader(Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(httpReq);
         Mockito.doAnswer(
                         new Answer<Void>() {
                             @Override
@@ -341,14 +533,18 @@ class TargetRecordingUploadPostHandlerTest {
                             }
                         })
                 .when(httpReq)
-                .sendMultipartForm(Mockito.any(), Mockito.any());
+                .sendStream(Mockito.any(), Mockito.any());
 
         Mockito.when(ctx.request()).thenReturn(req);
         Mockito.when(req.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
 
-        HttpStatusException e =
-                Assertions.assertThrows(HttpStatusException.class, () -> handler.handle(ctx));
+        handler.handle(ctx);
 
+        ArgumentCaptor<Throwable> failureCaptor = ArgumentCaptor.forClass(Throwable.class);
+        Mockito.verify(ctx).fail(failureCaptor.capture());
+        MatcherAssert.assertThat(
+                failureCaptor.getValue(), Matchers.instanceOf(HttpStatusException.class));
+        HttpStatusException e = (HttpStatusException) failureCaptor.getValue();
         MatcherAssert.assertThat(e.getStatusCode(), Matchers.equalTo(512));
         MatcherAssert.assertThat(
                 e.getPayload(),
@@ -389,6 +585,8 @@ class TargetRecordingUploadPostHandlerTest {
         HttpResponse<Buffer> httpResp = Mockito.mock(HttpResponse.class);
         Mockito.when(webClient.postAbs(Mockito.anyString())).thenReturn(httpReq);
         Mockito.when(httpReq.timeout(Mockito.anyLong())).thenReturn(httpReq);
+        Mockito.when(httpReq.putHeader(Mockito.anyString(), Mockito.anyString()))
+                .thenReturn(httpReq);
         Mockito.doAnswer(
                         new Answer<Void>() {
                             @Override
@@ -405,14 +603,18 @@ class TargetRecordingUploadPostHandlerTest {
                             }
                         })
                 .when(httpReq)
-                .sendMultipartForm(Mockito.any(), Mockito.any());
+                .sendStream(Mockito.any(), Mockito.any());
 
         Mockito.when(ctx.request()).thenReturn(req);
         Mockito.when(req.headers()).thenReturn(MultiMap.caseInsensitiveMultiMap());
 
-        HttpStatusException e =
-                Assertions.assertThrows(HttpStatusException.class, () -> handler.handle(ctx));
+        handler.handle(ctx);
 
+        ArgumentCaptor<Throwable> failureCaptor = ArgumentCaptor.forClass(Throwable.class);
+        Mockito.verify(ctx).fail(failureCaptor.capture());
+        MatcherAssert.assertThat(
+                failureCaptor.getValue(), Matchers.instanceOf(HttpStatusException.class));
+        HttpStatusException e = (HttpStatusException) failureCaptor.getValue();
         MatcherAssert.assertThat(e.getStatusCode(), Matchers.equalTo(512));
         MatcherAssert.assertThat(
                 e.getPayload(),
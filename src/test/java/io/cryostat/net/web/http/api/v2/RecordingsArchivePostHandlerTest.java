@@ -0,0 +1,436 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http.api.v2;
+
+import static org.mockito.Mockito.lenient;
+
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+
+import io.cryostat.MainModule;
+import io.cryostat.configuration.CredentialsManager;
+import io.cryostat.core.log.Logger;
+import io.cryostat.messaging.notifications.Notification;
+import io.cryostat.messaging.notifications.NotificationFactory;
+import io.cryostat.net.AuthManager;
+import io.cryostat.net.ConnectionDescriptor;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.platform.PlatformClient;
+import io.cryostat.platform.ServiceRef;
+import io.cryostat.recordings.RecordingArchiveHelper;
+import io.cryostat.recordings.RecordingNotFoundException;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RecordingsArchivePostHandlerTest {
+
+    RecordingsArchivePostHandler handler;
+    ExecutorService executor;
+    @Mock AuthManager auth;
+    @Mock PlatformClient platformClient;
+    @Mock CredentialsManager credentialsManager;
+    @Mock RecordingArchiveHelper recordingArchiveHelper;
+    @Mock NotificationFactory notificationFactory;
+    @Mock Notification notification;
+    @Mock Notification.Builder notificationBuilder;
+    @Mock Logger logger;
+    Gson gson = MainModule.provideGson(Mockito.mock(Logger.class));
+
+    @Mock RoutingContext ctx;
+    @Mock HttpServerRequest req;
+    @Mock HttpServerResponse resp;
+    MultiMap attrs;
+    Buffer sent;
+
+    ServiceRef fooRef;
+    ServiceRef barRef;
+    ServiceRef bazRef;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.executor = Executors.newFixedThreadPool(2);
+        this.handler =
+                new RecordingsArchivePostHandler(
+                        auth,
+                        platformClient,
+                        credentialsManager,
+                        recordingArchiveHelper,
+                        notificationFactory,
+                        executor,
+                        gson,
+                        logger);
+        this.attrs = MultiMap.caseInsensitiveMultiMap();
+        this.sent = Buffer.buffer();
+        this.fooRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://foo:9091/jmxrmi"), "foo");
+        this.barRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://bar:9091/jmxrmi"), "bar");
+        this.bazRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://baz:9091/jmxrmi"), "baz");
+
+        lenient().when(notificationFactory.createBuilder()).thenReturn(notificationBuilder);
+        lenient()
+                .when(notificationBuilder.metaCategory(Mockito.any()))
+                .thenReturn(notificationBuilder);
+        lenient()
+                .when(notificationBuilder.metaType(Mockito.any(HttpMimeType.class)))
+                .thenReturn(notificationBuilder);
+        lenient().when(notificationBuilder.message(Mockito.any())).thenReturn(notificationBuilder);
+        lenient().when(notificationBuilder.build()).thenReturn(notification);
+
+        lenient()
+                .when(auth.validateHttpHeader(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        lenient().when(ctx.request()).thenReturn(req);
+        lenient().when(req.formAttributes()).thenReturn(attrs);
+    }
+
+    @AfterEach
+    void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldHandlePOST() {
+        MatcherAssert.assertThat(handler.httpMethod(), Matchers.equalTo(HttpMethod.POST));
+    }
+
+    @Test
+    void shouldHandleCorrectPath() {
+        MatcherAssert.assertThat(handler.path(), Matchers.equalTo("/api/v2/recordings/archive"));
+    }
+
+    @Test
+    void shouldRequireRecordingName() {
+        attrs.set("targets", ".*");
+
+        ApiException ex = Assertions.assertThrows(ApiException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+    }
+
+    @Test
+    void shouldRequireTargets() {
+        attrs.set("recordingName", "myrecording");
+
+        ApiException ex = Assertions.assertThrows(ApiException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+    }
+
+    @Test
+    void shouldRejectInvalidPattern() {
+        attrs.set("recordingName", "myrecording");
+        attrs.set("targets", "foo(");
+
+        ApiException ex = Assertions.assertThrows(ApiException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+    }
+
+    @Test
+    void shouldRejectNonPositiveTimeout() {
+        attrs.set("recordingName", "myrecording");
+        attrs.set("targets", ".*");
+        attrs.set("timeoutSeconds", "0");
+
+        ApiException ex = Assertions.assertThrows(ApiException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+    }
+
+    @Test
+    void shouldRespond404WhenNoTargetsMatch() throws Exception {
+        attrs.set("recordingName", "myrecording");
+        attrs.set("targets", "nothing");
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of(fooRef, barRef));
+
+        ApiException ex = Assertions.assertThrows(ApiException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(404));
+        Mockito.verifyNoInteractions(recordingArchiveHelper);
+    }
+
+    @Test
+    void shouldStreamResultPerMatchingTarget() throws Exception {
+        attrs.set("recordingName", "myrecording");
+        attrs.set("targets", "foo|bar");
+        Mockito.when(platformClient.listDiscoverableServices())
+                .thenReturn(List.of(fooRef, barRef, bazRef));
+        mockResponse();
+        Mockito.when(
+                        recordingArchiveHelper.saveRecording(
+                                Mockito.any(ConnectionDescriptor.class),
+                                Mockito.eq("myrecording"),
+                                Mockito.any(BooleanSupplier.class)))
+                .thenAnswer(
+                        invocation -> {
+                            ConnectionDescriptor cd = invocation.getArgument(0);
+                            if (cd.getTargetId().contains("bar")) {
+                                throw Mockito.mock(RecordingNotFoundException.class);
+                            }
+                            return Optional.of("foo_myrecording_20210105T000000Z.jfr");
+                        });
+
+        handler.handle(ctx);
+
+        Mockito.verify(resp).setChunked(true);
+        Mockito.verify(resp).putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.NDJSON.mime());
+        Mockito.verify(resp).end();
+
+        Map<String, JsonObject> results = parseResults();
+        MatcherAssert.assertThat(results.keySet(), Matchers.containsInAnyOrder("foo", "bar"));
+        MatcherAssert.assertThat(
+                results.get("foo").get("status").getAsString(), Matchers.equalTo("ARCHIVED"));
+        MatcherAssert.assertThat(
+                results.get("foo").get("recording").getAsString(),
+                Matchers.equalTo("foo_myrecording_20210105T000000Z.jfr"));
+        MatcherAssert.assertThat(
+                results.get("foo").get("target").getAsString(),
+                Matchers.equalTo(fooRef.getServiceUri().toString()));
+        MatcherAssert.assertThat(
+                results.get("bar").get("status").getAsString(), Matchers.equalTo("NOT_FOUND"));
+
+        Mockito.verify(recordingArchiveHelper, Mockito.times(2))
+                .saveRecording(
+                        Mockito.any(ConnectionDescriptor.class),
+                        Mockito.anyString(),
+                        Mockito.any(BooleanSupplier.class));
+        Mockito.verify(notificationBuilder).metaCategory("RecordingArchived");
+        ArgumentCaptor<Object> messageCaptor = ArgumentCaptor.forClass(Object.class);
+        Mockito.verify(notificationBuilder).message(messageCaptor.capture());
+        MatcherAssert.assertThat(
+                messageCaptor.getValue(),
+                Matchers.equalTo(
+                        Map.of(
+                                "recording",
+                                "foo_myrecording_20210105T000000Z.jfr",
+                                "target",
+                                fooRef.getServiceUri().toString())));
+        Mockito.verify(notification).send();
+    }
+
+    @Test
+    void shouldReportFailedAndTimedOutTargets() throws Exception {
+        attrs.set("recordingName", "myrecording");
+        attrs.set("targets", ".*");
+        attrs.set("timeoutSeconds", "1");
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of(fooRef, barRef));
+        mockResponse();
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        Mockito.when(
+                        recordingArchiveHelper.saveRecording(
+                                Mockito.any(ConnectionDescriptor.class),
+                                Mockito.eq("myrecording"),
+                                Mockito.any(BooleanSupplier.class)))
+                .thenAnswer(
+                        invocation -> {
+                            ConnectionDescriptor cd = invocation.getArgument(0);
+                            if (cd.getTargetId().contains("foo")) {
+                                release.get();
+                                return Optional.of("foo_myrecording_20210105T000000Z.jfr");
+                            }
+                            throw new IllegalStateException("connection refused");
+                        });
+
+        try {
+            handler.handle(ctx);
+        } finally {
+            release.complete(null);
+        }
+
+        Map<String, JsonObject> results = parseResults();
+        MatcherAssert.assertThat(
+                results.get("foo").get("status").getAsString(), Matchers.equalTo("TIMED_OUT"));
+        MatcherAssert.assertThat(
+                results.get("bar").get("status").getAsString(), Matchers.equalTo("FAILED"));
+        MatcherAssert.assertThat(
+                results.get("bar").get("message").getAsString(),
+                Matchers.containsString("connection refused"));
+    }
+
+    @Test
+    void shouldFreeWorkersOfSavesWhichNeverReturn() throws Exception {
+        attrs.set("recordingName", "myrecording");
+        attrs.set("targets", ".*");
+        attrs.set("timeoutSeconds", "1");
+        Mockito.when(platformClient.listDiscoverableServices())
+                .thenReturn(List.of(fooRef, barRef, bazRef));
+        mockResponse();
+        // both workers are taken by targets which never respond, so baz can only be saved once
+        // they are given up
+        Mockito.when(
+                        recordingArchiveHelper.saveRecording(
+                                Mockito.any(ConnectionDescriptor.class),
+                                Mockito.eq("myrecording"),
+                                Mockito.any(BooleanSupplier.class)))
+                .thenAnswer(
+                        invocation -> {
+                            ConnectionDescriptor cd = invocation.getArgument(0);
+                            if (cd.getTargetId().contains("baz")) {
+                                return Optional.of("baz_myrecording_20210105T000000Z.jfr");
+                            }
+                            new CountDownLatch(1).await();
+                            return Optional.of("never");
+                        });
+
+        Assertions.assertTimeoutPreemptively(Duration.ofSeconds(10), () -> handler.handle(ctx));
+
+        Map<String, JsonObject> results = parseResults();
+        MatcherAssert.assertThat(
+                results.get("foo").get("status").getAsString(), Matchers.equalTo("TIMED_OUT"));
+        MatcherAssert.assertThat(
+                results.get("bar").get("status").getAsString(), Matchers.equalTo("TIMED_OUT"));
+        MatcherAssert.assertThat(
+                results.get("baz").get("status").getAsString(), Matchers.equalTo("ARCHIVED"));
+    }
+
+    @Test
+    void shouldNotCommitSaveAfterReportingTimeout() throws Exception {
+        attrs.set("recordingName", "myrecording");
+        attrs.set("targets", "foo");
+        attrs.set("timeoutSeconds", "1");
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of(fooRef));
+        mockResponse();
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Boolean> proceeded = new CompletableFuture<>();
+        Mockito.when(
+                        recordingArchiveHelper.saveRecording(
+                                Mockito.any(ConnectionDescriptor.class),
+                                Mockito.eq("myrecording"),
+                                Mockito.any(BooleanSupplier.class)))
+                .thenAnswer(
+                        invocation -> {
+                            // a save which does not notice the interrupt and gets as far as
+                            // trying to store its recording
+                            while (true) {
+                                try {
+                                    release.await();
+                                    break;
+                                } catch (InterruptedException ie) {
+                                    continue;
+                                }
+                            }
+                            boolean proceed =
+                                    ((BooleanSupplier) invocation.getArgument(2)).getAsBoolean();
+                            proceeded.complete(proceed);
+                            return proceed ? Optional.of("late.jfr") : Optional.empty();
+                        });
+
+        try {
+            handler.handle(ctx);
+        } finally {
+            release.countDown();
+        }
+
+        MatcherAssert.assertThat(proceeded.get(), Matchers.is(false));
+        Map<String, JsonObject> results = parseResults();
+        MatcherAssert.assertThat(
+                results.get("foo").get("status").getAsString(), Matchers.equalTo("TIMED_OUT"));
+        executor.shutdown();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+        Mockito.verifyNoInteractions(notification);
+    }
+
+    @Test
+    void shouldNotBeOrdered() {
+        Assertions.assertFalse(handler.isOrdered());
+    }
+
+    @Test
+    void shouldReportFailedWhenExecutorRejects() throws Exception {
+        executor.shutdown();
+        attrs.set("recordingName", "myrecording");
+        attrs.set("targets", "foo");
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of(fooRef));
+        mockResponse();
+
+        handler.handle(ctx);
+
+        Map<String, JsonObject> results = parseResults();
+        MatcherAssert.assertThat(
+                results.get("foo").get("status").getAsString(), Matchers.equalTo("FAILED"));
+        Mockito.verifyNoInteractions(recordingArchiveHelper);
+    }
+
+    private void mockResponse() {
+        Mockito.when(ctx.response()).thenReturn(resp);
+        Mockito.when(resp.write(Mockito.any(Buffer.class)))
+                .thenAnswer(
+                        invocation -> {
+                            synchronized (sent) {
+                                sent.appendBuffer(invocation.getArgument(0));
+                            }
+                            return resp;
+                        });
+    }
+
+    private Map<String, JsonObject> parseResults() {
+        return Arrays.stream(sent.toString(StandardCharsets.UTF_8).split("\n"))
+                .map(line -> JsonParser.parseString(line).getAsJsonObject())
+                .collect(Collectors.toMap(o -> o.get("alias").getAsString(), o -> o));
+    }
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http.api.v2;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.core.sys.FileSystem;
+import io.cryostat.net.AuthManager;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.storage.LocalArchiveStorage;
+
+import io.vertx.core.MultiMap;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.HttpServerRequest;
+import io.vertx.core.http.HttpServerResponse;
+import io.vertx.ext.web.RoutingContext;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RecordingsExportGetHandlerTest {
+
+    RecordingsExportGetHandler handler;
+    @Mock AuthManager auth;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    @Mock ArchiveIndex archiveIndex;
+    @TempDir Path recordingsPath;
+    List<ArchivedRecordingInfo> indexed;
+
+    @Mock RoutingContext ctx;
+    @Mock HttpServerRequest req;
+    @Mock HttpServerResponse resp;
+    MultiMap queryParams;
+    Buffer sent;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.handler =
+                new RecordingsExportGetHandler(
+                        auth,
+                        new LocalArchiveStorage(recordingsPath, new FileSystem()),
+                        archiveIndex,
+                        clock,
+                        logger);
+        this.queryParams = MultiMap.caseInsensitiveMultiMap();
+        this.sent = Buffer.buffer();
+        this.indexed = new ArrayList<>();
+        Mockito.lenient().when(archiveIndex.list()).thenReturn(indexed);
+        Mockito.lenient()
+                .when(archiveIndex.list(Mockito.anyString()))
+                .thenAnswer(
+                        invocation ->
+                                indexed.stream()
+                                        .filter(
+                                                info ->
+                                                        invocation
+                                                                .getArgument(0)
+                                                                .equals(info.getTargetName()))
+                                        .collect(Collectors.toList()));
+
+        writeArchive("fooTarget_first_20210101T000000Z.jfr", "first", "2021-01-01T00:00:00Z");
+        writeArchive("fooTarget_second_20210102T000000Z.jfr", "second", "2021-01-02T00:00:00Z");
+        writeArchive("bar-host_third_20210103T000000Z.jfr", "third", "2021-01-03T00:00:00Z");
+    }
+
+    @Test
+    void shouldHandleGET() {
+        MatcherAssert.assertThat(handler.httpMethod(), Matchers.equalTo(HttpMethod.GET));
+    }
+
+    @Test
+    void shouldHandleCorrectPath() {
+        MatcherAssert.assertThat(handler.path(), Matchers.equalTo("/api/v2/recordings/export"));
+    }
+
+    @Test
+    void shouldBeBlocking() {
+        MatcherAssert.assertThat(handler.isAsync(), Matchers.is(false));
+    }
+
+    @Test
+    void shouldNotBeOrdered() {
+        MatcherAssert.assertThat(handler.isOrdered(), Matchers.is(false));
+    }
+
+    @Test
+    void shouldStreamZipOfAllArchives() throws Exception {
+        mockAuthenticatedRequest();
+        mockResponse();
+
+        handler.handle(ctx);
+
+        Mockito.verify(resp).setChunked(true);
+        Mockito.verify(resp).putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.ZIP.mime());
+        Mockito.verify(resp)
+                .putHeader(
+                        HttpHeaders.CONTENT_DISPOSITION,
+                        "attachment; filename=\"cryostat-archives-20210105T000000Z.zip\"");
+        Mockito.verify(resp).putHeader(HttpHeaders.CONTENT_ENCODING, HttpHeaders.IDENTITY);
+        Mockito.verify(resp).end();
+
+        List<String> names = new ArrayList<>();
+        List<String> contents = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(sent.getBytes()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+                contents.add(new String(zip.readAllBytes(), StandardCharsets.UTF_8));
+            }
+        }
+        MatcherAssert.assertThat(
+                names,
+                Matchers.contains(
+                        "bar-host_third_20210103T000000Z.jfr",
+                        "fooTarget_first_20210101T000000Z.jfr",
+                        "fooTarget_second_20210102T000000Z.jfr"));
+        MatcherAssert.assertThat(contents, Matchers.contains("third", "first", "second"));
+    }
+
+    @Test
+    void shouldStreamTarOfSelectedArchives() throws Exception {
+        queryParams.set("format", "tar");
+        queryParams.set("target", "fooTarget");
+        queryParams.set("from", "2021-01-02T00:00:00Z");
+        mockAuthenticatedRequest();
+        mockResponse();
+
+        handler.handle(ctx);
+
+        Mockito.verify(resp).putHeader(HttpHeaders.CONTENT_TYPE, HttpMimeType.TAR.mime());
+        byte[] tar = sent.getBytes();
+        MatcherAssert.assertThat(tar.length, Matchers.equalTo(512 + 512 + 1024));
+        MatcherAssert.assertThat(
+                new String(tar, 0, 37, StandardCharsets.US_ASCII),
+                Matchers.equalTo("fooTarget_second_20210102T000000Z.jfr"));
+        MatcherAssert.assertThat(
+                new String(tar, 512, 6, StandardCharsets.UTF_8), Matchers.equalTo("second"));
+    }
+
+    @Test
+    void shouldSelectByNamePattern() throws Exception {
+        queryParams.set("names", ".*_(first|third)_.*");
+        mockAuthenticatedRequest();
+        mockResponse();
+
+        handler.handle(ctx);
+
+        List<String> names = new ArrayList<>();
+        try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(sent.getBytes()))) {
+            ZipEntry entry;
+            while ((entry = zip.getNextEntry()) != null) {
+                names.add(entry.getName());
+            }
+        }
+        MatcherAssert.assertThat(
+                names,
+                Matchers.contains(
+                        "bar-host_third_20210103T000000Z.jfr",
+                        "fooTarget_first_20210101T000000Z.jfr"));
+    }
+
+    @Test
+    void shouldRespond404IfNothingSelected() throws Exception {
+        queryParams.set("to", "2020-01-01T00:00:00Z");
+        mockAuthenticatedRequest();
+
+        ApiException ex = Assertions.assertThrows(ApiException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(404));
+    }
+
+    @Test
+    void shouldRespond400ForUnknownFormat() throws Exception {
+        queryParams.set("format", "rar");
+        mockAuthenticatedRequest();
+
+        ApiException ex = Assertions.assertThrows(ApiException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+    }
+
+    @Test
+    void shouldRespond400ForInvalidPattern() throws Exception {
+        queryParams.set("names", "*bad[");
+        mockAuthenticatedRequest();
+
+        ApiException ex = Assertions.assertThrows(ApiException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+    }
+
+    @Test
+    void shouldRespond400ForInvalidTimestamp() throws Exception {
+        queryParams.set("from", "yesterday");
+        mockAuthenticatedRequest();
+
+        ApiException ex = Assertions.assertThrows(ApiException.class, () -> handler.handle(ctx));
+        MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+    }
+
+    @Test
+    void shouldCloseConnectionIfReadFailsMidStream() throws Exception {
+        ArchiveStorage storage =
+                Mockito.spy(new LocalArchiveStorage(recordingsPath, new FileSystem()));
+        Mockito.doThrow(new IOException("disk error"))
+                .when(storage)
+                .get(Mockito.anyString(), Mockito.anyLong(), Mockito.anyLong());
+        handler = new RecordingsExportGetHandler(auth, storage, archiveIndex, clock, logger);
+        mockAuthenticatedRequest();
+        Mockito.when(ctx.response()).thenReturn(resp);
+        Mockito.when(clock.now()).thenReturn(Instant.parse("2021-01-05T00:00:00Z"));
+        Mockito.when(resp.headWritten()).thenReturn(true);
+
+        handler.handle(ctx);
+
+        Mockito.verify(resp).close();
+        Mockito.verify(resp, Mockito.never()).setStatusCode(Mockito.anyInt());
+    }
+
+    private void mockAuthenticatedRequest() {
+        Mockito.when(auth.validateHttpHeader(Mockito.any()))
+                .thenReturn(CompletableFuture.completedFuture(true));
+        Mockito.when(ctx.request()).thenReturn(req);
+        Mockito.when(ctx.queryParams()).thenReturn(queryParams);
+    }
+
+    private void mockResponse() {
+        Mockito.when(ctx.response()).thenReturn(resp);
+        Mockito.when(clock.now()).thenReturn(Instant.parse("2021-01-05T00:00:00Z"));
+        Mockito.when(resp.write(Mockito.any(Buffer.class)))
+                .thenAnswer(
+                        invocation -> {
+                            sent.appendBuffer(invocation.getArgument(0));
+                            return resp;
+                        });
+    }
+
+    private void writeArchive(String name, String content, String modified) throws IOException {
+        Path file = recordingsPath.resolve(name);
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.parse(modified)));
+        indexed.add(
+                new ArchivedRecordingInfo(
+                        name, content.length(), Instant.parse(modified).toEpochMilli(), null));
+        indexed.sort(Comparator.comparing(ArchivedRecordingInfo::getName));
+    }
+}
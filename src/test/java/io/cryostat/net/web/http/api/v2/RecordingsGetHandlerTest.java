@@ -0,0 +1,393 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http.api.v2;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import io.cryostat.MainModule;
+import io.cryostat.core.log.Logger;
+import io.cryostat.jmc.serialization.ArchivedRecordingDescriptor;
+import io.cryostat.net.AuthManager;
+import io.cryostat.net.web.WebServer;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.storage.ArchiveStorage;
+
+import com.google.gson.Gson;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpMethod;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RecordingsGetHandlerTest {
+
+    RecordingsGetHandler handler;
+    @Mock AuthManager auth;
+    @Mock ArchiveStorage storage;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock WebServer webServer;
+    @Mock Logger logger;
+    Gson gson = MainModule.provideGson(logger);
+
+    @BeforeEach
+    void setup() {
+        this.handler = new RecordingsGetHandler(auth, storage, archiveIndex, () -> webServer, gson);
+    }
+
+    @Nested
+    class BasicHandlerDefinition {
+        @Test
+        void shouldRequireAuthentication() {
+            Assertions.assertTrue(handler.requiresAuthentication());
+        }
+
+        @Test
+        void shouldBeV2Handler() {
+            MatcherAssert.assertThat(handler.apiVersion(), Matchers.equalTo(ApiVersion.V2));
+        }
+
+        @Test
+        void shouldBeGETHandler() {
+            MatcherAssert.assertThat(handler.httpMethod(), Matchers.equalTo(HttpMethod.GET));
+        }
+
+        @Test
+        void shouldHaveExpectedApiPath() {
+            MatcherAssert.assertThat(handler.path(), Matchers.equalTo("/api/v2/recordings"));
+        }
+
+        @Test
+        void shouldHaveJsonMimeType() {
+            MatcherAssert.assertThat(handler.mimeType(), Matchers.equalTo(HttpMimeType.JSON));
+        }
+
+        @Test
+        void shouldNotBeAsyncHandler() {
+            Assertions.assertFalse(handler.isAsync());
+        }
+    }
+
+    @Nested
+    class Requests {
+        @Mock RequestParameters params;
+        MultiMap query;
+        NavigableMap<String, ArchivedRecordingInfo> indexed;
+
+        @BeforeEach
+        void setup() throws Exception {
+            query = MultiMap.caseInsensitiveMultiMap();
+            Mockito.lenient().when(params.getQueryParams()).thenReturn(query);
+
+            indexed = new TreeMap<>();
+            add("fooTarget_alpha_20210101T000000Z.jfr", 300, 1000);
+            add("fooTarget_beta_20210102T000000Z.jfr", 100, 3000);
+            add("bar-host_alpha_20210103T000000Z.jfr", 200, 2000);
+            add("bar-host_gamma_20210104T000000Z.jfr", 100, 4000);
+            add("some-Alias-2_alpha_20210105T000000Z.jfr", 500, 5000);
+
+            Mockito.lenient()
+                    .when(archiveIndex.list())
+                    .thenAnswer(invocation -> new ArrayList<>(indexed.values()));
+            Mockito.lenient()
+                    .when(archiveIndex.listAfter(Mockito.any(), Mockito.anyBoolean()))
+                    .thenAnswer(
+                            invocation ->
+                                    view(
+                                            indexed,
+                                            invocation.getArgument(0),
+                                            invocation.getArgument(1)));
+            Mockito.lenient()
+                    .when(archiveIndex.list(Mockito.anyString()))
+                    .thenAnswer(
+                            invocation ->
+                                    new ArrayList<>(ofTarget(invocation.getArgument(0)).values()));
+            Mockito.lenient()
+                    .when(
+                            archiveIndex.listAfter(
+                                    Mockito.anyString(), Mockito.any(), Mockito.anyBoolean()))
+                    .thenAnswer(
+                            invocation ->
+                                    view(
+                                            ofTarget(invocation.getArgument(0)),
+                                            invocation.getArgument(1),
+                                            invocation.getArgument(2)));
+            Mockito.lenient()
+                    .when(webServer.getArchivedDownloadURL(Mockito.anyString()))
+                    .thenAnswer(invocation -> "/download/" + invocation.getArgument(0));
+            Mockito.lenient()
+                    .when(webServer.getArchivedReportURL(Mockito.anyString()))
+                    .thenAnswer(invocation -> "/report/" + invocation.getArgument(0));
+        }
+
+        NavigableMap<String, ArchivedRecordingInfo> ofTarget(String targetName) {
+            NavigableMap<String, ArchivedRecordingInfo> target = new TreeMap<>();
+            indexed.values().stream()
+                    .filter(info -> targetName.equals(info.getTargetName()))
+                    .forEach(info -> target.put(info.getName(), info));
+            return target;
+        }
+
+        Collection<ArchivedRecordingInfo> view(
+                NavigableMap<String, ArchivedRecordingInfo> map, String after, boolean descending) {
+            NavigableMap<String, ArchivedRecordingInfo> view =
+                    descending ? map.descendingMap() : map;
+            if (after != null) {
+                view = view.tailMap(after, false);
+            }
+            return view.values();
+        }
+
+        @Test
+        void shouldRespond501IfArchiveUnavailable() throws Exception {
+            Mockito.doThrow(new IOException("unavailable")).when(storage).checkAvailable();
+
+            ApiException ex = Assertions.assertThrows(ApiException.class, () -> handle());
+            MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(501));
+        }
+
+        @Test
+        void shouldListByNameWithMetadataAndUrls() throws Exception {
+            RecordingsGetHandler.RecordingsPage page = handle();
+
+            MatcherAssert.assertThat(
+                    names(page),
+                    Matchers.equalTo(
+                            List.of(
+                                    "bar-host_alpha_20210103T000000Z.jfr",
+                                    "bar-host_gamma_20210104T000000Z.jfr",
+                                    "fooTarget_alpha_20210101T000000Z.jfr",
+                                    "fooTarget_beta_20210102T000000Z.jfr",
+                                    "some-Alias-2_alpha_20210105T000000Z.jfr")));
+            MatcherAssert.assertThat(page.nextCursor, Matchers.nullValue());
+            ArchivedRecordingDescriptor first = page.recordings.get(0);
+            MatcherAssert.assertThat(first.getTargetName(), Matchers.equalTo("bar-host"));
+            MatcherAssert.assertThat(first.getRecordingName(), Matchers.equalTo("alpha"));
+            MatcherAssert.assertThat(first.getTimestamp(), Matchers.equalTo("20210103T000000Z"));
+            MatcherAssert.assertThat(first.getSize(), Matchers.equalTo(200L));
+            MatcherAssert.assertThat(first.getModifiedTime(), Matchers.equalTo(2000L));
+            MatcherAssert.assertThat(
+                    first.getDownloadUrl(),
+                    Matchers.equalTo("/download/bar-host_alpha_20210103T000000Z.jfr"));
+            MatcherAssert.assertThat(
+                    first.getReportUrl(),
+                    Matchers.equalTo("/report/bar-host_alpha_20210103T000000Z.jfr"));
+        }
+
+        @Test
+        void shouldOnlyBuildUrlsForReturnedPage() throws Exception {
+            query.set("limit", "2");
+
+            handle();
+
+            Mockito.verify(webServer, Mockito.times(2)).getArchivedDownloadURL(Mockito.anyString());
+            Mockito.verify(archiveIndex, Mockito.never()).list();
+        }
+
+        @ParameterizedTest
+        @ValueSource(strings = {"name:asc", "name:desc", "size:asc", "size:desc", "modified:desc"})
+        void shouldPageThroughEverythingExactlyOnce(String ordering) throws Exception {
+            String[] parts = ordering.split(":");
+            query.set("sort", parts[0]);
+            query.set("order", parts[1]);
+            RecordingsGetHandler.RecordingsPage unpaged = handle();
+
+            query.set("limit", "2");
+            List<String> paged = new ArrayList<>();
+            RecordingsGetHandler.RecordingsPage page = handle();
+            paged.addAll(names(page));
+            while (page.nextCursor != null) {
+                MatcherAssert.assertThat(page.recordings, Matchers.hasSize(2));
+                query.set("cursor", page.nextCursor);
+                page = handle();
+                paged.addAll(names(page));
+            }
+
+            MatcherAssert.assertThat(paged, Matchers.equalTo(names(unpaged)));
+            MatcherAssert.assertThat(paged, Matchers.hasSize(5));
+        }
+
+        @Test
+        void shouldSortBySizeWithNameTieBreak() throws Exception {
+            query.set("sort", "size");
+
+            MatcherAssert.assertThat(
+                    names(handle()),
+                    Matchers.equalTo(
+                            List.of(
+                                    "bar-host_gamma_20210104T000000Z.jfr",
+                                    "fooTarget_beta_20210102T000000Z.jfr",
+                                    "bar-host_alpha_20210103T000000Z.jfr",
+                                    "fooTarget_alpha_20210101T000000Z.jfr",
+                                    "some-Alias-2_alpha_20210105T000000Z.jfr")));
+        }
+
+        @Test
+        void shouldResumeAfterCursorEntryWasDeleted() throws Exception {
+            query.set("sort", "modified");
+            query.set("limit", "2");
+            RecordingsGetHandler.RecordingsPage page = handle();
+            indexed.remove("bar-host_alpha_20210103T000000Z.jfr");
+
+            query.set("cursor", page.nextCursor);
+            MatcherAssert.assertThat(
+                    names(handle()),
+                    Matchers.equalTo(
+                            List.of(
+                                    "fooTarget_beta_20210102T000000Z.jfr",
+                                    "bar-host_gamma_20210104T000000Z.jfr")));
+        }
+
+        @Test
+        void shouldFilterByTargetAlias() throws Exception {
+            query.set("target", "some.Alias_2");
+
+            MatcherAssert.assertThat(
+                    names(handle()),
+                    Matchers.equalTo(List.of("some-Alias-2_alpha_20210105T000000Z.jfr")));
+            // only the target's own entries are visited
+            Mockito.verify(archiveIndex, Mockito.never())
+                    .listAfter(Mockito.any(), Mockito.anyBoolean());
+        }
+
+        @Test
+        void shouldFilterByTargetAliasWithOtherSort() throws Exception {
+            query.set("target", "fooTarget");
+            query.set("sort", "size");
+
+            MatcherAssert.assertThat(
+                    names(handle()),
+                    Matchers.equalTo(
+                            List.of(
+                                    "fooTarget_beta_20210102T000000Z.jfr",
+                                    "fooTarget_alpha_20210101T000000Z.jfr")));
+            Mockito.verify(archiveIndex, Mockito.never()).list();
+        }
+
+        @Test
+        void shouldFilterByRecordingName() throws Exception {
+            query.set("recordingName", "alpha");
+
+            MatcherAssert.assertThat(
+                    names(handle()),
+                    Matchers.equalTo(
+                            List.of(
+                                    "bar-host_alpha_20210103T000000Z.jfr",
+                                    "fooTarget_alpha_20210101T000000Z.jfr",
+                                    "some-Alias-2_alpha_20210105T000000Z.jfr")));
+        }
+
+        @Test
+        void shouldFilterByTimeRangeAndSize() throws Exception {
+            query.set("from", "1970-01-01T00:00:02Z");
+            query.set("to", "1970-01-01T00:00:05Z");
+            query.set("minSize", "150");
+            query.set("maxSize", "300");
+
+            MatcherAssert.assertThat(
+                    names(handle()),
+                    Matchers.equalTo(List.of("bar-host_alpha_20210103T000000Z.jfr")));
+        }
+
+        @ParameterizedTest
+        @ValueSource(
+                strings = {
+                    "limit=0",
+                    "limit=1001",
+                    "limit=ten",
+                    "sort=digest",
+                    "order=sideways",
+                    "from=yesterday",
+                    "minSize=-1",
+                    "maxSize=big",
+                    "cursor=!!!",
+                    "cursor=bm90IGpzb24"
+                })
+        void shouldRespond400ForInvalidParameters(String param) {
+            String[] parts = param.split("=", 2);
+            query.set(parts[0], parts[1]);
+
+            ApiException ex = Assertions.assertThrows(ApiException.class, () -> handle());
+            MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+        }
+
+        @Test
+        void shouldRejectCursorFromDifferentOrdering() throws Exception {
+            query.set("limit", "2");
+            String cursor = handle().nextCursor;
+
+            query.set("sort", "size");
+            query.set("cursor", cursor);
+
+            ApiException ex = Assertions.assertThrows(ApiException.class, () -> handle());
+            MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+        }
+
+        private RecordingsGetHandler.RecordingsPage handle() throws Exception {
+            return handler.handle(params).getBody();
+        }
+
+        private void add(String name, long size, long modified) {
+            indexed.put(name, new ArchivedRecordingInfo(name, size, modified, null));
+        }
+    }
+
+    private static List<String> names(RecordingsGetHandler.RecordingsPage page) {
+        return page.recordings.stream()
+                .map(ArchivedRecordingDescriptor::getName)
+                .collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.net.web.http.api.v2;
+
+import io.cryostat.MainModule;
+import io.cryostat.core.log.Logger;
+import io.cryostat.net.AuthManager;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.net.web.http.api.ApiVersion;
+import io.cryostat.rules.Rule;
+import io.cryostat.rules.RuleCostEstimator;
+
+import com.google.gson.Gson;
+import io.vertx.core.MultiMap;
+import io.vertx.core.http.HttpHeaders;
+import io.vertx.core.http.HttpMethod;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RulesDryRunPostHandlerTest {
+
+    RulesDryRunPostHandler handler;
+    @Mock AuthManager authManager;
+    @Mock RuleCostEstimator estimator;
+    @Mock Logger logger;
+    Gson gson = MainModule.provideGson(logger);
+
+    @BeforeEach
+    void setup() {
+        this.handler = new RulesDryRunPostHandler(authManager, estimator, gson);
+    }
+
+    @Nested
+    class BasicHandlerDefinition {
+        @Test
+        void shouldRequireAuthentication() {
+            Assertions.assertTrue(handler.requiresAuthentication());
+        }
+
+        @Test
+        void shouldBeV2Handler() {
+            MatcherAssert.assertThat(handler.apiVersion(), Matchers.equalTo(ApiVersion.V2));
+        }
+
+        @Test
+        void shouldBePOSTHandler() {
+            MatcherAssert.assertThat(handler.httpMethod(), Matchers.equalTo(HttpMethod.POST));
+        }
+
+        @Test
+        void shouldHaveExpectedApiPath() {
+            MatcherAssert.assertThat(handler.path(), Matchers.equalTo("/api/v2/rules/dry-run"));
+        }
+
+        @Test
+        void shouldHaveJsonMimeType() {
+            MatcherAssert.assertThat(handler.mimeType(), Matchers.equalTo(HttpMimeType.JSON));
+        }
+
+        @Test
+        void shouldNotBeAsyncHandler() {
+            Assertions.assertFalse(handler.isAsync());
+        }
+    }
+
+    @Nested
+    class Requests {
+        @Mock RequestParameters params;
+
+        @Test
+        void shouldEstimateRuleFromForm() throws Exception {
+            MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+            headers.set(HttpHeaders.CONTENT_TYPE, HttpMimeType.MULTIPART_FORM.mime());
+            Mockito.when(params.getHeaders()).thenReturn(headers);
+            MultiMap form = MultiMap.caseInsensitiveMultiMap();
+            form.set(Rule.Attribute.NAME.getSerialKey(), "fooRule");
+            form.set(Rule.Attribute.MATCH_EXPRESSION.getSerialKey(), "alias =~ 'foo-.*'");
+            form.set(Rule.Attribute.EVENT_SPECIFIER.getSerialKey(), "template=Continuous");
+            Mockito.when(params.getFormAttributes()).thenReturn(form);
+            RuleCostEstimator.Estimate estimate = Mockito.mock(RuleCostEstimator.Estimate.class);
+            Mockito.when(estimator.estimate(Mockito.any())).thenReturn(estimate);
+
+            IntermediateResponse<RuleCostEstimator.Estimate> response = handler.handle(params);
+
+            MatcherAssert.assertThat(response.getStatusCode(), Matchers.equalTo(200));
+            MatcherAssert.assertThat(response.getBody(), Matchers.sameInstance(estimate));
+            ArgumentCaptor<Rule> ruleCaptor = ArgumentCaptor.forClass(Rule.class);
+            Mockito.verify(estimator).estimate(ruleCaptor.capture());
+            MatcherAssert.assertThat(ruleCaptor.getValue().getName(), Matchers.equalTo("fooRule"));
+        }
+
+        @Test
+        void shouldEstimateRuleFromJson() throws Exception {
+            MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+            headers.set(HttpHeaders.CONTENT_TYPE, HttpMimeType.JSON.mime());
+            Mockito.when(params.getHeaders()).thenReturn(headers);
+            Mockito.when(params.getBody())
+                    .thenReturn(
+                            "{\"name\":\"fooRule\",\"targetAlias\":\"foo\","
+                                    + "\"description\":\"\","
+                                    + "\"eventSpecifier\":\"template=Continuous\"}");
+
+            handler.handle(params);
+
+            Mockito.verify(estimator).estimate(Mockito.any(Rule.class));
+        }
+
+        @Test
+        void shouldRejectInvalidRule() {
+            MultiMap headers = MultiMap.caseInsensitiveMultiMap();
+            headers.set(HttpHeaders.CONTENT_TYPE, HttpMimeType.MULTIPART_FORM.mime());
+            Mockito.when(params.getHeaders()).thenReturn(headers);
+            MultiMap form = MultiMap.caseInsensitiveMultiMap();
+            form.set(Rule.Attribute.NAME.getSerialKey(), "fooRule");
+            form.set(Rule.Attribute.EVENT_SPECIFIER.getSerialKey(), "template=Continuous");
+            Mockito.when(params.getFormAttributes()).thenReturn(form);
+
+            ApiException ex =
+                    Assertions.assertThrows(ApiException.class, () -> handler.handle(params));
+            MatcherAssert.assertThat(ex.getStatusCode(), Matchers.equalTo(400));
+            Mockito.verifyNoInteractions(estimator);
+        }
+    }
+}
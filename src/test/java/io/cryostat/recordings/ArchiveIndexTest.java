@@ -0,0 +1,449 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.cryostat.MainModule;
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.FileSystem;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.storage.LocalArchiveStorage;
+import io.cryostat.recordings.storage.StoredObject;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveIndexTest {
+
+    static final String RECORDING = "some-Alias-2_someRecording_20210101T000000Z.jfr";
+
+    ArchiveIndex index;
+    @TempDir Path archivePath;
+    @Mock ScheduledExecutorService executor;
+    @Mock Logger logger;
+
+    @BeforeEach
+    void setup() {
+        this.index = newIndex();
+    }
+
+    @AfterEach
+    void teardown() throws Exception {
+        index.stop();
+    }
+
+    @Test
+    void shouldIndexRegularFilesOnRescan() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+        write(".upload-1234", "partial", "2021-01-01T00:00:00Z");
+        Files.createDirectory(archivePath.resolve("subdir"));
+
+        index.rescan();
+
+        MatcherAssert.assertThat(names(), Matchers.equalTo(List.of(RECORDING)));
+        ArchivedRecordingInfo info = index.get(RECORDING).get();
+        MatcherAssert.assertThat(info.getSize(), Matchers.equalTo(3L));
+        MatcherAssert.assertThat(
+                info.getModifiedTime(),
+                Matchers.equalTo(Instant.parse("2021-01-01T00:00:00Z").toEpochMilli()));
+        MatcherAssert.assertThat(info.getTargetName(), Matchers.equalTo("some-Alias-2"));
+        MatcherAssert.assertThat(info.getRecordingName(), Matchers.equalTo("someRecording"));
+        MatcherAssert.assertThat(info.getTimestamp(), Matchers.equalTo("20210101T000000Z"));
+        MatcherAssert.assertThat(info.getDigest(), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldLeaveUnrecognizedNameFieldsEmpty() throws Exception {
+        write("foo.jfr", "abc", "2021-01-01T00:00:00Z");
+
+        index.rescan();
+
+        ArchivedRecordingInfo info = index.get("foo.jfr").get();
+        MatcherAssert.assertThat(info.getTargetName(), Matchers.nullValue());
+        MatcherAssert.assertThat(info.getRecordingName(), Matchers.nullValue());
+        MatcherAssert.assertThat(info.getTimestamp(), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldDropVanishedFilesOnRescan() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+        index.rescan();
+        Files.delete(archivePath.resolve(RECORDING));
+
+        index.rescan();
+
+        MatcherAssert.assertThat(index.contains(RECORDING), Matchers.is(false));
+        MatcherAssert.assertThat(index.get(RECORDING), Matchers.equalTo(Optional.empty()));
+    }
+
+    @Test
+    void shouldKeepEntryPutDuringRescan() throws Exception {
+        ArchiveStorage remote = Mockito.mock(ArchiveStorage.class);
+        ArchiveIndex polling =
+                new ArchiveIndex(remote, executor, MainModule.provideGson(logger), logger);
+        StoredObject object = new StoredObject(RECORDING, 3, 1000);
+        Mockito.when(remote.list())
+                .thenAnswer(
+                        invocation -> {
+                            polling.put(object, "abc");
+                            return List.of();
+                        });
+        Mockito.when(remote.stat(RECORDING)).thenReturn(Optional.of(object));
+
+        polling.rescan();
+
+        MatcherAssert.assertThat(polling.contains(RECORDING), Matchers.is(true));
+    }
+
+    @Test
+    void shouldRecordWrittenThroughDigest() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+
+        ArchivedRecordingInfo info = index.put(stored(RECORDING), "cafe");
+
+        MatcherAssert.assertThat(info.getDigest(), Matchers.equalTo("cafe"));
+        MatcherAssert.assertThat(index.get(RECORDING), Matchers.equalTo(Optional.of(info)));
+    }
+
+    @Test
+    void shouldComputeMissingDigest() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+        index.rescan();
+
+        index.computeDigest(RECORDING);
+
+        MatcherAssert.assertThat(
+                index.get(RECORDING).get().getDigest(),
+                Matchers.equalTo(DigestUtils.sha256Hex("abc")));
+    }
+
+    @Test
+    void shouldNotRecordDigestOfChangedFile() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+        index.rescan();
+        write(RECORDING, "abcdef", "2021-01-02T00:00:00Z");
+
+        index.computeDigest(RECORDING);
+
+        MatcherAssert.assertThat(index.get(RECORDING).get().getDigest(), Matchers.nullValue());
+    }
+
+    @Test
+    void shouldKeepDigestOfUnchangedFileOnRefresh() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+        index.put(stored(RECORDING), "cafe");
+
+        index.refresh(RECORDING);
+
+        MatcherAssert.assertThat(index.get(RECORDING).get().getDigest(), Matchers.equalTo("cafe"));
+    }
+
+    @Test
+    void shouldListEntriesAfterName() throws Exception {
+        write("a_rec_20210101T000000Z.jfr", "a", "2021-01-01T00:00:00Z");
+        write("b_rec_20210101T000000Z.jfr", "b", "2021-01-01T00:00:00Z");
+        write("c_rec_20210101T000000Z.jfr", "c", "2021-01-01T00:00:00Z");
+        index.rescan();
+
+        MatcherAssert.assertThat(
+                names(index.listAfter("a_rec_20210101T000000Z.jfr", false)),
+                Matchers.equalTo(
+                        List.of("b_rec_20210101T000000Z.jfr", "c_rec_20210101T000000Z.jfr")));
+        MatcherAssert.assertThat(
+                names(index.listAfter("c_rec_20210101T000000Z.jfr", true)),
+                Matchers.equalTo(
+                        List.of("b_rec_20210101T000000Z.jfr", "a_rec_20210101T000000Z.jfr")));
+        MatcherAssert.assertThat(index.listAfter(null, true), Matchers.hasSize(3));
+    }
+
+    @Test
+    void shouldTrackSizesAndAgeOrder() throws Exception {
+        write("b_rec_20210101T000000Z.jfr", "abcd", "2021-01-02T00:00:00Z");
+        write("a_rec_20210101T000000Z.jfr", "abc", "2021-01-03T00:00:00Z");
+        write("a_rec_20210102T000000Z.jfr", "ab", "2021-01-01T00:00:00Z");
+        index.rescan();
+
+        MatcherAssert.assertThat(index.getTotalSize(), Matchers.equalTo(9L));
+        MatcherAssert.assertThat(
+                index.getTargetSizes(), Matchers.equalTo(Map.of("a", 5L, "b", 4L)));
+        MatcherAssert.assertThat(
+                names(index.oldestFirst()),
+                Matchers.equalTo(
+                        List.of(
+                                "a_rec_20210102T000000Z.jfr",
+                                "b_rec_20210101T000000Z.jfr",
+                                "a_rec_20210101T000000Z.jfr")));
+        MatcherAssert.assertThat(
+                names(index.oldestFirst("a")),
+                Matchers.equalTo(
+                        List.of("a_rec_20210102T000000Z.jfr", "a_rec_20210101T000000Z.jfr")));
+
+        write("a_rec_20210101T000000Z.jfr", "abcdef", "2021-01-04T00:00:00Z");
+        index.refresh("a_rec_20210101T000000Z.jfr");
+        index.remove("b_rec_20210101T000000Z.jfr");
+
+        MatcherAssert.assertThat(index.getTotalSize(), Matchers.equalTo(8L));
+        MatcherAssert.assertThat(index.getTargetSizes(), Matchers.equalTo(Map.of("a", 8L)));
+        MatcherAssert.assertThat(index.oldestFirst(), Matchers.hasSize(2));
+    }
+
+    @Test
+    void shouldRemoveEntryOnDeleteEvent() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+        index.rescan();
+        Files.delete(archivePath.resolve(RECORDING));
+
+        index.handleEvent(
+                archivePath, archivePath, event(StandardWatchEventKinds.ENTRY_DELETE, RECORDING));
+
+        MatcherAssert.assertThat(index.contains(RECORDING), Matchers.is(false));
+    }
+
+    @Test
+    void shouldIgnoreEventsForHiddenFiles() throws Exception {
+        write(".upload-1234", "partial", "2021-01-01T00:00:00Z");
+
+        index.handleEvent(
+                archivePath,
+                archivePath,
+                event(StandardWatchEventKinds.ENTRY_CREATE, ".upload-1234"));
+
+        MatcherAssert.assertThat(index.list(), Matchers.empty());
+    }
+
+    @Test
+    void shouldKeepEntryMovedBetweenLayouts() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+        ArchiveIndex sharded = newIndex(LocalArchiveStorage.Layout.SHARDED);
+        sharded.rescan();
+        Path shard = archivePath.resolve("some-Alias-2").resolve("20210101");
+        Files.createDirectories(shard);
+        Files.move(archivePath.resolve(RECORDING), shard.resolve(RECORDING));
+
+        // the deletion from the old location may be seen after the creation in the new one
+        sharded.handleEvent(
+                archivePath, shard, event(StandardWatchEventKinds.ENTRY_CREATE, RECORDING));
+        sharded.handleEvent(
+                archivePath, archivePath, event(StandardWatchEventKinds.ENTRY_DELETE, RECORDING));
+
+        MatcherAssert.assertThat(sharded.contains(RECORDING), Matchers.is(true));
+    }
+
+    @Test
+    void shouldIndexFilesInNewShardDirectories() throws Exception {
+        ArchiveIndex sharded = newIndex(LocalArchiveStorage.Layout.SHARDED);
+        Path shard = archivePath.resolve("some-Alias-2").resolve("20210101");
+        Files.createDirectories(shard);
+        Files.writeString(shard.resolve(RECORDING), "abc");
+
+        sharded.handleEvent(
+                archivePath,
+                archivePath,
+                event(StandardWatchEventKinds.ENTRY_CREATE, "some-Alias-2"));
+
+        MatcherAssert.assertThat(sharded.contains(RECORDING), Matchers.is(true));
+    }
+
+    @Test
+    void shouldListEntriesByTarget() throws Exception {
+        write("a_rec_20210101T000000Z.jfr", "abc", "2021-01-01T00:00:00Z");
+        write("b_rec_20210101T000000Z.jfr", "abc", "2021-01-01T00:00:00Z");
+        write("b_rec_20210102T000000Z.jfr", "abc", "2021-01-01T00:00:00Z");
+        write("unrecognized.jfr", "abc", "2021-01-01T00:00:00Z");
+        index.rescan();
+
+        MatcherAssert.assertThat(
+                names(index.list("b")),
+                Matchers.equalTo(
+                        List.of("b_rec_20210101T000000Z.jfr", "b_rec_20210102T000000Z.jfr")));
+        MatcherAssert.assertThat(
+                names(index.listAfter("b", "b_rec_20210102T000000Z.jfr", true)),
+                Matchers.equalTo(List.of("b_rec_20210101T000000Z.jfr")));
+        MatcherAssert.assertThat(index.list("c"), Matchers.empty());
+
+        index.remove("a_rec_20210101T000000Z.jfr");
+
+        MatcherAssert.assertThat(index.list("a"), Matchers.empty());
+        MatcherAssert.assertThat(index.list(), Matchers.hasSize(3));
+    }
+
+    @Test
+    void shouldRestorePersistedDigestsOnStart() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+        write("other_rec_20210102T000000Z.jfr", "def", "2021-01-02T00:00:00Z");
+        index.put(stored(RECORDING), "cafe");
+        index.put(stored("other_rec_20210102T000000Z.jfr"), "beef");
+        index.persist();
+        // modified while Cryostat was not running, so the old digest no longer applies
+        write("other_rec_20210102T000000Z.jfr", "defghi", "2021-01-03T00:00:00Z");
+
+        ArchiveIndex restarted = newIndex();
+        try {
+            restarted.start();
+
+            MatcherAssert.assertThat(
+                    restarted.get(RECORDING).get().getDigest(), Matchers.equalTo("cafe"));
+            ArchivedRecordingInfo other = restarted.get("other_rec_20210102T000000Z.jfr").get();
+            MatcherAssert.assertThat(other.getSize(), Matchers.equalTo(6L));
+            MatcherAssert.assertThat(other.getDigest(), Matchers.nullValue());
+        } finally {
+            restarted.stop();
+        }
+    }
+
+    @Test
+    void shouldDiscardCorruptPersistedIndex() throws Exception {
+        write(RECORDING, "abc", "2021-01-01T00:00:00Z");
+        Files.writeString(archivePath.resolve(ArchiveIndex.INDEX_FILE), "{not json");
+
+        index.start();
+
+        MatcherAssert.assertThat(names(), Matchers.equalTo(List.of(RECORDING)));
+    }
+
+    @Test
+    void shouldNotFailToStartWithoutArchiveDirectory() throws Exception {
+        ArchiveIndex missing =
+                new ArchiveIndex(
+                        new LocalArchiveStorage(archivePath.resolve("missing"), new FileSystem()),
+                        executor,
+                        MainModule.provideGson(logger),
+                        logger);
+
+        missing.start();
+
+        MatcherAssert.assertThat(missing.list(), Matchers.empty());
+    }
+
+    @Test
+    void shouldRemoveStaleStagedFilesOnStart() throws Exception {
+        Path abandoned = archivePath.resolve(ArchiveStorage.STAGED_FILE_PREFIX + "archive-1234");
+        write(abandoned.getFileName().toString(), "partial", "2021-01-01T00:00:00Z");
+
+        index.start();
+
+        MatcherAssert.assertThat(Files.exists(abandoned), Matchers.is(false));
+    }
+
+    @Test
+    void shouldPollStorageWithoutLocalDirectory() throws Exception {
+        ArchiveStorage remote = Mockito.mock(ArchiveStorage.class);
+        Mockito.when(remote.localDirectory()).thenReturn(Optional.empty());
+        Mockito.when(remote.list()).thenReturn(List.of(new StoredObject(RECORDING, 3, 1000)));
+        ArchiveIndex polling =
+                new ArchiveIndex(remote, executor, MainModule.provideGson(logger), logger);
+
+        polling.start();
+
+        MatcherAssert.assertThat(
+                polling.get(RECORDING),
+                Matchers.equalTo(Optional.of(new ArchivedRecordingInfo(RECORDING, 3, 1000, null))));
+        Mockito.verify(executor)
+                .scheduleWithFixedDelay(
+                        Mockito.any(Runnable.class),
+                        Mockito.eq(ArchiveIndex.RESCAN_PERIOD_MS),
+                        Mockito.eq(ArchiveIndex.RESCAN_PERIOD_MS),
+                        Mockito.eq(TimeUnit.MILLISECONDS));
+        // digests of objects found in remote storage are not computed, as that would mean
+        // downloading all of them
+        Mockito.verify(executor, Mockito.never())
+                .schedule(Mockito.any(Runnable.class), Mockito.anyLong(), Mockito.any());
+        polling.stop();
+    }
+
+    private ArchiveIndex newIndex() {
+        return newIndex(LocalArchiveStorage.Layout.FLAT);
+    }
+
+    private ArchiveIndex newIndex(LocalArchiveStorage.Layout layout) {
+        return new ArchiveIndex(
+                new LocalArchiveStorage(archivePath, new FileSystem(), layout, logger),
+                executor,
+                MainModule.provideGson(logger),
+                logger);
+    }
+
+    private StoredObject stored(String name) throws Exception {
+        return new LocalArchiveStorage(archivePath, new FileSystem()).stat(name).get();
+    }
+
+    private List<String> names() {
+        return names(index.list());
+    }
+
+    private static List<String> names(Collection<ArchivedRecordingInfo> infos) {
+        return infos.stream().map(ArchivedRecordingInfo::getName).collect(Collectors.toList());
+    }
+
+    private void write(String name, String content, String modified) throws Exception {
+        Path file = archivePath.resolve(name);
+        Files.writeString(file, content);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.parse(modified)));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static WatchEvent<Path> event(WatchEvent.Kind<Path> kind, String name) {
+        WatchEvent<Path> event = Mockito.mock(WatchEvent.class);
+        Mockito.when(event.kind()).thenReturn((WatchEvent.Kind) kind);
+        Mockito.lenient().when(event.context()).thenReturn(Path.of(name));
+        return event;
+    }
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import io.cryostat.MainModule;
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.core.sys.FileSystem;
+import io.cryostat.messaging.notifications.Notification;
+import io.cryostat.messaging.notifications.NotificationFactory;
+import io.cryostat.net.reports.ReportService;
+import io.cryostat.net.web.http.HttpMimeType;
+import io.cryostat.recordings.storage.LocalArchiveStorage;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ArchiveRetentionTest {
+
+    static final long DAY_MS = TimeUnit.DAYS.toMillis(1);
+
+    @TempDir Path archivePath;
+    @Mock ReportService reportService;
+    @Mock NotificationFactory notificationFactory;
+    @Mock Notification notification;
+    @Mock Notification.Builder notificationBuilder;
+    @Mock ScheduledExecutorService executor;
+    @Mock ScheduledExecutorService indexExecutor;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    LocalArchiveStorage storage;
+    ArchiveIndex index;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.lenient().when(notificationFactory.createBuilder()).thenReturn(notificationBuilder);
+        Mockito.lenient()
+                .when(notificationBuilder.metaCategory(Mockito.any()))
+                .thenReturn(notificationBuilder);
+        Mockito.lenient()
+                .when(notificationBuilder.metaType(Mockito.any(HttpMimeType.class)))
+                .thenReturn(notificationBuilder);
+        Mockito.lenient()
+                .when(notificationBuilder.message(Mockito.any()))
+                .thenReturn(notificationBuilder);
+        Mockito.lenient().when(notificationBuilder.build()).thenReturn(notification);
+        Mockito.lenient()
+                .when(clock.getWallTime())
+                .thenReturn(Instant.parse("2021-01-10T00:00:00Z").toEpochMilli());
+
+        this.storage = new LocalArchiveStorage(archivePath, new FileSystem());
+        this.index =
+                new ArchiveIndex(storage, indexExecutor, MainModule.provideGson(logger), logger);
+
+        write("a_rec_20210101T000000Z.jfr", 100, "2021-01-01T00:00:00Z");
+        write("b_rec_20210102T000000Z.jfr", 100, "2021-01-02T00:00:00Z");
+        write("a_rec_20210103T000000Z.jfr", 100, "2021-01-03T00:00:00Z");
+        write("upload.jfr", 100, "2021-01-04T00:00:00Z");
+        write("a_rec_20210105T000000Z.jfr", 100, "2021-01-05T00:00:00Z");
+        index.rescan();
+    }
+
+    @Test
+    void shouldDoNothingWithinBudgets() throws Exception {
+        retention(500, 300, 10 * DAY_MS).enforce();
+
+        MatcherAssert.assertThat(index.list(), Matchers.hasSize(5));
+        Mockito.verifyNoInteractions(notificationFactory);
+    }
+
+    @Test
+    void shouldDeleteOldestToFitTotalBudget() throws Exception {
+        retention(250, 0, 0).enforce();
+
+        MatcherAssert.assertThat(
+                remaining(), Matchers.equalTo(List.of("a_rec_20210105T000000Z.jfr", "upload.jfr")));
+        MatcherAssert.assertThat(index.getTotalSize(), Matchers.equalTo(200L));
+        try (var children = Files.list(archivePath)) {
+            MatcherAssert.assertThat(children.count(), Matchers.equalTo(2L));
+        }
+        Mockito.verify(reportService).delete("a_rec_20210101T000000Z.jfr");
+        Mockito.verify(notificationBuilder, Mockito.times(3)).metaCategory("RecordingDeleted");
+        Mockito.verify(notificationBuilder)
+                .message(Map.of("recording", "a_rec_20210101T000000Z.jfr", "reason", "TOTAL_SIZE"));
+        Mockito.verify(notification, Mockito.times(3)).send();
+    }
+
+    @Test
+    void shouldDeleteOldestOfTargetOverItsBudget() throws Exception {
+        retention(0, 150, 0).enforce();
+
+        MatcherAssert.assertThat(
+                remaining(),
+                Matchers.equalTo(
+                        List.of(
+                                "a_rec_20210105T000000Z.jfr",
+                                "b_rec_20210102T000000Z.jfr",
+                                "upload.jfr")));
+        MatcherAssert.assertThat(index.getTargetSize("a"), Matchers.equalTo(100L));
+        Mockito.verify(notificationBuilder)
+                .message(
+                        Map.of("recording", "a_rec_20210103T000000Z.jfr", "reason", "TARGET_SIZE"));
+    }
+
+    @Test
+    void shouldDeleteRecordingsOlderThanMaxAge() throws Exception {
+        retention(0, 0, 7 * DAY_MS).enforce();
+
+        MatcherAssert.assertThat(
+                remaining(),
+                Matchers.equalTo(
+                        List.of(
+                                "a_rec_20210103T000000Z.jfr",
+                                "a_rec_20210105T000000Z.jfr",
+                                "upload.jfr")));
+    }
+
+    @Test
+    void shouldDropIndexEntryForAlreadyDeletedRecording() throws Exception {
+        Files.delete(archivePath.resolve("a_rec_20210101T000000Z.jfr"));
+
+        retention(0, 0, 8 * DAY_MS).enforce();
+
+        MatcherAssert.assertThat(index.contains("a_rec_20210101T000000Z.jfr"), Matchers.is(false));
+        Mockito.verifyNoInteractions(notificationFactory);
+    }
+
+    @Test
+    void shouldNotScheduleChecksWhenDisabled() {
+        ArchiveRetention retention = retention(0, 0, 0);
+
+        retention.start();
+
+        MatcherAssert.assertThat(retention.isEnabled(), Matchers.is(false));
+        Mockito.verifyNoInteractions(executor);
+    }
+
+    @Test
+    void shouldCheckWhenArchiveGrowsOverBudget() throws Exception {
+        ArchiveRetention retention = retention(500, 0, 0);
+        retention.start();
+        Mockito.verify(executor)
+                .scheduleWithFixedDelay(
+                        Mockito.any(Runnable.class),
+                        Mockito.eq(0L),
+                        Mockito.eq(ArchiveRetention.CHECK_PERIOD_MS),
+                        Mockito.eq(TimeUnit.MILLISECONDS));
+
+        write("b_rec_20210106T000000Z.jfr", 100, "2021-01-06T00:00:00Z");
+        index.refresh("b_rec_20210106T000000Z.jfr");
+
+        Mockito.verify(executor).execute(Mockito.any(Runnable.class));
+    }
+
+    private ArchiveRetention retention(long maxTotalBytes, long maxTargetBytes, long maxAgeMs) {
+        return new ArchiveRetention(
+                index,
+                storage,
+                reportService,
+                notificationFactory,
+                executor,
+                clock,
+                logger,
+                maxTotalBytes,
+                maxTargetBytes,
+                maxAgeMs);
+    }
+
+    private List<String> remaining() {
+        return index.list().stream()
+                .map(ArchivedRecordingInfo::getName)
+                .collect(Collectors.toList());
+    }
+
+    private void write(String name, int size, String modified) throws Exception {
+        Path file = archivePath.resolve(name);
+        Files.write(file, new byte[size]);
+        Files.setLastModifiedTime(file, FileTime.from(Instant.parse(modified)));
+    }
+}
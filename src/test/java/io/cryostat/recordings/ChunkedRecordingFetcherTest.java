@@ -0,0 +1,302 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.openjdk.jmc.common.unit.IQuantity;
+import org.openjdk.jmc.common.unit.UnitLookup;
+import org.openjdk.jmc.rjmx.services.jfr.FlightRecorderException;
+import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
+import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.net.JFRConnection;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.core.sys.FileSystem;
+import io.cryostat.recordings.storage.ArchiveStorage;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ChunkedRecordingFetcherTest {
+
+    @Mock JFRConnection connection;
+    @Mock IFlightRecorderService service;
+    @Mock IRecordingDescriptor descriptor;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    @Mock ArchiveStorage storage;
+    @TempDir Path stagingPath;
+    FileSystem fs = new FileSystem();
+    ExecutorService executor;
+
+    @BeforeEach
+    void setup() throws Exception {
+        executor = Executors.newFixedThreadPool(2);
+        Mockito.lenient().when(storage.stagingDirectory()).thenReturn(stagingPath);
+        // not used by the tests of the chunk filtering stream alone
+        Mockito.lenient().when(connection.getService()).thenReturn(service);
+    }
+
+    @AfterEach
+    void teardown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldOpenSingleStreamWithoutParallelism() throws Exception {
+        InputStream stream = Mockito.mock(InputStream.class);
+        Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
+
+        ChunkedRecordingFetcher fetcher =
+                new ChunkedRecordingFetcher(1, storage, fs, executor, clock, logger);
+
+        MatcherAssert.assertThat(
+                fetcher.openStream(connection, descriptor), Matchers.sameInstance(stream));
+        Mockito.verifyNoInteractions(descriptor);
+    }
+
+    @Test
+    void shouldOpenSingleStreamIfDataRangeUnknown() throws Exception {
+        InputStream stream = Mockito.mock(InputStream.class);
+        Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
+        Mockito.when(descriptor.getDataStartTime()).thenReturn(null);
+
+        ChunkedRecordingFetcher fetcher =
+                new ChunkedRecordingFetcher(4, storage, fs, executor, clock, logger);
+
+        MatcherAssert.assertThat(
+                fetcher.openStream(connection, descriptor), Matchers.sameInstance(stream));
+        Mockito.verify(service, Mockito.never())
+                .openStream(
+                        Mockito.any(),
+                        Mockito.any(IQuantity.class),
+                        Mockito.any(IQuantity.class),
+                        Mockito.anyBoolean());
+    }
+
+    @Test
+    void shouldFetchSlicesConcurrentlyAndDropDuplicateChunks() throws Exception {
+        byte[] a = chunk(1_000L, "aaaa");
+        byte[] b = chunk(5_000L, "bbbbbb");
+        byte[] c = chunk(9_000L, "cc");
+
+        Mockito.when(descriptor.getDataStartTime()).thenReturn(UnitLookup.EPOCH_NS.quantity(0L));
+        Mockito.when(descriptor.getDataEndTime()).thenReturn(UnitLookup.EPOCH_NS.quantity(10_000L));
+        Mockito.when(clock.getWallTime()).thenReturn(0L);
+        Mockito.when(
+                        service.openStream(
+                                Mockito.eq(descriptor),
+                                Mockito.any(IQuantity.class),
+                                Mockito.any(IQuantity.class),
+                                Mockito.eq(false)))
+                .thenAnswer(
+                        invocation -> {
+                            long from =
+                                    ((IQuantity) invocation.getArgument(1))
+                                            .clampedLongValueIn(UnitLookup.EPOCH_NS);
+                            // the middle chunk straddles the slice boundary at 5000ns, so it is
+                            // returned by both slices
+                            return from == 0L
+                                    ? new ByteArrayInputStream(concat(a, b))
+                                    : new ByteArrayInputStream(concat(b, c));
+                        });
+
+        ChunkedRecordingFetcher fetcher =
+                new ChunkedRecordingFetcher(2, storage, fs, executor, clock, logger);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream stream = fetcher.openStream(connection, descriptor)) {
+            stream.transferTo(out);
+        }
+
+        MatcherAssert.assertThat(out.toByteArray(), Matchers.equalTo(concat(a, b, c)));
+        MatcherAssert.assertThat(fs.listDirectoryChildren(stagingPath), Matchers.empty());
+        Mockito.verify(service, Mockito.times(2))
+                .openStream(
+                        Mockito.eq(descriptor),
+                        Mockito.any(IQuantity.class),
+                        Mockito.any(IQuantity.class),
+                        Mockito.eq(false));
+        Mockito.verify(service, Mockito.never()).openStream(descriptor, false);
+    }
+
+    @Test
+    void shouldThrowIfAnySliceFails() throws Exception {
+        Mockito.when(descriptor.getDataStartTime()).thenReturn(UnitLookup.EPOCH_NS.quantity(0L));
+        Mockito.when(descriptor.getDataEndTime()).thenReturn(UnitLookup.EPOCH_NS.quantity(10_000L));
+        Mockito.when(clock.getWallTime()).thenReturn(0L);
+        FlightRecorderException failure = new FlightRecorderException("stream failed");
+        Mockito.when(
+                        service.openStream(
+                                Mockito.eq(descriptor),
+                                Mockito.any(IQuantity.class),
+                                Mockito.any(IQuantity.class),
+                                Mockito.eq(false)))
+                .thenReturn(new ByteArrayInputStream(chunk(1_000L, "aaaa")))
+                .thenThrow(failure);
+
+        ChunkedRecordingFetcher fetcher =
+                new ChunkedRecordingFetcher(2, storage, fs, executor, clock, logger);
+
+        FlightRecorderException ex =
+                Assertions.assertThrows(
+                        FlightRecorderException.class,
+                        () -> fetcher.openStream(connection, descriptor));
+        MatcherAssert.assertThat(ex, Matchers.sameInstance(failure));
+        MatcherAssert.assertThat(fs.listDirectoryChildren(stagingPath), Matchers.empty());
+    }
+
+    @Test
+    void shouldRejectTruncatedChunks() throws Exception {
+        byte[] a = chunk(1_000L, "aaaa");
+        byte[] truncated = new byte[a.length - 1];
+        System.arraycopy(a, 0, truncated, 0, truncated.length);
+
+        Mockito.when(descriptor.getDataStartTime()).thenReturn(UnitLookup.EPOCH_NS.quantity(0L));
+        Mockito.when(descriptor.getDataEndTime()).thenReturn(UnitLookup.EPOCH_NS.quantity(10_000L));
+        Mockito.when(clock.getWallTime()).thenReturn(0L);
+        Mockito.when(
+                        service.openStream(
+                                Mockito.eq(descriptor),
+                                Mockito.any(IQuantity.class),
+                                Mockito.any(IQuantity.class),
+                                Mockito.eq(false)))
+                .thenAnswer(invocation -> new ByteArrayInputStream(truncated));
+
+        ChunkedRecordingFetcher fetcher =
+                new ChunkedRecordingFetcher(2, storage, fs, executor, clock, logger);
+
+        try (InputStream stream = fetcher.openStream(connection, descriptor)) {
+            Assertions.assertThrows(
+                    IOException.class, () -> stream.transferTo(new ByteArrayOutputStream()));
+        }
+    }
+
+    @Test
+    void shouldOpenRangedStreamFromGivenTime() throws Exception {
+        InputStream stream = Mockito.mock(InputStream.class);
+        Mockito.when(
+                        service.openStream(
+                                descriptor,
+                                UnitLookup.EPOCH_NS.quantity(5_000L),
+                                UnitLookup.EPOCH_NS.quantity(Long.MAX_VALUE),
+                                false))
+                .thenReturn(stream);
+
+        ChunkedRecordingFetcher fetcher =
+                new ChunkedRecordingFetcher(4, storage, fs, executor, clock, logger);
+
+        MatcherAssert.assertThat(
+                fetcher.openStream(connection, descriptor, 5_000L), Matchers.sameInstance(stream));
+    }
+
+    @Test
+    void shouldPassOnlyChunksStartingAfterGivenTime() throws Exception {
+        byte[] a = chunk(1_000L, "aaaa");
+        byte[] b = chunk(5_000L, "bbbbbb");
+        byte[] c = chunk(9_000L, "cc");
+
+        ChunkedRecordingFetcher.NewChunksInputStream stream =
+                new ChunkedRecordingFetcher.NewChunksInputStream(
+                        new ByteArrayInputStream(concat(a, b, c)), 5_000L);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        stream.transferTo(out);
+
+        MatcherAssert.assertThat(out.toByteArray(), Matchers.equalTo(c));
+        MatcherAssert.assertThat(stream.getChunkCount(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(stream.getLastStartNanos(), Matchers.equalTo(9_000L));
+        MatcherAssert.assertThat(stream.getEndNanos(), Matchers.equalTo(10_000L));
+    }
+
+    @Test
+    void shouldPassNothingIfNoNewChunks() throws Exception {
+        byte[] a = chunk(1_000L, "aaaa");
+
+        ChunkedRecordingFetcher.NewChunksInputStream stream =
+                new ChunkedRecordingFetcher.NewChunksInputStream(
+                        new ByteArrayInputStream(a), 1_000L);
+
+        MatcherAssert.assertThat(stream.read(), Matchers.equalTo(-1));
+        MatcherAssert.assertThat(stream.getChunkCount(), Matchers.equalTo(0));
+    }
+
+    static byte[] chunk(long startNanos, String payload) {
+        byte[] body = payload.getBytes();
+        ByteBuffer buf = ByteBuffer.allocate(JfrChunkHeader.SIZE + body.length);
+        buf.put(new byte[] {'F', 'L', 'R', 0});
+        buf.putShort((short) 2);
+        buf.putShort((short) 0);
+        buf.putLong(JfrChunkHeader.SIZE + body.length);
+        buf.putLong(JfrChunkHeader.SIZE);
+        buf.putLong(JfrChunkHeader.SIZE);
+        buf.putLong(startNanos);
+        buf.putLong(1_000L);
+        buf.putLong(0L);
+        buf.putLong(1_000_000_000L);
+        buf.putInt(0);
+        buf.put(body);
+        return buf.array();
+    }
+
+    static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.writeBytes(part);
+        }
+        return out.toByteArray();
+    }
+}
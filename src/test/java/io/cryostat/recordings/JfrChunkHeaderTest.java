@@ -0,0 +1,82 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class JfrChunkHeaderTest {
+
+    @Test
+    void shouldParseHeaderFields() throws Exception {
+        JfrChunkHeader header =
+                JfrChunkHeader.parse(ChunkedRecordingFetcherTest.chunk(12345L, "payload"));
+
+        MatcherAssert.assertThat(header.getMajorVersion(), Matchers.equalTo(2));
+        MatcherAssert.assertThat(header.getMinorVersion(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(
+                header.getChunkSize(), Matchers.equalTo((long) JfrChunkHeader.SIZE + 7));
+        MatcherAssert.assertThat(header.getStartNanos(), Matchers.equalTo(12345L));
+        MatcherAssert.assertThat(header.getDurationNanos(), Matchers.equalTo(1_000L));
+    }
+
+    @Test
+    void shouldRejectBadMagic() {
+        byte[] bytes = ChunkedRecordingFetcherTest.chunk(0L, "");
+        bytes[0] = 'X';
+        Assertions.assertThrows(IOException.class, () -> JfrChunkHeader.parse(bytes));
+    }
+
+    @Test
+    void shouldRejectTruncatedHeader() {
+        Assertions.assertThrows(
+                IOException.class, () -> JfrChunkHeader.parse(new byte[JfrChunkHeader.SIZE - 1]));
+    }
+
+    @Test
+    void shouldRejectChunkSizeSmallerThanHeader() {
+        byte[] bytes = ChunkedRecordingFetcherTest.chunk(0L, "");
+        ByteBuffer.wrap(bytes).putLong(8, 10L);
+        Assertions.assertThrows(IOException.class, () -> JfrChunkHeader.parse(bytes));
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class JfrStreamValidatorTest {
+
+    JfrStreamValidator validator;
+
+    @BeforeEach
+    void setup() {
+        validator = new JfrStreamValidator();
+    }
+
+    @Test
+    void shouldAcceptCompleteChunksDeliveredBytewise() throws IOException {
+        byte[] recording =
+                ChunkedRecordingFetcherTest.concat(
+                        ChunkedRecordingFetcherTest.chunk(1L, "first"),
+                        ChunkedRecordingFetcherTest.chunk(2L, "second"));
+        for (int i = 0; i < recording.length; i++) {
+            validator.accept(recording, i, 1);
+        }
+        validator.finish();
+
+        MatcherAssert.assertThat(validator.getChunkCount(), Matchers.equalTo(2));
+        MatcherAssert.assertThat(
+                validator.getByteCount(), Matchers.equalTo((long) recording.length));
+    }
+
+    @Test
+    void shouldRejectEmptyStream() {
+        Assertions.assertThrows(IOException.class, validator::finish);
+    }
+
+    @Test
+    void shouldRejectBadMagicImmediately() {
+        byte[] bytes = ChunkedRecordingFetcherTest.chunk(1L, "payload");
+        bytes[1] = 'X';
+        Assertions.assertThrows(IOException.class, () -> validator.accept(bytes));
+    }
+
+    @Test
+    void shouldRejectTruncatedChunk() throws IOException {
+        byte[] bytes = ChunkedRecordingFetcherTest.chunk(1L, "payload");
+        validator.accept(bytes, 0, bytes.length - 1);
+        Assertions.assertThrows(IOException.class, validator::finish);
+    }
+
+    @Test
+    void shouldRejectTrailingPartialHeader() throws IOException {
+        validator.accept(ChunkedRecordingFetcherTest.chunk(1L, "payload"));
+        validator.accept(new byte[] {'F', 'L', 'R'});
+        Assertions.assertThrows(IOException.class, validator::finish);
+    }
+
+    @Test
+    void shouldRejectUnsupportedVersion() {
+        byte[] bytes = ChunkedRecordingFetcherTest.chunk(1L, "payload");
+        ByteBuffer.wrap(bytes).putShort(4, (short) 9);
+        Assertions.assertThrows(IOException.class, () -> validator.accept(bytes));
+    }
+
+    @Test
+    void shouldAcceptLegacyVersion() throws IOException {
+        byte[] bytes = ChunkedRecordingFetcherTest.chunk(1L, "payload");
+        ByteBuffer buf = ByteBuffer.wrap(bytes);
+        buf.putShort(4, (short) 0);
+        buf.putShort(6, (short) 9);
+        // the 1.x offset fields mean something else in the 0.9 header
+        buf.putLong(24, Long.MAX_VALUE);
+
+        validator.accept(bytes);
+        validator.finish();
+
+        MatcherAssert.assertThat(validator.getChunkCount(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldRejectMetadataOffsetOutsideChunk() {
+        byte[] bytes = ChunkedRecordingFetcherTest.chunk(1L, "payload");
+        ByteBuffer.wrap(bytes).putLong(24, bytes.length);
+        Assertions.assertThrows(IOException.class, () -> validator.accept(bytes));
+    }
+}
@@ -37,19 +37,27 @@
  */
 package io.cryostat.recordings;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
 
 import javax.management.remote.JMXServiceURL;
 
 import org.openjdk.jmc.common.unit.IQuantity;
 import org.openjdk.jmc.common.unit.QuantityConversionException;
+import org.openjdk.jmc.common.unit.UnitLookup;
 import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
 import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 
+import io.cryostat.core.log.Logger;
 import io.cryostat.core.net.JFRConnection;
 import io.cryostat.core.sys.Clock;
 import io.cryostat.core.sys.FileSystem;
@@ -58,6 +66,8 @@ import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.net.reports.ReportService;
 import io.cryostat.platform.PlatformClient;
 import io.cryostat.platform.ServiceRef;
+import io.cryostat.recordings.storage.ArchiveStorage;
+import io.cryostat.recordings.storage.StoredObject;
 import io.cryostat.util.URIUtil;
 
 import org.hamcrest.MatcherAssert;
@@ -77,11 +87,14 @@ class RecordingArchiveHelperTest {
 
     RecordingArchiveHelper recordingArchiveHelper;
     @Mock FileSystem fs;
-    @Mock Path recordingsPath;
+    @Mock ArchiveStorage storage;
     @Mock TargetConnectionManager targetConnectionManager;
     @Mock Clock clock;
     @Mock PlatformClient platformClient;
     @Mock ReportService reportService;
+    @Mock ExecutorService executor;
+    @Mock Logger logger;
+    @Mock ArchiveIndex archiveIndex;
 
     @Mock JFRConnection connection;
     @Mock IFlightRecorderService service;
@@ -94,11 +107,13 @@ class RecordingArchiveHelperTest {
         this.recordingArchiveHelper =
                 new RecordingArchiveHelper(
                         fs,
-                        recordingsPath,
+                        storage,
                         targetConnectionManager,
                         clock,
                         platformClient,
-                        reportService);
+                        reportService,
+                        new ChunkedRecordingFetcher(1, storage, fs, executor, clock, logger),
+                        archiveIndex);
     }
 
     @Test
@@ -176,11 +191,13 @@ class RecordingArchiveHelperTest {
 
         Instant now = Instant.now();
         Mockito.when(clock.now()).thenReturn(now);
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(false);
+        Mockito.when(archiveIndex.contains(Mockito.anyString())).thenReturn(false);
         InputStream stream = Mockito.mock(InputStream.class);
         Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
-        Path destination = Mockito.mock(Path.class);
-        Mockito.when(recordingsPath.resolve(Mockito.anyString())).thenReturn(destination);
+        Mockito.when(storage.stagingDirectory()).thenReturn(Path.of("/flightrecordings"));
+        Mockito.when(storage.encode(Mockito.any())).thenAnswer(i -> i.getArgument(0));
+        Mockito.when(storage.putFile(Mockito.anyString(), Mockito.any(Path.class)))
+                .thenAnswer(invocation -> new StoredObject(invocation.getArgument(0), 1, 1));
 
         String saveName =
                 recordingArchiveHelper.saveRecording(
@@ -189,7 +206,11 @@ class RecordingArchiveHelperTest {
         String timestamp = now.truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
         MatcherAssert.assertThat(
                 saveName, Matchers.equalTo("some-Alias-2_someRecording_" + timestamp + ".jfr"));
-        Mockito.verify(fs).copy(Mockito.eq(stream), Mockito.eq(destination));
+        Mockito.verify(fs).copy(Mockito.any(InputStream.class), Mockito.any(Path.class));
+        Mockito.verify(storage).putFile(Mockito.eq(saveName), Mockito.any(Path.class));
+        Mockito.verify(archiveIndex)
+                .put(Mockito.eq(new StoredObject(saveName, 1, 1)), Mockito.anyString());
+        Mockito.verify(fs).deleteIfExists(Mockito.any(Path.class));
     }
 
     @Test
@@ -241,11 +262,13 @@ class RecordingArchiveHelperTest {
 
         Instant now = Instant.now();
         Mockito.when(clock.now()).thenReturn(now);
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(false);
+        Mockito.when(archiveIndex.contains(Mockito.anyString())).thenReturn(false);
         InputStream stream = Mockito.mock(InputStream.class);
         Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
-        Path destination = Mockito.mock(Path.class);
-        Mockito.when(recordingsPath.resolve(Mockito.anyString())).thenReturn(destination);
+        Mockito.when(storage.stagingDirectory()).thenReturn(Path.of("/flightrecordings"));
+        Mockito.when(storage.encode(Mockito.any())).thenAnswer(i -> i.getArgument(0));
+        Mockito.when(storage.putFile(Mockito.anyString(), Mockito.any(Path.class)))
+                .thenAnswer(invocation -> new StoredObject(invocation.getArgument(0), 1, 1));
 
         String saveName =
                 recordingArchiveHelper.saveRecording(
@@ -255,7 +278,93 @@ class RecordingArchiveHelperTest {
         MatcherAssert.assertThat(
                 saveName,
                 Matchers.equalTo("some-hostname-local_someRecording_" + timestamp + ".jfr"));
-        Mockito.verify(fs).copy(Mockito.eq(stream), Mockito.eq(destination));
+        Mockito.verify(fs).copy(Mockito.any(InputStream.class), Mockito.any(Path.class));
+        Mockito.verify(storage).putFile(Mockito.eq(saveName), Mockito.any(Path.class));
+        Mockito.verify(archiveIndex)
+                .put(Mockito.eq(new StoredObject(saveName, 1, 1)), Mockito.anyString());
+        Mockito.verify(fs).deleteIfExists(Mockito.any(Path.class));
+    }
+
+    @Test
+    void shouldSaveOnlyNewChunksIncrementally() throws Exception {
+        Mockito.when(
+                        targetConnectionManager.executeConnectedTask(
+                                Mockito.any(),
+                                Mockito.any(TargetConnectionManager.ConnectedTask.class)))
+                .thenAnswer(
+                        new Answer<>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) throws Throwable {
+                                TargetConnectionManager.ConnectedTask task =
+                                        (TargetConnectionManager.ConnectedTask)
+                                                invocation.getArgument(1);
+                                return task.execute(connection);
+                            }
+                        });
+        Mockito.when(connection.getService()).thenReturn(service);
+        IRecordingDescriptor descriptor = Mockito.mock(IRecordingDescriptor.class);
+        Mockito.when(descriptor.getName()).thenReturn(recordingName);
+        Mockito.when(descriptor.getId()).thenReturn(7L);
+        Mockito.when(service.getAvailableRecordings()).thenReturn(List.of(descriptor));
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of());
+        Mockito.when(connection.getHost()).thenReturn("some-hostname.local");
+        Mockito.when(clock.now()).thenReturn(Instant.now());
+        Mockito.when(archiveIndex.contains(Mockito.anyString())).thenReturn(false);
+        Mockito.when(storage.stagingDirectory()).thenReturn(Path.of("/flightrecordings"));
+        Mockito.when(storage.encode(Mockito.any())).thenAnswer(i -> i.getArgument(0));
+        Mockito.when(storage.putFile(Mockito.anyString(), Mockito.any(Path.class)))
+                .thenAnswer(invocation -> new StoredObject(invocation.getArgument(0), 1, 1));
+        List<byte[]> copied = new ArrayList<>();
+        Mockito.when(fs.copy(Mockito.any(InputStream.class), Mockito.any(Path.class)))
+                .thenAnswer(
+                        invocation -> {
+                            byte[] bytes = ((InputStream) invocation.getArgument(0)).readAllBytes();
+                            copied.add(bytes);
+                            return (long) bytes.length;
+                        });
+
+        byte[] a = ChunkedRecordingFetcherTest.chunk(1_000L, "aaaa");
+        byte[] b = ChunkedRecordingFetcherTest.chunk(5_000L, "bbbbbb");
+        byte[] c = ChunkedRecordingFetcherTest.chunk(9_000L, "cc");
+        Mockito.when(service.openStream(descriptor, false))
+                .thenReturn(new ByteArrayInputStream(ChunkedRecordingFetcherTest.concat(a, b)));
+        Mockito.when(
+                        service.openStream(
+                                Mockito.eq(descriptor),
+                                Mockito.eq(UnitLookup.EPOCH_NS.quantity(6_000L)),
+                                Mockito.any(IQuantity.class),
+                                Mockito.eq(false)))
+                .thenReturn(new ByteArrayInputStream(ChunkedRecordingFetcherTest.concat(b, c)));
+        Mockito.when(
+                        service.openStream(
+                                Mockito.eq(descriptor),
+                                Mockito.eq(UnitLookup.EPOCH_NS.quantity(10_000L)),
+                                Mockito.any(IQuantity.class),
+                                Mockito.eq(false)))
+                .thenReturn(new ByteArrayInputStream(c));
+        ChunkCursor cursor = new ChunkCursor();
+        ConnectionDescriptor cd = new ConnectionDescriptor(targetId);
+
+        MatcherAssert.assertThat(
+                recordingArchiveHelper.saveRecording(cd, recordingName, cursor).isPresent(),
+                Matchers.is(true));
+        MatcherAssert.assertThat(cursor.getEndNanos(), Matchers.equalTo(6_000L));
+        MatcherAssert.assertThat(
+                recordingArchiveHelper.saveRecording(cd, recordingName, cursor).isPresent(),
+                Matchers.is(true));
+        MatcherAssert.assertThat(cursor.getEndNanos(), Matchers.equalTo(10_000L));
+        MatcherAssert.assertThat(
+                recordingArchiveHelper.saveRecording(cd, recordingName, cursor),
+                Matchers.equalTo(Optional.empty()));
+
+        MatcherAssert.assertThat(copied, Matchers.hasSize(3));
+        MatcherAssert.assertThat(
+                copied.get(0), Matchers.equalTo(ChunkedRecordingFetcherTest.concat(a, b)));
+        MatcherAssert.assertThat(copied.get(1), Matchers.equalTo(c));
+        MatcherAssert.assertThat(copied.get(2).length, Matchers.equalTo(0));
+        Mockito.verify(storage, Mockito.times(2))
+                .putFile(Mockito.anyString(), Mockito.any(Path.class));
+        Mockito.verify(fs, Mockito.times(3)).deleteIfExists(Mockito.any(Path.class));
     }
 
     @Test
@@ -301,11 +410,13 @@ class RecordingArchiveHelperTest {
 
         Instant now = Instant.now();
         Mockito.when(clock.now()).thenReturn(now);
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(false);
+        Mockito.when(archiveIndex.contains(Mockito.anyString())).thenReturn(false);
         InputStream stream = Mockito.mock(InputStream.class);
         Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
-        Path destination = Mockito.mock(Path.class);
-        Mockito.when(recordingsPath.resolve(Mockito.anyString())).thenReturn(destination);
+        Mockito.when(storage.stagingDirectory()).thenReturn(Path.of("/flightrecordings"));
+        Mockito.when(storage.encode(Mockito.any())).thenAnswer(i -> i.getArgument(0));
+        Mockito.when(storage.putFile(Mockito.anyString(), Mockito.any(Path.class)))
+                .thenAnswer(invocation -> new StoredObject(invocation.getArgument(0), 1, 1));
 
         String saveName =
                 recordingArchiveHelper.saveRecording(
@@ -315,7 +426,11 @@ class RecordingArchiveHelperTest {
         MatcherAssert.assertThat(
                 saveName,
                 Matchers.equalTo("some-hostname-local_someRecording_" + timestamp + ".jfr"));
-        Mockito.verify(fs).copy(Mockito.eq(stream), Mockito.eq(destination));
+        Mockito.verify(fs).copy(Mockito.any(InputStream.class), Mockito.any(Path.class));
+        Mockito.verify(storage).putFile(Mockito.eq(saveName), Mockito.any(Path.class));
+        Mockito.verify(archiveIndex)
+                .put(Mockito.eq(new StoredObject(saveName, 1, 1)), Mockito.anyString());
+        Mockito.verify(fs).deleteIfExists(Mockito.any(Path.class));
     }
 
     @Test
@@ -367,11 +482,13 @@ class RecordingArchiveHelperTest {
 
         Instant now = Instant.now();
         Mockito.when(clock.now()).thenReturn(now);
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(false);
+        Mockito.when(archiveIndex.contains(Mockito.anyString())).thenReturn(false);
         InputStream stream = Mockito.mock(InputStream.class);
         Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
-        Path destination = Mockito.mock(Path.class);
-        Mockito.when(recordingsPath.resolve(Mockito.anyString())).thenReturn(destination);
+        Mockito.when(storage.stagingDirectory()).thenReturn(Path.of("/flightrecordings"));
+        Mockito.when(storage.encode(Mockito.any())).thenAnswer(i -> i.getArgument(0));
+        Mockito.when(storage.putFile(Mockito.anyString(), Mockito.any(Path.class)))
+                .thenAnswer(invocation -> new StoredObject(invocation.getArgument(0), 1, 1));
 
         String saveName =
                 recordingArchiveHelper.saveRecording(
@@ -380,7 +497,11 @@ class RecordingArchiveHelperTest {
         String timestamp = now.truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
         MatcherAssert.assertThat(
                 saveName, Matchers.equalTo("some-Alias-2_someRecording_" + timestamp + ".jfr"));
-        Mockito.verify(fs).copy(Mockito.eq(stream), Mockito.eq(destination));
+        Mockito.verify(fs).copy(Mockito.any(InputStream.class), Mockito.any(Path.class));
+        Mockito.verify(storage).putFile(Mockito.eq(saveName), Mockito.any(Path.class));
+        Mockito.verify(archiveIndex)
+                .put(Mockito.eq(new StoredObject(saveName, 1, 1)), Mockito.anyString());
+        Mockito.verify(fs).deleteIfExists(Mockito.any(Path.class));
     }
 
     @Test
@@ -431,11 +552,13 @@ class RecordingArchiveHelperTest {
 
         Instant now = Instant.now();
         Mockito.when(clock.now()).thenReturn(now);
-        Mockito.when(fs.exists(Mockito.any())).thenReturn(true).thenReturn(false);
+        Mockito.when(archiveIndex.contains(Mockito.anyString())).thenReturn(true).thenReturn(false);
         InputStream stream = Mockito.mock(InputStream.class);
         Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
-        Path destination = Mockito.mock(Path.class);
-        Mockito.when(recordingsPath.resolve(Mockito.anyString())).thenReturn(destination);
+        Mockito.when(storage.stagingDirectory()).thenReturn(Path.of("/flightrecordings"));
+        Mockito.when(storage.encode(Mockito.any())).thenAnswer(i -> i.getArgument(0));
+        Mockito.when(storage.putFile(Mockito.anyString(), Mockito.any(Path.class)))
+                .thenAnswer(invocation -> new StoredObject(invocation.getArgument(0), 1, 1));
 
         String saveName =
                 recordingArchiveHelper.saveRecording(
@@ -444,7 +567,84 @@ class RecordingArchiveHelperTest {
         String timestamp = now.truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
         MatcherAssert.assertThat(
                 saveName, Matchers.equalTo("some-Alias-2_someRecording_" + timestamp + ".1.jfr"));
-        Mockito.verify(fs).copy(Mockito.eq(stream), Mockito.eq(destination));
+        Mockito.verify(fs).copy(Mockito.any(InputStream.class), Mockito.any(Path.class));
+        Mockito.verify(storage).putFile(Mockito.eq(saveName), Mockito.any(Path.class));
+        Mockito.verify(archiveIndex)
+                .put(Mockito.eq(new StoredObject(saveName, 1, 1)), Mockito.anyString());
+        Mockito.verify(fs).deleteIfExists(Mockito.any(Path.class));
+    }
+
+    @Test
+    void shouldSaveNumberedCopyIfUnindexedFileExists() throws Exception {
+        Mockito.when(
+                        targetConnectionManager.executeConnectedTask(
+                                Mockito.any(),
+                                Mockito.any(TargetConnectionManager.ConnectedTask.class)))
+                .thenAnswer(
+                        new Answer<>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) throws Throwable {
+                                TargetConnectionManager.ConnectedTask task =
+                                        (TargetConnectionManager.ConnectedTask)
+                                                invocation.getArgument(1);
+                                return task.execute(connection);
+                            }
+                        });
+        Mockito.when(connection.getService()).thenReturn(service);
+        IRecordingDescriptor descriptor = Mockito.mock(IRecordingDescriptor.class);
+        Mockito.when(descriptor.getName()).thenReturn(recordingName);
+        Mockito.when(service.getAvailableRecordings()).thenReturn(List.of(descriptor));
+
+        ServiceRef serviceRef1 =
+                new ServiceRef(
+                        URIUtil.convert(
+                                new JMXServiceURL(
+                                        "service:jmx:rmi:///jndi/rmi://cryostat:9091/jmxrmi")),
+                        "some.Alias.1");
+        ServiceRef serviceRef2 =
+                new ServiceRef(
+                        URIUtil.convert(
+                                new JMXServiceURL(
+                                        "service:jmx:rmi:///jndi/rmi://cryostat:9092/jmxrmi")),
+                        "some.Alias.2");
+        ServiceRef serviceRef3 =
+                new ServiceRef(
+                        URIUtil.convert(
+                                new JMXServiceURL(
+                                        "service:jmx:rmi:///jndi/rmi://cryostat:9093/jmxrmi")),
+                        "some.Alias.3");
+
+        Mockito.when(platformClient.listDiscoverableServices())
+                .thenReturn(List.of(serviceRef1, serviceRef2, serviceRef3));
+        Mockito.when(connection.getJMXURL())
+                .thenReturn(
+                        (new JMXServiceURL("service:jmx:rmi:///jndi/rmi://cryostat:9092/jmxrmi")));
+
+        Instant now = Instant.now();
+        Mockito.when(clock.now()).thenReturn(now);
+        Mockito.when(archiveIndex.contains(Mockito.anyString())).thenReturn(false);
+        InputStream stream = Mockito.mock(InputStream.class);
+        Mockito.when(service.openStream(descriptor, false)).thenReturn(stream);
+        Mockito.when(storage.stagingDirectory()).thenReturn(Path.of("/flightrecordings"));
+        Mockito.when(storage.encode(Mockito.any())).thenAnswer(i -> i.getArgument(0));
+        Mockito.when(storage.putFile(Mockito.anyString(), Mockito.any(Path.class)))
+                .thenThrow(FileAlreadyExistsException.class)
+                .thenAnswer(invocation -> new StoredObject(invocation.getArgument(0), 1, 1));
+
+        String saveName =
+                recordingArchiveHelper.saveRecording(
+                        new ConnectionDescriptor(targetId), recordingName);
+
+        String timestamp = now.truncatedTo(ChronoUnit.SECONDS).toString().replaceAll("[-:]+", "");
+        MatcherAssert.assertThat(
+                saveName, Matchers.equalTo("some-Alias-2_someRecording_" + timestamp + ".1.jfr"));
+        // the recording is only fetched once, and offered again under the next name
+        Mockito.verify(fs).copy(Mockito.any(InputStream.class), Mockito.any(Path.class));
+        Mockito.verify(storage, Mockito.times(2))
+                .putFile(Mockito.anyString(), Mockito.any(Path.class));
+        Mockito.verify(archiveIndex)
+                .put(Mockito.eq(new StoredObject(saveName, 1, 1)), Mockito.anyString());
+        Mockito.verify(fs).deleteIfExists(Mockito.any(Path.class));
     }
 
     @Test
@@ -520,4 +720,40 @@ class RecordingArchiveHelperTest {
         Mockito.lenient().when(descriptor.getMaxAge()).thenReturn(zeroQuantity);
         return descriptor;
     }
+
+    @Test
+    void shouldDeleteArchivedRecording() throws Exception {
+        Mockito.when(storage.delete("foo.jfr")).thenReturn(true);
+
+        MatcherAssert.assertThat(
+                recordingArchiveHelper.deleteArchivedRecording("foo.jfr"), Matchers.is(true));
+
+        Mockito.verify(archiveIndex).remove("foo.jfr");
+        Mockito.verify(storage).delete("foo.jfr");
+        Mockito.verify(reportService).delete("foo.jfr");
+    }
+
+    @Test
+    void shouldReportMissingArchivedRecording() throws Exception {
+        Mockito.when(storage.delete("foo.jfr")).thenReturn(false);
+
+        MatcherAssert.assertThat(
+                recordingArchiveHelper.deleteArchivedRecording("foo.jfr"), Matchers.is(false));
+
+        Mockito.verify(reportService).delete("foo.jfr");
+    }
+
+    @Test
+    void shouldKeepIndexEntryIfArchivedRecordingDeleteFails() throws Exception {
+        IOException failure = new IOException("delete failed");
+        Mockito.when(storage.delete("foo.jfr")).thenThrow(failure);
+
+        IOException ex =
+                Assertions.assertThrows(
+                        IOException.class,
+                        () -> recordingArchiveHelper.deleteArchivedRecording("foo.jfr"));
+
+        MatcherAssert.assertThat(ex, Matchers.sameInstance(failure));
+        Mockito.verify(archiveIndex, Mockito.never()).remove(Mockito.anyString());
+    }
 }
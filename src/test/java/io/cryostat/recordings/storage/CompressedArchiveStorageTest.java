@@ -0,0 +1,186 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import io.cryostat.core.sys.FileSystem;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class CompressedArchiveStorageTest {
+
+    @TempDir Path archivePath;
+    LocalArchiveStorage local;
+    CompressedArchiveStorage storage;
+
+    @BeforeEach
+    void setup() {
+        this.local = new LocalArchiveStorage(archivePath, new FileSystem());
+        this.storage = new CompressedArchiveStorage(local, Deflater.BEST_SPEED);
+    }
+
+    @Test
+    void shouldStoreCompressedAndReadBackDecompressed() throws Exception {
+        byte[] data = FramedGzipTest.data(FramedGzip.FRAME_SIZE + 500);
+
+        StoredObject stored = storage.put("foo.jfr", new ByteArrayInputStream(data));
+
+        MatcherAssert.assertThat(stored.getSize(), Matchers.equalTo((long) data.length));
+        MatcherAssert.assertThat(
+                local.stat("foo.jfr").get().getSize(), Matchers.lessThan((long) data.length));
+        try (InputStream in =
+                new GZIPInputStream(Files.newInputStream(archivePath.resolve("foo.jfr")))) {
+            MatcherAssert.assertThat(Arrays.equals(in.readAllBytes(), data), Matchers.is(true));
+        }
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("foo.jfr", 0, -1)), data), Matchers.is(true));
+        MatcherAssert.assertThat(storage.stat("foo.jfr"), Matchers.equalTo(Optional.of(stored)));
+        MatcherAssert.assertThat(storage.list(), Matchers.equalTo(List.of(stored)));
+    }
+
+    @Test
+    void shouldReadRanges() throws Exception {
+        byte[] data = FramedGzipTest.data(FramedGzip.FRAME_SIZE * 2 + 500);
+        storage.put("foo.jfr", new ByteArrayInputStream(data));
+        int offset = FramedGzip.FRAME_SIZE * 2 - 10;
+
+        MatcherAssert.assertThat(
+                Arrays.equals(
+                        read(storage.get("foo.jfr", offset, 20)),
+                        Arrays.copyOfRange(data, offset, offset + 20)),
+                Matchers.is(true));
+        MatcherAssert.assertThat(
+                read(storage.get("foo.jfr", data.length, -1)).length, Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldAcceptFilesEncodedWhileStaging() throws Exception {
+        byte[] data = FramedGzipTest.data(1000);
+        Path staged = storage.stagingDirectory().resolve(".staged");
+        try (InputStream in = storage.encode(new ByteArrayInputStream(data))) {
+            Files.copy(in, staged);
+        }
+        long encodedSize = Files.size(staged);
+
+        StoredObject stored = storage.putFile("foo.jfr", staged);
+
+        MatcherAssert.assertThat(stored.getSize(), Matchers.equalTo(1000L));
+        MatcherAssert.assertThat(Files.exists(staged), Matchers.is(false));
+        // not compressed a second time
+        MatcherAssert.assertThat(
+                local.stat("foo.jfr").get().getSize(), Matchers.equalTo(encodedSize));
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("foo.jfr", 0, -1)), data), Matchers.is(true));
+    }
+
+    @Test
+    void shouldCompressPlainFilesOnPutFile() throws Exception {
+        byte[] data = FramedGzipTest.data(1000);
+        Path staged = storage.stagingDirectory().resolve(".staged");
+        Files.write(staged, data);
+
+        StoredObject stored = storage.putFile("foo.jfr", staged);
+
+        MatcherAssert.assertThat(stored.getSize(), Matchers.equalTo(1000L));
+        MatcherAssert.assertThat(Files.exists(staged), Matchers.is(false));
+        MatcherAssert.assertThat(local.stat("foo.jfr").get().getSize(), Matchers.lessThan(1000L));
+        try (var children = Files.list(archivePath)) {
+            MatcherAssert.assertThat(children.count(), Matchers.equalTo(1L));
+        }
+    }
+
+    @Test
+    void shouldKeepFileWhenNameIsTaken() throws Exception {
+        storage.put("foo.jfr", new ByteArrayInputStream(FramedGzipTest.data(10)));
+        Path staged = storage.stagingDirectory().resolve(".staged");
+        Files.write(staged, FramedGzipTest.data(10));
+
+        Assertions.assertThrows(
+                FileAlreadyExistsException.class, () -> storage.putFile("foo.jfr", staged));
+
+        MatcherAssert.assertThat(Files.exists(staged), Matchers.is(true));
+    }
+
+    @Test
+    void shouldServeUncompressedObjectsAsTheyAre() throws Exception {
+        local.put("old.jfr", new ByteArrayInputStream("plain contents".getBytes()));
+
+        MatcherAssert.assertThat(storage.stat("old.jfr").get().getSize(), Matchers.equalTo(14L));
+        MatcherAssert.assertThat(
+                new String(read(storage.get("old.jfr", 6, -1)), StandardCharsets.UTF_8),
+                Matchers.equalTo("contents"));
+    }
+
+    @Test
+    void shouldProvideDecompressedLocalFile() throws Exception {
+        byte[] data = FramedGzipTest.data(1000);
+        storage.put("foo.jfr", new ByteArrayInputStream(data));
+
+        MatcherAssert.assertThat(storage.directPath("foo.jfr"), Matchers.equalTo(Optional.empty()));
+        Path path;
+        try (ArchiveStorage.LocalFile file = storage.localFile("foo.jfr")) {
+            path = file.getPath();
+            MatcherAssert.assertThat(
+                    Arrays.equals(Files.readAllBytes(path), data), Matchers.is(true));
+        }
+        MatcherAssert.assertThat(Files.exists(path), Matchers.is(false));
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.core.sys.FileSystem;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class DedupArchiveStorageTest {
+
+    @TempDir Path archivePath;
+    @Mock ScheduledExecutorService executor;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    LocalArchiveStorage manifests;
+    LocalArchiveStorage blocks;
+    DedupArchiveStorage storage;
+
+    @BeforeEach
+    void setup() throws IOException {
+        this.manifests = new LocalArchiveStorage(archivePath, new FileSystem());
+        this.blocks = new LocalArchiveStorage(archivePath.resolve(".chunks"), new FileSystem());
+        this.storage = new DedupArchiveStorage(manifests, blocks, executor, clock, logger);
+        storage.checkAvailable();
+    }
+
+    @Test
+    void shouldShareChunksBetweenSuccessiveArchives() throws Exception {
+        byte[] first = concat(chunk(1000, 1), chunk(2000, 2));
+        byte[] second = concat(chunk(1000, 1), chunk(2000, 2), chunk(1500, 3));
+
+        StoredObject a = storage.put("a.jfr", new ByteArrayInputStream(first));
+        StoredObject b = storage.put("b.jfr", new ByteArrayInputStream(second));
+
+        MatcherAssert.assertThat(blocks.list(), Matchers.hasSize(3));
+        MatcherAssert.assertThat(a.getSize(), Matchers.equalTo((long) first.length));
+        MatcherAssert.assertThat(b.getSize(), Matchers.equalTo((long) second.length));
+        MatcherAssert.assertThat(manifests.stat("b.jfr").get().getSize(), Matchers.lessThan(1000L));
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("a.jfr", 0, -1)), first), Matchers.is(true));
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("b.jfr", 0, -1)), second), Matchers.is(true));
+        MatcherAssert.assertThat(storage.stat("b.jfr"), Matchers.equalTo(Optional.of(b)));
+        MatcherAssert.assertThat(storage.list(), Matchers.containsInAnyOrder(a, b));
+    }
+
+    @Test
+    void shouldReadRangesAcrossChunks() throws Exception {
+        byte[] data = concat(chunk(1000, 1), chunk(2000, 2), chunk(1500, 3));
+        storage.put("foo.jfr", new ByteArrayInputStream(data));
+
+        MatcherAssert.assertThat(
+                Arrays.equals(
+                        read(storage.get("foo.jfr", 990, 2100)),
+                        Arrays.copyOfRange(data, 990, 3090)),
+                Matchers.is(true));
+        MatcherAssert.assertThat(
+                Arrays.equals(
+                        read(storage.get("foo.jfr", 3500, -1)),
+                        Arrays.copyOfRange(data, 3500, data.length)),
+                Matchers.is(true));
+        MatcherAssert.assertThat(
+                read(storage.get("foo.jfr", data.length, -1)).length, Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldSplitUnstructuredContentIntoFixedBlocks() throws Exception {
+        byte[] data = new byte[DedupArchiveStorage.FIXED_BLOCK_SIZE + 10];
+        Arrays.fill(data, (byte) 7);
+
+        StoredObject stored = storage.put("foo.jfr", new ByteArrayInputStream(data));
+
+        MatcherAssert.assertThat(stored.getSize(), Matchers.equalTo((long) data.length));
+        MatcherAssert.assertThat(blocks.list(), Matchers.hasSize(2));
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("foo.jfr", 0, -1)), data), Matchers.is(true));
+    }
+
+    @Test
+    void shouldAcceptFilesEncodedWhileStaging() throws Exception {
+        byte[] data = chunk(1000, 1);
+        Path staged = storage.stagingDirectory().resolve(".staged");
+        try (InputStream in = storage.encode(new ByteArrayInputStream(data))) {
+            Files.copy(in, staged);
+        }
+
+        StoredObject stored = storage.putFile("foo.jfr", staged);
+
+        MatcherAssert.assertThat(stored.getSize(), Matchers.equalTo(1000L));
+        MatcherAssert.assertThat(Files.exists(staged), Matchers.is(false));
+        MatcherAssert.assertThat(blocks.list(), Matchers.hasSize(1));
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("foo.jfr", 0, -1)), data), Matchers.is(true));
+    }
+
+    @Test
+    void shouldServeObjectsStoredBeforeDeduplication() throws Exception {
+        byte[] data = chunk(1000, 1);
+        manifests.put("old.jfr", new ByteArrayInputStream(data));
+
+        MatcherAssert.assertThat(storage.stat("old.jfr").get().getSize(), Matchers.equalTo(1000L));
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("old.jfr", 0, -1)), data), Matchers.is(true));
+        MatcherAssert.assertThat(storage.list(), Matchers.hasSize(1));
+    }
+
+    @Test
+    void shouldNotListChunksAsObjects() throws Exception {
+        storage.put("foo.jfr", new ByteArrayInputStream(chunk(1000, 1)));
+
+        MatcherAssert.assertThat(manifests.list(), Matchers.hasSize(1));
+    }
+
+    @Test
+    void shouldScheduleOneSweepForSeveralDeletions() throws Exception {
+        storage.put("a.jfr", new ByteArrayInputStream(chunk(1000, 1)));
+        storage.put("b.jfr", new ByteArrayInputStream(chunk(1000, 2)));
+
+        storage.delete("a.jfr");
+        storage.delete("b.jfr");
+
+        Mockito.verify(executor)
+                .schedule(
+                        ArgumentMatchers.any(Runnable.class),
+                        ArgumentMatchers.eq(DedupArchiveStorage.SWEEP_DELAY_MS),
+                        ArgumentMatchers.eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void shouldSweepOnlyUnreferencedChunksOutsideGracePeriod() throws Exception {
+        long now = System.currentTimeMillis();
+        Mockito.when(clock.getWallTime()).thenReturn(now);
+        byte[] shared = chunk(1000, 1);
+        storage.put("a.jfr", new ByteArrayInputStream(concat(shared, chunk(1000, 2))));
+        storage.put("b.jfr", new ByteArrayInputStream(concat(shared, chunk(1000, 3))));
+        storage.delete("a.jfr");
+
+        // within the grace period nothing is removed
+        MatcherAssert.assertThat(storage.sweep(), Matchers.equalTo(0));
+
+        Mockito.when(clock.getWallTime())
+                .thenReturn(now + DedupArchiveStorage.GRACE_PERIOD_MS + 60_000);
+        MatcherAssert.assertThat(storage.sweep(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(blocks.list(), Matchers.hasSize(2));
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("b.jfr", 0, -1)), concat(shared, chunk(1000, 3))),
+                Matchers.is(true));
+    }
+
+    @Test
+    void shouldNotSweepChunksReusedDuringGracePeriod() throws Exception {
+        long now = System.currentTimeMillis();
+        Mockito.when(clock.getWallTime()).thenReturn(now);
+        storage.put("a.jfr", new ByteArrayInputStream(chunk(1000, 1)));
+        storage.delete("a.jfr");
+
+        long later = now + DedupArchiveStorage.GRACE_PERIOD_MS + 60_000;
+        Mockito.when(clock.getWallTime()).thenReturn(later);
+        // encoded again, as if by an archive whose manifest is not stored yet
+        read(storage.encode(new ByteArrayInputStream(chunk(1000, 1))));
+
+        MatcherAssert.assertThat(storage.sweep(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(blocks.list(), Matchers.hasSize(1));
+    }
+
+    @Test
+    void shouldNotSweepOldChunkReusedByAnotherInstanceDuringSweep() throws Exception {
+        long now = System.currentTimeMillis();
+        Mockito.when(clock.getWallTime()).thenReturn(now);
+        byte[] data = chunk(1000, 1);
+        storage.put("a.jfr", new ByteArrayInputStream(data));
+        storage.delete("a.jfr");
+        String digest = blocks.list().get(0).getName();
+        age(digest, now - DedupArchiveStorage.GRACE_PERIOD_MS - 60_000);
+
+        // a second instance sharing the storage, whose listing of blocks is interleaved with this
+        // instance encoding the same chunk again
+        LocalArchiveStorage sharedBlocks =
+                Mockito.spy(
+                        new LocalArchiveStorage(archivePath.resolve(".chunks"), new FileSystem()));
+        Mockito.doAnswer(
+                        invocation -> {
+                            Object listed = invocation.callRealMethod();
+                            read(storage.encode(new ByteArrayInputStream(data)));
+                            return listed;
+                        })
+                .when(sharedBlocks)
+                .list();
+        DedupArchiveStorage other =
+                new DedupArchiveStorage(manifests, sharedBlocks, executor, clock, logger);
+
+        MatcherAssert.assertThat(other.sweep(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(
+                blocks.stat(digest).get().getLastModified(),
+                Matchers.greaterThanOrEqualTo(now - DedupArchiveStorage.REFRESH_AGE_MS));
+    }
+
+    @Test
+    void shouldKeepChunksOfSlowSaveUntilManifestStored() throws Exception {
+        long now = System.currentTimeMillis();
+        byte[] data = chunk(1000, 1);
+        Path staged = storage.stagingDirectory().resolve(".staged");
+        Mockito.when(clock.getWallTime()).thenReturn(now - DedupArchiveStorage.GRACE_PERIOD_MS);
+        try (InputStream in = storage.encode(new ByteArrayInputStream(data))) {
+            Files.copy(in, staged);
+        }
+        String digest = blocks.list().get(0).getName();
+        age(digest, now - 2 * DedupArchiveStorage.GRACE_PERIOD_MS);
+
+        Mockito.when(clock.getWallTime()).thenReturn(now);
+        MatcherAssert.assertThat(storage.sweep(), Matchers.equalTo(0));
+
+        storage.putFile("foo.jfr", staged);
+        // renewed before the manifest was stored, for the benefit of other instances
+        MatcherAssert.assertThat(
+                blocks.stat(digest).get().getLastModified(),
+                Matchers.greaterThanOrEqualTo(now - DedupArchiveStorage.REFRESH_AGE_MS));
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("foo.jfr", 0, -1)), data), Matchers.is(true));
+
+        // and released once it was
+        storage.delete("foo.jfr");
+        age(digest, now - 2 * DedupArchiveStorage.GRACE_PERIOD_MS);
+        MatcherAssert.assertThat(storage.sweep(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldReleaseChunksOfAbandonedSave() throws Exception {
+        long now = System.currentTimeMillis();
+        Mockito.when(clock.getWallTime()).thenReturn(now);
+        Path staged = storage.stagingDirectory().resolve(".staged");
+        try (InputStream in = storage.encode(new ByteArrayInputStream(chunk(1000, 1)))) {
+            Files.copy(in, staged);
+        }
+        String digest = blocks.list().get(0).getName();
+        age(digest, now - 2 * DedupArchiveStorage.GRACE_PERIOD_MS);
+        MatcherAssert.assertThat(storage.sweep(), Matchers.equalTo(0));
+
+        storage.abandon(staged);
+        Files.delete(staged);
+
+        MatcherAssert.assertThat(storage.sweep(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldSplitOversizedChunks() throws Exception {
+        byte[] header = chunk(DedupArchiveStorage.JFR_HEADER_PEEK, 0);
+        ByteBuffer.wrap(header, 8, 8).putLong(DedupArchiveStorage.MAX_BLOCK_SIZE + 100L);
+        byte[] data = new byte[DedupArchiveStorage.MAX_BLOCK_SIZE + 100];
+        System.arraycopy(header, 0, data, 0, header.length);
+
+        storage.put("foo.jfr", new ByteArrayInputStream(data));
+
+        List<StoredObject> stored = blocks.list();
+        MatcherAssert.assertThat(stored, Matchers.hasSize(2));
+        MatcherAssert.assertThat(
+                Arrays.equals(read(storage.get("foo.jfr", 0, -1)), data), Matchers.is(true));
+    }
+
+    void age(String digest, long lastModified) throws IOException {
+        Files.setLastModifiedTime(
+                archivePath.resolve(".chunks").resolve(digest), FileTime.fromMillis(lastModified));
+    }
+
+    /** @return a JFR chunk of the given size: a header declaring the size, then filler */
+    static byte[] chunk(int size, int fill) {
+        byte[] chunk = new byte[size];
+        Arrays.fill(chunk, (byte) fill);
+        ByteBuffer buf = ByteBuffer.wrap(chunk);
+        buf.put(new byte[] {'F', 'L', 'R', 0});
+        buf.putShort((short) 2);
+        buf.putShort((short) 0);
+        buf.putLong(size);
+        return chunk;
+    }
+
+    static byte[] concat(byte[]... parts) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts) {
+            out.write(part);
+        }
+        return out.toByteArray();
+    }
+
+    static byte[] read(InputStream in) throws IOException {
+        try (in) {
+            return in.readAllBytes();
+        }
+    }
+}
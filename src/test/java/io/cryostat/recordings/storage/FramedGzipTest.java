@@ -0,0 +1,154 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Optional;
+import java.util.Random;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+class FramedGzipTest {
+
+    @Test
+    void shouldProduceStandardGzip() throws Exception {
+        byte[] data = data(FramedGzip.FRAME_SIZE * 2 + 12345);
+
+        byte[] encoded = encode(data);
+
+        MatcherAssert.assertThat(encoded.length, Matchers.lessThan(data.length));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+            MatcherAssert.assertThat(Arrays.equals(in.readAllBytes(), data), Matchers.is(true));
+        }
+    }
+
+    @Test
+    void shouldIndexFrames() throws Exception {
+        byte[] data = data(FramedGzip.FRAME_SIZE * 2 + 12345);
+        byte[] encoded = encode(data);
+
+        FramedGzip.Index index = index(encoded).get();
+
+        MatcherAssert.assertThat(index.getSize(), Matchers.equalTo((long) data.length));
+        MatcherAssert.assertThat(index.frameCount(), Matchers.equalTo(3));
+        MatcherAssert.assertThat(index.frameAt(0), Matchers.equalTo(0));
+        MatcherAssert.assertThat(index.frameAt(FramedGzip.FRAME_SIZE - 1), Matchers.equalTo(0));
+        MatcherAssert.assertThat(index.frameAt(FramedGzip.FRAME_SIZE), Matchers.equalTo(1));
+        MatcherAssert.assertThat(index.frameAt(data.length - 1), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldDecodeRangesFromTheirFrame() throws Exception {
+        byte[] data = data(FramedGzip.FRAME_SIZE * 2 + 12345);
+        byte[] encoded = encode(data);
+        FramedGzip.Index index = index(encoded).get();
+
+        long offset = FramedGzip.FRAME_SIZE + 100;
+        int frame = index.frameAt(offset);
+        int start = (int) index.compressedOffset(frame);
+        InputStream in = new ByteArrayInputStream(encoded, start, encoded.length - start);
+        byte[] read;
+        try (InputStream decoded = index.decode(in, frame, offset, FramedGzip.FRAME_SIZE)) {
+            read = decoded.readAllBytes();
+        }
+
+        MatcherAssert.assertThat(
+                Arrays.equals(
+                        read,
+                        Arrays.copyOfRange(
+                                data, (int) offset, (int) offset + FramedGzip.FRAME_SIZE)),
+                Matchers.is(true));
+    }
+
+    @Test
+    void shouldEncodeEmptyContents() throws Exception {
+        byte[] encoded = encode(new byte[0]);
+
+        FramedGzip.Index index = index(encoded).get();
+
+        MatcherAssert.assertThat(index.getSize(), Matchers.equalTo(0L));
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(encoded))) {
+            MatcherAssert.assertThat(in.readAllBytes().length, Matchers.equalTo(0));
+        }
+    }
+
+    @Test
+    void shouldNotRecognizeOtherContents() {
+        byte[] data = data(100);
+
+        MatcherAssert.assertThat(
+                FramedGzip.trailerLength(
+                        Arrays.copyOfRange(
+                                data, data.length - FramedGzip.TAIL_LENGTH, data.length)),
+                Matchers.equalTo(Optional.empty()));
+    }
+
+    static byte[] data(int length) {
+        // compressible, but not trivially so
+        Random random = new Random(1234);
+        byte[] data = new byte[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static byte[] encode(byte[] data) throws IOException {
+        try (InputStream in =
+                FramedGzip.encode(new ByteArrayInputStream(data), Deflater.BEST_SPEED)) {
+            return in.readAllBytes();
+        }
+    }
+
+    private static Optional<FramedGzip.Index> index(byte[] encoded) {
+        byte[] tail =
+                Arrays.copyOfRange(
+                        encoded, encoded.length - FramedGzip.TAIL_LENGTH, encoded.length);
+        int length = FramedGzip.trailerLength(tail).get();
+        return FramedGzip.Index.parse(
+                Arrays.copyOfRange(encoded, encoded.length - length, encoded.length),
+                encoded.length);
+    }
+}
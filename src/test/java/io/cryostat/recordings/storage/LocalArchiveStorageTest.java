@@ -0,0 +1,350 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.FileSystem;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class LocalArchiveStorageTest {
+
+    static final String RECORDING = "some-Alias-2_someRecording_20210101T000000Z.jfr";
+
+    @TempDir Path archivePath;
+    @Mock Logger logger;
+    LocalArchiveStorage storage;
+
+    @BeforeEach
+    void setup() {
+        this.storage = new LocalArchiveStorage(archivePath, new FileSystem());
+    }
+
+    @Test
+    void shouldStoreAndReadBackObject() throws Exception {
+        StoredObject stored = storage.put("foo.jfr", stream("0123456789"));
+
+        MatcherAssert.assertThat(stored.getName(), Matchers.equalTo("foo.jfr"));
+        MatcherAssert.assertThat(stored.getSize(), Matchers.equalTo(10L));
+        MatcherAssert.assertThat(storage.stat("foo.jfr"), Matchers.equalTo(Optional.of(stored)));
+        MatcherAssert.assertThat(
+                read(storage.get("foo.jfr", 0, -1)), Matchers.equalTo("0123456789"));
+    }
+
+    @Test
+    void shouldRenewLastModifiedOnTouch() throws Exception {
+        storage.put("foo.jfr", stream("0123456789"));
+        long old = System.currentTimeMillis() - 3_600_000;
+        Files.setLastModifiedTime(archivePath.resolve("foo.jfr"), FileTime.fromMillis(old));
+
+        storage.touch("foo.jfr");
+
+        MatcherAssert.assertThat(
+                storage.stat("foo.jfr").get().getLastModified(), Matchers.greaterThan(old));
+        Assertions.assertThrows(NoSuchFileException.class, () -> storage.touch("bar.jfr"));
+    }
+
+    @Test
+    void shouldRemoveOnlyStaleStagedFiles() throws Exception {
+        long now = System.currentTimeMillis();
+        long stale = now - ArchiveStorage.STALE_STAGED_FILE_AGE_MS - 1000;
+        Path abandoned = ArchiveStorage.newStagedFile(storage.stagingDirectory(), "upload");
+        Path inProgress = ArchiveStorage.newStagedFile(storage.stagingDirectory(), "fetch");
+        Path index = archivePath.resolve(".archive-index.json");
+        for (Path file : List.of(abandoned, inProgress, index)) {
+            Files.writeString(file, "partial");
+        }
+        storage.put("foo.jfr", stream("contents"));
+        for (Path file : List.of(abandoned, index, archivePath.resolve("foo.jfr"))) {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(stale));
+        }
+
+        MatcherAssert.assertThat(storage.removeStaleStagedFiles(now), Matchers.equalTo(1));
+
+        MatcherAssert.assertThat(Files.exists(abandoned), Matchers.is(false));
+        MatcherAssert.assertThat(Files.exists(inProgress), Matchers.is(true));
+        MatcherAssert.assertThat(Files.exists(index), Matchers.is(true));
+        MatcherAssert.assertThat(storage.stat("foo.jfr").isPresent(), Matchers.is(true));
+    }
+
+    @Test
+    void shouldReadRanges() throws Exception {
+        storage.put("foo.jfr", stream("0123456789"));
+
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 3, 4)), Matchers.equalTo("3456"));
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 7, -1)), Matchers.equalTo("789"));
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 20, -1)), Matchers.equalTo(""));
+    }
+
+    @Test
+    void shouldRefuseToOverwrite() throws Exception {
+        storage.put("foo.jfr", stream("first"));
+
+        Assertions.assertThrows(
+                FileAlreadyExistsException.class, () -> storage.put("foo.jfr", stream("second")));
+
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 0, -1)), Matchers.equalTo("first"));
+        // the staged copy of the rejected contents must not be left behind
+        MatcherAssert.assertThat(storage.list(), Matchers.hasSize(1));
+        try (var children = Files.list(archivePath)) {
+            MatcherAssert.assertThat(children.count(), Matchers.equalTo(1L));
+        }
+    }
+
+    @Test
+    void shouldLetOnlyOneConcurrentSaveClaimAName() throws Exception {
+        int writers = 8;
+        ExecutorService executor = Executors.newFixedThreadPool(writers);
+        try {
+            CountDownLatch start = new CountDownLatch(1);
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < writers; i++) {
+                Path staged = storage.stagingDirectory().resolve(".staged-" + i);
+                Files.writeString(staged, "writer " + i);
+                results.add(
+                        executor.submit(
+                                () -> {
+                                    start.await();
+                                    try {
+                                        storage.putFile("foo.jfr", staged);
+                                        return true;
+                                    } catch (FileAlreadyExistsException faee) {
+                                        MatcherAssert.assertThat(
+                                                Files.exists(staged), Matchers.is(true));
+                                        return false;
+                                    }
+                                }));
+            }
+            start.countDown();
+            int winner = -1;
+            for (int i = 0; i < writers; i++) {
+                if (results.get(i).get()) {
+                    MatcherAssert.assertThat(winner, Matchers.equalTo(-1));
+                    winner = i;
+                }
+            }
+
+            MatcherAssert.assertThat(winner, Matchers.greaterThanOrEqualTo(0));
+            MatcherAssert.assertThat(
+                    read(storage.get("foo.jfr", 0, -1)), Matchers.equalTo("writer " + winner));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void shouldConsumeFileOnPutFile() throws Exception {
+        Path staged = storage.stagingDirectory().resolve(".staged");
+        Files.writeString(staged, "contents");
+
+        storage.putFile("foo.jfr", staged);
+
+        MatcherAssert.assertThat(Files.exists(staged), Matchers.is(false));
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 0, -1)), Matchers.equalTo("contents"));
+    }
+
+    @Test
+    void shouldListOnlyVisibleRegularFiles() throws Exception {
+        storage.put("foo.jfr", stream("a"));
+        storage.put("bar.jfr", stream("b"));
+        Files.writeString(archivePath.resolve(".upload-1234"), "partial");
+        Files.createDirectory(archivePath.resolve("subdir"));
+
+        List<String> names =
+                storage.list().stream()
+                        .map(StoredObject::getName)
+                        .sorted()
+                        .collect(Collectors.toList());
+
+        MatcherAssert.assertThat(names, Matchers.equalTo(List.of("bar.jfr", "foo.jfr")));
+        MatcherAssert.assertThat(storage.stat("subdir"), Matchers.equalTo(Optional.empty()));
+    }
+
+    @Test
+    void shouldDeleteObjects() throws Exception {
+        storage.put("foo.jfr", stream("a"));
+
+        MatcherAssert.assertThat(storage.delete("foo.jfr"), Matchers.is(true));
+        MatcherAssert.assertThat(storage.delete("foo.jfr"), Matchers.is(false));
+        Assertions.assertThrows(NoSuchFileException.class, () -> storage.get("foo.jfr", 0, -1));
+    }
+
+    @Test
+    void shouldRejectNamesOutsideArchive() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class, () -> storage.put("../foo.jfr", stream("a")));
+        Assertions.assertThrows(
+                IllegalArgumentException.class, () -> storage.stat(".archive-index.json"));
+    }
+
+    @Test
+    void shouldProvideLocalFileDirectly() throws Exception {
+        storage.put("foo.jfr", stream("a"));
+
+        try (ArchiveStorage.LocalFile file = storage.localFile("foo.jfr")) {
+            MatcherAssert.assertThat(
+                    file.getPath(), Matchers.equalTo(archivePath.resolve("foo.jfr")));
+        }
+        MatcherAssert.assertThat(Files.exists(archivePath.resolve("foo.jfr")), Matchers.is(true));
+    }
+
+    @Test
+    void shouldReportMissingDirectory() {
+        LocalArchiveStorage missing =
+                new LocalArchiveStorage(archivePath.resolve("missing"), new FileSystem());
+
+        IOException ex = Assertions.assertThrows(IOException.class, missing::checkAvailable);
+        MatcherAssert.assertThat(ex.getMessage(), Matchers.containsString("does not exist"));
+    }
+
+    @Test
+    void shouldShardByTargetAndDay() throws Exception {
+        LocalArchiveStorage sharded = sharded();
+
+        sharded.put(RECORDING, stream("a"));
+        sharded.put("foo.jfr", stream("b"));
+
+        Path shard = archivePath.resolve("some-Alias-2").resolve("20210101");
+        MatcherAssert.assertThat(Files.exists(shard.resolve(RECORDING)), Matchers.is(true));
+        MatcherAssert.assertThat(Files.exists(archivePath.resolve("foo.jfr")), Matchers.is(true));
+        MatcherAssert.assertThat(read(sharded.get(RECORDING, 0, -1)), Matchers.equalTo("a"));
+        MatcherAssert.assertThat(names(sharded), Matchers.equalTo(List.of("foo.jfr", RECORDING)));
+        try (ArchiveStorage.LocalFile file = sharded.localFile(RECORDING)) {
+            MatcherAssert.assertThat(file.getPath(), Matchers.equalTo(shard.resolve(RECORDING)));
+        }
+    }
+
+    @Test
+    void shouldPruneEmptyShardsOnDelete() throws Exception {
+        LocalArchiveStorage sharded = sharded();
+        sharded.put(RECORDING, stream("a"));
+
+        MatcherAssert.assertThat(sharded.delete(RECORDING), Matchers.is(true));
+
+        MatcherAssert.assertThat(
+                Files.exists(archivePath.resolve("some-Alias-2")), Matchers.is(false));
+        MatcherAssert.assertThat(Files.exists(archivePath), Matchers.is(true));
+    }
+
+    @Test
+    void shouldServeAndMigrateFlatFilesWhenSharded() throws Exception {
+        storage.put(RECORDING, stream("a"));
+        LocalArchiveStorage sharded = sharded();
+
+        // still reachable under the same name before migration
+        MatcherAssert.assertThat(read(sharded.get(RECORDING, 0, -1)), Matchers.equalTo("a"));
+        MatcherAssert.assertThat(names(sharded), Matchers.equalTo(List.of(RECORDING)));
+        Assertions.assertThrows(
+                FileAlreadyExistsException.class, () -> sharded.put(RECORDING, stream("b")));
+
+        sharded.prepare();
+
+        MatcherAssert.assertThat(
+                Files.exists(
+                        archivePath.resolve("some-Alias-2").resolve("20210101").resolve(RECORDING)),
+                Matchers.is(true));
+        MatcherAssert.assertThat(Files.exists(archivePath.resolve(RECORDING)), Matchers.is(false));
+        MatcherAssert.assertThat(read(sharded.get(RECORDING, 0, -1)), Matchers.equalTo("a"));
+
+        // and back again when the layout is switched back
+        storage.prepare();
+
+        MatcherAssert.assertThat(Files.exists(archivePath.resolve(RECORDING)), Matchers.is(true));
+        MatcherAssert.assertThat(
+                Files.exists(archivePath.resolve("some-Alias-2")), Matchers.is(false));
+    }
+
+    @Test
+    void shouldIgnoreFilesOutsideTheirShard() throws Exception {
+        Path elsewhere = archivePath.resolve("other").resolve("20210101");
+        Files.createDirectories(elsewhere);
+        Files.writeString(elsewhere.resolve(RECORDING), "a");
+
+        MatcherAssert.assertThat(sharded().list(), Matchers.empty());
+        MatcherAssert.assertThat(sharded().stat(RECORDING), Matchers.equalTo(Optional.empty()));
+    }
+
+    private LocalArchiveStorage sharded() {
+        return new LocalArchiveStorage(
+                archivePath, new FileSystem(), LocalArchiveStorage.Layout.SHARDED, logger);
+    }
+
+    private static List<String> names(ArchiveStorage storage) throws IOException {
+        return storage.list().stream()
+                .map(StoredObject::getName)
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static InputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,613 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.recordings.storage;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class S3ArchiveStorageTest {
+
+    static final int PART_SIZE = 16;
+
+    FakeS3 s3;
+    S3ArchiveStorage storage;
+    @Mock Clock clock;
+    @Mock Logger logger;
+    @TempDir Path tmp;
+
+    @BeforeEach
+    void setup() throws Exception {
+        Mockito.lenient().when(clock.now()).thenAnswer(invocation -> Instant.now());
+        s3 = new FakeS3("bucket");
+        storage =
+                new S3ArchiveStorage(
+                        HttpClient.newHttpClient(),
+                        new S3Signer("us-east-1", "access", "secret"),
+                        s3.endpoint(),
+                        "bucket",
+                        "archives",
+                        PART_SIZE,
+                        2,
+                        clock,
+                        logger);
+    }
+
+    @AfterEach
+    void teardown() {
+        s3.stop();
+    }
+
+    @Test
+    void shouldStoreSmallObjectWithSinglePut() throws Exception {
+        StoredObject stored = storage.put("foo.jfr", stream("small"));
+
+        MatcherAssert.assertThat(stored.getName(), Matchers.equalTo("foo.jfr"));
+        MatcherAssert.assertThat(stored.getSize(), Matchers.equalTo(5L));
+        MatcherAssert.assertThat(s3.objects.keySet(), Matchers.contains("archives/foo.jfr"));
+        MatcherAssert.assertThat(s3.multipartUploads.get(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 0, -1)), Matchers.equalTo("small"));
+    }
+
+    @Test
+    void shouldStoreLargeObjectInParts() throws Exception {
+        String contents = "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ!";
+
+        StoredObject stored = storage.put("foo.jfr", stream(contents));
+
+        MatcherAssert.assertThat(stored.getSize(), Matchers.equalTo((long) contents.length()));
+        MatcherAssert.assertThat(s3.multipartUploads.get(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(s3.partsReceived.get(), Matchers.equalTo(4));
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 0, -1)), Matchers.equalTo(contents));
+        MatcherAssert.assertThat(s3.pendingUploads.keySet(), Matchers.empty());
+    }
+
+    @Test
+    void shouldRefuseToOverwrite() throws Exception {
+        storage.put("foo.jfr", stream("first"));
+
+        Assertions.assertThrows(
+                FileAlreadyExistsException.class, () -> storage.put("foo.jfr", stream("second")));
+        Assertions.assertThrows(
+                FileAlreadyExistsException.class,
+                () -> storage.put("foo.jfr", stream("a much longer second version of the object")));
+
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 0, -1)), Matchers.equalTo("first"));
+        // the rejected multipart upload must have been aborted
+        MatcherAssert.assertThat(s3.pendingUploads.keySet(), Matchers.empty());
+    }
+
+    @Test
+    void shouldKeepFileIfPutFileRefused() throws Exception {
+        storage.put("foo.jfr", stream("first"));
+        Path staged = Files.writeString(tmp.resolve("staged"), "second");
+
+        Assertions.assertThrows(
+                FileAlreadyExistsException.class, () -> storage.putFile("foo.jfr", staged));
+        MatcherAssert.assertThat(Files.exists(staged), Matchers.is(true));
+
+        storage.putFile("bar.jfr", staged);
+        MatcherAssert.assertThat(Files.exists(staged), Matchers.is(false));
+    }
+
+    @Test
+    void shouldAbortMultipartUploadIfPartFails() throws Exception {
+        s3.failParts = true;
+
+        Assertions.assertThrows(
+                IOException.class,
+                () -> storage.put("foo.jfr", stream("0123456789abcdefghijklmnopqrstuvwxyz")));
+
+        MatcherAssert.assertThat(s3.objects.keySet(), Matchers.empty());
+        MatcherAssert.assertThat(s3.pendingUploads.keySet(), Matchers.empty());
+    }
+
+    @Test
+    void shouldWaitForPartsInFlightBeforeAborting() throws Exception {
+        s3.failPart = 1;
+        s3.partDelayMillis = 200;
+
+        Assertions.assertThrows(
+                IOException.class,
+                () -> storage.put("foo.jfr", stream("0123456789abcdefghijklmnopqrstuvwxyz!@#$")));
+
+        MatcherAssert.assertThat(s3.partOverlappedAbort.get(), Matchers.is(false));
+        MatcherAssert.assertThat(s3.pendingUploads.keySet(), Matchers.empty());
+    }
+
+    @Test
+    void shouldReadRanges() throws Exception {
+        storage.put("foo.jfr", stream("0123456789"));
+
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 3, 4)), Matchers.equalTo("3456"));
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 7, -1)), Matchers.equalTo("789"));
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 20, -1)), Matchers.equalTo(""));
+        Assertions.assertThrows(NoSuchFileException.class, () -> storage.get("bar.jfr", 0, -1));
+    }
+
+    @Test
+    void shouldListAcrossPagesWithinPrefix() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            storage.put(String.format("rec-%d.jfr", i), stream("x".repeat(i + 1)));
+        }
+        s3.objects.put("elsewhere/other.jfr", new byte[1]);
+        s3.objects.put("archives/nested/other.jfr", new byte[1]);
+
+        List<StoredObject> listed = storage.list();
+
+        MatcherAssert.assertThat(
+                listed.stream().map(StoredObject::getName).collect(Collectors.toList()),
+                Matchers.equalTo(
+                        List.of("rec-0.jfr", "rec-1.jfr", "rec-2.jfr", "rec-3.jfr", "rec-4.jfr")));
+        MatcherAssert.assertThat(listed.get(3).getSize(), Matchers.equalTo(4L));
+        MatcherAssert.assertThat(s3.listRequests.get(), Matchers.greaterThan(1));
+    }
+
+    @Test
+    void shouldStatAndDelete() throws Exception {
+        storage.put("foo.jfr", stream("abc"));
+
+        Optional<StoredObject> stat = storage.stat("foo.jfr");
+        MatcherAssert.assertThat(stat.get().getSize(), Matchers.equalTo(3L));
+        MatcherAssert.assertThat(stat.get().getLastModified(), Matchers.greaterThan(0L));
+
+        MatcherAssert.assertThat(storage.delete("foo.jfr"), Matchers.is(true));
+        MatcherAssert.assertThat(storage.delete("foo.jfr"), Matchers.is(false));
+        MatcherAssert.assertThat(storage.stat("foo.jfr"), Matchers.equalTo(Optional.empty()));
+    }
+
+    @Test
+    void shouldRenewLastModifiedOnTouch() throws Exception {
+        storage.put("foo.jfr", stream("abc"));
+        s3.modified.put("archives/foo.jfr", Instant.now().minusSeconds(3600));
+        long before = storage.stat("foo.jfr").get().getLastModified();
+
+        storage.touch("foo.jfr");
+
+        MatcherAssert.assertThat(
+                storage.stat("foo.jfr").get().getLastModified(), Matchers.greaterThan(before));
+        MatcherAssert.assertThat(read(storage.get("foo.jfr", 0, -1)), Matchers.equalTo("abc"));
+        Assertions.assertThrows(NoSuchFileException.class, () -> storage.touch("bar.jfr"));
+    }
+
+    @Test
+    void shouldDownloadTemporaryLocalFile() throws Exception {
+        storage.put("foo.jfr", stream("abc"));
+
+        Path path;
+        try (ArchiveStorage.LocalFile file = storage.localFile("foo.jfr")) {
+            path = file.getPath();
+            MatcherAssert.assertThat(Files.readString(path), Matchers.equalTo("abc"));
+        }
+        MatcherAssert.assertThat(Files.exists(path), Matchers.is(false));
+        MatcherAssert.assertThat(storage.localDirectory(), Matchers.equalTo(Optional.empty()));
+    }
+
+    @Test
+    void shouldCheckBucketAvailability() throws Exception {
+        storage.checkAvailable();
+
+        S3ArchiveStorage missing =
+                new S3ArchiveStorage(
+                        HttpClient.newHttpClient(),
+                        new S3Signer("us-east-1", "access", "secret"),
+                        s3.endpoint(),
+                        "nosuchbucket",
+                        "",
+                        PART_SIZE,
+                        2,
+                        clock,
+                        logger);
+        Assertions.assertThrows(IOException.class, missing::checkAvailable);
+    }
+
+    @Test
+    void shouldSignEveryRequest() throws Exception {
+        storage.put("foo.jfr", stream("abc"));
+        storage.list();
+
+        MatcherAssert.assertThat(s3.unsignedRequests.get(), Matchers.equalTo(0));
+    }
+
+    private static InputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(InputStream in) throws IOException {
+        try (in) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Minimal in-memory stand-in for an S3-compatible store, implementing just the path-style
+     * operations used by {@link S3ArchiveStorage}.
+     */
+    static class FakeS3 {
+        static final int PAGE_SIZE = 2;
+        static final Pattern PART =
+                Pattern.compile("<Part><PartNumber>(\\d+)</PartNumber><ETag>([^<]*)</ETag></Part>");
+
+        final String bucket;
+        final HttpServer server;
+        final Map<String, byte[]> objects = new ConcurrentSkipListMap<>();
+        final Map<String, Instant> modified = new ConcurrentHashMap<>();
+        final Map<String, Map<Integer, byte[]>> pendingUploads = new ConcurrentHashMap<>();
+        final ExecutorService executor = Executors.newCachedThreadPool();
+        final AtomicInteger multipartUploads = new AtomicInteger();
+        final AtomicInteger partsReceived = new AtomicInteger();
+        final AtomicInteger listRequests = new AtomicInteger();
+        final AtomicInteger unsignedRequests = new AtomicInteger();
+        final AtomicInteger partsInFlight = new AtomicInteger();
+        final Set<String> abortedUploads = ConcurrentHashMap.newKeySet();
+        final AtomicBoolean partOverlappedAbort = new AtomicBoolean();
+        volatile boolean failParts;
+        volatile int failPart;
+        volatile long partDelayMillis;
+
+        FakeS3(String bucket) throws IOException {
+            this.bucket = bucket;
+            this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            server.createContext("/", this::handle);
+            // part uploads are concurrent, so requests must not be served one at a time
+            server.setExecutor(executor);
+            server.start();
+        }
+
+        URI endpoint() {
+            return URI.create("http://127.0.0.1:" + server.getAddress().getPort());
+        }
+
+        void stop() {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+
+        private void handle(HttpExchange ex) throws IOException {
+            try {
+                String auth = ex.getRequestHeaders().getFirst("Authorization");
+                if (auth == null || !auth.startsWith("AWS4-HMAC-SHA256 Credential=access/")) {
+                    unsignedRequests.incrementAndGet();
+                }
+                byte[] body = ex.getRequestBody().readAllBytes();
+                String path = ex.getRequestURI().getPath();
+                Map<String, String> query = query(ex.getRequestURI().getRawQuery());
+                String bucketPath = "/" + bucket;
+                if (!path.equals(bucketPath) && !path.startsWith(bucketPath + "/")) {
+                    respond(ex, 404, new byte[0]);
+                    return;
+                }
+                String key =
+                        path.length() > bucketPath.length() + 1
+                                ? path.substring(bucketPath.length() + 1)
+                                : null;
+                String method = ex.getRequestMethod();
+                if (key == null) {
+                    if (method.equals("HEAD")) {
+                        respond(ex, 200, null);
+                    } else {
+                        list(ex, query);
+                    }
+                    return;
+                }
+                boolean ifNoneMatch = "*".equals(ex.getRequestHeaders().getFirst("If-None-Match"));
+                switch (method) {
+                    case "PUT":
+                        if (query.containsKey("partNumber")) {
+                            uploadPart(ex, query, body);
+                            return;
+                        }
+                        String source = ex.getRequestHeaders().getFirst("x-amz-copy-source");
+                        if (source != null) {
+                            copy(ex, key, source);
+                            return;
+                        }
+                        store(ex, key, body, ifNoneMatch);
+                        return;
+                    case "POST":
+                        if (query.containsKey("uploads")) {
+                            String id = UUID.randomUUID().toString();
+                            pendingUploads.put(id, new ConcurrentSkipListMap<>());
+                            multipartUploads.incrementAndGet();
+                            respond(
+                                    ex,
+                                    200,
+                                    ("<InitiateMultipartUploadResult><UploadId>"
+                                                    + id
+                                                    + "</UploadId></InitiateMultipartUploadResult>")
+                                            .getBytes(StandardCharsets.UTF_8));
+                            return;
+                        }
+                        complete(ex, key, query.get("uploadId"), body, ifNoneMatch);
+                        return;
+                    case "DELETE":
+                        if (query.containsKey("uploadId")) {
+                            abortedUploads.add(query.get("uploadId"));
+                            if (partsInFlight.get() > 0) {
+                                partOverlappedAbort.set(true);
+                            }
+                            pendingUploads.remove(query.get("uploadId"));
+                        } else {
+                            objects.remove(key);
+                            modified.remove(key);
+                        }
+                        respond(ex, 204, null);
+                        return;
+                    case "HEAD":
+                        byte[] head = objects.get(key);
+                        if (head == null) {
+                            respond(ex, 404, null);
+                            return;
+                        }
+                        ex.getResponseHeaders()
+                                .add(
+                                        "Last-Modified",
+                                        DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                                                modified.get(key).atZone(ZoneOffset.UTC)));
+                        // HttpServer never derives Content-Length for HEAD responses itself
+                        ex.getResponseHeaders().add("Content-Length", String.valueOf(head.length));
+                        ex.sendResponseHeaders(200, -1);
+                        return;
+                    case "GET":
+                        get(ex, key);
+                        return;
+                    default:
+                        respond(ex, 405, new byte[0]);
+                }
+            } finally {
+                ex.close();
+            }
+        }
+
+        private void store(HttpExchange ex, String key, byte[] body, boolean ifNoneMatch)
+                throws IOException {
+            synchronized (objects) {
+                if (ifNoneMatch && objects.containsKey(key)) {
+                    respond(ex, 412, new byte[0]);
+                    return;
+                }
+                objects.put(key, body);
+                modified.put(key, Instant.now());
+            }
+            respond(ex, 200, new byte[0]);
+        }
+
+        private void copy(HttpExchange ex, String key, String source) throws IOException {
+            String sourceKey = source.substring(bucket.length() + 2);
+            synchronized (objects) {
+                byte[] data = objects.get(sourceKey);
+                if (data == null) {
+                    respond(ex, 404, new byte[0]);
+                    return;
+                }
+                objects.put(key, data);
+                modified.put(key, Instant.now());
+            }
+            respond(
+                    ex,
+                    200,
+                    "<CopyObjectResult></CopyObjectResult>".getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void uploadPart(HttpExchange ex, Map<String, String> query, byte[] body)
+                throws IOException {
+            int partNumber = Integer.parseInt(query.get("partNumber"));
+            partsInFlight.incrementAndGet();
+            if (abortedUploads.contains(query.get("uploadId"))) {
+                partOverlappedAbort.set(true);
+            }
+            try {
+                Map<Integer, byte[]> parts = pendingUploads.get(query.get("uploadId"));
+                if (parts == null || failParts || partNumber == failPart) {
+                    respond(ex, 500, new byte[0]);
+                    return;
+                }
+                Thread.sleep(partDelayMillis);
+                partsReceived.incrementAndGet();
+                parts.put(partNumber, body);
+                ex.getResponseHeaders().add("ETag", "\"etag-" + partNumber + "\"");
+                respond(ex, 200, new byte[0]);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                respond(ex, 500, new byte[0]);
+            } finally {
+                partsInFlight.decrementAndGet();
+            }
+        }
+
+        private void complete(
+                HttpExchange ex, String key, String uploadId, byte[] body, boolean ifNoneMatch)
+                throws IOException {
+            Map<Integer, byte[]> parts = pendingUploads.get(uploadId);
+            if (parts == null) {
+                respond(ex, 404, new byte[0]);
+                return;
+            }
+            ByteArrayOutputStream assembled = new ByteArrayOutputStream();
+            Matcher m = PART.matcher(new String(body, StandardCharsets.UTF_8));
+            while (m.find()) {
+                assembled.write(parts.get(Integer.parseInt(m.group(1))));
+            }
+            synchronized (objects) {
+                if (ifNoneMatch && objects.containsKey(key)) {
+                    respond(ex, 412, new byte[0]);
+                    return;
+                }
+                objects.put(key, assembled.toByteArray());
+                modified.put(key, Instant.now());
+            }
+            pendingUploads.remove(uploadId);
+            respond(
+                    ex,
+                    200,
+                    "<CompleteMultipartUploadResult></CompleteMultipartUploadResult>"
+                            .getBytes(StandardCharsets.UTF_8));
+        }
+
+        private void get(HttpExchange ex, String key) throws IOException {
+            byte[] data = objects.get(key);
+            if (data == null) {
+                respond(ex, 404, new byte[0]);
+                return;
+            }
+            String range = ex.getRequestHeaders().getFirst("Range");
+            if (range == null) {
+                respond(ex, 200, data);
+                return;
+            }
+            String[] bounds = range.substring("bytes=".length()).split("-", -1);
+            int start = Integer.parseInt(bounds[0]);
+            int end = bounds[1].isEmpty() ? data.length - 1 : Integer.parseInt(bounds[1]);
+            if (start >= data.length) {
+                respond(ex, 416, new byte[0]);
+                return;
+            }
+            end = Math.min(end, data.length - 1);
+            byte[] slice = new byte[end - start + 1];
+            System.arraycopy(data, start, slice, 0, slice.length);
+            respond(ex, 206, slice);
+        }
+
+        private void list(HttpExchange ex, Map<String, String> query) throws IOException {
+            listRequests.incrementAndGet();
+            String prefix = query.getOrDefault("prefix", "");
+            String delimiter = query.get("delimiter");
+            List<String> keys = new ArrayList<>();
+            for (String key : objects.keySet()) {
+                if (!key.startsWith(prefix)) {
+                    continue;
+                }
+                if (delimiter != null && key.substring(prefix.length()).contains(delimiter)) {
+                    continue;
+                }
+                keys.add(key);
+            }
+            int start = Integer.parseInt(query.getOrDefault("continuation-token", "0"));
+            int end = Math.min(keys.size(), start + PAGE_SIZE);
+            StringBuilder xml = new StringBuilder("<ListBucketResult>");
+            for (String key : keys.subList(start, end)) {
+                xml.append(
+                        String.format(
+                                "<Contents><Key>%s</Key><LastModified>%s</LastModified><Size>%d</Size></Contents>",
+                                key, modified.get(key), objects.get(key).length));
+            }
+            if (end < keys.size()) {
+                xml.append("<IsTruncated>true</IsTruncated>")
+                        .append("<NextContinuationToken>")
+                        .append(end)
+                        .append("</NextContinuationToken>");
+            } else {
+                xml.append("<IsTruncated>false</IsTruncated>");
+            }
+            xml.append("</ListBucketResult>");
+            respond(ex, 200, xml.toString().getBytes(StandardCharsets.UTF_8));
+        }
+
+        private static void respond(HttpExchange ex, int status, byte[] body) throws IOException {
+            if (body == null || body.length == 0) {
+                ex.sendResponseHeaders(status, -1);
+                return;
+            }
+            ex.sendResponseHeaders(status, body.length);
+            ex.getResponseBody().write(body);
+        }
+
+        private static Map<String, String> query(String raw) {
+            Map<String, String> query = new HashMap<>();
+            if (raw == null) {
+                return query;
+            }
+            for (String param : raw.split("&")) {
+                int idx = param.indexOf('=');
+                String k = idx < 0 ? param : param.substring(0, idx);
+                String v = idx < 0 ? "" : param.substring(idx + 1);
+                query.put(
+                        URLDecoder.decode(k, StandardCharsets.UTF_8),
+                        URLDecoder.decode(v, StandardCharsets.UTF_8));
+            }
+            return query;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.net.URI;
+import java.util.Map;
+
+import io.cryostat.platform.ServiceRef;
+import io.cryostat.platform.ServiceRef.AnnotationKey;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class MatchExpressionTest {
+
+    ServiceRef serviceRef;
+
+    @BeforeEach
+    void setup() throws Exception {
+        serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://10.0.0.7:9091/jmxrmi"),
+                        "orders-7d9f-abc12");
+        serviceRef.setLabels(Map.of("app.kubernetes.io/name", "orders", "tier", "backend"));
+        serviceRef.setPlatformAnnotations(Map.of("prometheus.io/scrape", "true"));
+        serviceRef.setCryostatAnnotations(
+                Map.of(
+                        AnnotationKey.NAMESPACE, "prod",
+                        AnnotationKey.POD_NAME, "orders-7d9f-abc12",
+                        AnnotationKey.JAVA_MAIN, "com.example.orders.Main"));
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+            strings = {
+                "alias == 'orders-7d9f-abc12'",
+                "alias =~ 'orders-.*'",
+                "alias !~ 'payments-.*'",
+                "alias != \"payments\"",
+                "connectUrl =~ '.*10\\\\.0\\\\.0\\\\.7.*'",
+                "labels.tier == 'backend'",
+                "labels['app.kubernetes.io/name'] == 'orders'",
+                "labels.tier",
+                "!labels.missing",
+                "labels.missing != 'x'",
+                "annotations.platform['prometheus.io/scrape'] == 'true'",
+                "annotations.cryostat.NAMESPACE == 'prod'",
+                "annotations.cryostat['JAVA_MAIN'] =~ 'com\\\\.example\\\\..*'",
+                "annotations.cryostat.NAMESPACE == 'prod' && labels.tier == 'backend'",
+                "annotations.cryostat.NAMESPACE == 'dev' || labels.tier == 'backend'",
+                "!(annotations.cryostat.NAMESPACE == 'dev') && (alias =~ 'orders-.*')",
+                "labels.tier == 'frontend' || labels.tier == 'backend' && alias =~ 'orders.*'",
+                "alias == 'it\\'s' || alias =~ 'orders.*'",
+            })
+    void shouldMatch(String expression) {
+        MatcherAssert.assertThat(
+                MatchExpression.compile(expression).test(serviceRef), Matchers.is(true));
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+            strings = {
+                "alias == 'orders'",
+                "alias =~ 'orders'",
+                "labels.missing",
+                "labels.missing == 'x'",
+                "labels.missing =~ '.*'",
+                "annotations.cryostat.SERVICE_NAME == 'orders'",
+                "annotations.cryostat.NAMESPACE == 'prod' && labels.tier == 'frontend'",
+                "!(labels.tier == 'backend')",
+                "(labels.tier == 'frontend' || labels.tier == 'backend') && alias == 'x'",
+            })
+    void shouldNotMatch(String expression) {
+        MatcherAssert.assertThat(
+                MatchExpression.compile(expression).test(serviceRef), Matchers.is(false));
+    }
+
+    @ParameterizedTest
+    @ValueSource(
+            strings = {
+                "",
+                "alias ==",
+                "alias == orders",
+                "alias = 'orders'",
+                "name == 'orders'",
+                "labels == 'x'",
+                "annotations.other.FOO == 'x'",
+                "annotations.cryostat.NOT_A_KEY == 'x'",
+                "alias =~ '('",
+                "(alias == 'x'",
+                "alias == 'x')",
+                "alias == 'x' &&",
+                "alias == 'unterminated",
+                "alias == 'x' labels.y",
+                "alias # 'x'",
+            })
+    void shouldRejectInvalidExpression(String expression) {
+        IllegalArgumentException ex =
+                Assertions.assertThrows(
+                        IllegalArgumentException.class, () -> MatchExpression.compile(expression));
+        MatcherAssert.assertThat(ex.getMessage(), Matchers.startsWith("Invalid match expression"));
+    }
+}
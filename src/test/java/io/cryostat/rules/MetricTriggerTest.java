@@ -0,0 +1,98 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.util.concurrent.TimeUnit;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Test;
+
+class MetricTriggerTest {
+
+    static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void shouldFireWhenThresholdReached() {
+        MetricTrigger trigger = new MetricTrigger(90, 90, 0);
+
+        MatcherAssert.assertThat(trigger.offer(89.9, 0), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(90, SECOND), Matchers.is(true));
+    }
+
+    @Test
+    void shouldIgnoreMissingSamples() {
+        MetricTrigger trigger = new MetricTrigger(90, 90, 0);
+
+        MatcherAssert.assertThat(trigger.offer(Double.NaN, 0), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(95, SECOND), Matchers.is(true));
+    }
+
+    @Test
+    void shouldNotFireAgainUntilReset() {
+        MetricTrigger trigger = new MetricTrigger(90, 75, 0);
+
+        MatcherAssert.assertThat(trigger.offer(95, 0), Matchers.is(true));
+        MatcherAssert.assertThat(trigger.offer(95, SECOND), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(80, 2 * SECOND), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(91, 3 * SECOND), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(74, 4 * SECOND), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(91, 5 * SECOND), Matchers.is(true));
+    }
+
+    @Test
+    void shouldHoldOffUntilCooldownPasses() {
+        MetricTrigger trigger = new MetricTrigger(90, 90, 60);
+
+        MatcherAssert.assertThat(trigger.offer(95, 0), Matchers.is(true));
+        MatcherAssert.assertThat(trigger.offer(50, 10 * SECOND), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(95, 20 * SECOND), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(95, 59 * SECOND), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(95, 60 * SECOND), Matchers.is(true));
+    }
+
+    @Test
+    void shouldForgetCrossingDuringCooldownIfMetricRecovers() {
+        MetricTrigger trigger = new MetricTrigger(90, 90, 60);
+
+        MatcherAssert.assertThat(trigger.offer(95, 0), Matchers.is(true));
+        MatcherAssert.assertThat(trigger.offer(50, 10 * SECOND), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(95, 20 * SECOND), Matchers.is(false));
+        MatcherAssert.assertThat(trigger.offer(50, 70 * SECOND), Matchers.is(false));
+    }
+}
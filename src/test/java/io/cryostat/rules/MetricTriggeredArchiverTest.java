@@ -0,0 +1,217 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Set;
+import java.util.function.Function;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanServerConnection;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.openjdk.jmc.rjmx.IConnectionHandle;
+
+import io.cryostat.configuration.CredentialsManager;
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.net.JFRConnection;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.net.TargetConnectionManager;
+import io.cryostat.platform.ServiceRef;
+
+import org.apache.commons.lang3.tuple.Pair;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class MetricTriggeredArchiverTest {
+
+    @Mock CredentialsManager credentialsManager;
+    @Mock Runnable archiver;
+    @Mock TargetConnectionManager targetConnectionManager;
+    @Mock Function<Pair<ServiceRef, Rule>, Void> failureNotifier;
+    @Mock Clock clock;
+    @Mock Logger logger;
+
+    @Mock JFRConnection connection;
+    @Mock IConnectionHandle handle;
+    @Mock MBeanServerConnection mbsc;
+
+    ServiceRef serviceRef;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Mockito.lenient()
+                .when(targetConnectionManager.executeConnectedTask(Mockito.any(), Mockito.any()))
+                .thenAnswer(
+                        invocation ->
+                                ((TargetConnectionManager.ConnectedTask<Object>)
+                                                invocation.getArgument(1))
+                                        .execute(connection));
+        Mockito.lenient().when(connection.getHandle()).thenReturn(handle);
+        Mockito.lenient()
+                .when(handle.getServiceOrThrow(MBeanServerConnection.class))
+                .thenReturn(mbsc);
+    }
+
+    MetricTriggeredArchiver archiver(String metric, int threshold) {
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .triggerMetric(metric)
+                        .triggerThreshold(threshold)
+                        .triggerCooldownSeconds(0)
+                        .build();
+        return new MetricTriggeredArchiver(
+                serviceRef,
+                credentialsManager,
+                rule,
+                archiver,
+                targetConnectionManager,
+                failureNotifier,
+                clock,
+                logger);
+    }
+
+    CompositeData heapUsage(long used, long committed, long max) {
+        CompositeData usage = Mockito.mock(CompositeData.class);
+        Mockito.when(usage.get("used")).thenReturn(used);
+        Mockito.lenient().when(usage.get("committed")).thenReturn(committed);
+        Mockito.when(usage.get("max")).thenReturn(max);
+        return usage;
+    }
+
+    @Test
+    void shouldArchiveWhenHeapUsageCrossesThreshold() throws Exception {
+        CompositeData low = heapUsage(50, 100, 200);
+        CompositeData high = heapUsage(190, 200, 200);
+        Mockito.when(mbsc.getAttribute(new ObjectName("java.lang:type=Memory"), "HeapMemoryUsage"))
+                .thenReturn(low, high);
+        MetricTriggeredArchiver triggered = archiver("heapUsedPercent", 90);
+
+        triggered.run();
+        Mockito.verifyNoInteractions(archiver);
+
+        triggered.run();
+        Mockito.verify(archiver).run();
+    }
+
+    @Test
+    void shouldMeasureHeapAgainstCommittedWithoutMaximum() throws Exception {
+        CompositeData usage = heapUsage(50, 100, -1);
+        Mockito.when(mbsc.getAttribute(new ObjectName("java.lang:type=Memory"), "HeapMemoryUsage"))
+                .thenReturn(usage);
+
+        MatcherAssert.assertThat(
+                archiver("heapUsedPercent", 90).sample(mbsc), Matchers.equalTo(50.0));
+    }
+
+    @Test
+    void shouldSampleGcTimeSincePreviousSample() throws Exception {
+        ObjectName young = new ObjectName("java.lang:type=GarbageCollector,name=Young");
+        ObjectName old = new ObjectName("java.lang:type=GarbageCollector,name=Old");
+        Mockito.when(mbsc.queryNames(Mockito.any(ObjectName.class), Mockito.isNull()))
+                .thenReturn(Set.of(young, old));
+        Mockito.when(mbsc.getAttribute(young, "CollectionTime")).thenReturn(100L, 300L);
+        Mockito.when(mbsc.getAttribute(old, "CollectionTime")).thenReturn(-1L, 100L);
+        Mockito.when(mbsc.getAttribute(new ObjectName("java.lang:type=Runtime"), "Uptime"))
+                .thenReturn(10_000L, 11_000L);
+        MetricTriggeredArchiver triggered = archiver("gcTimePercent", 20);
+
+        MatcherAssert.assertThat(triggered.sample(mbsc), Matchers.notANumber());
+        MatcherAssert.assertThat(triggered.sample(mbsc), Matchers.equalTo(30.0));
+    }
+
+    @Test
+    void shouldTreatUnavailableCpuLoadAsMissing() throws Exception {
+        ObjectName os = new ObjectName("java.lang:type=OperatingSystem");
+        Mockito.when(mbsc.getAttribute(os, "ProcessCpuLoad")).thenReturn(-1.0, 0.25);
+        MetricTriggeredArchiver triggered = archiver("processCpuPercent", 20);
+
+        MatcherAssert.assertThat(triggered.sample(mbsc), Matchers.notANumber());
+        MatcherAssert.assertThat(triggered.sample(mbsc), Matchers.equalTo(25.0));
+    }
+
+    @Test
+    void shouldSampleThreadCount() throws Exception {
+        Mockito.when(mbsc.getAttribute(new ObjectName("java.lang:type=Threading"), "ThreadCount"))
+                .thenReturn(512);
+
+        MatcherAssert.assertThat(
+                archiver("threadCount", 500).sample(mbsc), Matchers.equalTo(512.0));
+    }
+
+    @Test
+    void shouldNotifyFailureWhenTargetUnreachable() throws Exception {
+        Mockito.doThrow(new IOException("connection refused"))
+                .when(targetConnectionManager)
+                .executeConnectedTask(Mockito.any(), Mockito.any());
+        MetricTriggeredArchiver triggered = archiver("threadCount", 500);
+
+        triggered.run();
+
+        Mockito.verifyNoInteractions(archiver);
+        Mockito.verify(failureNotifier).apply(Mockito.any());
+    }
+
+    @Test
+    void shouldKeepSamplingWhenAttributeUnavailable() throws Exception {
+        Mockito.when(mbsc.getAttribute(new ObjectName("java.lang:type=Threading"), "ThreadCount"))
+                .thenThrow(new AttributeNotFoundException("ThreadCount"));
+        MetricTriggeredArchiver triggered = archiver("threadCount", 500);
+
+        triggered.run();
+
+        Mockito.verifyNoInteractions(archiver);
+        Mockito.verifyNoInteractions(failureNotifier);
+    }
+}
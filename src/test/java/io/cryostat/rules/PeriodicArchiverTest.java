@@ -38,13 +38,19 @@
 package io.cryostat.rules;
 
 import java.net.URI;
+import java.util.List;
+import java.util.Optional;
 import java.util.Queue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import io.cryostat.configuration.CredentialsManager;
 import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
 import io.cryostat.platform.ServiceRef;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+import io.cryostat.recordings.ChunkCursor;
 import io.cryostat.recordings.RecordingArchiveHelper;
 
 import org.hamcrest.MatcherAssert;
@@ -76,6 +82,10 @@ class PeriodicArchiverTest {
                     .archivalPeriodSeconds(67)
                     .build();
     @Mock RecordingArchiveHelper recordingArchiveHelper;
+    @Mock RuleStateStore stateStore;
+    @Mock RuleTelemetry telemetry;
+    @Mock ArchiveIndex archiveIndex;
+    @Mock Clock clock;
     AtomicInteger failureCounter;
     @Mock Logger logger;
     @Mock Queue<String> previousRecordings;
@@ -90,10 +100,14 @@ class PeriodicArchiverTest {
                         credentialsManager,
                         rule,
                         recordingArchiveHelper,
+                        stateStore,
+                        telemetry,
+                        archiveIndex,
                         p -> {
                             failureCounter.incrementAndGet();
                             return null;
                         },
+                        clock,
                         logger);
     }
 
@@ -135,14 +149,151 @@ class PeriodicArchiverTest {
         MatcherAssert.assertThat(failureCounter.intValue(), Matchers.equalTo(1));
     }
 
+    @Test
+    void testIncrementalArchivalPrunesOnlyAfterNewArchive() throws Exception {
+        Rule incrementalRule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .preservedArchives(1)
+                        .incrementalArchives(true)
+                        .build();
+        PeriodicArchiver incrementalArchiver =
+                new PeriodicArchiver(
+                        serviceRef,
+                        credentialsManager,
+                        incrementalRule,
+                        recordingArchiveHelper,
+                        stateStore,
+                        telemetry,
+                        archiveIndex,
+                        p -> {
+                            failureCounter.incrementAndGet();
+                            return null;
+                        },
+                        clock,
+                        logger);
+        Mockito.when(
+                        recordingArchiveHelper.saveRecording(
+                                Mockito.any(), Mockito.anyString(), Mockito.any(ChunkCursor.class)))
+                .thenReturn(Optional.of("first.jfr"))
+                .thenReturn(Optional.empty())
+                .thenReturn(Optional.of("second.jfr"));
+
+        incrementalArchiver.run();
+        incrementalArchiver.run();
+        Mockito.verify(recordingArchiveHelper, Mockito.never())
+                .deleteArchivedRecording(Mockito.anyString());
+
+        incrementalArchiver.run();
+        Mockito.verify(recordingArchiveHelper).deleteArchivedRecording("first.jfr");
+        Mockito.verify(recordingArchiveHelper, Mockito.never())
+                .saveRecording(Mockito.any(), Mockito.anyString());
+        MatcherAssert.assertThat(failureCounter.intValue(), Matchers.equalTo(0));
+    }
+
     @Test
     void testPruneArchive() throws Exception {
         // get the archiver into a state where it is tracking a previously-archived recording
         testPerformArchival();
+        Mockito.when(recordingArchiveHelper.deleteArchivedRecording("someRecording.jfr"))
+                .thenReturn(true);
 
-        boolean result = archiver.pruneArchive(rule.getRecordingName() + "_1").get();
+        boolean result = archiver.pruneArchive("someRecording.jfr").get();
 
         Assertions.assertTrue(result);
-        Mockito.verify(recordingArchiveHelper).deleteRecording(Mockito.any(), Mockito.anyString());
+        Mockito.verify(recordingArchiveHelper).deleteArchivedRecording("someRecording.jfr");
+        Mockito.verify(stateStore).pruned(rule.getName(), jmxUrl, "someRecording.jfr");
+        Mockito.verify(recordingArchiveHelper, Mockito.never())
+                .deleteRecording(Mockito.any(), Mockito.anyString());
+    }
+
+    @Test
+    void testPruneAlreadyDeletedArchiveIsNotAFailure() throws Exception {
+        testPerformArchival();
+        Mockito.when(recordingArchiveHelper.deleteArchivedRecording("someRecording.jfr"))
+                .thenReturn(false);
+
+        boolean result = archiver.pruneArchive("someRecording.jfr").get();
+
+        Assertions.assertFalse(result);
+        Mockito.verify(stateStore).pruned(rule.getName(), jmxUrl, "someRecording.jfr");
+        MatcherAssert.assertThat(failureCounter.intValue(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void testRecordsArchivesInStateStore() throws Exception {
+        testPerformArchival();
+
+        Mockito.verify(stateStore).archived(rule.getName(), jmxUrl, "someRecording.jfr");
+    }
+
+    @Test
+    void testResumesPruningFromPersistedArchives() throws Exception {
+        Mockito.when(stateStore.getArchives(rule.getName(), jmxUrl))
+                .thenReturn(List.of("old1.jfr", "old2.jfr"));
+        PeriodicArchiver restarted =
+                new PeriodicArchiver(
+                        serviceRef,
+                        credentialsManager,
+                        rule,
+                        recordingArchiveHelper,
+                        stateStore,
+                        telemetry,
+                        archiveIndex,
+                        p -> {
+                            failureCounter.incrementAndGet();
+                            return null;
+                        },
+                        clock,
+                        logger);
+        Mockito.when(recordingArchiveHelper.deleteArchivedRecording(Mockito.anyString()))
+                .thenReturn(true);
+        Mockito.when(recordingArchiveHelper.saveRecording(Mockito.any(), Mockito.anyString()))
+                .thenReturn("new.jfr");
+
+        restarted.run();
+
+        Mockito.verify(recordingArchiveHelper).deleteArchivedRecording("old1.jfr");
+        Mockito.verify(recordingArchiveHelper, Mockito.never()).deleteArchivedRecording("old2.jfr");
+        Mockito.verify(stateStore).pruned(rule.getName(), jmxUrl, "old1.jfr");
+        Mockito.verify(stateStore).archived(rule.getName(), jmxUrl, "new.jfr");
+        MatcherAssert.assertThat(failureCounter.intValue(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void testRecordsArchivedBytesAndDurations() throws Exception {
+        ArchivedRecordingInfo info = Mockito.mock(ArchivedRecordingInfo.class);
+        Mockito.when(info.getSize()).thenReturn(4096L);
+        Mockito.when(archiveIndex.get("someRecording.jfr")).thenReturn(Optional.of(info));
+        Mockito.when(recordingArchiveHelper.saveRecording(Mockito.any(), Mockito.anyString()))
+                .thenReturn("someRecording.jfr");
+        // prune start, prune end, transfer start, transfer end
+        Mockito.when(clock.getMonotonicTime()).thenReturn(0L, 5L, 10L, 110L);
+
+        archiver.run();
+
+        Mockito.verify(telemetry).archived(rule.getName(), serviceRef, 4096L, 100L, 5L);
+        Mockito.verify(telemetry, Mockito.never())
+                .failed(Mockito.anyString(), Mockito.any(), Mockito.anyString());
+    }
+
+    @Test
+    void testRecordsFailureCause() throws Exception {
+        Mockito.doThrow(new ExecutionException(new SecurityException("denied")))
+                .when(recordingArchiveHelper)
+                .saveRecording(Mockito.any(), Mockito.any());
+
+        archiver.run();
+
+        Mockito.verify(telemetry).failed(rule.getName(), serviceRef, "SecurityException");
+        Mockito.verify(telemetry, Mockito.never())
+                .archived(
+                        Mockito.anyString(),
+                        Mockito.any(),
+                        Mockito.anyLong(),
+                        Mockito.anyLong(),
+                        Mockito.anyLong());
     }
 }
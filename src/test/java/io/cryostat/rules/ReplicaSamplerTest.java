@@ -0,0 +1,198 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.platform.ServiceRef;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ReplicaSamplerTest {
+
+    ReplicaSampler sampler;
+    long now;
+    Rule rule;
+    List<ServiceRef> replicas;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.now = 0;
+        this.sampler = new ReplicaSampler();
+        this.rule = rule(2);
+        this.replicas = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            replicas.add(
+                    new ServiceRef(
+                            new URI(
+                                    String.format(
+                                            "service:jmx:rmi:///jndi/rmi://replica-%d:9091/jmxrmi",
+                                            i)),
+                            "com.example.App"));
+        }
+    }
+
+    static Rule rule(int sampledReplicas) {
+        return new Rule.Builder()
+                .name("Test Rule")
+                .targetAlias("com.example.App")
+                .eventSpecifier("template=Continuous")
+                .archivalPeriodSeconds(60)
+                .preservedArchives(3)
+                .sampledReplicas(sampledReplicas)
+                .build();
+    }
+
+    void nextPeriod() {
+        now += TimeUnit.SECONDS.toNanos(60);
+    }
+
+    List<ServiceRef> selected() {
+        List<ServiceRef> selected = new ArrayList<>();
+        for (ServiceRef serviceRef : replicas) {
+            if (sampler.isSelected(rule, serviceRef, now)) {
+                selected.add(serviceRef);
+            }
+        }
+        return selected;
+    }
+
+    @Test
+    void shouldSelectSampledNumberEachPeriodAndRotateThroughAll() {
+        replicas.forEach(sr -> sampler.add(rule, sr));
+        Map<ServiceRef, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 5; i++) {
+            List<ServiceRef> selected = selected();
+            MatcherAssert.assertThat(selected, Matchers.hasSize(2));
+            selected.forEach(sr -> counts.merge(sr, 1, Integer::sum));
+            nextPeriod();
+        }
+        // 5 periods of 2 out of 5 replicas archives each replica exactly twice
+        MatcherAssert.assertThat(counts.keySet(), Matchers.containsInAnyOrder(replicas.toArray()));
+        MatcherAssert.assertThat(counts.values(), Matchers.everyItem(Matchers.equalTo(2)));
+    }
+
+    @Test
+    void shouldSelectAllWhenSamplingAtLeastAsManyAsMatched() {
+        rule = rule(5);
+        replicas.forEach(sr -> sampler.add(rule, sr));
+        MatcherAssert.assertThat(selected(), Matchers.equalTo(replicas));
+    }
+
+    @Test
+    void shouldSelectAllWhenNotSampling() {
+        rule = rule(0);
+        replicas.forEach(sr -> sampler.add(rule, sr));
+        MatcherAssert.assertThat(selected(), Matchers.equalTo(replicas));
+    }
+
+    @Test
+    void shouldSelectUnknownTarget() {
+        MatcherAssert.assertThat(sampler.isSelected(rule, replicas.get(0), now), Matchers.is(true));
+    }
+
+    @Test
+    void shouldStopSelectingRemovedReplicas() {
+        replicas.forEach(sr -> sampler.add(rule, sr));
+        ServiceRef removed = replicas.remove(4);
+        sampler.remove(rule, removed);
+        for (int i = 0; i < 4; i++) {
+            MatcherAssert.assertThat(selected(), Matchers.hasSize(2));
+            nextPeriod();
+        }
+    }
+
+    @Test
+    void shouldOnlyRunArchiverWhenSelected() {
+        replicas.forEach(sr -> sampler.add(rule, sr));
+        List<Integer> runs = new ArrayList<>();
+        List<RuleScheduler.PeriodicTask> archivers = new ArrayList<>();
+        for (int i = 0; i < replicas.size(); i++) {
+            int idx = i;
+            archivers.add(sampler.sampled(rule, replicas.get(i), () -> runs.add(idx)));
+        }
+        archivers.forEach(archiver -> archiver.run(now));
+        MatcherAssert.assertThat(runs, Matchers.contains(0, 1));
+        runs.clear();
+        nextPeriod();
+        archivers.forEach(archiver -> archiver.run(now));
+        MatcherAssert.assertThat(runs, Matchers.contains(2, 3));
+    }
+
+    @Test
+    void shouldRotateThroughAllWithJitteredPhases() {
+        long periodNanos = TimeUnit.SECONDS.toNanos(60);
+        // each archiver was scheduled at its own time, plus jitter, so their deadlines fall at
+        // different points within each period
+        long[] phases = {
+            periodNanos / 20,
+            periodNanos / 3,
+            periodNanos / 2,
+            periodNanos * 9 / 10,
+            periodNanos - 1
+        };
+        List<Integer> runs = new ArrayList<>();
+        List<RuleScheduler.PeriodicTask> archivers = new ArrayList<>();
+        for (int i = 0; i < replicas.size(); i++) {
+            int idx = i;
+            archivers.add(sampler.sampled(rule, replicas.get(i), () -> runs.add(idx)));
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (long period = 1; period <= 5; period++) {
+            runs.clear();
+            for (int i = 0; i < archivers.size(); i++) {
+                archivers.get(i).run(period * periodNanos + phases[i]);
+            }
+            MatcherAssert.assertThat(runs, Matchers.hasSize(2));
+            runs.forEach(idx -> counts.merge(idx, 1, Integer::sum));
+        }
+        MatcherAssert.assertThat(counts.keySet(), Matchers.containsInAnyOrder(0, 1, 2, 3, 4));
+        MatcherAssert.assertThat(counts.values(), Matchers.everyItem(Matchers.equalTo(2)));
+    }
+}
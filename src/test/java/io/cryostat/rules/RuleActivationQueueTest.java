@@ -0,0 +1,277 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.platform.ServiceRef;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RuleActivationQueueTest {
+
+    @Mock ScheduledExecutorService dispatcher;
+    @Mock ExecutorService workers;
+    @Mock Clock clock;
+    @Mock Logger logger;
+
+    long now;
+    List<Runnable> submitted;
+
+    @BeforeEach
+    void setup() {
+        this.now = 0;
+        this.submitted = new ArrayList<>();
+        Mockito.lenient().when(clock.getMonotonicTime()).thenAnswer(invocation -> now);
+        Mockito.lenient()
+                .doAnswer(
+                        invocation -> {
+                            ((Runnable) invocation.getArgument(0)).run();
+                            return null;
+                        })
+                .when(dispatcher)
+                .execute(Mockito.any());
+        Mockito.lenient()
+                .doAnswer(
+                        invocation -> {
+                            submitted.add(invocation.getArgument(0));
+                            return null;
+                        })
+                .when(workers)
+                .execute(Mockito.any());
+        Mockito.lenient()
+                .when(
+                        dispatcher.schedule(
+                                Mockito.any(Runnable.class), Mockito.anyLong(), Mockito.any()))
+                .thenAnswer(invocation -> Mockito.mock(ScheduledFuture.class));
+    }
+
+    RuleActivationQueue queue(int parallelism, int ratePerSecond) {
+        return new RuleActivationQueue(
+                dispatcher, workers, parallelism, ratePerSecond, 2_000, clock, logger);
+    }
+
+    static ServiceRef target(int n) throws Exception {
+        return new ServiceRef(
+                new URI(String.format("service:jmx:rmi:///jndi/rmi://host%d:9091/jmxrmi", n)),
+                "com.example.App");
+    }
+
+    static Rule rule(String name) {
+        return new Rule.Builder()
+                .name(name)
+                .targetAlias("com.example.App")
+                .eventSpecifier("template=Continuous")
+                .build();
+    }
+
+    void runSubmitted() {
+        List<Runnable> batch = new ArrayList<>(submitted);
+        submitted.clear();
+        batch.forEach(Runnable::run);
+    }
+
+    Runnable lastWakeup(long expectedDelayNanos) {
+        ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+        Mockito.verify(dispatcher, Mockito.atLeastOnce())
+                .schedule(
+                        captor.capture(),
+                        Mockito.eq(expectedDelayNanos),
+                        Mockito.eq(TimeUnit.NANOSECONDS));
+        return captor.getValue();
+    }
+
+    @Test
+    void shouldRunActivationOnWorker() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        RuleActivationQueue queue = queue(4, 10);
+
+        queue.activate(target(1), rule("a"), runs::incrementAndGet);
+
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(submitted, Matchers.hasSize(1));
+        runSubmitted();
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(queue.size(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldCoalesceDuplicateActivations() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        RuleActivationQueue queue = queue(1, 10);
+        queue.activate(target(1), rule("busy"), () -> {});
+
+        queue.activate(target(2), rule("a"), runs::incrementAndGet);
+        queue.activate(target(2), rule("a"), runs::incrementAndGet);
+        MatcherAssert.assertThat(queue.size(), Matchers.equalTo(1));
+
+        runSubmitted();
+        runSubmitted();
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldBoundConcurrentActivations() throws Exception {
+        RuleActivationQueue queue = queue(2, 10);
+
+        for (int i = 0; i < 5; i++) {
+            queue.activate(target(i), rule("a"), () -> {});
+        }
+
+        MatcherAssert.assertThat(submitted, Matchers.hasSize(2));
+        MatcherAssert.assertThat(queue.size(), Matchers.equalTo(3));
+        Runnable first = submitted.remove(0);
+        first.run();
+        MatcherAssert.assertThat(submitted, Matchers.hasSize(2));
+        MatcherAssert.assertThat(queue.size(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldRateLimitActivations() throws Exception {
+        RuleActivationQueue queue = queue(10, 2);
+
+        for (int i = 0; i < 5; i++) {
+            queue.activate(target(i), rule("a"), () -> {});
+        }
+
+        MatcherAssert.assertThat(submitted, Matchers.hasSize(2));
+        Runnable wakeup = lastWakeup(TimeUnit.MILLISECONDS.toNanos(500));
+
+        now += TimeUnit.MILLISECONDS.toNanos(500);
+        wakeup.run();
+        MatcherAssert.assertThat(submitted, Matchers.hasSize(3));
+        MatcherAssert.assertThat(queue.size(), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldDeferDeactivationUntilSettled() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        RuleActivationQueue queue = queue(4, 10);
+
+        queue.deactivate(target(1), runs::incrementAndGet);
+
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(0));
+        Runnable wakeup = lastWakeup(TimeUnit.SECONDS.toNanos(2));
+        now += TimeUnit.SECONDS.toNanos(2);
+        wakeup.run();
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(queue.size(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldCallOffDeactivationOfReappearedTarget() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        RuleActivationQueue queue = queue(4, 10);
+
+        queue.deactivate(target(1), runs::incrementAndGet);
+        queue.retain(target(1));
+
+        Runnable wakeup = lastWakeup(TimeUnit.SECONDS.toNanos(2));
+        now += TimeUnit.SECONDS.toNanos(2);
+        wakeup.run();
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(queue.size(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldDropQueuedActivationsOfLostTarget() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        RuleActivationQueue queue = queue(1, 10);
+        queue.activate(target(1), rule("busy"), () -> {});
+
+        queue.activate(target(2), rule("a"), runs::incrementAndGet);
+        queue.deactivate(target(2), () -> {});
+        runSubmitted();
+
+        MatcherAssert.assertThat(submitted, Matchers.empty());
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldDropQueuedActivationsOfCancelledRule() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        RuleActivationQueue queue = queue(1, 10);
+        queue.activate(target(1), rule("busy"), () -> {});
+
+        queue.activate(target(2), rule("a"), runs::incrementAndGet);
+        queue.activate(target(3), rule("b"), runs::incrementAndGet);
+        queue.cancel(rule("a"));
+        runSubmitted();
+        runSubmitted();
+
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(queue.size(), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldKeepWorkingAfterFailedActivation() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+        RuleActivationQueue queue = queue(1, 10);
+
+        queue.activate(
+                target(1),
+                rule("a"),
+                () -> {
+                    throw new IllegalStateException();
+                });
+        queue.activate(target(2), rule("a"), runs::incrementAndGet);
+        runSubmitted();
+        runSubmitted();
+
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(1));
+        Mockito.verify(logger).error(Mockito.any(IllegalStateException.class));
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.net.URI;
+import java.util.List;
+
+import io.cryostat.platform.PlatformClient;
+import io.cryostat.platform.ServiceRef;
+import io.cryostat.recordings.ArchiveIndex;
+import io.cryostat.recordings.ArchivedRecordingInfo;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RuleCostEstimatorTest {
+
+    RuleCostEstimator estimator;
+    @Mock PlatformClient platformClient;
+    @Mock RuleRegistry registry;
+    @Mock ArchiveIndex archiveIndex;
+
+    ServiceRef orders1;
+    ServiceRef orders2;
+    ServiceRef billing;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.estimator = new RuleCostEstimator(platformClient, registry, archiveIndex, 8, 10);
+        this.orders1 =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://a:9091/jmxrmi"), "orders.App");
+        this.orders2 =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://b:9091/jmxrmi"), "orders.Api");
+        this.billing =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://c:9091/jmxrmi"), "billing.App");
+        Mockito.lenient()
+                .when(platformClient.listDiscoverableServices())
+                .thenReturn(List.of(orders1, orders2, billing));
+    }
+
+    static ArchivedRecordingInfo archive(String target, String recording, long size) {
+        return new ArchivedRecordingInfo(
+                String.format("%s_%s_20210101T000000Z.jfr", target, recording), size, 0, null);
+    }
+
+    static Rule.Builder rule() {
+        return new Rule.Builder()
+                .name("Orders Rule")
+                .matchExpression("alias =~ 'orders\\\\..*'")
+                .eventSpecifier("template=Continuous")
+                .archivalPeriodSeconds(60)
+                .preservedArchives(3);
+    }
+
+    @Test
+    void shouldEstimateFromArchivesOfSameRuleThenTargetThenAll() {
+        ArchivedRecordingInfo sameRule = archive("orders-App", "auto_Orders_Rule", 1000);
+        ArchivedRecordingInfo otherRule = archive("orders-App", "other", 5000);
+        ArchivedRecordingInfo sameTarget = archive("orders-Api", "other", 2000);
+        ArchivedRecordingInfo unrelated = archive("billing-App", "other", 6000);
+        Mockito.when(archiveIndex.list("orders-App")).thenReturn(List.of(sameRule, otherRule));
+        Mockito.when(archiveIndex.list("orders-Api")).thenReturn(List.of(sameTarget));
+        Mockito.when(archiveIndex.list())
+                .thenReturn(List.of(sameRule, otherRule, sameTarget, unrelated));
+
+        RuleCostEstimator.Estimate estimate = estimator.estimate(rule().build());
+
+        MatcherAssert.assertThat(estimate.getTargetCount(), Matchers.equalTo(2));
+        List<RuleCostEstimator.TargetEstimate> targets = estimate.getMatchedTargets();
+        MatcherAssert.assertThat(targets.get(0).getArchiveBytes(), Matchers.equalTo(1000L));
+        MatcherAssert.assertThat(
+                targets.get(0).getBasis(), Matchers.equalTo(RuleCostEstimator.Basis.RULE));
+        MatcherAssert.assertThat(targets.get(1).getArchiveBytes(), Matchers.equalTo(2000L));
+        MatcherAssert.assertThat(
+                targets.get(1).getBasis(), Matchers.equalTo(RuleCostEstimator.Basis.TARGET));
+        MatcherAssert.assertThat(estimate.getArchiveBytesPerPeriod(), Matchers.equalTo(3000L));
+        MatcherAssert.assertThat(estimate.getTransferBytesPerHour(), Matchers.equalTo(3000L * 60));
+        MatcherAssert.assertThat(estimate.getStorageBytes(), Matchers.equalTo(9000L));
+        MatcherAssert.assertThat(
+                estimate.getSchedulerRunsPerSecond(), Matchers.closeTo(2.0 / 60, 1e-9));
+    }
+
+    @Test
+    void shouldScaleTransferButNotStorageBySampledReplicas() {
+        ArchivedRecordingInfo sameRule = archive("orders-App", "auto_Orders_Rule", 1000);
+        ArchivedRecordingInfo sameTarget = archive("orders-Api", "other", 2000);
+        Mockito.when(archiveIndex.list("orders-App")).thenReturn(List.of(sameRule));
+        Mockito.when(archiveIndex.list("orders-Api")).thenReturn(List.of(sameTarget));
+        Mockito.when(archiveIndex.list()).thenReturn(List.of(sameRule, sameTarget));
+
+        RuleCostEstimator.Estimate estimate = estimator.estimate(rule().sampledReplicas(1).build());
+
+        MatcherAssert.assertThat(estimate.getTransferBytesPerHour(), Matchers.equalTo(3000L * 30));
+        MatcherAssert.assertThat(estimate.getStorageBytes(), Matchers.equalTo(9000L));
+        MatcherAssert.assertThat(
+                estimate.getSchedulerRunsPerSecond(), Matchers.closeTo(2.0 / 60, 1e-9));
+    }
+
+    @Test
+    void shouldFallBackToAllArchivesAndCapAtMaxSize() {
+        Mockito.when(archiveIndex.list(Mockito.anyString())).thenReturn(List.of());
+        Mockito.when(archiveIndex.list())
+                .thenReturn(List.of(archive("billing-App", "other", 6000)));
+
+        RuleCostEstimator.Estimate estimate = estimator.estimate(rule().maxSizeBytes(4000).build());
+
+        for (RuleCostEstimator.TargetEstimate target : estimate.getMatchedTargets()) {
+            MatcherAssert.assertThat(
+                    target.getBasis(), Matchers.equalTo(RuleCostEstimator.Basis.ALL));
+            MatcherAssert.assertThat(target.getArchiveBytes(), Matchers.equalTo(4000L));
+        }
+    }
+
+    @Test
+    void shouldLeaveTargetsUnestimatedWithoutAnyArchives() {
+        Mockito.when(archiveIndex.list(Mockito.anyString())).thenReturn(List.of());
+        Mockito.when(archiveIndex.list()).thenReturn(List.of());
+
+        RuleCostEstimator.Estimate estimate = estimator.estimate(rule().build());
+
+        MatcherAssert.assertThat(estimate.getTargetCount(), Matchers.equalTo(2));
+        MatcherAssert.assertThat(estimate.getArchiveBytesPerPeriod(), Matchers.equalTo(0L));
+        for (RuleCostEstimator.TargetEstimate target : estimate.getMatchedTargets()) {
+            MatcherAssert.assertThat(
+                    target.getBasis(), Matchers.equalTo(RuleCostEstimator.Basis.NONE));
+            MatcherAssert.assertThat(target.getArchiveBytes(), Matchers.nullValue());
+        }
+    }
+
+    @Test
+    void shouldBoundTriggeredArchivesByCooldown() {
+        Mockito.when(archiveIndex.list(Mockito.anyString()))
+                .thenReturn(List.of(archive("orders-App", "auto_Orders_Rule", 1000)));
+        Mockito.when(archiveIndex.list()).thenReturn(List.of());
+
+        RuleCostEstimator.Estimate estimate =
+                estimator.estimate(
+                        rule().triggerMetric("heapUsedPercent")
+                                .triggerThreshold(90)
+                                .triggerCooldownSeconds(600)
+                                .build());
+
+        MatcherAssert.assertThat(estimate.getTransferBytesPerHour(), Matchers.equalTo(2000L * 6));
+        MatcherAssert.assertThat(
+                estimate.getSchedulerRunsPerSecond(), Matchers.closeTo(2.0 / 10, 1e-9));
+    }
+
+    @Test
+    void shouldNotCostAnythingForRuleWithoutArchiving() {
+        RuleCostEstimator.Estimate estimate =
+                estimator.estimate(rule().preservedArchives(0).build());
+
+        MatcherAssert.assertThat(estimate.getTargetCount(), Matchers.equalTo(2));
+        MatcherAssert.assertThat(estimate.getTransferBytesPerHour(), Matchers.equalTo(0L));
+        MatcherAssert.assertThat(estimate.getSchedulerRunsPerSecond(), Matchers.equalTo(0.0));
+    }
+}
@@ -38,14 +38,20 @@
 package io.cryostat.rules;
 
 import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.function.Function;
 
 import org.openjdk.jmc.common.unit.IConstrainedMap;
 import org.openjdk.jmc.flightrecorder.configuration.recording.RecordingOptionsBuilder;
+import org.openjdk.jmc.rjmx.services.jfr.IRecordingDescriptor;
 import org.openjdk.jmc.rjmx.services.jfr.IFlightRecorderService;
 
 import io.cryostat.commands.internal.RecordingOptionsBuilderFactory;
@@ -55,6 +61,8 @@ import io.cryostat.core.net.Credentials;
 import io.cryostat.core.net.JFRConnection;
 import io.cryostat.core.net.discovery.JvmDiscoveryClient.EventKind;
 import io.cryostat.core.templates.TemplateType;
+import io.cryostat.messaging.notifications.Notification;
+import io.cryostat.messaging.notifications.NotificationFactory;
 import io.cryostat.net.ConnectionDescriptor;
 import io.cryostat.net.TargetConnectionManager;
 import io.cryostat.platform.PlatformClient;
@@ -62,6 +70,7 @@ import io.cryostat.platform.ServiceRef;
 import io.cryostat.platform.TargetDiscoveryEvent;
 import io.cryostat.recordings.RecordingArchiveHelper;
 import io.cryostat.recordings.RecordingTargetHelper;
+import io.cryostat.util.events.Event;
 
 import org.apache.commons.lang3.tuple.Pair;
 import org.hamcrest.MatcherAssert;
@@ -72,6 +81,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 @ExtendWith(MockitoExtension.class)
@@ -80,13 +90,18 @@ class RuleProcessorTest {
     RuleProcessor processor;
     @Mock PlatformClient platformClient;
     @Mock RuleRegistry registry;
-    @Mock ScheduledExecutorService scheduler;
+    @Mock RuleScheduler scheduler;
+    @Mock RuleActivationQueue activations;
+    @Mock ReplicaSampler sampler;
+    @Mock TargetBackoff backoff;
+    @Mock ScheduledExecutorService reconcileTimer;
     @Mock CredentialsManager credentialsManager;
     @Mock RecordingOptionsBuilderFactory recordingOptionsBuilderFactory;
     @Mock TargetConnectionManager targetConnectionManager;
     @Mock RecordingArchiveHelper recordingArchiveHelper;
     @Mock RecordingTargetHelper recordingTargetHelper;
     @Mock PeriodicArchiverFactory periodicArchiverFactory;
+    @Mock NotificationFactory notificationFactory;
     @Mock Logger logger;
 
     @Mock JFRConnection connection;
@@ -99,13 +114,34 @@ class RuleProcessorTest {
                         platformClient,
                         registry,
                         scheduler,
+                        activations,
+                        sampler,
+                        backoff,
+                        reconcileTimer,
+                        30,
                         credentialsManager,
                         recordingOptionsBuilderFactory,
                         targetConnectionManager,
                         recordingArchiveHelper,
                         recordingTargetHelper,
                         periodicArchiverFactory,
+                        notificationFactory,
                         logger);
+
+        // run queued work straight away unless a test needs to hold it back
+        Mockito.lenient()
+                .doAnswer(invocation -> runArgument(invocation, 2))
+                .when(activations)
+                .activate(Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.lenient()
+                .doAnswer(invocation -> runArgument(invocation, 1))
+                .when(activations)
+                .deactivate(Mockito.any(), Mockito.any());
+    }
+
+    private static Object runArgument(InvocationOnMock invocation, int index) {
+        ((Runnable) invocation.getArgument(index)).run();
+        return null;
     }
 
     @Test
@@ -172,6 +208,7 @@ class RuleProcessorTest {
                         .build();
 
         Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.when(registry.getRule(rule.getName())).thenReturn(Optional.of(rule));
 
         PeriodicArchiver periodicArchiver = Mockito.mock(PeriodicArchiver.class);
         Mockito.when(
@@ -221,7 +258,8 @@ class RuleProcessorTest {
 
         MatcherAssert.assertThat(templateTypeCaptor.getValue(), Matchers.nullValue());
 
-        Mockito.verify(scheduler).scheduleAtFixedRate(periodicArchiver, 67, 67, TimeUnit.SECONDS);
+        Mockito.verify(scheduler)
+                .schedule(serviceRef, rule, periodicArchiver, 67, TimeUnit.SECONDS);
     }
 
     @Test
@@ -247,6 +285,7 @@ class RuleProcessorTest {
                         .build();
 
         Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.when(registry.getRule(rule.getName())).thenReturn(Optional.of(rule));
 
         PeriodicArchiver periodicArchiver = Mockito.mock(PeriodicArchiver.class);
         Mockito.when(
@@ -258,18 +297,20 @@ class RuleProcessorTest {
                                 Mockito.any()))
                 .thenReturn(periodicArchiver);
 
-        ScheduledFuture task = Mockito.mock(ScheduledFuture.class);
-        Mockito.when(
-                        scheduler.scheduleAtFixedRate(
-                                Mockito.any(Runnable.class),
-                                Mockito.anyLong(),
-                                Mockito.anyLong(),
-                                Mockito.any(TimeUnit.class)))
-                .thenReturn(task);
+        Future task = Mockito.mock(Future.class);
+        Mockito.doReturn(task)
+                .when(scheduler)
+                .schedule(
+                        Mockito.any(ServiceRef.class),
+                        Mockito.any(Rule.class),
+                        Mockito.<Runnable>any(),
+                        Mockito.anyLong(),
+                        Mockito.any(TimeUnit.class));
 
         processor.accept(tde);
 
-        Mockito.verify(scheduler).scheduleAtFixedRate(periodicArchiver, 67, 67, TimeUnit.SECONDS);
+        Mockito.verify(scheduler)
+                .schedule(serviceRef, rule, periodicArchiver, 67, TimeUnit.SECONDS);
 
         ArgumentCaptor<Function<Pair<ServiceRef, Rule>, Void>> functionCaptor =
                 ArgumentCaptor.forClass(Function.class);
@@ -286,5 +327,401 @@ class RuleProcessorTest {
         failureFunction.apply(Pair.of(serviceRef, rule));
 
         Mockito.verify(task).cancel(true);
+        Mockito.verify(backoff).failed(serviceRef);
+    }
+
+    @Test
+    void testAddedRuleActivatesOnlyForKnownTargetsWithMatchingAlias() throws Exception {
+        ServiceRef matching =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        ServiceRef other =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://barHost:9091/jmxrmi"),
+                        "com.example.Other");
+        Mockito.when(platformClient.listDiscoverableServices())
+                .thenReturn(List.of(matching, other));
+        Mockito.when(registry.applies(Mockito.any(), Mockito.any())).thenReturn(true);
+
+        Rule first =
+                new Rule.Builder()
+                        .name("First Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .build();
+        Rule second =
+                new Rule.Builder()
+                        .name("Second Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .build();
+
+        processor.onEvent(new Event<>(RuleRegistry.RuleEvent.ADDED, first));
+        processor.onEvent(new Event<>(RuleRegistry.RuleEvent.ADDED, second));
+
+        Mockito.verify(platformClient, Mockito.times(1)).listDiscoverableServices();
+        Mockito.verify(registry).applies(first, matching);
+        Mockito.verify(registry).applies(second, matching);
+        Mockito.verify(registry, Mockito.never()).applies(Mockito.any(), Mockito.eq(other));
+        Mockito.verify(targetConnectionManager, Mockito.times(2))
+                .executeConnectedTask(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void testFoundOnlyQueuesActivation() throws Exception {
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .build();
+        Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.doNothing().when(activations).activate(Mockito.any(), Mockito.any(), Mockito.any());
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.FOUND, serviceRef));
+
+        Mockito.verify(activations).retain(serviceRef);
+        Mockito.verify(activations)
+                .activate(Mockito.eq(serviceRef), Mockito.eq(rule), Mockito.any());
+        Mockito.verifyNoInteractions(targetConnectionManager);
+        Mockito.verifyNoInteractions(credentialsManager);
+    }
+
+    @Test
+    void testLostQueuesDeactivation() throws Exception {
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.LOST, serviceRef));
+
+        Mockito.verify(activations).deactivate(Mockito.eq(serviceRef), Mockito.any());
+    }
+
+    @Test
+    void testActiveRuleIsNotQueuedAgain() throws Exception {
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .build();
+        Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.when(registry.getRule(rule.getName())).thenReturn(Optional.of(rule));
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.FOUND, serviceRef));
+        processor.accept(new TargetDiscoveryEvent(EventKind.FOUND, serviceRef));
+
+        Mockito.verify(activations, Mockito.times(2)).retain(serviceRef);
+        Mockito.verify(activations, Mockito.times(1))
+                .activate(Mockito.eq(serviceRef), Mockito.eq(rule), Mockito.any());
+        Mockito.verify(targetConnectionManager, Mockito.times(1))
+                .executeConnectedTask(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void testActivationIsDroppedIfTargetLostWhileStarting() throws Exception {
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .preservedArchives(5)
+                        .archivalPeriodSeconds(67)
+                        .build();
+        Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.when(targetConnectionManager.executeConnectedTask(Mockito.any(), Mockito.any()))
+                .thenAnswer(
+                        invocation -> {
+                            processor.accept(new TargetDiscoveryEvent(EventKind.LOST, serviceRef));
+                            return null;
+                        });
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.FOUND, serviceRef));
+
+        Mockito.verifyNoInteractions(scheduler);
+        Mockito.verifyNoInteractions(periodicArchiverFactory);
+    }
+
+    @Test
+    void testRemovedRuleCancelsQueuedActivations() throws Exception {
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .build();
+
+        processor.onEvent(new Event<>(RuleRegistry.RuleEvent.REMOVED, rule));
+
+        Mockito.verify(activations).cancel(rule);
+        Mockito.verify(scheduler).removeTelemetry(rule.getName());
+    }
+
+    @Test
+    void testEnableSchedulesReconciliation() {
+        Future task = Mockito.mock(ScheduledFuture.class);
+        Mockito.doReturn(task)
+                .when(reconcileTimer)
+                .scheduleWithFixedDelay(
+                        Mockito.any(), Mockito.eq(30L), Mockito.eq(30L), Mockito.any());
+
+        processor.enable();
+        processor.enable();
+        processor.disable();
+
+        Mockito.verify(reconcileTimer, Mockito.times(1))
+                .scheduleWithFixedDelay(
+                        Mockito.any(),
+                        Mockito.eq(30L),
+                        Mockito.eq(30L),
+                        Mockito.eq(TimeUnit.SECONDS));
+        Mockito.verify(task).cancel(false);
+        Mockito.verify(backoff).clear();
+    }
+
+    @Test
+    void testFailedActivationIsRetriedByReconciliation() throws Exception {
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .build();
+        Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.when(registry.getRule(rule.getName())).thenReturn(Optional.of(rule));
+        Mockito.when(backoff.isReady(serviceRef)).thenReturn(true);
+        Mockito.when(targetConnectionManager.executeConnectedTask(Mockito.any(), Mockito.any()))
+                .thenThrow(new IllegalStateException("not ready"))
+                .thenReturn(null);
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.FOUND, serviceRef));
+
+        Mockito.verify(backoff).failed(serviceRef);
+        Mockito.verify(backoff, Mockito.never()).reset(serviceRef);
+
+        processor.reconcile();
+
+        Mockito.verify(targetConnectionManager, Mockito.times(2))
+                .executeConnectedTask(Mockito.any(), Mockito.any());
+        Mockito.verify(backoff).reset(serviceRef);
+
+        processor.reconcile();
+
+        Mockito.verify(targetConnectionManager, Mockito.times(2))
+                .executeConnectedTask(Mockito.any(), Mockito.any());
+    }
+
+    @Test
+    void testReconciliationSkipsTargetsBackingOff() throws Exception {
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of(serviceRef));
+        Mockito.when(backoff.isReady(serviceRef)).thenReturn(false);
+
+        processor.reconcile();
+
+        Mockito.verify(registry, Mockito.never()).getRules(Mockito.any(ServiceRef.class));
+        Mockito.verifyNoInteractions(activations);
+    }
+
+    @Test
+    void testExistingRuleRecordingIsNotStartedAgain() throws Exception {
+        Mockito.when(targetConnectionManager.executeConnectedTask(Mockito.any(), Mockito.any()))
+                .thenAnswer(
+                        arg0 ->
+                                ((TargetConnectionManager.ConnectedTask<Object>)
+                                                arg0.getArgument(1))
+                                        .execute(connection));
+        Mockito.when(recordingTargetHelper.getDescriptorByName(connection, "auto_Test_Rule"))
+                .thenReturn(Optional.of(Mockito.mock(IRecordingDescriptor.class)));
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .preservedArchives(5)
+                        .archivalPeriodSeconds(67)
+                        .build();
+        Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.when(registry.getRule(rule.getName())).thenReturn(Optional.of(rule));
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.FOUND, serviceRef));
+
+        Mockito.verify(recordingTargetHelper, Mockito.never())
+                .startRecording(Mockito.any(), Mockito.any(), Mockito.any(), Mockito.any());
+        Mockito.verify(scheduler)
+                .schedule(
+                        Mockito.eq(serviceRef),
+                        Mockito.eq(rule),
+                        Mockito.<Runnable>any(),
+                        Mockito.eq(67L),
+                        Mockito.eq(TimeUnit.SECONDS));
+        Mockito.verify(backoff).reset(serviceRef);
+    }
+
+    @Test
+    void testTriggeredRuleSamplesInsteadOfArchivingPeriodically() throws Exception {
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .preservedArchives(3)
+                        .archivalPeriodSeconds(0)
+                        .triggerMetric("heapUsedPercent")
+                        .triggerThreshold(90)
+                        .build();
+        Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.when(registry.getRule(rule.getName())).thenReturn(Optional.of(rule));
+        PeriodicArchiver periodicArchiver = Mockito.mock(PeriodicArchiver.class);
+        Mockito.when(
+                        periodicArchiverFactory.create(
+                                Mockito.any(),
+                                Mockito.any(),
+                                Mockito.any(),
+                                Mockito.any(),
+                                Mockito.any()))
+                .thenReturn(periodicArchiver);
+        MetricTriggeredArchiver triggered = Mockito.mock(MetricTriggeredArchiver.class);
+        Mockito.when(
+                        periodicArchiverFactory.createTriggered(
+                                Mockito.eq(serviceRef),
+                                Mockito.any(),
+                                Mockito.eq(rule),
+                                Mockito.eq(periodicArchiver),
+                                Mockito.any()))
+                .thenReturn(triggered);
+        Mockito.when(periodicArchiverFactory.getTriggerSamplePeriodSeconds()).thenReturn(10);
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.FOUND, serviceRef));
+
+        Mockito.verify(scheduler).schedule(serviceRef, rule, triggered, 10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void testSampledRuleOnlyArchivesWhenSelected() throws Exception {
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .preservedArchives(3)
+                        .archivalPeriodSeconds(60)
+                        .sampledReplicas(2)
+                        .build();
+        Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.when(registry.getRule(rule.getName())).thenReturn(Optional.of(rule));
+        PeriodicArchiver periodicArchiver = Mockito.mock(PeriodicArchiver.class);
+        Mockito.when(
+                        periodicArchiverFactory.create(
+                                Mockito.any(),
+                                Mockito.any(),
+                                Mockito.any(),
+                                Mockito.any(),
+                                Mockito.any()))
+                .thenReturn(periodicArchiver);
+        RuleScheduler.PeriodicTask sampled = Mockito.mock(RuleScheduler.PeriodicTask.class);
+        Mockito.when(sampler.sampled(rule, serviceRef, periodicArchiver)).thenReturn(sampled);
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.FOUND, serviceRef));
+        Mockito.verify(scheduler).schedule(serviceRef, rule, sampled, 60, TimeUnit.SECONDS);
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.LOST, serviceRef));
+        Mockito.verify(sampler).remove(rule, serviceRef);
+    }
+
+    @Test
+    void testRemovedRuleRecordingIsStartedAgainByReconciliation() throws Exception {
+        ArgumentCaptor<Consumer<Notification<?>>> listener =
+                ArgumentCaptor.forClass(Consumer.class);
+        Mockito.verify(notificationFactory).addListener(listener.capture());
+        ServiceRef serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+        Rule rule =
+                new Rule.Builder()
+                        .name("Test Rule")
+                        .targetAlias("com.example.App")
+                        .eventSpecifier("template=Continuous")
+                        .build();
+        Mockito.when(registry.getRules(serviceRef)).thenReturn(Set.of(rule));
+        Mockito.when(registry.getRule(rule.getName())).thenReturn(Optional.of(rule));
+        Mockito.when(backoff.isReady(serviceRef)).thenReturn(true);
+
+        processor.accept(new TargetDiscoveryEvent(EventKind.FOUND, serviceRef));
+        processor.reconcile();
+
+        Mockito.verify(targetConnectionManager, Mockito.times(1))
+                .executeConnectedTask(Mockito.any(), Mockito.any());
+
+        listener.getValue()
+                .accept(
+                        notification(
+                                "RecordingStopped",
+                                Map.of(
+                                        "recording",
+                                        "someOtherRecording",
+                                        "target",
+                                        serviceRef.getServiceUri().toString())));
+        processor.reconcile();
+
+        Mockito.verify(targetConnectionManager, Mockito.times(1))
+                .executeConnectedTask(Mockito.any(), Mockito.any());
+
+        listener.getValue()
+                .accept(
+                        notification(
+                                "RecordingDeleted",
+                                Map.of("recording", "auto_Test_Rule", "target", "fooHost:9091")));
+        processor.reconcile();
+
+        Mockito.verify(targetConnectionManager, Mockito.times(2))
+                .executeConnectedTask(Mockito.any(), Mockito.any());
+
+        processor.reconcile();
+
+        Mockito.verify(targetConnectionManager, Mockito.times(2))
+                .executeConnectedTask(Mockito.any(), Mockito.any());
+    }
+
+    private static Notification<?> notification(String category, Map<String, String> message) {
+        Notification<Map<String, String>> notification = Mockito.mock(Notification.class);
+        Mockito.lenient().when(notification.getCategory()).thenReturn(category);
+        Mockito.lenient().when(notification.getMessage()).thenReturn(message);
+        return notification;
     }
 }
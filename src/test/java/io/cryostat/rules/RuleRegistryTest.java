@@ -43,6 +43,7 @@ import java.io.StringReader;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 
@@ -121,8 +122,6 @@ class RuleRegistryTest {
     void testAddRule() throws Exception {
         Path rulePath = Mockito.mock(Path.class);
         Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
-        Mockito.when(fs.listDirectoryChildren(rulesDir)).thenReturn(List.of("test_rule.json"));
-        Mockito.when(fs.readFile(rulePath)).thenReturn(fileReader);
 
         registry.addRule(TEST_RULE);
 
@@ -136,7 +135,9 @@ class RuleRegistryTest {
                         StandardOpenOption.WRITE,
                         StandardOpenOption.CREATE,
                         StandardOpenOption.TRUNCATE_EXISTING);
-        inOrder.verify(fs).listDirectoryChildren(rulesDir);
+        Mockito.verify(fs, Mockito.never()).listDirectoryChildren(Mockito.any());
+        Mockito.verify(fs, Mockito.never()).readFile(Mockito.any());
+        MatcherAssert.assertThat(registry.getRules(), Matchers.equalTo(Set.of(TEST_RULE)));
     }
 
     @Test
@@ -171,8 +172,6 @@ class RuleRegistryTest {
     void testGetRulebyName() throws Exception {
         Path rulePath = Mockito.mock(Path.class);
         Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
-        Mockito.when(fs.listDirectoryChildren(rulesDir)).thenReturn(List.of("test_rule.json"));
-        Mockito.when(fs.readFile(rulePath)).thenReturn(fileReader);
 
         registry.addRule(TEST_RULE);
         Optional<Rule> getResult = registry.getRule("test_rule");
@@ -183,8 +182,6 @@ class RuleRegistryTest {
     void testGetAllRules() throws Exception {
         Path rulePath = Mockito.mock(Path.class);
         Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
-        Mockito.when(fs.listDirectoryChildren(rulesDir)).thenReturn(List.of("test_rule.json"));
-        Mockito.when(fs.readFile(rulePath)).thenReturn(fileReader);
 
         registry.addRule(TEST_RULE);
 
@@ -195,8 +192,6 @@ class RuleRegistryTest {
     void testGetRulesByServiceRef() throws Exception {
         Path rulePath = Mockito.mock(Path.class);
         Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
-        Mockito.when(fs.listDirectoryChildren(rulesDir)).thenReturn(List.of("test_rule.json"));
-        Mockito.when(fs.readFile(rulePath)).thenReturn(fileReader);
 
         registry.addRule(TEST_RULE);
 
@@ -206,11 +201,72 @@ class RuleRegistryTest {
     }
 
     @Test
-    void testGetRulesReturnsCopy() throws Exception {
+    void testGetRulesByServiceRefExcludesOtherAliases() throws Exception {
+        Path rulePath = Mockito.mock(Path.class);
+        Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
+
+        registry.addRule(TEST_RULE);
+
+        MatcherAssert.assertThat(
+                registry.getRules(new ServiceRef(null, "com.example.Other")),
+                Matchers.emptyCollectionOf(Rule.class));
+        MatcherAssert.assertThat(
+                registry.applies(TEST_RULE, new ServiceRef(null, "com.example.Other")),
+                Matchers.is(false));
+        MatcherAssert.assertThat(
+                registry.applies(TEST_RULE, new ServiceRef(null, "com.example.App")),
+                Matchers.is(true));
+    }
+
+    @Test
+    void testGetRulesByServiceRefAfterDelete() throws Exception {
         Path rulePath = Mockito.mock(Path.class);
         Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
         Mockito.when(fs.listDirectoryChildren(rulesDir)).thenReturn(List.of("test_rule.json"));
-        Mockito.when(fs.readFile(rulePath)).thenReturn(fileReader);
+
+        registry.addRule(TEST_RULE);
+        registry.deleteRule(TEST_RULE);
+
+        MatcherAssert.assertThat(
+                registry.getRules(new ServiceRef(null, "com.example.App")),
+                Matchers.emptyCollectionOf(Rule.class));
+        MatcherAssert.assertThat(
+                registry.getRule(TEST_RULE.getName()).isPresent(), Matchers.is(false));
+    }
+
+    @Test
+    void testGetRulesByServiceRefIncludesMatchExpressionRules() throws Exception {
+        Rule expressionRule =
+                new Rule.Builder()
+                        .name("expression rule")
+                        .matchExpression("labels.app == 'orders'")
+                        .eventSpecifier("template=Continuous")
+                        .build();
+        Path rulePath = Mockito.mock(Path.class);
+        Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
+        Mockito.when(fs.listDirectoryChildren(rulesDir))
+                .thenReturn(List.of("expression_rule.json"));
+
+        registry.addRule(expressionRule);
+
+        ServiceRef orders = new ServiceRef(null, null);
+        orders.setLabels(Map.of("app", "orders"));
+        ServiceRef payments = new ServiceRef(null, "com.example.App");
+        payments.setLabels(Map.of("app", "payments"));
+        MatcherAssert.assertThat(
+                registry.getRules(orders), Matchers.equalTo(Set.of(expressionRule)));
+        MatcherAssert.assertThat(
+                registry.getRules(payments), Matchers.emptyCollectionOf(Rule.class));
+
+        registry.deleteRule(expressionRule);
+
+        MatcherAssert.assertThat(registry.getRules(orders), Matchers.emptyCollectionOf(Rule.class));
+    }
+
+    @Test
+    void testGetRulesReturnsCopy() throws Exception {
+        Path rulePath = Mockito.mock(Path.class);
+        Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
 
         registry.addRule(TEST_RULE);
 
@@ -235,7 +291,6 @@ class RuleRegistryTest {
         Path rulePath = Mockito.mock(Path.class);
         Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
         Mockito.when(fs.listDirectoryChildren(rulesDir)).thenReturn(List.of("test_rule.json"));
-        Mockito.when(fs.readFile(rulePath)).thenReturn(fileReader);
 
         registry.addRule(TEST_RULE);
 
@@ -256,7 +311,6 @@ class RuleRegistryTest {
         Path rulePath = Mockito.mock(Path.class);
         Mockito.when(rulesDir.resolve(Mockito.anyString())).thenReturn(rulePath);
         Mockito.when(fs.listDirectoryChildren(rulesDir)).thenReturn(List.of("test_rule.json"));
-        Mockito.when(fs.readFile(rulePath)).thenReturn(fileReader);
         Mockito.when(fs.deleteIfExists(rulePath)).thenThrow(IOException.class);
 
         registry.addRule(TEST_RULE);
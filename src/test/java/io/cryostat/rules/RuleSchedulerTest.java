@@ -0,0 +1,276 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.cryostat.core.log.Logger;
+import io.cryostat.core.sys.Clock;
+import io.cryostat.platform.ServiceRef;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RuleSchedulerTest {
+
+    RuleScheduler scheduler;
+    RuleTelemetry telemetry;
+    ScheduledExecutorService timer;
+    ExecutorService workers;
+    @Mock Logger logger;
+
+    ServiceRef fooRef;
+    ServiceRef barRef;
+    Rule ruleA;
+    Rule ruleB;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.timer = Executors.newSingleThreadScheduledExecutor();
+        this.workers = RuleScheduler.createWorkerPool(4);
+        this.telemetry = new RuleTelemetry();
+        this.scheduler = new RuleScheduler(timer, workers, 0, telemetry, new Clock(), logger);
+        this.fooRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://foo:9091/jmxrmi"), "foo");
+        this.barRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://bar:9091/jmxrmi"), "bar");
+        this.ruleA = rule("Rule A");
+        this.ruleB = rule("Rule B");
+    }
+
+    @AfterEach
+    void teardown() {
+        timer.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    @Test
+    void shouldRunTaskPeriodically() throws Exception {
+        CountDownLatch latch = new CountDownLatch(3);
+
+        scheduler.schedule(fooRef, ruleA, latch::countDown, 20, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        RuleTelemetry.TargetStats stats = telemetry.getStats(ruleA.getName()).get(0);
+        MatcherAssert.assertThat(stats.getExecutions(), Matchers.greaterThanOrEqualTo(3L));
+    }
+
+    @Test
+    void shouldSerializeTasksForSameTarget() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(6);
+        Runnable task =
+                () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(15);
+                    running.decrementAndGet();
+                    latch.countDown();
+                };
+
+        scheduler.schedule(fooRef, ruleA, task, 10, TimeUnit.MILLISECONDS);
+        scheduler.schedule(fooRef, ruleB, task, 10, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        MatcherAssert.assertThat(maxRunning.get(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldRunTasksForDifferentTargetsConcurrently() throws Exception {
+        CountDownLatch bothStarted = new CountDownLatch(2);
+        CountDownLatch done = new CountDownLatch(2);
+        Runnable task =
+                () -> {
+                    bothStarted.countDown();
+                    try {
+                        if (bothStarted.await(5, TimeUnit.SECONDS)) {
+                            done.countDown();
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                };
+
+        Future<?> foo = scheduler.schedule(fooRef, ruleA, task, 50, TimeUnit.MILLISECONDS);
+        Future<?> bar = scheduler.schedule(barRef, ruleA, task, 50, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(done.await(5, TimeUnit.SECONDS));
+        foo.cancel(true);
+        bar.cancel(true);
+    }
+
+    @Test
+    void shouldPassScheduledDeadlineToPeriodicTasks() throws Exception {
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(10);
+        List<Long> deadlines = new CopyOnWriteArrayList<>();
+        CountDownLatch latch = new CountDownLatch(3);
+
+        scheduler.schedule(
+                fooRef,
+                ruleA,
+                dueNanos -> {
+                    deadlines.add(dueNanos);
+                    // start the following runs late, and skip some periods
+                    sleep(25);
+                    latch.countDown();
+                },
+                10,
+                TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        for (int i = 1; i < 3; i++) {
+            long apart = deadlines.get(i) - deadlines.get(i - 1);
+            MatcherAssert.assertThat(apart, Matchers.greaterThan(periodNanos));
+            MatcherAssert.assertThat(apart % periodNanos, Matchers.equalTo(0L));
+        }
+    }
+
+    @Test
+    void shouldSkipPeriodsWhileTaskIsStillRunning() throws Exception {
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch latch = new CountDownLatch(2);
+        Runnable task =
+                () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    sleep(60);
+                    running.decrementAndGet();
+                    latch.countDown();
+                };
+
+        scheduler.schedule(fooRef, ruleA, task, 10, TimeUnit.MILLISECONDS);
+
+        Assertions.assertTrue(latch.await(5, TimeUnit.SECONDS));
+        MatcherAssert.assertThat(maxRunning.get(), Matchers.equalTo(1));
+        MatcherAssert.assertThat(
+                telemetry.getStats(ruleA.getName()).get(0).getSkipped(), Matchers.greaterThan(0L));
+    }
+
+    @Test
+    void shouldStopAndInterruptOnCancel() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        Runnable task =
+                () -> {
+                    runs.incrementAndGet();
+                    started.countDown();
+                    try {
+                        Thread.sleep(TimeUnit.SECONDS.toMillis(10));
+                    } catch (InterruptedException e) {
+                        interrupted.countDown();
+                    }
+                };
+
+        Future<?> future = scheduler.schedule(fooRef, ruleA, task, 10, TimeUnit.MILLISECONDS);
+        Assertions.assertTrue(started.await(5, TimeUnit.SECONDS));
+        future.cancel(true);
+
+        Assertions.assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        sleep(50);
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(1));
+    }
+
+    @Test
+    void shouldNotRunCancelledTask() throws Exception {
+        AtomicInteger runs = new AtomicInteger();
+
+        Future<?> future =
+                scheduler.schedule(fooRef, ruleA, runs::incrementAndGet, 20, TimeUnit.MILLISECONDS);
+        future.cancel(false);
+        sleep(80);
+
+        MatcherAssert.assertThat(runs.get(), Matchers.equalTo(0));
+        MatcherAssert.assertThat(telemetry.getStats(ruleA.getName()), Matchers.empty());
+    }
+
+    @Test
+    void shouldJitterInitialDelayWithinBound() {
+        RuleScheduler jittered =
+                new RuleScheduler(timer, workers, 50, new RuleTelemetry(), new Clock(), logger);
+        long period = TimeUnit.SECONDS.toNanos(60);
+        for (int i = 0; i < 1000; i++) {
+            MatcherAssert.assertThat(
+                    jittered.initialDelayNanos(period),
+                    Matchers.allOf(
+                            Matchers.greaterThanOrEqualTo(period),
+                            Matchers.lessThanOrEqualTo(period + period / 2)));
+        }
+    }
+
+    @Test
+    void shouldNotJitterWhenDisabled() {
+        long period = TimeUnit.SECONDS.toNanos(60);
+        MatcherAssert.assertThat(scheduler.initialDelayNanos(period), Matchers.equalTo(period));
+    }
+
+    private static Rule rule(String name) {
+        return new Rule.Builder()
+                .name(name)
+                .targetAlias("foo")
+                .eventSpecifier("template=Continuous")
+                .preservedArchives(1)
+                .archivalPeriodSeconds(1)
+                .build();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import io.cryostat.MainModule;
+import io.cryostat.core.log.Logger;
+import io.cryostat.rules.RuleRegistry.RuleEvent;
+import io.cryostat.util.events.Event;
+
+import com.google.gson.Gson;
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class RuleStateStoreTest {
+
+    static final String RULE = "myRule";
+    static final String TARGET = "service:jmx:rmi:///jndi/rmi://foo:9091/jmxrmi";
+    static final String OTHER_TARGET = "service:jmx:rmi:///jndi/rmi://bar:9091/jmxrmi";
+
+    @TempDir Path stateDir;
+    @Mock Logger logger;
+    Gson gson = MainModule.provideGson(Mockito.mock(Logger.class));
+    RuleStateStore store;
+
+    @BeforeEach
+    void setup() throws Exception {
+        store = new RuleStateStore(stateDir, gson, logger);
+        store.load();
+    }
+
+    @Test
+    void shouldStartEmpty() {
+        MatcherAssert.assertThat(store.getArchives(RULE, TARGET), Matchers.empty());
+    }
+
+    @Test
+    void shouldTrackArchivesInOrderPerTarget() throws Exception {
+        store.archived(RULE, TARGET, "a.jfr");
+        store.archived(RULE, TARGET, "b.jfr");
+        store.archived(RULE, OTHER_TARGET, "c.jfr");
+        store.pruned(RULE, TARGET, "a.jfr");
+
+        MatcherAssert.assertThat(store.getArchives(RULE, TARGET), Matchers.contains("b.jfr"));
+        MatcherAssert.assertThat(store.getArchives(RULE, OTHER_TARGET), Matchers.contains("c.jfr"));
+    }
+
+    @Test
+    void shouldRestoreStateAfterRestart() throws Exception {
+        store.archived(RULE, TARGET, "a.jfr");
+        store.archived(RULE, TARGET, "b.jfr");
+        store.archived(RULE, TARGET, "c.jfr");
+        store.pruned(RULE, TARGET, "a.jfr");
+        store.archived("otherRule", TARGET, "d.jfr");
+
+        RuleStateStore restarted = new RuleStateStore(stateDir, gson, logger);
+        restarted.load();
+
+        MatcherAssert.assertThat(
+                restarted.getArchives(RULE, TARGET), Matchers.contains("b.jfr", "c.jfr"));
+        MatcherAssert.assertThat(
+                restarted.getArchives("otherRule", TARGET), Matchers.contains("d.jfr"));
+    }
+
+    @Test
+    void shouldForgetRemovedRules() throws Exception {
+        store.archived(RULE, TARGET, "a.jfr");
+        store.archived("otherRule", TARGET, "b.jfr");
+        Rule rule =
+                new Rule.Builder()
+                        .name(RULE)
+                        .targetAlias("foo")
+                        .eventSpecifier("template=Continuous")
+                        .build();
+
+        store.onEvent(new Event<>(RuleEvent.ADDED, rule));
+        MatcherAssert.assertThat(store.getArchives(RULE, TARGET), Matchers.contains("a.jfr"));
+
+        store.onEvent(new Event<>(RuleEvent.REMOVED, rule));
+        MatcherAssert.assertThat(store.getArchives(RULE, TARGET), Matchers.empty());
+
+        RuleStateStore restarted = new RuleStateStore(stateDir, gson, logger);
+        restarted.load();
+        MatcherAssert.assertThat(restarted.getArchives(RULE, TARGET), Matchers.empty());
+        MatcherAssert.assertThat(
+                restarted.getArchives("otherRule", TARGET), Matchers.contains("b.jfr"));
+    }
+
+    @Test
+    void shouldIgnoreTornJournalEntry() throws Exception {
+        store.archived(RULE, TARGET, "a.jfr");
+        Files.write(
+                stateDir.resolve(RuleStateStore.JOURNAL_FILE),
+                "{\"op\":\"ADD\",\"rule\":\"myR".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        RuleStateStore restarted = new RuleStateStore(stateDir, gson, logger);
+        restarted.load();
+        MatcherAssert.assertThat(restarted.getArchives(RULE, TARGET), Matchers.contains("a.jfr"));
+
+        // the torn entry must not corrupt entries appended after recovery
+        restarted.archived(RULE, TARGET, "b.jfr");
+        RuleStateStore again = new RuleStateStore(stateDir, gson, logger);
+        again.load();
+        MatcherAssert.assertThat(
+                again.getArchives(RULE, TARGET), Matchers.contains("a.jfr", "b.jfr"));
+    }
+
+    @Test
+    void shouldReplayJournalLeftOverFromInterruptedCompaction() throws Exception {
+        store.archived(RULE, TARGET, "a.jfr");
+        store.archived(RULE, TARGET, "b.jfr");
+        store.pruned(RULE, TARGET, "a.jfr");
+        List<String> journal = Files.readAllLines(stateDir.resolve(RuleStateStore.JOURNAL_FILE));
+
+        // compact, then put the already-compacted journal back as if truncation never happened
+        RuleStateStore restarted = new RuleStateStore(stateDir, gson, logger);
+        restarted.load();
+        Files.write(stateDir.resolve(RuleStateStore.JOURNAL_FILE), journal);
+
+        RuleStateStore again = new RuleStateStore(stateDir, gson, logger);
+        again.load();
+        MatcherAssert.assertThat(again.getArchives(RULE, TARGET), Matchers.contains("b.jfr"));
+    }
+
+    @Test
+    void shouldCompactJournal() throws Exception {
+        for (int i = 0; i < RuleStateStore.MIN_COMPACTION_ENTRIES + 10; i++) {
+            store.archived(RULE, TARGET, i + ".jfr");
+            store.pruned(RULE, TARGET, i + ".jfr");
+        }
+        store.archived(RULE, TARGET, "last.jfr");
+
+        MatcherAssert.assertThat(
+                Files.readAllLines(stateDir.resolve(RuleStateStore.JOURNAL_FILE)).size(),
+                Matchers.lessThanOrEqualTo(RuleStateStore.MIN_COMPACTION_ENTRIES));
+
+        RuleStateStore restarted = new RuleStateStore(stateDir, gson, logger);
+        restarted.load();
+        MatcherAssert.assertThat(
+                restarted.getArchives(RULE, TARGET), Matchers.contains("last.jfr"));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.platform.ServiceRef;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class RuleTelemetryTest {
+
+    RuleTelemetry telemetry;
+    ServiceRef fooRef;
+    ServiceRef barRef;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.telemetry = new RuleTelemetry();
+        this.fooRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://foo:9091/jmxrmi"), "foo");
+        this.barRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://bar:9091/jmxrmi"), "bar");
+    }
+
+    static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    void shouldBeEmptyForUnknownRule() {
+        MatcherAssert.assertThat(telemetry.getStats("Unknown"), Matchers.empty());
+        MatcherAssert.assertThat(
+                telemetry.getLastLagNanos("Unknown", fooRef), Matchers.equalTo(0L));
+    }
+
+    @Test
+    void shouldSummarizeExecutionsPerTarget() {
+        telemetry.started("Rule", fooRef, millis(100));
+        telemetry.archived("Rule", fooRef, 1000, millis(200), millis(10));
+        telemetry.started("Rule", fooRef, millis(300));
+        telemetry.archived("Rule", fooRef, 3000, millis(400), millis(30));
+        telemetry.skipped("Rule", fooRef);
+        telemetry.started("Rule", barRef, millis(-5));
+        telemetry.failed("Rule", barRef, "ConnectException");
+        telemetry.failed("Rule", barRef, "ConnectException");
+
+        List<RuleTelemetry.TargetStats> stats = telemetry.getStats("Rule");
+        MatcherAssert.assertThat(stats, Matchers.hasSize(2));
+
+        RuleTelemetry.TargetStats bar = stats.get(0);
+        MatcherAssert.assertThat(
+                bar.getConnectUrl(), Matchers.equalTo(barRef.getServiceUri().toString()));
+        MatcherAssert.assertThat(bar.getExecutions(), Matchers.equalTo(1L));
+        MatcherAssert.assertThat(bar.getArchives(), Matchers.equalTo(0L));
+        MatcherAssert.assertThat(bar.getLastLagMillis(), Matchers.equalTo(0L));
+        MatcherAssert.assertThat(
+                bar.getFailures(), Matchers.equalTo(Map.of("ConnectException", 2L)));
+
+        RuleTelemetry.TargetStats foo = stats.get(1);
+        MatcherAssert.assertThat(foo.getExecutions(), Matchers.equalTo(2L));
+        MatcherAssert.assertThat(foo.getSkipped(), Matchers.equalTo(1L));
+        MatcherAssert.assertThat(foo.getArchives(), Matchers.equalTo(2L));
+        MatcherAssert.assertThat(foo.getArchivedBytes(), Matchers.equalTo(4000L));
+        MatcherAssert.assertThat(foo.getLastArchiveBytes(), Matchers.equalTo(3000L));
+        MatcherAssert.assertThat(foo.getLastLagMillis(), Matchers.equalTo(300L));
+        MatcherAssert.assertThat(foo.getMeanLagMillis(), Matchers.equalTo(200L));
+        MatcherAssert.assertThat(foo.getMaxLagMillis(), Matchers.equalTo(300L));
+        MatcherAssert.assertThat(foo.getLastTransferMillis(), Matchers.equalTo(400L));
+        MatcherAssert.assertThat(foo.getMeanTransferMillis(), Matchers.equalTo(300L));
+        MatcherAssert.assertThat(foo.getMaxTransferMillis(), Matchers.equalTo(400L));
+        MatcherAssert.assertThat(foo.getLastPruneMillis(), Matchers.equalTo(30L));
+        MatcherAssert.assertThat(foo.getMaxPruneMillis(), Matchers.equalTo(30L));
+        MatcherAssert.assertThat(foo.getFailures(), Matchers.anEmptyMap());
+        MatcherAssert.assertThat(
+                telemetry.getLastLagNanos("Rule", fooRef), Matchers.equalTo(millis(300)));
+    }
+
+    @Test
+    void shouldReturnCopies() {
+        telemetry.started("Rule", fooRef, 0);
+        RuleTelemetry.TargetStats before = telemetry.getStats("Rule").get(0);
+
+        telemetry.started("Rule", fooRef, 0);
+
+        MatcherAssert.assertThat(before.getExecutions(), Matchers.equalTo(1L));
+        MatcherAssert.assertThat(
+                telemetry.getStats("Rule").get(0).getExecutions(), Matchers.equalTo(2L));
+    }
+
+    @Test
+    void shouldRemoveTargetsAndRules() {
+        telemetry.started("Rule", fooRef, 0);
+        telemetry.started("Rule", barRef, 0);
+        telemetry.started("Other", fooRef, 0);
+
+        telemetry.remove("Rule", fooRef);
+        MatcherAssert.assertThat(telemetry.getStats("Rule"), Matchers.hasSize(1));
+
+        telemetry.remove("Rule");
+        MatcherAssert.assertThat(telemetry.getStats("Rule"), Matchers.empty());
+        MatcherAssert.assertThat(telemetry.getStats("Other"), Matchers.hasSize(1));
+    }
+}
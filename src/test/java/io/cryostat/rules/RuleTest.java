@@ -37,6 +37,17 @@
  */
 package io.cryostat.rules;
 
+import java.net.URI;
+import java.util.Map;
+
+import io.cryostat.MainModule;
+import io.cryostat.core.log.Logger;
+import io.cryostat.platform.ServiceRef;
+import io.cryostat.platform.ServiceRef.AnnotationKey;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import io.vertx.core.MultiMap;
 import org.hamcrest.MatcherAssert;
 import org.hamcrest.Matchers;
 import org.junit.jupiter.api.Assertions;
@@ -45,6 +56,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.NullAndEmptySource;
+import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 @ExtendWith(MockitoExtension.class)
@@ -173,4 +185,233 @@ class RuleTest {
                         .build();
         MatcherAssert.assertThat(rule.getRecordingName(), Matchers.equalTo("auto_Some_Rule"));
     }
+
+    @Test
+    void shouldParseIncrementalArchivesFromJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", NAME);
+        json.addProperty("targetAlias", TARGET_ALIAS);
+        json.addProperty("description", "");
+        json.addProperty("eventSpecifier", EVENT_SPECIFIER);
+        MatcherAssert.assertThat(
+                Rule.Builder.from(json).build().isIncrementalArchives(), Matchers.is(false));
+
+        json.addProperty("incrementalArchives", true);
+        MatcherAssert.assertThat(
+                Rule.Builder.from(json).build().isIncrementalArchives(), Matchers.is(true));
+
+        json.addProperty("incrementalArchives", "yes");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Rule.Builder.from(json));
+    }
+
+    @Test
+    void shouldParseIncrementalArchivesFromForm() {
+        MultiMap form = MultiMap.caseInsensitiveMultiMap();
+        form.add("name", NAME);
+        form.add("targetAlias", TARGET_ALIAS);
+        form.add("eventSpecifier", EVENT_SPECIFIER);
+        form.add("incrementalArchives", "true");
+        MatcherAssert.assertThat(
+                Rule.Builder.from(form).build().isIncrementalArchives(), Matchers.is(true));
+
+        form.set("incrementalArchives", "1");
+        Assertions.assertThrows(IllegalArgumentException.class, () -> Rule.Builder.from(form));
+    }
+
+    @Test
+    void shouldAllowMatchExpressionWithoutTargetAlias() throws Exception {
+        Rule rule =
+                builder.name(NAME)
+                        .matchExpression("annotations.cryostat.NAMESPACE == 'prod'")
+                        .eventSpecifier(EVENT_SPECIFIER)
+                        .build();
+
+        ServiceRef prod =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://a:9091/jmxrmi"), "a");
+        prod.setCryostatAnnotations(Map.of(AnnotationKey.NAMESPACE, "prod"));
+        ServiceRef dev =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://b:9091/jmxrmi"), "b");
+        dev.setCryostatAnnotations(Map.of(AnnotationKey.NAMESPACE, "dev"));
+
+        MatcherAssert.assertThat(rule.getTargetAlias(), Matchers.nullValue());
+        MatcherAssert.assertThat(rule.matches(prod), Matchers.is(true));
+        MatcherAssert.assertThat(rule.matches(dev), Matchers.is(false));
+    }
+
+    @Test
+    void shouldRequireBothTargetAliasAndMatchExpressionWhenGiven() throws Exception {
+        Rule rule =
+                builder.name(NAME)
+                        .targetAlias(TARGET_ALIAS)
+                        .matchExpression("labels.tier == 'web'")
+                        .eventSpecifier(EVENT_SPECIFIER)
+                        .build();
+
+        ServiceRef aliasOnly =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://a:9091/jmxrmi"), TARGET_ALIAS);
+        ServiceRef both =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://b:9091/jmxrmi"), TARGET_ALIAS);
+        both.setLabels(Map.of("tier", "web"));
+        ServiceRef labelOnly =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://c:9091/jmxrmi"), "other");
+        labelOnly.setLabels(Map.of("tier", "web"));
+
+        MatcherAssert.assertThat(rule.matches(aliasOnly), Matchers.is(false));
+        MatcherAssert.assertThat(rule.matches(both), Matchers.is(true));
+        MatcherAssert.assertThat(rule.matches(labelOnly), Matchers.is(false));
+    }
+
+    @Test
+    void shouldThrowOnInvalidMatchExpression() {
+        IllegalArgumentException ex =
+                Assertions.assertThrows(
+                        IllegalArgumentException.class,
+                        () ->
+                                builder.name(NAME)
+                                        .matchExpression("alias ==")
+                                        .eventSpecifier(EVENT_SPECIFIER)
+                                        .build());
+        MatcherAssert.assertThat(
+                ex.getMessage(), Matchers.containsString("Invalid match expression"));
+    }
+
+    @Test
+    void shouldRoundTripMatchExpressionThroughJson() {
+        Gson gson = MainModule.provideGson(Mockito.mock(Logger.class));
+        Rule rule =
+                builder.name(NAME)
+                        .matchExpression("alias =~ 'orders-.*'")
+                        .eventSpecifier(EVENT_SPECIFIER)
+                        .build();
+
+        Rule parsed = gson.fromJson(gson.toJson(rule), Rule.class);
+
+        MatcherAssert.assertThat(parsed, Matchers.equalTo(rule));
+        MatcherAssert.assertThat(
+                parsed.getMatchExpression(), Matchers.equalTo("alias =~ 'orders-.*'"));
+    }
+
+    @Test
+    void shouldParseMatchExpressionFromForm() throws Exception {
+        MultiMap form = MultiMap.caseInsensitiveMultiMap();
+        form.add("name", NAME);
+        form.add("matchExpression", "labels.app == 'orders'");
+        form.add("eventSpecifier", EVENT_SPECIFIER);
+
+        Rule rule = Rule.Builder.from(form).build();
+
+        ServiceRef serviceRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://a:9091/jmxrmi"), null);
+        serviceRef.setLabels(Map.of("app", "orders"));
+        MatcherAssert.assertThat(rule.matches(serviceRef), Matchers.is(true));
+    }
+
+    @Test
+    void shouldDefaultTriggerResetThresholdToThreshold() {
+        Rule rule =
+                builder.name(NAME)
+                        .targetAlias(TARGET_ALIAS)
+                        .eventSpecifier(EVENT_SPECIFIER)
+                        .triggerMetric("heapUsedPercent")
+                        .triggerThreshold(90)
+                        .build();
+
+        MatcherAssert.assertThat(rule.getTriggerMetric(), Matchers.equalTo("heapUsedPercent"));
+        MatcherAssert.assertThat(rule.getTriggerResetThreshold(), Matchers.equalTo(90));
+        MatcherAssert.assertThat(rule.getTriggerCooldownSeconds(), Matchers.equalTo(300));
+    }
+
+    @Test
+    void shouldThrowOnUnknownTriggerMetric() {
+        IllegalArgumentException ex =
+                Assertions.assertThrows(
+                        IllegalArgumentException.class,
+                        () ->
+                                builder.name(NAME)
+                                        .targetAlias(TARGET_ALIAS)
+                                        .eventSpecifier(EVENT_SPECIFIER)
+                                        .triggerMetric("fooPercent")
+                                        .build());
+        MatcherAssert.assertThat(ex.getMessage(), Matchers.containsString("heapUsedPercent"));
+    }
+
+    @Test
+    void shouldThrowOnTriggerResetThresholdAboveThreshold() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        builder.name(NAME)
+                                .targetAlias(TARGET_ALIAS)
+                                .eventSpecifier(EVENT_SPECIFIER)
+                                .triggerMetric("threadCount")
+                                .triggerThreshold(500)
+                                .triggerResetThreshold(600)
+                                .build());
+    }
+
+    @Test
+    void shouldParseTriggerFromForm() {
+        MultiMap form = MultiMap.caseInsensitiveMultiMap();
+        form.add("name", NAME);
+        form.add("targetAlias", TARGET_ALIAS);
+        form.add("eventSpecifier", EVENT_SPECIFIER);
+        form.add("triggerMetric", "gcTimePercent");
+        form.add("triggerThreshold", "20");
+        form.add("triggerResetThreshold", "5");
+        form.add("triggerCooldownSeconds", "60");
+
+        Rule rule = Rule.Builder.from(form).build();
+
+        MatcherAssert.assertThat(rule.getTriggerMetric(), Matchers.equalTo("gcTimePercent"));
+        MatcherAssert.assertThat(rule.getTriggerThreshold(), Matchers.equalTo(20));
+        MatcherAssert.assertThat(rule.getTriggerResetThreshold(), Matchers.equalTo(5));
+        MatcherAssert.assertThat(rule.getTriggerCooldownSeconds(), Matchers.equalTo(60));
+    }
+
+    @Test
+    void shouldRoundTripTriggerThroughJson() {
+        Gson gson = MainModule.provideGson(Mockito.mock(Logger.class));
+        Rule rule =
+                builder.name(NAME)
+                        .targetAlias(TARGET_ALIAS)
+                        .eventSpecifier(EVENT_SPECIFIER)
+                        .triggerMetric("processCpuPercent")
+                        .triggerThreshold(80)
+                        .triggerResetThreshold(60)
+                        .triggerCooldownSeconds(120)
+                        .build();
+
+        Rule parsed = gson.fromJson(gson.toJson(rule), Rule.class);
+
+        MatcherAssert.assertThat(parsed, Matchers.equalTo(rule));
+    }
+
+    @Test
+    void shouldParseSampledReplicasFromJson() {
+        JsonObject json = new JsonObject();
+        json.addProperty("name", NAME);
+        json.addProperty("targetAlias", TARGET_ALIAS);
+        json.addProperty("description", "");
+        json.addProperty("eventSpecifier", EVENT_SPECIFIER);
+        MatcherAssert.assertThat(
+                Rule.Builder.from(json).build().getSampledReplicas(), Matchers.equalTo(0));
+
+        json.addProperty("sampledReplicas", 3);
+        MatcherAssert.assertThat(
+                Rule.Builder.from(json).build().getSampledReplicas(), Matchers.equalTo(3));
+    }
+
+    @Test
+    void shouldThrowOnNegativeSampledReplicas() {
+        Assertions.assertThrows(
+                IllegalArgumentException.class,
+                () ->
+                        builder.name(NAME)
+                                .targetAlias(TARGET_ALIAS)
+                                .eventSpecifier(EVENT_SPECIFIER)
+                                .sampledReplicas(-1)
+                                .build());
+    }
 }
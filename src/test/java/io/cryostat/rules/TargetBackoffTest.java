@@ -0,0 +1,123 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import io.cryostat.core.sys.Clock;
+import io.cryostat.platform.ServiceRef;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class TargetBackoffTest {
+
+    TargetBackoff backoff;
+    @Mock Clock clock;
+    long now;
+    ServiceRef serviceRef;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.now = 0;
+        Mockito.lenient().when(clock.getMonotonicTime()).thenAnswer(invocation -> now);
+        this.backoff = new TargetBackoff(clock, 1_000, 5_000);
+        this.serviceRef =
+                new ServiceRef(
+                        new URI("service:jmx:rmi:///jndi/rmi://fooHost:9091/jmxrmi"),
+                        "com.example.App");
+    }
+
+    void advanceMillis(long millis) {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Test
+    void shouldBeReadyWithoutFailures() {
+        MatcherAssert.assertThat(backoff.isReady(serviceRef), Matchers.is(true));
+        MatcherAssert.assertThat(backoff.getFailures(serviceRef), Matchers.equalTo(0));
+    }
+
+    @Test
+    void shouldDoubleDelayWithEachFailure() {
+        backoff.failed(serviceRef);
+        MatcherAssert.assertThat(backoff.isReady(serviceRef), Matchers.is(false));
+        advanceMillis(1_000);
+        MatcherAssert.assertThat(backoff.isReady(serviceRef), Matchers.is(true));
+
+        backoff.failed(serviceRef);
+        advanceMillis(1_999);
+        MatcherAssert.assertThat(backoff.isReady(serviceRef), Matchers.is(false));
+        advanceMillis(1);
+        MatcherAssert.assertThat(backoff.isReady(serviceRef), Matchers.is(true));
+        MatcherAssert.assertThat(backoff.getFailures(serviceRef), Matchers.equalTo(2));
+    }
+
+    @Test
+    void shouldCapDelay() {
+        for (int i = 0; i < 64; i++) {
+            backoff.failed(serviceRef);
+        }
+        advanceMillis(4_999);
+        MatcherAssert.assertThat(backoff.isReady(serviceRef), Matchers.is(false));
+        advanceMillis(1);
+        MatcherAssert.assertThat(backoff.isReady(serviceRef), Matchers.is(true));
+    }
+
+    @Test
+    void shouldForgetFailuresOnReset() {
+        backoff.failed(serviceRef);
+        backoff.failed(serviceRef);
+
+        backoff.reset(serviceRef);
+
+        MatcherAssert.assertThat(backoff.isReady(serviceRef), Matchers.is(true));
+        MatcherAssert.assertThat(backoff.getFailures(serviceRef), Matchers.equalTo(0));
+        backoff.failed(serviceRef);
+        advanceMillis(1_000);
+        MatcherAssert.assertThat(backoff.isReady(serviceRef), Matchers.is(true));
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.rules;
+
+import java.net.URI;
+import java.util.List;
+import java.util.Set;
+
+import io.cryostat.core.net.discovery.JvmDiscoveryClient.EventKind;
+import io.cryostat.platform.PlatformClient;
+import io.cryostat.platform.ServiceRef;
+import io.cryostat.platform.TargetDiscoveryEvent;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.Mockito;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class TargetInventoryTest {
+
+    TargetInventory inventory;
+    @Mock PlatformClient platformClient;
+
+    ServiceRef fooRef;
+    ServiceRef otherFooRef;
+    ServiceRef barRef;
+
+    @BeforeEach
+    void setup() throws Exception {
+        this.inventory = new TargetInventory(platformClient);
+        this.fooRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://foo:9091/jmxrmi"), "foo");
+        this.otherFooRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://foo2:9091/jmxrmi"), "foo");
+        this.barRef =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://bar:9091/jmxrmi"), "bar");
+    }
+
+    @Test
+    void shouldListPlatformOnlyOnce() {
+        Mockito.when(platformClient.listDiscoverableServices())
+                .thenReturn(List.of(fooRef, otherFooRef, barRef));
+
+        MatcherAssert.assertThat(
+                inventory.getTargets("foo"), Matchers.equalTo(Set.of(fooRef, otherFooRef)));
+        MatcherAssert.assertThat(inventory.getTargets("bar"), Matchers.equalTo(Set.of(barRef)));
+        MatcherAssert.assertThat(
+                inventory.getTargets("baz"), Matchers.emptyCollectionOf(ServiceRef.class));
+
+        Mockito.verify(platformClient, Mockito.times(1)).listDiscoverableServices();
+    }
+
+    @Test
+    void shouldFollowDiscoveryEvents() {
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of(fooRef));
+        inventory.getTargets("foo");
+
+        inventory.update(new TargetDiscoveryEvent(EventKind.FOUND, otherFooRef));
+        inventory.update(new TargetDiscoveryEvent(EventKind.FOUND, barRef));
+        inventory.update(new TargetDiscoveryEvent(EventKind.LOST, fooRef));
+
+        MatcherAssert.assertThat(
+                inventory.getTargets("foo"), Matchers.equalTo(Set.of(otherFooRef)));
+        MatcherAssert.assertThat(inventory.getTargets("bar"), Matchers.equalTo(Set.of(barRef)));
+        Mockito.verify(platformClient, Mockito.times(1)).listDiscoverableServices();
+    }
+
+    @Test
+    void shouldMergeEventsReceivedBeforeFirstListing() {
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of(fooRef));
+
+        inventory.update(new TargetDiscoveryEvent(EventKind.FOUND, otherFooRef));
+
+        MatcherAssert.assertThat(
+                inventory.getTargets("foo"), Matchers.equalTo(Set.of(fooRef, otherFooRef)));
+    }
+
+    @Test
+    void shouldListAgainAfterClear() {
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of(fooRef));
+        inventory.getTargets("foo");
+
+        inventory.clear();
+        inventory.getTargets("foo");
+
+        Mockito.verify(platformClient, Mockito.times(2)).listDiscoverableServices();
+    }
+
+    @Test
+    void shouldIgnoreTargetsWithoutAlias() throws Exception {
+        ServiceRef noAlias =
+                new ServiceRef(new URI("service:jmx:rmi:///jndi/rmi://baz:9091/jmxrmi"), null);
+        Mockito.when(platformClient.listDiscoverableServices()).thenReturn(List.of(noAlias));
+
+        inventory.update(new TargetDiscoveryEvent(EventKind.LOST, noAlias));
+
+        MatcherAssert.assertThat(
+                inventory.getTargets("baz"), Matchers.emptyCollectionOf(ServiceRef.class));
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright The Cryostat Authors
+ *
+ * The Universal Permissive License (UPL), Version 1.0
+ *
+ * Subject to the condition set forth below, permission is hereby granted to any
+ * person obtaining a copy of this software, associated documentation and/or data
+ * (collectively the "Software"), free of charge and under any and all copyright
+ * rights in the Software, and any and all patent rights owned or freely
+ * licensable by each licensor hereunder covering either (i) the unmodified
+ * Software as contributed to or provided by such licensor, or (ii) the Larger
+ * Works (as defined below), to deal in both
+ *
+ * (a) the Software, and
+ * (b) any piece of software and/or hardware listed in the lrgrwrks.txt file if
+ * one is included with the Software (each a "Larger Work" to which the Software
+ * is contributed by such licensors),
+ *
+ * without restriction, including without limitation the rights to copy, create
+ * derivative works of, display, perform, and distribute the Software and make,
+ * use, sell, offer for sale, import, export, have made, and have sold the
+ * Software and the Larger Work(s), and to sublicense the foregoing rights on
+ * either these or other terms.
+ *
+ * This license is subject to the following condition:
+ * The above copyright notice and either this complete permission notice or at
+ * a minimum a reference to the UPL must be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE
+ * SOFTWARE.
+ */
+package io.cryostat.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import org.hamcrest.MatcherAssert;
+import org.hamcrest.Matchers;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class TarOutputStreamTest {
+
+    @Test
+    void shouldWriteUstarEntry() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarOutputStream tar = new TarOutputStream(out)) {
+            tar.putNextEntry("foo.jfr", 5, 1_600_000_000L);
+            tar.write("hello".getBytes(StandardCharsets.UTF_8));
+        }
+        byte[] bytes = out.toByteArray();
+
+        MatcherAssert.assertThat(bytes.length, Matchers.equalTo(512 + 512 + 1024));
+        MatcherAssert.assertThat(field(bytes, 0, 7), Matchers.equalTo("foo.jfr"));
+        MatcherAssert.assertThat(field(bytes, 124, 11), Matchers.equalTo("00000000005"));
+        MatcherAssert.assertThat(
+                Long.parseLong(field(bytes, 136, 11), 8), Matchers.equalTo(1_600_000_000L));
+        MatcherAssert.assertThat((char) bytes[156], Matchers.equalTo('0'));
+        MatcherAssert.assertThat(field(bytes, 257, 5), Matchers.equalTo("ustar"));
+        MatcherAssert.assertThat(field(bytes, 512, 5), Matchers.equalTo("hello"));
+
+        long checksum = 0;
+        for (int i = 0; i < 512; i++) {
+            checksum += (i >= 148 && i < 156) ? ' ' : Byte.toUnsignedInt(bytes[i]);
+        }
+        MatcherAssert.assertThat(
+                Long.parseLong(field(bytes, 148, 6), 8), Matchers.equalTo(checksum));
+    }
+
+    @Test
+    void shouldUsePaxHeaderForLongNames() throws IOException {
+        String name = "a".repeat(150) + ".jfr";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (TarOutputStream tar = new TarOutputStream(out)) {
+            tar.putNextEntry(name, 0, 0);
+        }
+        byte[] bytes = out.toByteArray();
+
+        MatcherAssert.assertThat((char) bytes[156], Matchers.equalTo('x'));
+        String record = TarOutputStream.paxRecord("path", name);
+        MatcherAssert.assertThat(field(bytes, 512, record.length()), Matchers.equalTo(record));
+        MatcherAssert.assertThat((char) bytes[1024 + 156], Matchers.equalTo('0'));
+    }
+
+    @Test
+    void shouldComputeSelfDescribingPaxRecordLength() {
+        String record = TarOutputStream.paxRecord("path", "x".repeat(90));
+        MatcherAssert.assertThat(
+                record.length(), Matchers.equalTo(Integer.parseInt(record.split(" ")[0])));
+    }
+
+    @Test
+    void shouldRejectWritesPastEntrySize() throws IOException {
+        TarOutputStream tar = new TarOutputStream(new ByteArrayOutputStream());
+        tar.putNextEntry("foo.jfr", 2, 0);
+        Assertions.assertThrows(IOException.class, () -> tar.write(new byte[3]));
+    }
+
+    @Test
+    void shouldRejectTruncatedEntries() throws IOException {
+        TarOutputStream tar = new TarOutputStream(new ByteArrayOutputStream());
+        tar.putNextEntry("foo.jfr", 2, 0);
+        tar.write(1);
+        Assertions.assertThrows(IOException.class, tar::closeEntry);
+    }
+
+    private static String field(byte[] bytes, int offset, int length) {
+        return new String(bytes, offset, length, StandardCharsets.UTF_8);
+    }
+}